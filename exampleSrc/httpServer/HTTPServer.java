@@ -3,12 +3,10 @@ package httpServer;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
 
 import org.actorsguildframework.Actor;
 import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.CompletionQueue;
 import org.actorsguildframework.annotations.ConcurrencyModel;
 import org.actorsguildframework.annotations.Message;
 import org.actorsguildframework.annotations.Model;
@@ -55,19 +53,12 @@ public abstract class HTTPServer extends Actor {
 	}
 	
 	/**
-	 * Removes all ready results from the given list.
-	 * @param results the result list to clean up
+	 * Logs the exception of a finished connection, if there was any.
+	 * @param ar the result of the connection
 	 */
-	private static void removeFinishedConnections(List<AsyncResult<Void>> results) {
-		Iterator<AsyncResult<Void>> it = results.iterator();
-		while (it.hasNext()) {
-			AsyncResult<Void> ar = it.next();
-			if (ar.isReady()) {
-				it.remove();
-				if (ar.getException() != null)
-					System.err.println("Got exception in listener: "+ar.getException());
-			}
-		}
+	private static void logFinishedConnection(AsyncResult<Void> ar) {
+		if (ar.getException() != null)
+			System.err.println("Got exception in listener: "+ar.getException());
 	}
 
 	/**
@@ -79,18 +70,18 @@ public abstract class HTTPServer extends Actor {
 	@Message
 	@Usage(ThreadUsage.Waiting)
 	public AsyncResult<Void> listen(int port) throws Exception {
-		List<AsyncResult<Void>> activeConnections = new ArrayList<AsyncResult<Void>>();
+		CompletionQueue<Void> activeConnections = new CompletionQueue<Void>();
 		ServerSocket socket = new ServerSocket(port, BACKLOG);
 		while (true) {
 			Socket s = socket.accept(); // << blocking!
 			activeConnections.add(processConnection(s));
 			
 			// manage connections
-			removeFinishedConnections(activeConnections);
-			if (activeConnections.size() >= MAX_CONNECTIONS) {
-				getAgent().awaitAny(activeConnections.toArray(new AsyncResult[MAX_CONNECTIONS]));
-				removeFinishedConnections(activeConnections);
-			}
+			AsyncResult<Void> finished;
+			while ((finished = activeConnections.poll()) != null)
+				logFinishedConnection(finished);
+			if (activeConnections.size() >= MAX_CONNECTIONS)
+				logFinishedConnection(activeConnections.take());
 		}
 	}
 	
@@ -0,0 +1,56 @@
+package nioHttpServer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of direct ByteBuffers of the same size. Allocating direct buffers is expensive, 
+ * so they are reused instead of being left to the garbage collector.
+ * 
+ * BufferPool is not thread-safe. Each {@link SelectorActor} has its own pool.
+ */
+class BufferPool {
+	private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+	private final int bufferSize;
+	private final int maxPooled;
+	
+	/**
+	 * Creates a new pool.
+	 * @param bufferSize the size of the buffers
+	 * @param maxPooled the maximum number of unused buffers to keep
+	 */
+	BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+	
+	/**
+	 * Returns the size of the buffers.
+	 * @return the buffer size in bytes
+	 */
+	int getBufferSize() {
+		return bufferSize;
+	}
+	
+	/**
+	 * Takes an empty buffer from the pool, or allocates a new one.
+	 * @return the buffer, cleared
+	 */
+	ByteBuffer take() {
+		ByteBuffer b = free.poll();
+		if (b == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+		b.clear();
+		return b;
+	}
+	
+	/**
+	 * Returns a buffer to the pool. Buffers that have not been taken from a pool of
+	 * this size are ignored.
+	 * @param buffer the buffer to return
+	 */
+	void release(ByteBuffer buffer) {
+		if (buffer.isDirect() && (buffer.capacity() == bufferSize) && (free.size() < maxPooled))
+			free.add(buffer);
+	}
+}
@@ -0,0 +1,140 @@
+package nioHttpServer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.Props;
+
+import httpServer.HTTPServer;
+
+/**
+ * Simple load generator that compares the blocking httpServer example with the
+ * NIO server. It starts both servers in the same VM, lets a number of client 
+ * threads request a page as fast as they can for some time, and prints the 
+ * requests per second and the latency percentiles.
+ * 
+ * Please note that the blocking server handles at most 20 connections at the same
+ * time, and that clients and servers share the same machine. The numbers are only
+ * useful for comparing the two servers.
+ */
+public class LoadGenerator {
+	final static int BLOCKING_PORT = 8000;
+	final static int CLIENTS = 50;
+	final static long DURATION_MS = 10000;
+	final static byte[] REQUEST = "GET /p1 HTTP/1.0\r\n\r\n".getBytes();
+	
+	/**
+	 * A client thread that records the latency of all its requests.
+	 */
+	static class Client extends Thread {
+		private final int port;
+		private final long endTime;
+		long[] latencies = new long[1024];
+		int count;
+		int errors;
+		
+		Client(int port, long endTime) {
+			this.port = port;
+			this.endTime = endTime;
+		}
+		
+		@Override
+		public void run() {
+			byte[] buffer = new byte[4096];
+			while (System.currentTimeMillis() < endTime) {
+				long start = System.nanoTime();
+				try {
+					Socket s = new Socket("localhost", port);
+					try {
+						OutputStream os = s.getOutputStream();
+						os.write(REQUEST);
+						os.flush();
+						InputStream is = s.getInputStream();
+						while (is.read(buffer) >= 0)
+							;
+					}
+					finally {
+						s.close();
+					}
+				}
+				catch (Exception e) {
+					errors++;
+					continue;
+				}
+				if (count == latencies.length)
+					latencies = Arrays.copyOf(latencies, count * 2);
+				latencies[count++] = System.nanoTime() - start;
+			}
+		}
+	}
+	
+	/**
+	 * Runs the benchmark against the server at the given port and prints the results.
+	 * @param name the name of the server to print
+	 * @param port the port of the server
+	 * @throws InterruptedException if interrupted
+	 */
+	static void benchmark(String name, int port) throws InterruptedException {
+		long endTime = System.currentTimeMillis() + DURATION_MS;
+		Client[] clients = new Client[CLIENTS];
+		for (int i = 0; i < clients.length; i++) {
+			clients[i] = new Client(port, endTime);
+			clients[i].start();
+		}
+		
+		int total = 0, errors = 0;
+		for (Client c: clients) {
+			c.join();
+			total += c.count;
+			errors += c.errors;
+		}
+		long[] all = new long[total];
+		int pos = 0;
+		for (Client c: clients) {
+			System.arraycopy(c.latencies, 0, all, pos, c.count);
+			pos += c.count;
+		}
+		Arrays.sort(all);
+		
+		System.out.println(String.format("%s: %d requests/s, %d errors, latency p50=%.2fms p99=%.2fms max=%.2fms", 
+				name, total * 1000 / DURATION_MS, errors, 
+				percentile(all, 0.5) / 1e6, percentile(all, 0.99) / 1e6, percentile(all, 1.0) / 1e6));
+	}
+	
+	/**
+	 * Returns the given percentile of the sorted values.
+	 * @param sorted the sorted values
+	 * @param p the percentile, between 0 and 1
+	 * @return the value, or 0 if there are no values
+	 */
+	static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0)
+			return 0;
+		int idx = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, idx)];
+	}
+	
+	/**
+	 * Main method for the benchmark.
+	 * @param args not used
+	 * @throws Exception 
+	 */
+	public static void main(String args[]) throws Exception {
+		DefaultAgent a = new DefaultAgent();
+		
+		HTTPServer hs = a.create(HTTPServer.class, new Props("htmlPages", Main.createPages()));
+		hs.listen(BLOCKING_PORT);
+		NIOHTTPServer nio = new NIOHTTPServer(a, Main.PORT, Main.createPages(), null);
+		
+		benchmark("warm-up blocking", BLOCKING_PORT);
+		benchmark("warm-up NIO", Main.PORT);
+		benchmark("blocking", BLOCKING_PORT);
+		benchmark("NIO", Main.PORT);
+		
+		nio.stop();
+		System.exit(0); // the blocking server never returns from accept()
+	}
+}
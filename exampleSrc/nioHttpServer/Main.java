@@ -0,0 +1,44 @@
+package nioHttpServer;
+
+import java.util.HashMap;
+
+import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.immutable.ImmutableMap;
+
+
+/**
+ * Main class for the NIO HTTP server example. Starts a NIOHTTPServer with the same 
+ * pages as the httpServer example. If a directory is given as argument, the files
+ * in the directory are served as well.
+ * 
+ * To test the example, open your HTML browser at http://localhost:8001/
+ *
+ */
+public class Main {
+	final static int PORT = 8001;
+	
+	/**
+	 * Creates the pages of the example.
+	 * @return the page map
+	 */
+	static ImmutableMap<String, String> createPages() {
+		HashMap<String, String> myPages = new HashMap<String, String>();
+		String htmlTemplate = "<html><head><title>ActorsGuild HTTP Server</title></head><body>%s</body></html>";
+		myPages.put("/", String.format(htmlTemplate, "<h1>Index page</h1><ul><li><a href='/p1'>Page 1</a></li><li><a href='/p2'>Page 2</a></li><li><a href='/p3'>Page 3</a></li></ul>"));
+		myPages.put("/p1", String.format(htmlTemplate, "<h1>Page 1</h1><a href='/'>back to index</a>"));
+		myPages.put("/p2", String.format(htmlTemplate, "<h1>Page 2</h1><a href='/'>back to index</a>"));
+		myPages.put("/p3", String.format(htmlTemplate, "<h1>Page 3</h1><a href='/'>back to index</a>"));
+		return new ImmutableMap<String, String>(myPages);
+	}
+	
+	/**
+	 * Main method for the example
+	 * @param args optional: the directory with static files to serve
+	 * @throws Exception 
+	 */
+	public static void main(String args[]) throws Exception {
+		DefaultAgent a = new DefaultAgent();
+		new NIOHTTPServer(a, PORT, createPages(), args.length > 0 ? args[0] : null);
+		System.out.println("Listening on port "+PORT);
+	}
+}
@@ -0,0 +1,60 @@
+package nioHttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+
+import org.actorsguildframework.Agent;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.Props;
+import org.actorsguildframework.immutable.ImmutableMap;
+
+/**
+ * Starts and stops a group of {@link SelectorActor}s that share a server channel.
+ */
+public class NIOHTTPServer {
+	final static int BACKLOG = 1024;
+	
+	private final ServerSocketChannel serverChannel;
+	private final SelectorActor[] selectors;
+	
+	/**
+	 * Opens the server channel and starts one SelectorActor for each core.
+	 * @param agent the agent to create the actors in
+	 * @param port the TCP port to listen on
+	 * @param htmlPages the pages to serve, as PATH => HTMLCONTENT
+	 * @param staticDirectory the directory for static files, or null for none
+	 * @throws IOException if the server channel could not be opened
+	 */
+	public NIOHTTPServer(Agent agent, int port, ImmutableMap<String, String> htmlPages, 
+			String staticDirectory) throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port), BACKLOG);
+		serverChannel.configureBlocking(false);
+		
+		selectors = new SelectorActor[Runtime.getRuntime().availableProcessors()];
+		Props props = new Props("serverChannel", serverChannel)
+			.add("htmlPages", htmlPages)
+			.add("staticDirectory", staticDirectory);
+		for (int i = 0; i < selectors.length; i++) 
+			selectors[i] = agent.create(SelectorActor.class, props);
+		AsyncResult<?>[] started = new AsyncResult<?>[selectors.length];
+		for (int i = 0; i < selectors.length; i++) 
+			started[i] = selectors[i].start();
+		agent.awaitAllUntilError(started);
+	}
+	
+	/**
+	 * Stops all SelectorActors and closes the server channel.
+	 * @return the number of requests served
+	 * @throws IOException if the server channel could not be closed
+	 */
+	public long stop() throws IOException {
+		long requests = 0;
+		for (SelectorActor s: selectors)
+			requests += s.stop().get();
+		serverChannel.close();
+		return requests;
+	}
+}
@@ -0,0 +1,72 @@
+package nioHttpServer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental parser for HTTP request headers. The header can be fed in any number 
+ * of pieces, as they arrive from a non-blocking socket. Like httpServer.HTTPHelper, it
+ * only extracts the path and ignores everything else.
+ * 
+ * RequestParser is not thread-safe.
+ */
+class RequestParser {
+	/**
+	 * The maximum size of the header. Larger headers are rejected.
+	 */
+	final static int MAX_HEADER_SIZE = 8192;
+	
+	private final StringBuilder requestLine = new StringBuilder();
+	private boolean inRequestLine = true;
+	private int headerSize;
+	private int lineLength;
+	private boolean complete;
+	private boolean malformed;
+	
+	/**
+	 * Reads the given bytes. Bytes after the end of the header are ignored.
+	 * @param input the input to read. Will be read until the header is complete or 
+	 *   there is nothing left
+	 * @return true if the header is complete, false if more input is needed
+	 */
+	boolean feed(ByteBuffer input) {
+		while (input.hasRemaining() && !complete) {
+			char c = (char) (input.get() & 0xff);
+			if (++headerSize > MAX_HEADER_SIZE) {
+				malformed = true;
+				complete = true;
+			}
+			else if (c == '\n') {
+				if (inRequestLine)
+					inRequestLine = false;
+				else if (lineLength == 0)
+					complete = true;
+				lineLength = 0;
+			}
+			else if (c != '\r') {
+				if (inRequestLine)
+					requestLine.append(c);
+				lineLength++;
+			}
+		}
+		return complete;
+	}
+	
+	/**
+	 * Checks whether the header is complete.
+	 * @return true if complete
+	 */
+	boolean isComplete() {
+		return complete;
+	}
+	
+	/**
+	 * Returns the requested path. The header must be complete.
+	 * @return the path, or null if the header could not be parsed
+	 */
+	String getPath() {
+		if (malformed || (requestLine.length() == 0))
+			return null;
+		// path first line ("COMMAND <path> HTTP/1.x") quick&dirty 
+		return requestLine.toString().replaceFirst("^\\w+\\s+", "").replaceFirst("\\s+\\S+$", "");
+	}
+}
@@ -0,0 +1,301 @@
+package nioHttpServer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Model;
+import org.actorsguildframework.annotations.Prop;
+import org.actorsguildframework.annotations.Shared;
+import org.actorsguildframework.immutable.ImmutableMap;
+
+/**
+ * Actor that handles HTTP connections with a NIO Selector. Each SelectorActor accepts
+ * connections from the shared server channel and handles them until they are closed, 
+ * without ever blocking on a socket. Thus a single thread can serve any number of 
+ * connections. {@link NIOHTTPServer} creates one SelectorActor per core.
+ * 
+ * The actor is {@link ConcurrencyModel#Pinned}, as the selector loop runs permanently
+ * and would otherwise occupy one of the agent's worker threads. The loop is not a 
+ * real loop, but the {@link #poll()} message that sends itself again after every 
+ * pass. Thus other messages, like {@link #stop()}, are processed between two passes.
+ * 
+ * Pages from {@link #getHtmlPages()} are written from pooled direct buffers. Files in 
+ * {@link #getStaticDirectory()} are sent with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, 
+ * which lets the operating system copy them without passing through the Java heap.
+ */
+@Model(ConcurrencyModel.Pinned)
+public abstract class SelectorActor extends Actor {
+	final static int BUFFER_SIZE = 8192;
+	final static int MAX_POOLED_BUFFERS = 256;
+	final static int SELECT_TIMEOUT_MS = 100;
+	final static Charset ASCII = Charset.forName("US-ASCII");
+	
+	/**
+	 * The state of a connection, attached to its SelectionKey.
+	 */
+	static class Connection {
+		final RequestParser parser = new RequestParser();
+		ByteBuffer response;
+		FileChannel file;
+		long filePosition;
+		long fileSize;
+	}
+
+	private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+	private Selector selector;
+	private boolean running;
+	private long requestCount;
+	
+	/**
+	 * Returns the server channel to accept connections from. It is shared by all 
+	 * SelectorActors. Must be non-blocking.
+	 * @return the server channel
+	 */
+	@Prop
+	@Shared
+	public abstract ServerSocketChannel getServerChannel();
+
+	/**
+	 * Returns a map PATH => HTMLCONTENT. Path is the path of the page, HTMLCONTENT
+	 *   is the page body as string. It will be served as text/html.
+	 * @return the HTML page map.
+	 */
+	@Prop
+	public abstract ImmutableMap<String, String> getHtmlPages(); 
+
+	/**
+	 * Returns the directory for static files, or null to serve only the HTML pages.
+	 * @return the directory
+	 */
+	@Prop
+	public abstract String getStaticDirectory(); 
+	
+	/**
+	 * Opens the selector and starts the selector loop.
+	 * @return nothing
+	 * @throws IOException if the selector could not be opened
+	 */
+	@Message
+	public AsyncResult<Void> start() throws IOException {
+		selector = Selector.open();
+		getServerChannel().register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		poll();
+		return noResult();
+	}
+	
+	/**
+	 * Stops the selector loop and closes all connections handled by this actor.
+	 * @return the number of requests served
+	 * @throws IOException if the selector could not be closed
+	 */
+	@Message
+	public AsyncResult<Long> stop() throws IOException {
+		if (running) {
+			running = false;
+			for (SelectionKey key: selector.keys())
+				if (key.attachment() != null)
+					close(key);
+			selector.close();
+		}
+		return result(requestCount);
+	}
+	
+	/**
+	 * Waits for events on the selector and handles them. Sends itself again to 
+	 * continue the loop, until the actor is stopped.
+	 * @return nothing
+	 * @throws IOException if the selector failed
+	 */
+	@Message
+	public AsyncResult<Void> poll() throws IOException {
+		if (!running)
+			return noResult();
+		
+		selector.select(SELECT_TIMEOUT_MS);
+		Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+		while (it.hasNext()) {
+			SelectionKey key = it.next();
+			it.remove();
+			if (!key.isValid())
+				continue;
+			if (key.isAcceptable())
+				accept();
+			else {
+				try {
+					if (key.isReadable())
+						read(key);
+					else if (key.isWritable())
+						write(key);
+				}
+				catch (IOException e) {
+					close(key);
+				}
+			}
+		}
+		poll();
+		return noResult();
+	}
+
+	/**
+	 * Accepts a new connection, if another SelectorActor did not take it first.
+	 */
+	private void accept() {
+		try {
+			SocketChannel channel = getServerChannel().accept();
+			if (channel == null)
+				return;
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.register(selector, SelectionKey.OP_READ, new Connection());
+		}
+		catch (IOException e) {
+			System.err.println("Got exception while accepting connection: "+e);
+		}
+	}
+	
+	/**
+	 * Reads the available part of the request. Prepares the response and starts
+	 * writing it as soon as the header is complete.
+	 * @param key the key of the connection
+	 * @throws IOException on I/O errors
+	 */
+	private void read(SelectionKey key) throws IOException {
+		Connection c = (Connection) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+		ByteBuffer buffer = bufferPool.take();
+		try {
+			int n = channel.read(buffer);
+			if (n < 0) {
+				close(key);
+				return;
+			}
+			buffer.flip();
+			if (!c.parser.feed(buffer))
+				return;
+		}
+		finally {
+			bufferPool.release(buffer);
+		}
+		
+		prepareResponse(c, c.parser.getPath());
+		key.interestOps(SelectionKey.OP_WRITE);
+		write(key); // usually the socket can take the whole response right now
+	}
+	
+	/**
+	 * Prepares the response for the given path.
+	 * @param c the connection
+	 * @param path the requested path, or null if the header could not be parsed
+	 * @throws IOException if the file could not be opened
+	 */
+	private void prepareResponse(Connection c, String path) throws IOException {
+		if (path == null) {
+			c.response = encode("HTTP/1.0 400 no-phrase\r\nContent-Type: text/plain\r\n\r\nCan not parse request\n");
+			return;
+		}
+		
+		String page = getHtmlPages().get(path);
+		if (page != null) {
+			c.response = encode(String.format("HTTP/1.0 200 OK\r\nContent-Type: text/html\r\n\r\n%s\n", page));
+			return;
+		}
+		
+		File file = findStaticFile(path);
+		if (file != null) {
+			c.file = new FileInputStream(file).getChannel();
+			c.fileSize = c.file.size();
+			c.response = encode(String.format("HTTP/1.0 200 OK\r\nContent-Type: application/octet-stream\r\nContent-Length: %d\r\n\r\n", c.fileSize));
+			return;
+		}
+		
+		c.response = encode(String.format("HTTP/1.0 404 no-phrase\r\nContent-Type: text/plain\r\n\r\nCan not find path %s\n", path));
+	}
+	
+	/**
+	 * Finds the file in the static directory for the given path.
+	 * @param path the requested path
+	 * @return the file, or null if there is no static directory or no such file
+	 */
+	private File findStaticFile(String path) {
+		if ((getStaticDirectory() == null) || path.contains(".."))
+			return null;
+		File f = new File(getStaticDirectory(), path);
+		return f.isFile() ? f : null;
+	}
+	
+	/**
+	 * Encodes the given text into a pooled buffer, ready for writing. Texts that do 
+	 * not fit into a pooled buffer get a buffer of their own.
+	 * @param text the text to encode
+	 * @return the buffer, flipped
+	 */
+	private ByteBuffer encode(String text) {
+		byte[] bytes = text.getBytes(ASCII);
+		ByteBuffer b = (bytes.length <= bufferPool.getBufferSize()) ? bufferPool.take() : ByteBuffer.allocate(bytes.length);
+		b.put(bytes);
+		b.flip();
+		return b;
+	}
+	
+	/**
+	 * Writes as much of the response as the socket takes without blocking. Closes
+	 * the connection when the response is complete.
+	 * @param key the key of the connection
+	 * @throws IOException on I/O errors
+	 */
+	private void write(SelectionKey key) throws IOException {
+		Connection c = (Connection) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+		if (c.response.hasRemaining()) {
+			channel.write(c.response);
+			if (c.response.hasRemaining())
+				return;
+		}
+		if (c.file != null) {
+			while (c.filePosition < c.fileSize) {
+				long n = c.file.transferTo(c.filePosition, c.fileSize - c.filePosition, channel);
+				if (n <= 0)
+					return; // socket buffer full, continue when writable
+				c.filePosition += n;
+			}
+		}
+		requestCount++;
+		close(key);
+	}
+	
+	/**
+	 * Closes the connection and releases its resources.
+	 * @param key the key of the connection
+	 */
+	private void close(SelectionKey key) {
+		Connection c = (Connection) key.attachment();
+		key.attach(null);
+		key.cancel();
+		try {
+			key.channel().close();
+			if (c != null && c.file != null)
+				c.file.close();
+		}
+		catch (IOException e) {
+			// ignore, nothing left to do
+		}
+		if (c != null && c.response != null) {
+			bufferPool.release(c.response);
+			c.response = null;
+		}
+	}
+}
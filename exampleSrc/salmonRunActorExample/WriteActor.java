@@ -2,12 +2,20 @@ package salmonRunActorExample;
 
 import org.actorsguildframework.*;
 import org.actorsguildframework.annotations.*;
+import org.actorsguildframework.immutable.ImmutableList;
 
 
 public class WriteActor extends Actor {
 	@Message
+	@Batch("writeBatch")
 	public AsyncResult<Void> write(int id, String payload) {
 	    //System.out.println(payload.replaceFirst("Indexed ", "Wrote "));
 	    return noResult();
 	}
+
+	private AsyncResult<Void> writeBatch(ImmutableList<Integer> ids, ImmutableList<String> payloads) {
+	    //for (String payload: payloads)
+	    //    System.out.println(payload.replaceFirst("Indexed ", "Wrote "));
+	    return noResult();
+	}
 }
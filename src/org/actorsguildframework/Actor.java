@@ -62,6 +62,10 @@ import org.actorsguildframework.internal.ThreadState;
  */
 @Bean(threadSafe=true)
 public abstract class Actor {
+	/**
+	 * The result returned by {@link #noResult()}. As ImmediateResult is immutable, it can be shared.
+	 */
+	private final static ImmediateResult<Void> NO_RESULT = new ImmediateResult<Void>(null);
 	
 	/**
 	 * The default constructor for all Actors. It will check whether the new Actor sub-class
@@ -96,12 +100,12 @@ public abstract class Actor {
 	}
 	
 	/**
-	 * Helper method to create a new ImmediateResult instance for methods that have
-	 * no result.
+	 * Helper method to get an ImmediateResult instance for methods that have
+	 * no result. Always returns the same instance.
 	 * @return the ImmediateResult instance (carries null as value)
 	 */
 	public ImmediateResult<Void> noResult() {
-		return new ImmediateResult<Void>(null);
+		return NO_RESULT;
 	}
 
 	/**
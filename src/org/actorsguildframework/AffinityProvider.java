@@ -0,0 +1,33 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+/**
+ * AffinityProvider binds threads to CPUs. It is used to pin the threads of worker groups
+ * to the CPUs configured in {@link DefaultAgent.Configuration#setWorkerGroups(int[][])}. 
+ * Java has no API for this, so implementations are platform-specific.
+ * Implementations must be thread-safe.
+ * @see LinuxAffinityProvider
+ * @see DefaultAgent.Configuration#setAffinityProvider(AffinityProvider)
+ */
+public interface AffinityProvider {
+	/**
+	 * Restricts the current thread to the given CPUs. 
+	 * @param cpus the numbers of the CPUs, as used by the operating system
+	 * @throws ActorRuntimeException if the affinity could not be set
+	 */
+	public void bindCurrentThread(int[] cpus);
+}
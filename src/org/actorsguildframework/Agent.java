@@ -15,6 +15,8 @@
  */
 package org.actorsguildframework;
 
+import java.util.concurrent.TimeUnit;
+
 import org.actorsguildframework.annotations.Bean;
 import org.actorsguildframework.annotations.DefaultValue;
 import org.actorsguildframework.annotations.Prop;
@@ -79,6 +81,18 @@ public interface Agent {
 	@SuppressWarnings("unchecked")
 	public void awaitAll(AsyncResult... asyncResults);
 
+	/**
+	 * Waits until all given AsyncResults are available or the timeout expired.
+	 * <code>awaitAll</code> can be invoked from all threads, including those that do not process a message. 
+	 * @param timeout the maximum time to wait for all results
+	 * @param unit the unit of the timeout
+	 * @param asyncResults the list of AsyncResult instances to wait for
+	 * @return true if all results are available, false if the timeout expired
+	 * @throws IllegalArgumentException if one of the arguments was null or the array was null
+	 * @see #awaitAll(AsyncResult...)
+	 */
+	public boolean awaitAll(long timeout, TimeUnit unit, AsyncResult<?>... asyncResults);
+
 	/**
 	 * Waits until all given AsyncResults are available, and throws the WrappedException of the first
 	 * AsyncResult that failed, if one failed.
@@ -95,17 +109,36 @@ public interface Agent {
 	/**
 	 * Waits until one of the given AsyncResults is available.
 	 * <code>awaitAny</code> can be invoked from all threads, including those that do not process a message. 
+	 * <p>
+	 * To process a large number of results in the order they become ready, use a 
+	 * {@link CompletionQueue} instead of calling awaitAny repeatedly.
 	 * @param asyncResults the list of AsyncResult instances to wait for
 	 * @return the AsyncResult that is ready, null for empty lists
 	 * @throws IllegalArgumentException if one of the arguments was null
+	 * @throws ActorException if the thread has been interrupted while waiting
 	 * @see #awaitAll(AsyncResult...) 
+	 * @see CompletionQueue
 	 */
 	@SuppressWarnings("unchecked")
 	public AsyncResult awaitAny(AsyncResult... asyncResults);
 
+	/**
+	 * Waits until one of the given AsyncResults is available or the timeout expired.
+	 * <code>awaitAny</code> can be invoked from all threads, including those that do not process a message. 
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @param asyncResults the list of AsyncResult instances to wait for
+	 * @return the AsyncResult that is ready, null for empty lists or if the timeout expired
+	 * @throws IllegalArgumentException if one of the arguments was null
+	 * @throws ActorException if the thread has been interrupted while waiting
+	 * @see #awaitAny(AsyncResult...) 
+	 */
+	public AsyncResult<?> awaitAny(long timeout, TimeUnit unit, AsyncResult<?>... asyncResults);
+
 	/**
 	 * Tries to shut down the agent with all its threads. Messages that have not been processed yet
-	 * will not be processed.
+	 * will not be processed, but fail with an {@link AgentShutdownException}. Threads that are waiting
+	 * for their results will be woken up.
 	 * <p>
 	 * This call is useful if you want to terminate your Java application. Without it, the Agent's
 	 * non-daemon threads may keep the application from terminating. A safer alternative to
@@ -114,6 +147,33 @@ public interface Agent {
 	 * <p>
 	 * A agent and its actors must not be used after calling this method. The behaviour would be
 	 * undefined. 
+	 * @see #shutdownGracefully(long, TimeUnit)
 	 */
 	public void shutdown();
+	
+	/**
+	 * Shuts down the agent after processing the messages that have already been sent.
+	 * <p>
+	 * First the agent stops accepting messages from threads that are not executing a
+	 * message: they get an {@link AgentShutdownException}. Messages sent by actors will
+	 * still be accepted, so running messages can finish their work. When there are no 
+	 * queued messages left, or when the timeout expires, the agent shuts down like
+	 * {@link #shutdown()}. 
+	 * @param timeout the maximum time to wait for the queued messages
+	 * @param unit the unit of the timeout
+	 * @return true if all messages have been processed, false if the timeout expired first
+	 *         or the current thread has been interrupted
+	 * @see #awaitTermination(long, TimeUnit)
+	 */
+	public boolean shutdownGracefully(long timeout, TimeUnit unit);
+	
+	/**
+	 * Waits until all threads of the agent have finished after a shutdown. 
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if the agent has been shut down and all threads have finished, false if
+	 *         the timeout expired first
+	 * @throws InterruptedException if the current thread has been interrupted
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+
+/**
+ * AgentShutdownException is thrown when a message is sent to an agent that is being 
+ * shut down, and it is the result of all messages that could not be processed before
+ * the agent terminated.
+ * @see Agent#shutdownGracefully(long, java.util.concurrent.TimeUnit)
+ */
+public class AgentShutdownException extends ActorRuntimeException {
+	private static final long serialVersionUID = 4715863302417722034L;
+
+	/**
+	 * Creates a new instance.
+	 * @param message the message of the instance
+	 */
+	public AgentShutdownException(String message) {
+		super(message);
+	}
+}
@@ -15,6 +15,9 @@
  */
 package org.actorsguildframework;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 /**
  * AsyncResult represents a result that may have not been determined yet. It is the 
  * return type for all Message methods. 
@@ -49,6 +52,20 @@ public interface AsyncResult<T> {
 	 */
 	public T get();
 	
+	/**
+	 * Waits until the result is ready or the timeout expired, and then returns it. If the 
+	 * implementation threw an exception, get() will re-throw the exception. 
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return the result
+	 * @throws ResultTimeoutException if the result was not ready before the timeout expired
+	 * @throws WrappedException if the message implementation threw a non-RuntimeException that
+	 *   needs to be declared
+	 * @throws RuntimeException if the message implementation threw an exception
+	 * @see #get()
+	 */
+	public T get(long timeout, TimeUnit unit);
+	
 	/**
 	 * Blocks until the AsyncResult is ready.
 	 * @see #addNotifier(org.actorsguildframework.AsyncResult.Notifier)
@@ -57,6 +74,26 @@ public interface AsyncResult<T> {
 	 * @see org.actorsguildframework.DefaultAgent#awaitAny(AsyncResult...)
 	 */
 	public void await();
+	
+	/**
+	 * Blocks until the AsyncResult is ready or the timeout expired.
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if the result is ready, false if the timeout expired
+	 * @see #await()
+	 * @see org.actorsguildframework.DefaultAgent#awaitAll(long, TimeUnit, AsyncResult...)
+	 */
+	public boolean await(long timeout, TimeUnit unit);
+	
+	/**
+	 * Cancels the message, if it has not been started yet. The message will be removed 
+	 * from the actor's queue and never be executed. Its result will be a 
+	 * {@link java.util.concurrent.CancellationException}, and all notifiers and 
+	 * waiting threads will be notified.
+	 * @return true if the message has been cancelled, false if it is already running or 
+	 *   done, or if the result can not be cancelled
+	 */
+	public boolean cancel();
 
 	/**
 	 * Checks whether a result (value or exception) is ready. 
@@ -101,4 +138,12 @@ public interface AsyncResult<T> {
 	 */
 	public void removeNotifier(Notifier<T> notifier);
 
+	/**
+	 * Returns a {@link Future} view of this AsyncResult, for code that works with the
+	 * java.util.concurrent interfaces. The Future does not copy the result and does not
+	 * need a thread of its own.
+	 * @return the Future
+	 * @see AsyncResultFuture
+	 */
+	public Future<T> toFuture();
 }
@@ -0,0 +1,138 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * AsyncResultFuture is a {@link Future} view of an {@link AsyncResult}. It does not
+ * copy the result and does not need a thread of its own. It follows the conventions 
+ * of Future: exceptions of the message are thrown as {@link ExecutionException}, 
+ * timeouts as {@link TimeoutException} and interrupts as {@link InterruptedException}.
+ * <p>
+ * Use {@link AsyncResult#toFuture()} to create it.
+ * @param <T> the type of the result
+ */
+public final class AsyncResultFuture<T> implements Future<T> {
+	private final AsyncResult<T> result;
+	
+	/**
+	 * Creates a new view of the given result.
+	 * @param result the result to use
+	 * @throws IllegalArgumentException if the argument was null
+	 */
+	public AsyncResultFuture(AsyncResult<T> result) {
+		if (result == null)
+			throw new IllegalArgumentException("result argument was null");
+		this.result = result;
+	}
+	
+	/**
+	 * Returns the AsyncResult of this Future.
+	 * @return the AsyncResult
+	 */
+	public AsyncResult<T> getAsyncResult() {
+		return result;
+	}
+
+	/**
+	 * Cancels the message, if it has not been started yet. Running messages can not be
+	 * interrupted. 
+	 * @param mayInterruptIfRunning ignored
+	 * @return true if the message has been cancelled
+	 * @see AsyncResult#cancel()
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return result.cancel();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#isCancelled()
+	 */
+	public boolean isCancelled() {
+		return result.getException() instanceof CancellationException;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#isDone()
+	 */
+	public boolean isDone() {
+		return result.isReady();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#get()
+	 */
+	public T get() throws InterruptedException, ExecutionException {
+		try {
+			result.await();
+		}
+		catch (ActorException e) {
+			throw convertInterrupt(e);
+		}
+		return getResult();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+	 */
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, 
+			TimeoutException {
+		try {
+			if (!result.await(timeout, unit))
+				throw new TimeoutException(String.format("The result was not ready within %d %s.", timeout, unit));
+		}
+		catch (ActorException e) {
+			throw convertInterrupt(e);
+		}
+		return getResult();
+	}
+	
+	/**
+	 * Returns the result, which must be ready.
+	 * @return the result
+	 * @throws ExecutionException if the message threw an exception
+	 * @throws CancellationException if the message has been cancelled
+	 */
+	private T getResult() throws ExecutionException {
+		Throwable t = result.getException();
+		if (t instanceof CancellationException)
+			throw (CancellationException) t;
+		else if (t != null)
+			throw new ExecutionException(t);
+		return result.get();
+	}
+	
+	/**
+	 * Converts the ActorException thrown by an interrupted wait into the InterruptedException.
+	 * @param e the exception thrown while waiting
+	 * @return the InterruptedException
+	 * @throws ActorException the argument, if it was not caused by an interrupt 
+	 */
+	private static InterruptedException convertInterrupt(ActorException e) {
+		if (e.getCause() instanceof InterruptedException)
+			return (InterruptedException) e.getCause();
+		throw e;
+	}
+}
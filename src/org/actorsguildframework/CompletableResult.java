@@ -0,0 +1,333 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.actorsguildframework.internal.NotifierActor;
+import org.actorsguildframework.internal.ThreadState;
+import org.actorsguildframework.internal.WorkerState;
+import org.actorsguildframework.internal.util.L;
+
+/**
+ * CompletableResult is an AsyncResult whose value is set explicitly by calling
+ * {@link #complete(Object)} or {@link #fail(Throwable)}. It connects actors with
+ * code that reports results through callbacks, like asynchronous I/O libraries or 
+ * other services. 
+ * <p>
+ * A message can return a CompletableResult and complete it later from any thread. 
+ * The message's result will then be set as soon as the CompletableResult is completed,
+ * just like for any other AsyncResult returned by a message. The actor is free to 
+ * process other messages in the meantime.
+ * <p>
+ * Only the first call of complete(), fail() or {@link #cancel()} sets the result, 
+ * later calls are ignored. 
+ * <p>
+ * A CompletableResult created with {@link #CompletableResult(Agent)} invokes its notifiers
+ * in the worker threads of the agent, so the completing thread, for example the thread 
+ * of an I/O library, returns immediately and does not run the code of the actors that 
+ * wait for the result. This includes setting the result of a message that returned the 
+ * CompletableResult. The notifiers are invoked in the completing thread instead if the 
+ * agent has been shut down, or if the agent is shutting down and the completing thread 
+ * is not one of its workers. A CompletableResult created with {@link #CompletableResult()} 
+ * always invokes its notifiers in the completing thread.
+ * In both cases, a notifier added after the result has been set is invoked by 
+ * {@link #addNotifier(Notifier)} directly.
+ * <p>
+ * Unlike the results of messages, the value is not copied. 
+ * CompletableResult is thread-safe.
+ * @param <T> the type of the result
+ */
+public final class CompletableResult<T> implements AsyncResult<T> {
+	private static L log = new L(CompletableResult.class);
+	
+	/**
+	 * True if the result is set.
+	 * Synchronize on this instance before accessing it.
+	 */
+	private boolean done;
+	
+	/**
+	 * The result value. Only valid if done is set.
+	 * Synchronize on this instance before accessing it.
+	 */
+	private T value;
+
+	/**
+	 * The exception, or null if there was none. Only valid if done is set.
+	 * Synchronize on this instance before accessing it.
+	 */
+	private Throwable exception;
+	
+	/**
+	 * If not null, the list of notifiers.
+	 * Synchronize on this instance before accessing it.
+	 */
+	private ArrayList<Notifier<T>> notifiers;
+	
+	/**
+	 * The actor that invokes the notifiers, or null to invoke them in the completing thread.
+	 */
+	private final NotifierActor notifierActor;
+	
+	/**
+	 * Creates a new CompletableResult that invokes its notifiers in the thread that
+	 * completes it.
+	 */
+	public CompletableResult() {
+		notifierActor = null;
+	}
+	
+	/**
+	 * Creates a new CompletableResult that invokes its notifiers in the worker threads
+	 * of the given agent.
+	 * @param agent the agent that runs the notifiers
+	 * @throws IllegalArgumentException if the agent was null
+	 */
+	public CompletableResult(Agent agent) {
+		if (agent == null)
+			throw new IllegalArgumentException("agent argument was null");
+		if (agent instanceof DefaultAgent)
+			notifierActor = ((DefaultAgent) agent).getNotifierActor();
+		else
+			notifierActor = agent.create(NotifierActor.class);
+	}
+	
+	/**
+	 * Sets the result value, unless the result has already been set.
+	 * @param value the result value
+	 * @return true if the value has been set, false if the result was already set
+	 */
+	public boolean complete(T value) {
+		return setResult(value, null);
+	}
+	
+	/**
+	 * Sets the result to the given exception, unless the result has already been set. 
+	 * {@link #get()} will throw it as cause of a {@link WrappedException}.
+	 * @param exception the exception
+	 * @return true if the exception has been set, false if the result was already set
+	 * @throws IllegalArgumentException if the exception was null
+	 */
+	public boolean fail(Throwable exception) {
+		if (exception == null)
+			throw new IllegalArgumentException("exception argument was null");
+		return setResult(null, exception);
+	}
+	
+	/**
+	 * Sets the result to a {@link CancellationException}, unless the result has already
+	 * been set.
+	 * @return true if the result has been cancelled, false if the result was already set
+	 */
+	public boolean cancel() {
+		return setResult(null, new CancellationException("The result has been cancelled."));
+	}
+
+	/**
+	 * Sets the result and invokes the notifiers.
+	 * @param value the result value
+	 * @param exception the exception, or null for values
+	 * @return true if the result has been set, false if the result was already set
+	 */
+	private boolean setResult(T value, Throwable exception) {
+		ArrayList<Notifier<T>> notifiersCopy = null;
+		synchronized (this) {
+			if (done)
+				return false;
+			done = true;
+			this.value = value;
+			this.exception = exception;
+			if (notifiers != null) {
+				notifiersCopy = notifiers;
+				notifiers = null;
+			}
+			this.notifyAll();
+		}
+		if (notifiersCopy == null)
+			return true;
+		
+		if (notifierActor != null) {
+			final ArrayList<Notifier<T>> n = notifiersCopy;
+			try {
+				notifierActor.run(new Runnable() {
+					public void run() {
+						invokeNotifiers(n);
+					}
+				});
+				return true;
+			}
+			catch (AgentShutdownException e) {
+				// the workers do not accept the notifiers anymore
+			}
+		}
+		invokeNotifiers(notifiersCopy);
+		return true;
+	}
+	
+	/**
+	 * Invokes the given notifiers. Must be called without synchronization.
+	 * @param notifiersCopy the notifiers
+	 */
+	private void invokeNotifiers(ArrayList<Notifier<T>> notifiersCopy) {
+		for (Notifier<T> n: notifiersCopy) {
+			try {
+				n.resultReady(this); 
+			}
+			catch (Throwable t) {
+				log.error("Got exception from notifier: %s", t);
+				log.exception(t);
+			}
+		}
+	}
+	
+	/**
+	 * Waits until the result is set or the deadline passed. 
+	 * @param timed if true, the method returns when the deadline passed
+	 * @param deadlineNanos the deadline as value of {@link System#nanoTime()}. Ignored unless
+	 *    timed is set.
+	 * @return true if the result is set, false if the deadline passed
+	 * @throws ActorException if the thread has been interrupted while waiting
+	 */
+	private synchronized boolean sleepUntilResultAvailable(boolean timed, long deadlineNanos) {
+		if (done)
+			return true;
+		ThreadState ts = ThreadState.get();
+		WorkerState oldState = ts.setState(WorkerState.WaitingInternal);
+		try {
+			while (!done) {
+				if (!timed)
+					wait();
+				else {
+					long remaining = deadlineNanos - System.nanoTime();
+					if (remaining <= 0)
+						break;
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			throw new ActorException("Got InterruptedException while waiting", e);
+		}
+		finally {
+			ts.setState(oldState);
+		}
+		return done;
+	}
+	
+	/**
+	 * Returns the result, which must be set.
+	 * You must synchronize on this instance before calling this.
+	 * @return the result
+	 * @throws WrappedException if the result is an exception
+	 */
+	private T getResultUnsynchronized() {
+		if (exception != null)
+			throw new WrappedException("Got exception", exception);
+		return value;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#get()
+	 */
+	public synchronized T get() {
+		sleepUntilResultAvailable(false, 0);
+		return getResultUnsynchronized();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#get(long, java.util.concurrent.TimeUnit)
+	 */
+	public synchronized T get(long timeout, TimeUnit unit) {
+		if (!sleepUntilResultAvailable(true, System.nanoTime() + unit.toNanos(timeout)))
+			throw new ResultTimeoutException(String.format("The result was not set within %d %s.", timeout, unit));
+		return getResultUnsynchronized();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#await()
+	 */
+	public void await() {
+		sleepUntilResultAvailable(false, 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#await(long, java.util.concurrent.TimeUnit)
+	 */
+	public boolean await(long timeout, TimeUnit unit) {
+		return sleepUntilResultAvailable(true, System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#isReady()
+	 */
+	public synchronized boolean isReady() {
+		return done;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#getException()
+	 */
+	public synchronized Throwable getException() {
+		return done ? exception : null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#addNotifier(org.actorsguildframework.AsyncResult.Notifier)
+	 */
+	public void addNotifier(Notifier<T> notifier) {
+		if (notifier == null)
+			throw new IllegalArgumentException("notifier argument was null");
+		synchronized (this) {
+			if (!done) {
+				if (notifiers == null)
+					notifiers = new ArrayList<Notifier<T>>(2);
+				notifiers.add(notifier);
+				return;
+			}
+		}
+		notifier.resultReady(this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#removeNotifier(org.actorsguildframework.AsyncResult.Notifier)
+	 */
+	public synchronized void removeNotifier(Notifier<T> notifier) {
+		if (notifier == null)
+			throw new IllegalArgumentException("notifier argument was null");
+		if (notifiers != null)
+			notifiers.remove(notifier);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#toFuture()
+	 */
+	public Future<T> toFuture() {
+		return new AsyncResultFuture<T>(this);
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import org.actorsguildframework.internal.ThreadState;
+import org.actorsguildframework.internal.WorkerState;
+
+/**
+ * CompletionQueue collects AsyncResults and returns them in the order they become ready.
+ * <p>
+ * Each result is registered only once, with a single notifier, and is queued when it is 
+ * ready. Taking the next ready result does not depend on the number of registered 
+ * results. Thus, unlike calling {@link Agent#awaitAny(AsyncResult...)} repeatedly with
+ * the same results, waiting for a large and changing set of results does not get slower 
+ * with the size of the set.
+ * <p>
+ * The iterator returns all registered results in the order of completion, and waits
+ * for the next result if none is ready. 
+ * <p>
+ * CompletionQueue is thread-safe.
+ * @param <T> the type of the results
+ */
+public final class CompletionQueue<T> implements Iterable<AsyncResult<T>> {
+	/**
+	 * The results that are ready, but have not been taken yet. 
+	 * Synchronize on the CompletionQueue before accessing it.
+	 */
+	private final ArrayDeque<AsyncResult<T>> completed = new ArrayDeque<AsyncResult<T>>();
+	
+	/**
+	 * The number of registered results that are not ready yet.
+	 * Synchronize on the CompletionQueue before accessing it.
+	 */
+	private int pending;
+	
+	/**
+	 * The notifier that is registered at all results.
+	 */
+	private final AsyncResult.Notifier<T> notifier = new AsyncResult.Notifier<T>() {
+		public void resultReady(AsyncResult<T> result) {
+			synchronized (CompletionQueue.this) {
+				pending--;
+				completed.add(result);
+				CompletionQueue.this.notifyAll();
+			}
+		}
+	};
+	
+	/**
+	 * Registers a result. It can be taken from the queue as soon as it is ready.
+	 * @param result the result to add
+	 * @throws IllegalArgumentException if the result is null
+	 */
+	@SuppressWarnings("unchecked")
+	public void add(AsyncResult<? extends T> result) {
+		if (result == null)
+			throw new IllegalArgumentException("The result must not be null.");
+		synchronized (this) {
+			pending++;
+		}
+		((AsyncResult<T>) result).addNotifier(notifier);
+	}
+	
+	/**
+	 * Registers all given results.
+	 * @param results the results to add
+	 * @throws IllegalArgumentException if one of the results is null
+	 */
+	@SuppressWarnings("unchecked")
+	public void addAll(AsyncResult<? extends T>... results) {
+		for (AsyncResult<? extends T> r: results)
+			add(r);
+	}
+	
+	/**
+	 * Stops waiting for the given result. The result must have been registered with 
+	 * {@link #add(AsyncResult)}, and must not be ready yet. 
+	 * Used to discard queues that are not needed anymore.
+	 * @param result the result
+	 */
+	@SuppressWarnings("unchecked")
+	void detach(AsyncResult<? extends T> result) {
+		((AsyncResult<T>) result).removeNotifier(notifier);
+	}
+	
+	/**
+	 * Returns the next ready result and removes it from the queue, without waiting.
+	 * @return the next result, or null if no result is ready
+	 */
+	public synchronized AsyncResult<T> poll() {
+		return completed.poll();
+	}
+	
+	/**
+	 * Returns the next ready result and removes it from the queue. Waits if no result
+	 * is ready yet.
+	 * @return the next result, or null if the queue is empty
+	 * @throws ActorException if the thread has been interrupted while waiting
+	 */
+	public AsyncResult<T> take() {
+		return takeInternal(false, 0);
+	}
+	
+	/**
+	 * Returns the next ready result and removes it from the queue. Waits if no result
+	 * is ready yet, but not longer than the given timeout.
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return the next result, or null if the queue is empty or the timeout expired
+	 * @throws ActorException if the thread has been interrupted while waiting
+	 */
+	public AsyncResult<T> poll(long timeout, TimeUnit unit) {
+		return takeInternal(true, System.nanoTime() + unit.toNanos(timeout));
+	}
+	
+	/**
+	 * Returns the next ready result and removes it from the queue. Waits if no result
+	 * is ready yet, but not longer than the given timeout.
+	 * @param timed if true, the method returns when the deadline passed
+	 * @param deadlineNanos the deadline as value of {@link System#nanoTime()}. Ignored unless
+	 *    timed is set.
+	 * @return the next result, or null if the queue is empty or the deadline passed
+	 * @throws ActorException if the thread has been interrupted while waiting
+	 */
+	private synchronized AsyncResult<T> takeInternal(boolean timed, long deadlineNanos) {
+		if (completed.isEmpty() && (pending > 0)) {
+			ThreadState ts = ThreadState.get();
+			WorkerState oldState = ts.setState(WorkerState.WaitingInternal);
+			try {
+				while (completed.isEmpty() && (pending > 0)) {
+					if (!timed)
+						wait();
+					else {
+						long remaining = deadlineNanos - System.nanoTime();
+						if (remaining <= 0)
+							break;
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				throw new ActorException("Got InterruptedException while waiting", e);
+			}
+			finally {
+				ts.setState(oldState);
+			}
+		}
+		return completed.poll();
+	}
+	
+	/**
+	 * Returns the number of results in the queue, ready or not.
+	 * @return the number of results
+	 */
+	public synchronized int size() {
+		return pending + completed.size();
+	}
+	
+	/**
+	 * Returns the number of results in the queue that are not ready yet.
+	 * @return the number of pending results
+	 */
+	public synchronized int getPendingCount() {
+		return pending;
+	}
+	
+	/**
+	 * Checks whether the queue is empty.
+	 * @return true if there are no results in the queue
+	 */
+	public synchronized boolean isEmpty() {
+		return (pending == 0) && completed.isEmpty();
+	}
+
+	/**
+	 * Returns an iterator that takes the results from the queue in the order of completion. 
+	 * {@link Iterator#next()} waits until the next result is ready. 
+	 * @return the iterator
+	 */
+	public Iterator<AsyncResult<T>> iterator() {
+		return new Iterator<AsyncResult<T>>() {
+			public boolean hasNext() {
+				return !isEmpty();
+			}
+
+			public AsyncResult<T> next() {
+				AsyncResult<T> r = take();
+				if (r == null)
+					throw new NoSuchElementException("The queue is empty.");
+				return r;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException("Results are removed by next().");
+			}
+		};
+	}
+}
@@ -16,16 +16,37 @@
 package org.actorsguildframework;
 
 
-import java.util.concurrent.CountDownLatch;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.actorsguildframework.annotations.Dispatcher;
+import org.actorsguildframework.annotations.OneWay;
+import org.actorsguildframework.annotations.Priority;
+import org.actorsguildframework.internal.ActorProxy;
+import org.actorsguildframework.internal.ActorState;
 import org.actorsguildframework.internal.AsyncResultImpl;
 import org.actorsguildframework.internal.Controller;
 import org.actorsguildframework.internal.ControllerImplementation;
+import org.actorsguildframework.internal.NotifierActor;
+import org.actorsguildframework.internal.RouterActorState;
 import org.actorsguildframework.internal.ThreadState;
+import org.actorsguildframework.internal.Tracer;
 import org.actorsguildframework.internal.codegenerator.BeanCreator;
 import org.actorsguildframework.internal.util.L;
+import org.actorsguildframework.metrics.AgentMetrics;
 
 /**
  * DefaultAgent is an implementation of the Agent interface. 
@@ -33,6 +54,127 @@ import org.actorsguildframework.internal.util.L;
 public class DefaultAgent implements Agent {
 	private final static L log = new L(DefaultAgent.class);
 	private final Controller controller;
+	private final Map<String, Controller> dispatchers;
+	
+	/**
+	 * The actor that invokes the notifiers of {@link CompletableResult}s, or null if it
+	 * has not been needed yet. Synchronize on the DefaultAgent before setting it.
+	 */
+	private volatile NotifierActor notifierActor;
+	
+	/**
+	 * Configures a dispatcher, a separate set of worker threads for the actors 
+	 * annotated with {@link Dispatcher}. All settings that are not in this class are
+	 * taken from the agent's Configuration. This class is not thread-safe.
+	 * @see Configuration#addDispatcher(String, DispatcherConfiguration)
+	 */
+	public static class DispatcherConfiguration {
+		/**
+		 * The maximum number of physical worker threads to run.
+		 */
+		private int maxPhysicalWorker;
+		
+		/**
+		 * The maximum number of effective worker threads to run.
+		 */
+		private int maxEffectiveWorker;
+		
+		/**
+		 * If enabled, the number of effective worker threads will be determined from 
+		 * the measured throughput.
+		 */
+		private boolean adaptivePoolSizing = true;
+
+		/**
+		 * The ThreadFactory for the dispatcher's threads, or null for the default.
+		 */
+		private ThreadFactory threadFactory;
+
+		/**
+		 * Creates a new configuration with the same thread limits as a default 
+		 * {@link Configuration}.
+		 */
+		public DispatcherConfiguration() {
+			Configuration c = new Configuration();
+			maxEffectiveWorker = c.getMaxEffectiveWorker();
+			maxPhysicalWorker = c.getMaxPhysicalWorker();
+		}
+
+		/**
+		 * Returns the maximum number of worker threads of the dispatcher.
+		 * @return the maximum number of threads
+		 * @see Configuration#getMaxPhysicalWorker()
+		 */
+		public int getMaxPhysicalWorker() {
+			return maxPhysicalWorker;
+		}
+
+		/**
+		 * Sets the maximum number of worker threads of the dispatcher.
+		 * @param maxPhysicalWorker the maximum number of threads
+		 * @see Configuration#setMaxPhysicalWorker(int)
+		 */
+		public void setMaxPhysicalWorker(int maxPhysicalWorker) {
+			this.maxPhysicalWorker = maxPhysicalWorker;
+		}
+
+		/**
+		 * Returns the maximum number of effective threads of the dispatcher.
+		 * @return the maximum number of effective threads
+		 * @see Configuration#getMaxEffectiveWorker()
+		 */
+		public int getMaxEffectiveWorker() {
+			return maxEffectiveWorker;
+		}
+
+		/**
+		 * Sets the maximum number of effective threads of the dispatcher.
+		 * @param maxEffectiveWorker the maximum number of effective threads
+		 * @see Configuration#setMaxEffectiveWorker(int)
+		 */
+		public void setMaxEffectiveWorker(int maxEffectiveWorker) {
+			this.maxEffectiveWorker = maxEffectiveWorker;
+		}
+
+		/**
+		 * Checks whether the dispatcher sizes its pool by the measured throughput.
+		 * @return true if adaptive pool sizing is enabled
+		 * @see Configuration#isAdaptivePoolSizing()
+		 */
+		public boolean isAdaptivePoolSizing() {
+			return adaptivePoolSizing;
+		}
+
+		/**
+		 * Sets whether the dispatcher sizes its pool by the measured throughput.
+		 * Default: true
+		 * @param adaptivePoolSizing true to enable adaptive pool sizing
+		 * @see Configuration#setAdaptivePoolSizing(boolean)
+		 */
+		public void setAdaptivePoolSizing(boolean adaptivePoolSizing) {
+			this.adaptivePoolSizing = adaptivePoolSizing;
+		}
+
+		/**
+		 * Returns the ThreadFactory for the dispatcher's threads.
+		 * Default: {@link Executors#defaultThreadFactory()}
+		 * @return the ThreadFactory
+		 */
+		public ThreadFactory getThreadFactory() {
+			if (threadFactory == null)
+				threadFactory = Executors.defaultThreadFactory();
+			return threadFactory;
+		}
+
+		/**
+		 * Sets the ThreadFactory for the dispatcher's threads.
+		 * Default: {@link Executors#defaultThreadFactory()}
+		 * @param threadFactory the ThreadFactory
+		 */
+		public void setThreadFactory(ThreadFactory threadFactory) {
+			this.threadFactory = threadFactory;
+		}
+	}
 	
 	/**
 	 * Represents a configuration for an Agent. This class is not thread-safe. You must create
@@ -50,6 +192,12 @@ public class DefaultAgent implements Agent {
 		 * Default: {@link Runtime#availableProcessors()} * 1.5 plus 2.
 		 */
 		private int maxEffectiveWorker;
+		
+		/**
+		 * If enabled, the number of effective worker threads will be determined from 
+		 * the measured throughput.
+		 */
+		private boolean adaptivePoolSizing = true;
 
 		/**
 		 * The ThreadFactory for the controller.
@@ -62,6 +210,54 @@ public class DefaultAgent implements Agent {
 		 */
 		private boolean loggingActions;
 		
+		/**
+		 * If enabled, actors that have messages with a high priority will be processed before
+		 * other actors.
+		 */
+		private boolean priorityScheduling;
+		
+		/**
+		 * Receives exceptions that can not be returned to the sender of a message.
+		 * If null, they will be logged.
+		 */
+		private MessageExceptionHandler messageExceptionHandler;
+		
+		/**
+		 * If enabled, the agent collects runtime metrics.
+		 */
+		private boolean metricsEnabled;
+		
+		/**
+		 * The name of the agent in JMX, or null if the metrics should not be 
+		 * registered in JMX.
+		 */
+		private String jmxName;
+		
+		/**
+		 * If enabled, the agent records the execution of all messages.
+		 */
+		private boolean tracingEnabled;
+		
+		/**
+		 * The number of trace records that will be kept for each thread.
+		 */
+		private int traceBufferSize = 65536;
+		
+		/**
+		 * The CPUs of each worker group, or null for a single group.
+		 */
+		private int[][] workerGroups;
+		
+		/**
+		 * The provider to pin the threads of the worker groups to their CPUs.
+		 */
+		private AffinityProvider affinityProvider;
+		
+		/**
+		 * The configurations of all dispatchers, by name.
+		 */
+		private final Map<String, DispatcherConfiguration> dispatchers = new LinkedHashMap<String, DispatcherConfiguration>();
+		
 		/**
 		 * Creates a new configuration with default values.
 		 */
@@ -112,6 +308,31 @@ public class DefaultAgent implements Agent {
 			this.maxEffectiveWorker = maxEffectiveWorker;
 		}
 
+		/**
+		 * Checks whether the number of worker threads is determined from the 
+		 * measured throughput.
+		 * @return true if adaptive pool sizing is enabled
+		 * @see #setAdaptivePoolSizing(boolean)
+		 */
+		public boolean isAdaptivePoolSizing() {
+			return adaptivePoolSizing;
+		}
+
+		/**
+		 * Sets whether the number of worker threads is determined from the measured 
+		 * throughput. If enabled, the agent starts with one effective thread per processor
+		 * and uses hill climbing to find the number of effective threads with the 
+		 * best message throughput, but never more than {@link #getMaxEffectiveWorker()}.
+		 * Surplus threads are removed at the end of a sample interval, not immediately.
+		 * If disabled, the agent always runs up to {@link #getMaxEffectiveWorker()} 
+		 * effective threads when there is enough work.
+		 * Default: true
+		 * @param adaptivePoolSizing true to enable adaptive pool sizing
+		 */
+		public void setAdaptivePoolSizing(boolean adaptivePoolSizing) {
+			this.adaptivePoolSizing = adaptivePoolSizing;
+		}
+
 		/**
 		 * Returns the ThreadFactory to use for the creation of threads.
 		 * Default: {@link Executors#defaultThreadFactory()}
@@ -147,6 +368,224 @@ public class DefaultAgent implements Agent {
 		public void setLoggingActions(boolean logActions) {
 			this.loggingActions = logActions;
 		}
+
+		/**
+		 * Checks whether the agent prefers actors with high-priority messages.
+		 * @return true if priority scheduling is enabled, false otherwise
+		 * @see #setPriorityScheduling(boolean)
+		 */
+		public boolean isPriorityScheduling() {
+			return priorityScheduling;
+		}
+
+		/**
+		 * Sets whether the agent prefers actors with high-priority messages. If enabled, 
+		 * actors whose mailbox contains a message with a priority higher than
+		 * {@link Priority#NORMAL} will get a thread before all other actors. Otherwise actors
+		 * will be processed in a round-robin fashion. 
+		 * The priority of messages within an actor's mailbox is always honored.
+		 * Default: false
+		 * @param priorityScheduling true to prefer actors with high-priority messages
+		 * @see Priority
+		 */
+		public void setPriorityScheduling(boolean priorityScheduling) {
+			this.priorityScheduling = priorityScheduling;
+		}
+
+		/**
+		 * Returns the handler for exceptions that can not be returned to the sender of a message.
+		 * @return the handler, or null if such exceptions are logged
+		 * @see #setMessageExceptionHandler(MessageExceptionHandler)
+		 */
+		public MessageExceptionHandler getMessageExceptionHandler() {
+			return messageExceptionHandler;
+		}
+
+		/**
+		 * Sets the handler for exceptions that can not be returned to the sender of a message,
+		 * like exceptions thrown by {@link OneWay} messages. 
+		 * Default: null (exceptions are logged as errors)
+		 * @param messageExceptionHandler the handler, or null to log the exceptions
+		 */
+		public void setMessageExceptionHandler(MessageExceptionHandler messageExceptionHandler) {
+			this.messageExceptionHandler = messageExceptionHandler;
+		}
+
+		/**
+		 * Checks whether the agent collects runtime metrics.
+		 * @return true if metrics are enabled
+		 * @see #setMetricsEnabled(boolean)
+		 */
+		public boolean isMetricsEnabled() {
+			return metricsEnabled;
+		}
+
+		/**
+		 * Sets whether the agent collects runtime metrics, like message counts and
+		 * execution times. The metrics can be read using {@link DefaultAgent#getMetrics()}
+		 * and, if a JMX name has been set, in JMX. Collecting metrics is cheap, but not free:
+		 * it costs two or three calls of {@link System#nanoTime()} per message.
+		 * Default: false
+		 * @param metricsEnabled true to collect metrics
+		 * @see #setJmxName(String)
+		 */
+		public void setMetricsEnabled(boolean metricsEnabled) {
+			this.metricsEnabled = metricsEnabled;
+		}
+
+		/**
+		 * Returns the name of the agent in JMX.
+		 * @return the JMX name, or null if the metrics are not registered in JMX
+		 * @see #setJmxName(String)
+		 */
+		public String getJmxName() {
+			return jmxName;
+		}
+
+		/**
+		 * Sets the name of the agent in JMX. If set, and metrics are enabled, the metrics 
+		 * will be registered as MXBeans in the platform MBean server, using 
+		 * the names <code>org.actorsguildframework:type=Agent,name=&lt;jmxName&gt;</code> and
+		 * <code>org.actorsguildframework:type=ActorClass,agent=&lt;jmxName&gt;,name=&lt;className&gt;</code>.
+		 * They will be removed when the agent is shut down.
+		 * Default: null (no JMX)
+		 * @param jmxName the name of the agent in JMX, or null
+		 * @see #setMetricsEnabled(boolean)
+		 */
+		public void setJmxName(String jmxName) {
+			this.jmxName = jmxName;
+		}
+
+		/**
+		 * Checks whether the agent traces the execution of messages.
+		 * @return true if tracing is enabled
+		 * @see #setTracingEnabled(boolean)
+		 */
+		public boolean isTracingEnabled() {
+			return tracingEnabled;
+		}
+
+		/**
+		 * Sets whether the agent traces the execution of messages. For each message, 
+		 * the trace contains the time it has been sent, the time of its execution, 
+		 * the thread that executed it, the target actor and the message that sent it.
+		 * Each thread records into its own ring buffer, so tracing needs no locks, but it
+		 * costs three calls of {@link System#nanoTime()} per message.
+		 * The trace can be written with {@link DefaultAgent#writeTrace(Writer)}.
+		 * Default: false
+		 * @param tracingEnabled true to trace messages
+		 * @see #setTraceBufferSize(int)
+		 */
+		public void setTracingEnabled(boolean tracingEnabled) {
+			this.tracingEnabled = tracingEnabled;
+		}
+
+		/**
+		 * Returns the number of trace records that will be kept for each thread.
+		 * @return the number of records
+		 * @see #setTraceBufferSize(int)
+		 */
+		public int getTraceBufferSize() {
+			return traceBufferSize;
+		}
+
+		/**
+		 * Sets the number of trace records that will be kept for each thread. When a 
+		 * thread's buffer is full, its oldest records will be overwritten.
+		 * The size will be rounded up to the next power of two. Each record needs 
+		 * about 64 bytes.
+		 * Default: 65536
+		 * @param traceBufferSize the number of records
+		 * @throws IllegalArgumentException if the size is smaller than 1
+		 * @see #setTracingEnabled(boolean)
+		 */
+		public void setTraceBufferSize(int traceBufferSize) {
+			if (traceBufferSize < 1)
+				throw new IllegalArgumentException("traceBufferSize must be at least 1.");
+			this.traceBufferSize = traceBufferSize;
+		}
+
+		/**
+		 * Returns the CPUs of the worker groups.
+		 * @return the CPUs of each worker group, or null if there is only a single group
+		 * @see #setWorkerGroups(int[][])
+		 */
+		public int[][] getWorkerGroups() {
+			return workerGroups;
+		}
+
+		/**
+		 * Splits the worker threads into groups, each with its own set of CPUs. On 
+		 * machines with several sockets, there should be one group for each socket,
+		 * so actors stay close to their caches. Each actor gets a home group when it is created: 
+		 * actors created by another actor's message join the creator's group, all others 
+		 * are distributed round-robin. Workers execute the actors of their own group first, 
+		 * and only take actors of other groups if their own group has no work left.
+		 * <p>
+		 * The threads of a group are pinned to the group's CPUs using the 
+		 * {@link #setAffinityProvider(AffinityProvider) AffinityProvider}. Without a provider, 
+		 * the groups only keep actors together, but the operating system may run the threads 
+		 * on any CPU. The thread limits are shared by all groups. Dispatchers split their
+		 * threads into the same groups.
+		 * Default: null (a single group, no pinning)
+		 * @param workerGroups an array containing the CPU numbers of each group, 
+		 *                     e.g. <code>new int[][] {{0,1,2,3}, {4,5,6,7}}</code>. Null for a single group.
+		 * @throws IllegalArgumentException if a group has no CPUs
+		 */
+		public void setWorkerGroups(int[][] workerGroups) {
+			if (workerGroups != null)
+				for (int[] cpus: workerGroups)
+					if ((cpus == null) || (cpus.length == 0))
+						throw new IllegalArgumentException("Each worker group needs at least one CPU.");
+			this.workerGroups = workerGroups;
+		}
+
+		/**
+		 * Returns the provider that pins the threads of worker groups to their CPUs.
+		 * @return the provider, or null if threads are not pinned
+		 * @see #setAffinityProvider(AffinityProvider)
+		 */
+		public AffinityProvider getAffinityProvider() {
+			return affinityProvider;
+		}
+
+		/**
+		 * Sets the provider that pins the threads of worker groups to their CPUs. 
+		 * Only used if worker groups have been set with {@link #setWorkerGroups(int[][])}.
+		 * If pinning a thread fails, the error is logged and the thread runs unpinned.
+		 * Default: null (no pinning)
+		 * @param affinityProvider the provider, for example a {@link LinuxAffinityProvider}, or null
+		 */
+		public void setAffinityProvider(AffinityProvider affinityProvider) {
+			this.affinityProvider = affinityProvider;
+		}
+
+		/**
+		 * Adds a dispatcher. Actors annotated with {@link Dispatcher} and the 
+		 * dispatcher's name run in the dispatcher's own threads. 
+		 * If metrics are enabled and a JMX name has been set, the dispatcher's metrics are 
+		 * registered in JMX as <code>&lt;jmxName&gt;-&lt;dispatcherName&gt;</code>.
+		 * @param name the name of the dispatcher
+		 * @param dispatcherConfiguration the configuration of the dispatcher
+		 * @throws IllegalArgumentException if the name is empty or already in use
+		 */
+		public void addDispatcher(String name, DispatcherConfiguration dispatcherConfiguration) {
+			if ((name == null) || (name.length() == 0))
+				throw new IllegalArgumentException("The dispatcher name must not be empty.");
+			if (dispatcherConfiguration == null)
+				throw new IllegalArgumentException("The dispatcher configuration must not be null.");
+			if (dispatchers.containsKey(name))
+				throw new IllegalArgumentException("There is already a dispatcher called "+name);
+			dispatchers.put(name, dispatcherConfiguration);
+		}
+
+		/**
+		 * Returns the configurations of all dispatchers.
+		 * @return an unmodifiable map of the dispatcher configurations, by name
+		 */
+		public Map<String, DispatcherConfiguration> getDispatchers() {
+			return Collections.unmodifiableMap(dispatchers);
+		}
 	}
 	
 	/**
@@ -155,11 +594,38 @@ public class DefaultAgent implements Agent {
 	 * @param configuration the configuration to use
 	 */
 	public DefaultAgent(Configuration configuration) {
+		Tracer tracer = configuration.isTracingEnabled() ? new Tracer(configuration.getTraceBufferSize()) : null;
 		controller = new ControllerImplementation(this, 
 				    configuration.getThreadFactory(),
 					configuration.getMaxPhysicalWorker(), 
 					configuration.getMaxEffectiveWorker(),
-					configuration.isLoggingActions());
+					configuration.isAdaptivePoolSizing(),
+					configuration.isLoggingActions(),
+					configuration.isPriorityScheduling(),
+					configuration.getMessageExceptionHandler(),
+					configuration.isMetricsEnabled(),
+					configuration.getJmxName(),
+					tracer,
+					configuration.getWorkerGroups(),
+					configuration.getAffinityProvider());
+		
+		dispatchers = new HashMap<String, Controller>();
+		for (Map.Entry<String, DispatcherConfiguration> e: configuration.getDispatchers().entrySet()) {
+			DispatcherConfiguration dc = e.getValue();
+			dispatchers.put(e.getKey(), new ControllerImplementation(this, 
+					dc.getThreadFactory(),
+					dc.getMaxPhysicalWorker(),
+					dc.getMaxEffectiveWorker(),
+					dc.isAdaptivePoolSizing(),
+					configuration.isLoggingActions(),
+					configuration.isPriorityScheduling(),
+					configuration.getMessageExceptionHandler(),
+					configuration.isMetricsEnabled(),
+					(configuration.getJmxName() != null) ? (configuration.getJmxName() + "-" + e.getKey()) : null,
+					tracer,
+					configuration.getWorkerGroups(),
+					configuration.getAffinityProvider()));
+		}
 	}
 
 	/**
@@ -176,6 +642,24 @@ public class DefaultAgent implements Agent {
 	 */
 	DefaultAgent(Controller controller) {
 		this.controller = controller;
+		this.dispatchers = new HashMap<String, Controller>();
+	}
+	
+	/**
+	 * Returns the controller for the given class, depending on its {@link Dispatcher} annotation.
+	 * @param actorOrBeanClass the class of the new actor or bean
+	 * @return the controller
+	 * @throws ConfigurationException if the class has a Dispatcher annotation with an unknown name
+	 */
+	private Controller getControllerFor(Class<?> actorOrBeanClass) {
+		Dispatcher d = actorOrBeanClass.getAnnotation(Dispatcher.class);
+		if (d == null)
+			return controller;
+		Controller c = dispatchers.get(d.value());
+		if (c == null)
+			throw new ConfigurationException(String.format("Class %s requires the dispatcher %s, but it has not been configured.", 
+					actorOrBeanClass.getName(), d.value()));
+		return c;
 	}
 	
 	/* (non-Javadoc)
@@ -197,7 +681,7 @@ public class DefaultAgent implements Agent {
 			throw new IllegalArgumentException("The given class was null.");
 		
 		try {
-			Object bean = BeanCreator.getInstance().getFactory(actorOrBeanClass).createNewInstance(controller, props);
+			Object bean = BeanCreator.getInstance().getFactory(actorOrBeanClass).createNewInstance(getControllerFor(actorOrBeanClass), props);
 			if (controller.isLoggingActions())
 				log.info("Created new bean %s", actorOrBeanClass.getName());
 			return (T)bean;
@@ -213,6 +697,106 @@ public class DefaultAgent implements Agent {
 		}
 	}
 	
+	/**
+	 * Creates a router, a group of actors that looks like a single actor. The returned 
+	 * proxy is an instance of the given class, but forwards every message to one of
+	 * the members, selected by the given strategy.
+	 * <p>
+	 * The router itself is created like a regular actor, so its constructor and 
+	 * initializers run once, but it never processes messages.
+	 * @param <T> the type of the actors
+	 * @param actorClass the class of the actors
+	 * @param size the number of members. Must be at least 1.
+	 * @param strategy the strategy that selects the member for a message
+	 * @return the router
+	 * @throws ConfigurationException if the class is not a valid actor class
+	 * @see org.actorsguildframework.annotations.RouteKey
+	 */
+	public <T extends Actor> T createRouter(Class<T> actorClass, int size, RoutingStrategy strategy) {
+		return createRouter(actorClass, size, strategy, null);
+	}
+	
+	/**
+	 * Creates a router, a group of actors that looks like a single actor. The returned 
+	 * proxy is an instance of the given class, but forwards every message to one of
+	 * the members, selected by the given strategy.
+	 * <p>
+	 * The router itself is created like a regular actor, so its constructor and 
+	 * initializers run once, but it never processes messages.
+	 * @param <T> the type of the actors
+	 * @param actorClass the class of the actors
+	 * @param size the number of members. Must be at least 1.
+	 * @param strategy the strategy that selects the member for a message
+	 * @param props the properties of the members and the router, or null
+	 * @return the router
+	 * @throws ConfigurationException if the class is not a valid actor class
+	 * @see org.actorsguildframework.annotations.RouteKey
+	 */
+	public <T extends Actor> T createRouter(Class<T> actorClass, int size, RoutingStrategy strategy, Props props) {
+		if (size < 1)
+			throw new IllegalArgumentException("A router needs at least one member.");
+		if (strategy == null)
+			throw new IllegalArgumentException("The given strategy was null.");
+		
+		Actor[] members = new Actor[size];
+		for (int i = 0; i < size; i++)
+			members[i] = create(actorClass, props);
+		
+		RouterActorState.prepare(new RouterActorState.Setup(strategy, members, props));
+		try {
+			return create(actorClass, props);
+		}
+		finally {
+			RouterActorState.prepare(null);
+		}
+	}
+	
+	/**
+	 * Returns the state of the given router.
+	 * @param router the router
+	 * @return the state
+	 * @throws IllegalArgumentException if the actor is not a router
+	 */
+	private static RouterActorState getRouterState(Actor router) {
+		ActorState state = (router instanceof ActorProxy) ? ActorState.getState(router) : null;
+		if (!(state instanceof RouterActorState))
+			throw new IllegalArgumentException("The given actor is not a router.");
+		return (RouterActorState) state;
+	}
+	
+	/**
+	 * Changes the number of members of a router. New members are added at the end; 
+	 * when shrinking, the last members are removed. Thus with
+	 * {@link RoutingStrategy#ConsistentHash} only the keys of the added or removed members
+	 * move. Removed members still process the messages that have been forwarded to them.
+	 * @param router the router, as returned by {@link #createRouter(Class, int, RoutingStrategy)}
+	 * @param size the new number of members. Must be at least 1.
+	 * @throws IllegalArgumentException if the actor is not a router
+	 */
+	public void resizeRouter(Actor router, int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("A router needs at least one member.");
+		RouterActorState state = getRouterState(router);
+		synchronized (state) {
+			Actor[] oldMembers = state.getMembers();
+			Actor[] newMembers = new Actor[size];
+			System.arraycopy(oldMembers, 0, newMembers, 0, Math.min(size, oldMembers.length));
+			for (int i = oldMembers.length; i < size; i++)
+				newMembers[i] = (Actor) create(router.getClass().getSuperclass(), state.getProps());
+			state.setMembers(newMembers);
+		}
+	}
+	
+	/**
+	 * Returns the current members of a router.
+	 * @param router the router, as returned by {@link #createRouter(Class, int, RoutingStrategy)}
+	 * @return a new list of the members
+	 * @throws IllegalArgumentException if the actor is not a router
+	 */
+	public List<Actor> getRouterMembers(Actor router) {
+		return new ArrayList<Actor>(Arrays.asList(getRouterState(router).getMembers()));
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.actorsguildframework.Agent#awaitAll(org.actorsguildframework.AsyncResult)
 	 */
@@ -240,6 +824,34 @@ public class DefaultAgent implements Agent {
 			toDo[i].await();
 	}
 
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.Agent#awaitAll(long, java.util.concurrent.TimeUnit, org.actorsguildframework.AsyncResult[])
+	 */
+	public boolean awaitAll(long timeout, TimeUnit unit, AsyncResult<?>... asyncResults) {
+		if (asyncResults == null)
+			throw new IllegalArgumentException("The argument array must not be null.");
+		for (int i = 0; i < asyncResults.length; i++)
+			if (asyncResults[i] == null)
+				throw new IllegalArgumentException("argument "+i+" was null.");
+		
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		CompletionQueue<Object> queue = new CompletionQueue<Object>();
+		for (AsyncResult<?> r: asyncResults)
+			if (!r.isReady())
+				queue.add(r);
+		try {
+			while (queue.getPendingCount() > 0)
+				if (queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) == null)
+					return false;
+			return true;
+		}
+		finally {
+			if (queue.getPendingCount() > 0)
+				for (AsyncResult<?> r: asyncResults)
+					queue.detach(r);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.actorsguildframework.Agent#awaitAllUntilError(org.actorsguildframework.AsyncResult)
 	 */
@@ -256,47 +868,57 @@ public class DefaultAgent implements Agent {
 	@SuppressWarnings("unchecked")
 	public AsyncResult awaitAny(AsyncResult...asyncResults ) 
 	{
+		return awaitAnyInternal(false, 0, asyncResults);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.Agent#awaitAny(long, java.util.concurrent.TimeUnit, org.actorsguildframework.AsyncResult[])
+	 */
+	public AsyncResult<?> awaitAny(long timeout, TimeUnit unit, AsyncResult<?>... asyncResults) {
+		return awaitAnyInternal(true, System.nanoTime() + unit.toNanos(timeout), asyncResults);
+	}
+	
+	/**
+	 * Waits until one of the given AsyncResults is available or the deadline passed.
+	 * @param timed if true, the method returns when the deadline passed
+	 * @param deadlineNanos the deadline as value of {@link System#nanoTime()}. Ignored unless
+	 *    timed is set.
+	 * @param asyncResults the list of AsyncResult instances to wait for
+	 * @return the AsyncResult that is ready, null for empty lists or if the deadline passed
+	 * @throws ActorException if the thread has been interrupted while waiting
+	 */
+	private AsyncResult<?> awaitAnyInternal(boolean timed, long deadlineNanos, AsyncResult<?>... asyncResults) {
 		if (asyncResults == null)
 			throw new IllegalArgumentException("The argument array must not be null.");
 		else if (asyncResults.length == 0)
 			return null;
 		else if (asyncResults.length == 1) {
-			asyncResults[0].await();
+			if (!timed)
+				asyncResults[0].await();
+			else if (!asyncResults[0].await(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS))
+				return null;
 			return asyncResults[0];
 		}
 			
-		for (int i = 0; i < asyncResults.length; i++) {
+		for (int i = 0; i < asyncResults.length; i++)
 			if (asyncResults[i] == null)
 				throw new IllegalArgumentException("argument "+i+" was null.");
+		for (int i = 0; i < asyncResults.length; i++)
 			if (asyncResults[i].isReady())
 				return asyncResults[i];
-		}
-		
-		final AsyncResult[] firstResultHolder = new AsyncResult[1]; // using array as holder!
-		final CountDownLatch countdown = new CountDownLatch(1);		
-		AsyncResult.Notifier notifier = new AsyncResult.Notifier() {
-			public void resultReady(AsyncResult result) {
-				countdown.countDown();
-				firstResultHolder[0] = result;
-			}
-		};
-		
-		for (int i = 0; i < asyncResults.length; i++)
-			asyncResults[i].addNotifier(notifier);
 		
-		do {
-			try {
-				countdown.await();
-			} catch (InterruptedException e) {
-				// ignore and go on
-				continue;
-			}
-		} while (false);
-		
-		for (int i = 0; i < asyncResults.length; i++)
-			if (asyncResults[i] != firstResultHolder[0]) 
-				asyncResults[i].removeNotifier(notifier);
-		return firstResultHolder[0];
+		CompletionQueue<Object> queue = new CompletionQueue<Object>();
+		queue.addAll(asyncResults);
+		try {
+			if (!timed)
+				return queue.take();
+			else
+				return queue.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+		finally {
+			for (int i = 0; i < asyncResults.length; i++)
+				queue.detach(asyncResults[i]);
+		}
 	}
 
 	/*
@@ -305,5 +927,114 @@ public class DefaultAgent implements Agent {
 	 */
 	public void shutdown() {
 		controller.shutdown();		
+		for (Controller c: dispatchers.values())
+			c.shutdown();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.Agent#shutdownGracefully(long, java.util.concurrent.TimeUnit)
+	 */
+	public boolean shutdownGracefully(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		controller.startDraining();
+		for (Controller c: dispatchers.values())
+			c.startDraining();
+		
+		boolean drained = controller.awaitDrained(deadline);
+		for (Controller c: dispatchers.values())
+			drained = c.awaitDrained(deadline) && drained;
+		shutdown();
+		return drained;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.Agent#awaitTermination(long, java.util.concurrent.TimeUnit)
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		if (!controller.awaitTermination(deadline))
+			return false;
+		for (Controller c: dispatchers.values())
+			if (!c.awaitTermination(deadline))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Returns the runtime metrics of the agent. Metrics must be enabled in the 
+	 * agent's configuration.
+	 * @return the metrics, or null if metrics are disabled
+	 * @see Configuration#setMetricsEnabled(boolean)
+	 */
+	public AgentMetrics getMetrics() {
+		return controller.getMetrics();
+	}
+	
+	/**
+	 * Returns the actor that invokes the notifiers of {@link CompletableResult}s in the
+	 * agent's worker threads. Creates it when it is needed for the first time.
+	 * @return the actor
+	 */
+	NotifierActor getNotifierActor() {
+		NotifierActor a = notifierActor;
+		if (a != null)
+			return a;
+		synchronized (this) {
+			if (notifierActor == null)
+				notifierActor = create(NotifierActor.class);
+			return notifierActor;
+		}
+	}
+	
+	/**
+	 * Returns the runtime metrics of a dispatcher. Metrics must be enabled in the 
+	 * agent's configuration.
+	 * @param dispatcherName the name of the dispatcher
+	 * @return the metrics, or null if metrics are disabled
+	 * @throws IllegalArgumentException if there is no dispatcher with this name
+	 * @see Configuration#addDispatcher(String, DispatcherConfiguration)
+	 */
+	public AgentMetrics getMetrics(String dispatcherName) {
+		Controller c = dispatchers.get(dispatcherName);
+		if (c == null)
+			throw new IllegalArgumentException("Unknown dispatcher "+dispatcherName);
+		return c.getMetrics();
+	}
+	
+	/**
+	 * Writes the trace of all recorded messages in the Chrome trace event format (JSON). 
+	 * The trace can be viewed in chrome://tracing or in Perfetto. Every message is shown
+	 * on the thread that executed it, and arrows connect messages with the messages that
+	 * sent them. Tracing must be enabled in the agent's configuration.
+	 * @param writer the writer to write the trace to. Will not be closed.
+	 * @throws IOException if writing failed
+	 * @throws IllegalStateException if tracing is disabled
+	 * @see Configuration#setTracingEnabled(boolean)
+	 */
+	public void writeTrace(Writer writer) throws IOException {
+		Tracer tracer = controller.getTracer();
+		if (tracer == null)
+			throw new IllegalStateException("Tracing is not enabled in the agent's configuration.");
+		tracer.writeChromeTrace(writer);
+	}
+
+	/**
+	 * Writes the trace of all recorded messages into the given file, in the Chrome trace 
+	 * event format (JSON). See {@link #writeTrace(Writer)}.
+	 * @param file the file to write to. Will be overwritten.
+	 * @throws IOException if writing failed
+	 * @throws IllegalStateException if tracing is disabled
+	 * @see Configuration#setTracingEnabled(boolean)
+	 */
+	public void writeTrace(File file) throws IOException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writeTrace(w);
+		}
+		finally {
+			w.close();
+		}
 	}
 }
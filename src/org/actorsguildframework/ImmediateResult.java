@@ -15,6 +15,9 @@
  */
 package org.actorsguildframework;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 /**
  * ImmediateResult is an AsyncResult implementation that can be used when the result is already available.
  * It is the easiest and most common way to implement the return value in a Message method.
@@ -54,6 +57,34 @@ public final class ImmediateResult<T> implements AsyncResult<T>, Immutable {
 		// do nothing, result is already there
 	}
 
+	/**
+	 * Returns the value immediately, as the result is always ready in this implementation.
+	 * @param timeout ignored
+	 * @param unit ignored
+	 * @return the value
+	 */
+	public T get(long timeout, TimeUnit unit) {
+		return result;
+	}
+
+	/**
+	 * Returns immediately, as the result is always ready in this implementation.
+	 * @param timeout ignored
+	 * @param unit ignored
+	 * @return always true
+	 */
+	public boolean await(long timeout, TimeUnit unit) {
+		return true;
+	}
+
+	/**
+	 * Always returns false, as the result is always ready in this implementation.
+	 * @return always false
+	 */
+	public boolean cancel() {
+		return false;
+	}
+
 	/**
 	 * Always returns true, as the result is always ready in this implementation.
 	 * @return always true
@@ -95,4 +126,11 @@ public final class ImmediateResult<T> implements AsyncResult<T>, Immutable {
 		return null;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#toFuture()
+	 */
+	public Future<T> toFuture() {
+		return new AsyncResultFuture<T>(this);
+	}
 }
@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link AffinityProvider} for Linux. It determines the kernel's id of the 
+ * current thread from <code>/proc/thread-self</code> and calls the <code>taskset</code> 
+ * utility, which uses <code>sched_setaffinity</code>. Starting a process is expensive,
+ * but worker threads are pinned only once, when they are created.
+ * Requires Linux 3.17 or later and the <code>taskset</code> utility (util-linux).
+ */
+public class LinuxAffinityProvider implements AffinityProvider {
+	/**
+	 * The path of the taskset utility.
+	 */
+	private final String tasksetPath;
+	
+	/**
+	 * Creates a new instance that calls taskset from the PATH.
+	 */
+	public LinuxAffinityProvider() {
+		this("taskset");
+	}
+
+	/**
+	 * Creates a new instance.
+	 * @param tasksetPath the path of the taskset utility
+	 */
+	public LinuxAffinityProvider(String tasksetPath) {
+		this.tasksetPath = tasksetPath;
+	}
+	
+	/**
+	 * Returns the kernel's id of the current thread.
+	 * @return the thread id
+	 * @throws ActorRuntimeException if the id can not be determined
+	 */
+	static String getCurrentThreadId() {
+		try {
+			// /proc/thread-self is a symlink to /proc/<pid>/task/<tid>
+			String path = new File("/proc/thread-self").getCanonicalPath();
+			String tid = path.substring(path.lastIndexOf('/') + 1);
+			Long.parseLong(tid);
+			return tid;
+		}
+		catch (IOException e) {
+			throw new ActorRuntimeException("Can not determine the thread id", e);
+		}
+		catch (NumberFormatException e) {
+			throw new ActorRuntimeException("Can not determine the thread id. /proc/thread-self is not available.", e);
+		}
+	}
+	
+	/**
+	 * Converts the CPU numbers into a CPU list for taskset.
+	 * @param cpus the CPUs
+	 * @return the list, like "0,1,4"
+	 * @throws IllegalArgumentException if the list is empty
+	 */
+	static String toCpuList(int[] cpus) {
+		if ((cpus == null) || (cpus.length == 0))
+			throw new IllegalArgumentException("At least one CPU must be given.");
+		StringBuilder sb = new StringBuilder();
+		for (int cpu: cpus) {
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(cpu);
+		}
+		return sb.toString();
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.AffinityProvider#bindCurrentThread(int[])
+	 */
+	public void bindCurrentThread(int[] cpus) {
+		String cpuList = toCpuList(cpus);
+		String tid = getCurrentThreadId();
+		try {
+			ProcessBuilder pb = new ProcessBuilder(tasksetPath, "-p", "-c", cpuList, tid);
+			pb.redirectErrorStream(true);
+			Process p = pb.start();
+			InputStream is = p.getInputStream();
+			byte[] buffer = new byte[1024];
+			while (is.read(buffer) >= 0)
+				;
+			is.close();
+			int r = p.waitFor();
+			if (r != 0)
+				throw new ActorRuntimeException(String.format("taskset failed with exit code %d when binding thread %s to CPUs %s.",
+						r, tid, cpuList));
+		}
+		catch (IOException e) {
+			throw new ActorRuntimeException("Can not execute "+tasksetPath, e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ActorRuntimeException("Interrupted while waiting for taskset", e);
+		}
+	}
+}
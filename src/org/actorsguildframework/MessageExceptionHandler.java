@@ -0,0 +1,33 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+/**
+ * MessageExceptionHandler receives exceptions that can not be returned to the sender
+ * of a message, like exceptions thrown by {@link org.actorsguildframework.annotations.OneWay} 
+ * messages. Implementations must be thread-safe, as they may be invoked from any 
+ * worker thread.
+ * @see DefaultAgent.Configuration#setMessageExceptionHandler(MessageExceptionHandler)
+ */
+public interface MessageExceptionHandler {
+	/**
+	 * Invoked when a message threw an exception that can not be returned to the sender.
+	 * @param actor the actor that executed the message
+	 * @param messageName the name of the message
+	 * @param exception the exception
+	 */
+	public void uncaughtException(Actor actor, String messageName, Throwable exception);
+}
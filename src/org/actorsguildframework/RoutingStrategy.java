@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import org.actorsguildframework.annotations.RouteKey;
+
+/**
+ * Selects how a router distributes messages over its members.
+ * @see DefaultAgent#createRouter(Class, int, RoutingStrategy)
+ */
+public enum RoutingStrategy {
+	/**
+	 * Messages with a {@link RouteKey} argument are sent to the member that owns the key 
+	 * on a consistent hash ring. When the router is resized, only the keys of added or
+	 * removed members move to other members. Messages without RouteKey are distributed 
+	 * round-robin.
+	 */
+	ConsistentHash,
+	
+	/**
+	 * Messages are distributed over the members in turn.
+	 */
+	RoundRobin,
+	
+	/**
+	 * Every message is sent to the member with the fewest queued messages.
+	 */
+	LeastLoaded;
+}
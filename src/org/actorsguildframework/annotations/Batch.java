@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Batch allows the framework to deliver several queued invocations of a message at once.
+ * This is useful for messages that are sent very often and do very little work each, like
+ * counter increments or index updates, or for messages that can benefit from bulk I/O.
+ * <p>
+ * Batch names a batch handler: a non-static method of the actor that has the same name 
+ * as given in {@link #value()}, one {@link org.actorsguildframework.immutable.ImmutableList} 
+ * argument for each argument of the message, and returns {@link org.actorsguildframework.AsyncResult}.
+ * The batch handler is not a message itself, so it must be declared 'private' or 'final'. 
+ * When the actor's mailbox contains several consecutive invocations of the message, the 
+ * framework removes them from the mailbox and calls the batch handler once. The i-th list
+ * contains the i-th argument of each invocation, in the order they have been queued (primitive
+ * values are boxed).
+ * <p>
+ * The result of the batch handler can either be a list (an ImmutableList or a java.util.List) 
+ * that contains one result for each invocation, in the same order, or null. If it is null, all
+ * invocations return null. If the batch handler throws an exception, all invocations of the 
+ * batch will get it. Thus each caller gets its own result, as if the message had been invoked 
+ * individually.
+ * <p>
+ * If there is only a single invocation in the mailbox, the message method is called directly.
+ * Batch can only be set for a @Message.
+ * <p>
+ * Example:
+ * <pre>
+ * &#64;Message
+ * &#64;Batch("addBatch")
+ * public AsyncResult&lt;Void&gt; add(String word, int count) {
+ *     counts.put(word, count);
+ *     return noResult();
+ * }
+ * 
+ * private AsyncResult&lt;Void&gt; addBatch(ImmutableList&lt;String&gt; words, ImmutableList&lt;Integer&gt; counts) {
+ *     for (int i = 0; i &lt; words.size(); i++)
+ *         counts.put(words.get(i), counts.get(i));
+ *     return noResult();
+ * }
+ * </pre>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Batch {
+	/**
+	 * The name of the batch handler.
+	 * @return the name of the method that handles batches
+	 */
+	String value();
+	
+	/**
+	 * The maximum number of invocations in a single batch.
+	 * @return the maximum size of a batch
+	 */
+	int maxSize() default 256;
+}
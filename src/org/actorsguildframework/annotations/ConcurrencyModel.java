@@ -64,7 +64,20 @@ public enum ConcurrencyModel {
 	 * The order of execution for stateless messages is not defined. Thus they may
 	 * be executed in a different order than the order to queuing.
 	 */
-	Stateless;
+	Stateless,
+	/**
+	 * Specifies a single-threaded model in which all messages are executed by a 
+	 * dedicated thread of the actor. Messages are never executed by the worker threads
+	 * or by a thread that waits for their result.
+	 * <p>
+	 * This is useful for actors that access resources that must always be used from the
+	 * same thread, like some native libraries and JDBC drivers, and for busy actors that benefit
+	 * from keeping their data in the CPU cache. As every pinned actor needs a thread until 
+	 * the agent is shut down, pinned actors should be few and long-lived.
+	 * <p>
+	 * All messages will be processed in the order that they have been queued.
+	 */
+	Pinned;
 	
 	/**
 	 * Returns true if this model is multi-threaded, and thus either {@link #MultiThreaded} or 
@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Dispatcher binds an actor class to a named dispatcher of the agent. A dispatcher has 
+ * its own worker threads, its own scheduler queue, its own thread limits and its own 
+ * metrics, so actors of different dispatchers do not compete for threads. This is useful 
+ * to keep actors that block, like database actors, away from latency-critical actors.
+ * <p>
+ * Messages between actors of different dispatchers are simply queued in the target's
+ * dispatcher. A worker thread never executes a message of another dispatcher's actor, 
+ * not even while waiting for its result. 
+ * <p>
+ * The dispatcher must have been configured with 
+ * {@link org.actorsguildframework.DefaultAgent.Configuration#addDispatcher(String, org.actorsguildframework.DefaultAgent.DispatcherConfiguration)}.
+ * Actors without this annotation run in the agent's default dispatcher.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface Dispatcher {
+	/**
+	 * The name of the dispatcher.
+	 * @return the name
+	 */
+	String value();
+}
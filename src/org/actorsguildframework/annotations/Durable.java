@@ -0,0 +1,44 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Durable declares a message whose invocations survive a crash of the JVM. If the actor 
+ * has been attached to a {@link org.actorsguildframework.io.DurableMailbox}, every invocation 
+ * of a durable message is written to the mailbox's log before it is queued, and 
+ * acknowledged after it has been executed (even if it threw an exception). When the mailbox is opened again after a crash,
+ * all invocations that have not been acknowledged are sent again. 
+ * <p>
+ * Thus a durable message is executed at least once, but may be executed twice if the 
+ * JVM died while it was running. Results of replayed invocations are discarded.
+ * <p>
+ * Durable can only be set for a @Message. All arguments of a durable message must be 
+ * primitives, Serializable or Immutable. Actors, non-Serializable interfaces and 
+ * @{@link Shared} arguments are not allowed, as they can not be written to the log.
+ * Invocations of durable messages are only logged for actors that have been attached 
+ * to a DurableMailbox; for all other actors, Durable has no effect.
+ * @see org.actorsguildframework.io.DurableMailbox
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Durable {
+}
@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Event declares a message that changes the persistent state of an actor. If the actor
+ * has been attached to an {@link org.actorsguildframework.io.EventJournal}, every 
+ * invocation of an event message is appended to the journal before it is queued. 
+ * The journal also takes snapshots of the actor's @{@link Prop} properties from time to 
+ * time. When the actor is recovered, the latest snapshot is loaded into its properties 
+ * and all events that have been logged after the snapshot are sent again.
+ * <p>
+ * Thus an event message must only change the actor's state through its properties, and
+ * must produce the same state when it is executed again with the same arguments. 
+ * Results of replayed events are discarded.
+ * <p>
+ * Event can only be set for a @Message. All arguments of an event message must be 
+ * primitives, Serializable or Immutable. Actors, non-Serializable interfaces and 
+ * @{@link Shared} arguments are not allowed, as they can not be written to the journal.
+ * Invocations of event messages are only logged for actors that have been attached to
+ * an EventJournal; for all other actors, Event has no effect.
+ * @see org.actorsguildframework.io.EventJournal
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Event {
+}
@@ -0,0 +1,39 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * OneWay declares a fire-and-forget message. The framework does not track the result of 
+ * one-way messages, which saves the allocation and synchronization costs of the result 
+ * for messages that are sent very often, like logging or telemetry messages.
+ * <p>
+ * OneWay can only be set for a @Message that returns AsyncResult&lt;Void&gt;. The AsyncResult 
+ * returned to the caller is always ready immediately, even if the message has not 
+ * been executed yet. Thus you can not wait for a one-way message to finish.
+ * Exceptions thrown by the message can not be returned to the caller. Instead, they 
+ * are reported to the agent's {@link org.actorsguildframework.MessageExceptionHandler}.
+ * @see org.actorsguildframework.DefaultAgent.Configuration#setMessageExceptionHandler(org.actorsguildframework.MessageExceptionHandler)
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface OneWay {
+}
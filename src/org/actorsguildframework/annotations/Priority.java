@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Priority sets the priority of a message. When an actor has several messages queued,
+ * messages with a higher priority will be processed before those with a lower priority.
+ * Messages of the same priority are always processed in the order they have been queued.
+ * <p>
+ * This is useful for control messages (like cancellation, health checks or shutdown
+ * requests) that should not wait behind a large number of regular messages.
+ * To prevent that low-priority messages wait forever, the framework will let
+ * the oldest waiting message pass after a number of higher-priority messages have
+ * overtaken it (bounded starvation).
+ * <p>
+ * The default is {@link #NORMAL}. Priority can only be set for a @Message.
+ * @see org.actorsguildframework.DefaultAgent.Configuration#setPriorityScheduling(boolean)
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Priority {
+	/**
+	 * Priority for messages that can wait.
+	 */
+	public final static int LOW = -10;
+
+	/**
+	 * The default priority for all messages.
+	 */
+	public final static int NORMAL = 0;
+
+	/**
+	 * Priority for urgent messages, like control messages.
+	 */
+	public final static int HIGH = 10;
+
+	/**
+	 * The priority value. Higher values mean higher priority.
+	 * @return the priority
+	 */
+	int value() default NORMAL;
+}
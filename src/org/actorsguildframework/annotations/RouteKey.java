@@ -0,0 +1,39 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * RouteKey marks the argument of a message that selects the member of a router.
+ * <p>
+ * A router, created with {@link org.actorsguildframework.DefaultAgent#createRouter(Class, int, org.actorsguildframework.RoutingStrategy)},
+ * is a group of actors that looks like a single actor. If the router uses 
+ * {@link org.actorsguildframework.RoutingStrategy#ConsistentHash}, all messages with equal 
+ * keys (determined by <code>hashCode()</code>) are sent to the same member, which allows the
+ * members to keep the state of their keys. Messages without RouteKey are distributed 
+ * round-robin. Other routing strategies ignore the RouteKey.
+ * <p>
+ * Only one argument of a message can be the RouteKey. The key should be immutable.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RouteKey {
+}
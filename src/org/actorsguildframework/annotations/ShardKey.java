@@ -0,0 +1,41 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * ShardKey marks the argument of a message that selects the lane of the message.
+ * <p>
+ * Actors with the {@link ConcurrencyModel#MultiThreaded} or {@link ConcurrencyModel#Stateless}
+ * model keep their queued messages in several lanes, so that threads do not compete for 
+ * the same queue. By default, each thread distributes its messages round-robin over the
+ * lanes. If an argument is marked with ShardKey, all messages with equal keys 
+ * (determined by <code>hashCode()</code>) go into the same lane instead, which is useful to 
+ * keep the data of a key in the cache of a single CPU. 
+ * It does not change the order of execution, which is still undefined.
+ * <p>
+ * Only one argument of a message can be the ShardKey. The key should be immutable.
+ * ShardKey can only be used in messages of multi-threaded actors.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ShardKey {
+}
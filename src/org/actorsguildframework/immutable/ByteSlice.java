@@ -0,0 +1,243 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.immutable;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import org.actorsguildframework.Immutable;
+
+/**
+ * ByteSlice is an immutable sequence of bytes. Unlike a byte array, which is copied 
+ * every time it is passed to a message, a ByteSlice is passed by reference. Use it for 
+ * binary payloads, like protocol frames or file content.
+ * <p>
+ * The bytes are kept in a read-only ByteBuffer, which can be either on the heap or 
+ * direct. {@link #slice(int, int)} returns a part of the ByteSlice in O(1), without 
+ * copying the bytes.
+ * <p>
+ * The fastest way to create a ByteSlice from dynamic data is to write it into a 
+ * {@link ByteSliceBuilder} first and then {@link ByteSliceBuilder#freeze()} it.
+ * @see ByteSliceBuilder
+ */
+public final class ByteSlice implements Immutable {
+	private static final long serialVersionUID = -3306718330592745025L;
+
+	/**
+	 * The empty ByteSlice.
+	 */
+	public final static ByteSlice EMPTY = new ByteSlice(ByteBuffer.allocate(0));
+	
+	/**
+	 * The read-only buffer. Position is always 0, limit the size.
+	 */
+	private transient ByteBuffer buffer;
+	
+	/**
+	 * Creates a new ByteSlice for the remaining bytes of the buffer. The buffer is not copied.
+	 * @param buffer the buffer (will be kept, must not be modified anymore)
+	 */
+	ByteSlice(ByteBuffer buffer) {
+		this.buffer = buffer.slice().asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Creates a new ByteSlice that contains a copy of the given bytes.
+	 * @param data the bytes to copy
+	 * @return the new ByteSlice
+	 * @throws IllegalArgumentException if the argument was null
+	 */
+	public static ByteSlice copyOf(byte[] data) {
+		if (data == null)
+			throw new IllegalArgumentException("Argument must not be null");
+		return copyOf(data, 0, data.length);
+	}
+
+	/**
+	 * Creates a new ByteSlice that contains a copy of the given part of the array.
+	 * @param data the array to copy from
+	 * @param offset the position of the first byte to copy
+	 * @param length the number of bytes to copy
+	 * @return the new ByteSlice
+	 * @throws IllegalArgumentException if the argument was null
+	 * @throws IndexOutOfBoundsException if the part is not inside the array
+	 */
+	public static ByteSlice copyOf(byte[] data, int offset, int length) {
+		if (data == null)
+			throw new IllegalArgumentException("Argument must not be null");
+		byte[] copy = new byte[length];
+		System.arraycopy(data, offset, copy, 0, length);
+		return new ByteSlice(ByteBuffer.wrap(copy));
+	}
+	
+	/**
+	 * Creates a new ByteSlice that contains a copy of the remaining bytes of the buffer.
+	 * The position of the buffer is not changed.
+	 * @param data the buffer to copy
+	 * @return the new ByteSlice
+	 * @throws IllegalArgumentException if the argument was null
+	 */
+	public static ByteSlice copyOf(ByteBuffer data) {
+		if (data == null)
+			throw new IllegalArgumentException("Argument must not be null");
+		ByteBuffer copy = data.isDirect() ? ByteBuffer.allocateDirect(data.remaining()) : ByteBuffer.allocate(data.remaining());
+		copy.put(data.duplicate());
+		copy.flip();
+		return new ByteSlice(copy);
+	}
+	
+	/**
+	 * Creates a new ByteSlice for the remaining bytes of the buffer, without copying them.
+	 * This is useful for buffers that are read-only anyway, like read-only mapped files.
+	 * The caller must guarantee that the content of the buffer is never modified
+	 * again. Use {@link #copyOf(ByteBuffer)} if you can not guarantee this.
+	 * @param data the buffer to wrap (will be kept, don't modify its content)
+	 * @return the new ByteSlice
+	 * @throws IllegalArgumentException if the argument was null
+	 */
+	public static ByteSlice wrap(ByteBuffer data) {
+		if (data == null)
+			throw new IllegalArgumentException("Argument must not be null");
+		return new ByteSlice(data);
+	}
+	
+	/**
+	 * Returns the number of bytes.
+	 * @return the size in bytes
+	 */
+	public int size() {
+		return buffer.limit();
+	}
+	
+	/**
+	 * Checks whether the ByteSlice is empty.
+	 * @return true if empty
+	 */
+	public boolean isEmpty() {
+		return buffer.limit() == 0;
+	}
+	
+	/**
+	 * Checks whether the bytes are stored in a direct buffer, outside of the Java heap.
+	 * @return true if direct
+	 */
+	public boolean isDirect() {
+		return buffer.isDirect();
+	}
+	
+	/**
+	 * Returns the byte at the given position.
+	 * @param index the position of the byte
+	 * @return the byte
+	 * @throws IndexOutOfBoundsException if the index is not smaller than the size, or negative
+	 */
+	public byte get(int index) {
+		return buffer.get(index);
+	}
+	
+	/**
+	 * Returns the given part of the ByteSlice. The bytes are not copied.
+	 * @param from the position of the first byte (inclusive)
+	 * @param to the position after the last byte (exclusive)
+	 * @return the part of the ByteSlice
+	 * @throws IndexOutOfBoundsException if from or to are outside of the ByteSlice, or
+	 *   from is larger than to
+	 */
+	public ByteSlice slice(int from, int to) {
+		if ((from < 0) || (to > size()) || (from > to))
+			throw new IndexOutOfBoundsException(String.format("Slice %d-%d is outside of 0-%d", from, to, size()));
+		if ((from == 0) && (to == size()))
+			return this;
+		ByteBuffer b = buffer.duplicate();
+		b.position(from);
+		b.limit(to);
+		return new ByteSlice(b);
+	}
+	
+	/**
+	 * Returns a new read-only ByteBuffer for the bytes. It shares the bytes with the
+	 * ByteSlice, but has its own position and limit.
+	 * @return the buffer, with position 0 and the size as limit
+	 */
+	public ByteBuffer asByteBuffer() {
+		return buffer.duplicate();
+	}
+	
+	/**
+	 * Copies the bytes into the given array.
+	 * @param dest the array to copy to
+	 * @param offset the position of the first byte in the array
+	 * @throws IndexOutOfBoundsException if the array is too small
+	 */
+	public void copyTo(byte[] dest, int offset) {
+		buffer.duplicate().get(dest, offset, size());
+	}
+	
+	/**
+	 * Copies the bytes into a new array.
+	 * @return the new array
+	 */
+	public byte[] toByteArray() {
+		byte[] r = new byte[size()];
+		copyTo(r, 0);
+		return r;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof ByteSlice))
+			return false;
+		return buffer.equals(((ByteSlice) obj).buffer);
+	}
+	
+	@Override
+	public int hashCode() {
+		return buffer.hashCode();
+	}
+	
+	@Override
+	public String toString() {
+		return "ByteSlice[size="+size()+"]";
+	}
+	
+	/**
+	 * Writes the size and the bytes.
+	 * @param out the stream to write to
+	 * @throws IOException if writing failed
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size());
+		out.write(toByteArray());
+	}
+	
+	/**
+	 * Reads the bytes into a heap buffer.
+	 * @param in the stream to read from
+	 * @throws IOException if reading failed
+	 * @throws ClassNotFoundException never
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		buffer = ByteBuffer.wrap(data).asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.immutable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ByteSliceBuilder collects bytes and then freezes them into a {@link ByteSlice}. 
+ * Once the builder has been frozen (using the method {@link #freeze()}), no modification
+ * is allowed. The ByteSlice uses the builder's buffer, so the bytes are not copied.
+ * <p>
+ * ByteSliceBuilder is only safe for use in a single thread. It has performance 
+ * characteristics similar to {@link java.io.ByteArrayOutputStream}.
+ * @see ByteSlice
+ */
+public class ByteSliceBuilder {
+	private final static int INITIAL_CAPACITY = 256;
+	
+	private final boolean direct;
+	private ByteBuffer buffer;
+	private ByteSlice frozenVersion;
+	
+	/**
+	 * Creates a new, empty builder for a heap buffer.
+	 */
+	public ByteSliceBuilder() {
+		this(INITIAL_CAPACITY, false);
+	}
+	
+	/**
+	 * Creates a new, empty builder with the given initial capacity. 
+	 * Specifying the capacity is useful for performance only, as the builder will 
+	 * increase its capacity automatically. 
+	 * @param capacity the initial capacity in bytes
+	 * @param direct if true, the bytes are stored in a direct buffer, outside of the Java heap
+	 * @throws IllegalArgumentException if the capacity was negative
+	 */
+	public ByteSliceBuilder(int capacity, boolean direct) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Argument must not be negative.");
+		this.direct = direct;
+		this.buffer = allocate(capacity);
+	}
+	
+	/**
+	 * Allocates a new buffer.
+	 * @param capacity the capacity of the buffer
+	 * @return the new buffer
+	 */
+	private ByteBuffer allocate(int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+	
+	/**
+	 * Makes sure that the given number of bytes can be appended.
+	 * @param additional the number of bytes to append
+	 * @throws UnsupportedOperationException if the builder has been frozen
+	 */
+	private void ensureCapacity(int additional) {
+		if (frozenVersion != null)
+			throw new UnsupportedOperationException("The ByteSliceBuilder has been frozen.");
+		if (buffer.remaining() >= additional)
+			return;
+		int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + additional);
+		ByteBuffer newBuffer = allocate(newCapacity);
+		buffer.flip();
+		newBuffer.put(buffer);
+		buffer = newBuffer;
+	}
+	
+	/**
+	 * Appends a single byte.
+	 * @param b the byte
+	 * @return this builder
+	 * @throws UnsupportedOperationException if the builder has been frozen
+	 */
+	public ByteSliceBuilder append(byte b) {
+		ensureCapacity(1);
+		buffer.put(b);
+		return this;
+	}
+	
+	/**
+	 * Appends the bytes of the array.
+	 * @param data the bytes to append
+	 * @return this builder
+	 * @throws UnsupportedOperationException if the builder has been frozen
+	 */
+	public ByteSliceBuilder append(byte[] data) {
+		return append(data, 0, data.length);
+	}
+	
+	/**
+	 * Appends the given part of the array.
+	 * @param data the array
+	 * @param offset the position of the first byte to append
+	 * @param length the number of bytes to append
+	 * @return this builder
+	 * @throws UnsupportedOperationException if the builder has been frozen
+	 * @throws IndexOutOfBoundsException if the part is not inside the array
+	 */
+	public ByteSliceBuilder append(byte[] data, int offset, int length) {
+		ensureCapacity(length);
+		buffer.put(data, offset, length);
+		return this;
+	}
+
+	/**
+	 * Appends the remaining bytes of the buffer. The position of the buffer is not changed.
+	 * @param data the buffer
+	 * @return this builder
+	 * @throws UnsupportedOperationException if the builder has been frozen
+	 */
+	public ByteSliceBuilder append(ByteBuffer data) {
+		ensureCapacity(data.remaining());
+		buffer.put(data.duplicate());
+		return this;
+	}
+	
+	/**
+	 * Appends the bytes of the ByteSlice.
+	 * @param data the ByteSlice
+	 * @return this builder
+	 * @throws UnsupportedOperationException if the builder has been frozen
+	 */
+	public ByteSliceBuilder append(ByteSlice data) {
+		return append(data.asByteBuffer());
+	}
+	
+	/**
+	 * Appends an int in big-endian byte order.
+	 * @param value the value to append
+	 * @return this builder
+	 * @throws UnsupportedOperationException if the builder has been frozen
+	 */
+	public ByteSliceBuilder appendInt(int value) {
+		ensureCapacity(4);
+		buffer.putInt(value);
+		return this;
+	}
+	
+	/**
+	 * Appends a long in big-endian byte order.
+	 * @param value the value to append
+	 * @return this builder
+	 * @throws UnsupportedOperationException if the builder has been frozen
+	 */
+	public ByteSliceBuilder appendLong(long value) {
+		ensureCapacity(8);
+		buffer.putLong(value);
+		return this;
+	}
+	
+	/**
+	 * Returns the number of bytes appended so far.
+	 * @return the size in bytes
+	 */
+	public int size() {
+		return (frozenVersion != null) ? frozenVersion.size() : buffer.position();
+	}
+	
+	/**
+	 * Freezes the builder. After the first invocation of <code>freeze</code>, the builder 
+	 * can not be modified anymore. You can call <code>freeze</code> any number of times, 
+	 * it will always return the same ByteSlice.
+	 * @return the ByteSlice with all appended bytes
+	 */
+	public ByteSlice freeze() {
+		if (frozenVersion == null) {
+			buffer.flip();
+			frozenVersion = new ByteSlice(buffer);
+			buffer = null;
+		}
+		return frozenVersion;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.immutable;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.actorsguildframework.Immutable;
+import org.actorsguildframework.internal.util.DirectMemory;
+
+/**
+ * OffHeapCollection is the base class of all immutable collections that keep their 
+ * content in a direct buffer, outside of the Java heap. 
+ * <p>
+ * Large reference tables with millions of entries cause long garbage collections when 
+ * they are stored in regular collections, because the collector needs to traverse every
+ * entry. An off-heap collection is a single small object on the heap, no matter how many 
+ * entries it has. Like every {@link Immutable}, it is passed to messages by reference. 
+ * <p>
+ * The memory of an off-heap collection is released by the garbage collector when the 
+ * collection is no longer referenced. To release it earlier, off-heap collections count
+ * references: a new collection has one reference, owned by its creator. Every actor that 
+ * keeps the collection beyond the message that received it calls {@link #retain()}, and 
+ * {@link #release()} when it does not need it anymore. After the last release, any new
+ * access to the collection throws an IllegalStateException. The memory is freed as soon 
+ * as the accesses that were already running when the last reference was released have
+ * finished, so freed memory is never read, even by a reader that does not hold a 
+ * reference.
+ * <p>
+ * A single off-heap collection can use at most 2 GB of memory. 
+ * When an off-heap collection is serialized, it is deserialized as off-heap collection again.
+ * @see OffHeapIntList
+ * @see OffHeapLongList
+ * @see OffHeapStringList
+ * @see OffHeapStringMap
+ */
+public abstract class OffHeapCollection implements Immutable {
+	private static final long serialVersionUID = -2164385262618209637L;
+	
+	/**
+	 * One reference, in the representation of {@link #state}.
+	 */
+	private final static long ONE_REFERENCE = 1L << 32;
+	
+	/**
+	 * The direct buffer that contains the collection.
+	 */
+	private transient ByteBuffer memory;
+	
+	/**
+	 * The number of references in the upper 32 bits, and the number of running accesses
+	 * in the lower 32 bits. The memory is freed when both drop to 0. Once there are no
+	 * references left, no new access can start.
+	 */
+	private transient AtomicLong state;
+
+	/**
+	 * Creates a new OffHeapCollection.
+	 * @param memory the direct buffer that contains the collection, allocated with
+	 *   {@link #allocate(long)}. Will be kept and must not be modified after 
+	 *   the constructor of the subclass is finished. Its position must stay 0.
+	 */
+	OffHeapCollection(ByteBuffer memory) {
+		this.memory = memory;
+		this.state = new AtomicLong(ONE_REFERENCE);
+	}
+	
+	/**
+	 * Starts an access to the buffer that contains the collection. The buffer must not 
+	 * be used after the access has been ended with {@link #endAccess()}, which must be
+	 * called in a finally block. Its position is always 0 and its limit the capacity. 
+	 * Use only the absolute get methods of the buffer, as it is shared by all threads.
+	 * @return the buffer
+	 * @throws IllegalStateException if the collection has been freed
+	 */
+	final ByteBuffer beginAccess() {
+		while (true) {
+			long s = state.get();
+			if (s < ONE_REFERENCE)
+				throw new IllegalStateException("The off-heap collection has already been freed.");
+			if (state.compareAndSet(s, s + 1))
+				return memory;
+		}
+	}
+	
+	/**
+	 * Ends an access started by {@link #beginAccess()}. Frees the memory if the last 
+	 * reference has been released during the access.
+	 */
+	final void endAccess() {
+		if (state.decrementAndGet() == 0)
+			DirectMemory.free(memory);
+	}
+
+	/**
+	 * Allocates a new direct buffer for a collection.
+	 * @param size the size in bytes
+	 * @return the new buffer
+	 * @throws IllegalArgumentException if the size is larger than 2 GB
+	 */
+	static ByteBuffer allocate(long size) {
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Off-heap collection would be larger than 2 GB.");
+		return DirectMemory.allocate((int) size);
+	}
+	
+	/**
+	 * Adds a reference to the collection. Every call must be matched by a call of 
+	 * {@link #release()}.
+	 * @throws IllegalStateException if the collection has already been freed
+	 */
+	public final void retain() {
+		while (true) {
+			long s = state.get();
+			if (s < ONE_REFERENCE)
+				throw new IllegalStateException("The off-heap collection has already been freed.");
+			if (state.compareAndSet(s, s + ONE_REFERENCE))
+				return;
+		}
+	}
+	
+	/**
+	 * Removes a reference from the collection. If it was the last reference, the 
+	 * collection can not be used anymore, and the memory is freed without waiting for 
+	 * the garbage collector: immediately, or when the last running access has finished.
+	 * @return true if this was the last reference
+	 * @throws IllegalStateException if the collection has already been freed
+	 */
+	public final boolean release() {
+		while (true) {
+			long s = state.get();
+			if (s < ONE_REFERENCE)
+				throw new IllegalStateException("The off-heap collection has already been freed.");
+			long n = s - ONE_REFERENCE;
+			if (state.compareAndSet(s, n)) {
+				if (n == 0)
+					DirectMemory.free(memory);
+				return n < ONE_REFERENCE;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of references.
+	 * @return the number of references, 0 if the collection has been freed
+	 */
+	public final int getReferenceCount() {
+		return (int) (state.get() >>> 32);
+	}
+	
+	/**
+	 * Checks whether the collection has been freed.
+	 * @return true if the last reference has been released
+	 */
+	public final boolean isFreed() {
+		return state.get() < ONE_REFERENCE;
+	}
+	
+	/**
+	 * Returns the amount of off-heap memory used by the collection.
+	 * @return the size in bytes
+	 * @throws IllegalStateException if the collection has been freed
+	 */
+	public final long getMemorySize() {
+		beginAccess();
+		try {
+			return memory.capacity();
+		}
+		finally {
+			endAccess();
+		}
+	}
+	
+	/**
+	 * Writes the content of the buffer.
+	 * @param out the stream to write to
+	 * @throws IOException if writing failed
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		ByteBuffer m = beginAccess().duplicate();
+		try {
+			m.clear();
+			out.writeInt(m.capacity());
+			byte[] chunk = new byte[Math.min(m.capacity(), 65536)];
+			while (m.hasRemaining()) {
+				int len = Math.min(chunk.length, m.remaining());
+				m.get(chunk, 0, len);
+				out.write(chunk, 0, len);
+			}
+		}
+		finally {
+			endAccess();
+		}
+	}
+	
+	/**
+	 * Reads the content into a new direct buffer.
+	 * @param in the stream to read from
+	 * @throws IOException if reading failed
+	 * @throws ClassNotFoundException never
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		ByteBuffer m = DirectMemory.allocate(in.readInt());
+		byte[] chunk = new byte[Math.min(m.capacity(), 65536)];
+		while (m.hasRemaining()) {
+			int len = Math.min(chunk.length, m.remaining());
+			in.readFully(chunk, 0, len);
+			m.put(chunk, 0, len);
+		}
+		m.clear();
+		memory = m;
+		state = new AtomicLong(ONE_REFERENCE);
+	}
+	
+	/**
+	 * Checks whether the given object is an off-heap collection of the same class and
+	 * with the same memory content.
+	 * @param obj the object to compare to
+	 * @return true if equal
+	 * @throws IllegalStateException if one of the collections has been freed
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if ((obj == null) || (obj.getClass() != getClass()))
+			return false;
+		OffHeapCollection o = (OffHeapCollection) obj;
+		ByteBuffer m = beginAccess();
+		try {
+			ByteBuffer om = o.beginAccess();
+			try {
+				return m.equals(om);
+			}
+			finally {
+				o.endAccess();
+			}
+		}
+		finally {
+			endAccess();
+		}
+	}
+	
+	/**
+	 * Returns a hash code based on the memory content.
+	 * @return the hash code
+	 * @throws IllegalStateException if the collection has been freed
+	 */
+	@Override
+	public int hashCode() {
+		ByteBuffer m = beginAccess();
+		try {
+			return m.hashCode();
+		}
+		finally {
+			endAccess();
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.immutable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * OffHeapLongList is an immutable list of longs that is stored outside of the Java heap. 
+ * It uses 8 bytes per element and creates no objects on the heap, no matter how many elements 
+ * it has. Use it for large tables of longs that would otherwise slow down the garbage collector.
+ * @see OffHeapCollection
+ */
+public final class OffHeapLongList extends OffHeapCollection {
+	private static final long serialVersionUID = -6620484123987456230L;
+	
+	/**
+	 * The number of elements.
+	 */
+	private final int size;
+	
+	/**
+	 * Creates a new list that contains a copy of the given array.
+	 * @param elements the elements (will be copied)
+	 * @throws IllegalArgumentException if the argument was null, or the list would be larger than 2 GB
+	 */
+	public OffHeapLongList(long... elements) {
+		super(createMemory(elements));
+		size = elements.length;
+	}
+	
+	/**
+	 * Creates the memory for the list.
+	 * @param elements the elements
+	 * @return the buffer
+	 * @throws IllegalArgumentException if the argument was null, or the list would be larger than 2 GB
+	 */
+	private static ByteBuffer createMemory(long[] elements) {
+		if (elements == null)
+			throw new IllegalArgumentException("Argument must not be null");
+		ByteBuffer b = allocate(8L * elements.length);
+		for (int i = 0; i < elements.length; i++)
+			b.putLong(8 * i, elements[i]);
+		return b;
+	}
+	
+	/**
+	 * Returns the size of the list.
+	 * @return the number of elements
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the list is empty.
+	 * @return true if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Returns the element at the given index.
+	 * @param index the index of the element (0 is first)
+	 * @return the element
+	 * @throws IndexOutOfBoundsException if the index is not within the bounds of the list
+	 * @throws IllegalStateException if the list has been freed
+	 */
+	public long get(int index) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException(String.format("Index %d is outside of 0-%d", index, size));
+		ByteBuffer m = beginAccess();
+		try {
+			return m.getLong(8 * index);
+		}
+		finally {
+			endAccess();
+		}
+	}
+	
+	/**
+	 * Returns the index of the first occurrence of the given value.
+	 * @param value the value to find
+	 * @return the index, or -1 if the value is not in the list
+	 * @throws IllegalStateException if the list has been freed
+	 */
+	public int indexOf(long value) {
+		ByteBuffer m = beginAccess();
+		try {
+			for (int i = 0; i < size; i++)
+				if (m.getLong(8 * i) == value)
+					return i;
+			return -1;
+		}
+		finally {
+			endAccess();
+		}
+	}
+
+	/**
+	 * Checks whether the list contains the given value.
+	 * @param value the value to find
+	 * @return true if the value is in the list
+	 * @throws IllegalStateException if the list has been freed
+	 */
+	public boolean contains(long value) {
+		return indexOf(value) >= 0;
+	}
+	
+	/**
+	 * Searches for the given value using binary search. The list must be sorted in 
+	 * ascending order, otherwise the result is undefined. 
+	 * @param value the value to find
+	 * @return the index of the value, or (-(insertion point) - 1) if it is not in the 
+	 *    list, like {@link java.util.Arrays#binarySearch(long[], long)}
+	 * @throws IllegalStateException if the list has been freed
+	 */
+	public int binarySearch(long value) {
+		ByteBuffer m = beginAccess();
+		try {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				long v = m.getLong(8 * mid);
+				if (v < value)
+					low = mid + 1;
+				else if (v > value)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -(low + 1);
+		}
+		finally {
+			endAccess();
+		}
+	}
+	
+	/**
+	 * Copies the list into a new array on the heap.
+	 * @return the new array
+	 * @throws IllegalStateException if the list has been freed
+	 */
+	public long[] toArray() {
+		ByteBuffer m = beginAccess();
+		try {
+			long[] r = new long[size];
+			for (int i = 0; i < size; i++)
+				r[i] = m.getLong(8 * i);
+			return r;
+		}
+		finally {
+			endAccess();
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "OffHeapLongList[size="+size+"]";
+	}
+}
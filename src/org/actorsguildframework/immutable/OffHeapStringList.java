@@ -0,0 +1,192 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.immutable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * OffHeapStringList is an immutable list of Strings that is stored in UTF-8 outside of the
+ * Java heap. Every call of {@link #get(int)} creates a new String, so it is slower than a 
+ * {@link StringList}, but the list itself creates no objects on the heap, no matter how many 
+ * elements it has. Use it for large tables of Strings that would otherwise slow down the
+ * garbage collector. The list can not contain null.
+ * @see OffHeapCollection
+ */
+public final class OffHeapStringList extends OffHeapCollection implements Iterable<String> {
+	private static final long serialVersionUID = 2806471093716237738L;
+
+	/**
+	 * The number of elements.
+	 */
+	private final int size;
+	
+	/**
+	 * Creates a new list that contains the given elements. 
+	 * @param elements the elements (will be copied)
+	 * @throws IllegalArgumentException if the argument or an element was null, or the list 
+	 *    would be larger than 2 GB
+	 */
+	public OffHeapStringList(String... elements) {
+		this(Arrays.asList(checkNotNull(elements)));
+	}
+
+	/**
+	 * Creates a new list that contains the elements of the given collection. 
+	 * @param elements the elements (will be copied)
+	 * @throws IllegalArgumentException if the argument or an element was null, or the list 
+	 *    would be larger than 2 GB
+	 */
+	public OffHeapStringList(Collection<String> elements) {
+		super(createMemory(checkNotNull(elements)));
+		size = elements.size();
+	}
+	
+	/**
+	 * Throws an IllegalArgumentException if the argument is null.
+	 * @param <T> the type of the argument
+	 * @param arg the argument
+	 * @return the argument
+	 * @throws IllegalArgumentException if the argument was null
+	 */
+	private static <T> T checkNotNull(T arg) {
+		if (arg == null)
+			throw new IllegalArgumentException("Argument must not be null");
+		return arg;
+	}
+
+	/**
+	 * Creates the memory for the list.
+	 * @param elements the elements
+	 * @return the buffer
+	 * @throws IllegalArgumentException if an element was null, or the list would be larger than 2 GB
+	 */
+	private static ByteBuffer createMemory(Collection<String> elements) {
+		byte[][] strings = StringTable.encode(elements, elements.size(), "element");
+		ByteBuffer b = allocate(StringTable.getSize(strings));
+		StringTable.write(b, 0, strings);
+		return b;
+	}
+	
+	/**
+	 * Returns the size of the list.
+	 * @return the number of elements
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the list is empty.
+	 * @return true if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Returns the element at the given index. The String will be created by this call.
+	 * @param index the index of the element (0 is first)
+	 * @return the element
+	 * @throws IndexOutOfBoundsException if the index is not within the bounds of the list
+	 * @throws IllegalStateException if the list has been freed
+	 */
+	public String get(int index) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException(String.format("Index %d is outside of 0-%d", index, size));
+		ByteBuffer m = beginAccess();
+		try {
+			return StringTable.get(m, 0, index);
+		}
+		finally {
+			endAccess();
+		}
+	}
+	
+	/**
+	 * Returns the index of the first occurrence of the given String. This method compares
+	 * the encoded strings and does not create any Strings.
+	 * @param value the String to find
+	 * @return the index, or -1 if the String is not in the list (or null)
+	 * @throws IllegalStateException if the list has been freed
+	 */
+	public int indexOf(String value) {
+		if (value == null)
+			return -1;
+		byte[] encoded = value.getBytes(StringTable.UTF8);
+		ByteBuffer m = beginAccess();
+		try {
+			for (int i = 0; i < size; i++)
+				if (StringTable.equalsAt(m, 0, i, encoded))
+					return i;
+			return -1;
+		}
+		finally {
+			endAccess();
+		}
+	}
+
+	/**
+	 * Checks whether the list contains the given String.
+	 * @param value the String to find
+	 * @return true if the String is in the list
+	 * @throws IllegalStateException if the list has been freed
+	 */
+	public boolean contains(String value) {
+		return indexOf(value) >= 0;
+	}
+	
+	/**
+	 * Copies the list into a new {@link StringList} on the heap.
+	 * @return the new StringList
+	 * @throws IllegalStateException if the list has been freed
+	 */
+	public StringList toStringList() {
+		String[] r = new String[size];
+		for (int i = 0; i < size; i++)
+			r[i] = get(i);
+		return new StringList(r);
+	}
+	
+	/**
+	 * Returns an iterator for the list. The iterator does not support remove().
+	 * @return the iterator
+	 */
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			int next = 0;
+			public boolean hasNext() {
+				return next < size;
+			}
+			public String next() {
+				if (next >= size)
+					throw new NoSuchElementException();
+				return get(next++);
+			}
+			public void remove() {
+				throw new UnsupportedOperationException("OffHeapStringList can not be modified");
+			}
+		};
+	}
+	
+	@Override
+	public String toString() {
+		return "OffHeapStringList[size="+size+"]";
+	}
+}
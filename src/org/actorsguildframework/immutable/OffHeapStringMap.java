@@ -0,0 +1,328 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.immutable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OffHeapStringMap is an immutable map of String keys and String values that is stored 
+ * outside of the Java heap. It uses an open-addressing hash table, and looks up keys by 
+ * comparing their UTF-8 encoding, so {@link #get(String)} creates only the returned String. 
+ * Use it for large lookup tables that would otherwise slow down the garbage collector.
+ * Keys and values can not be null.
+ * <p>
+ * The entries have an index from 0 to {@link #size()}-1, which can be used to iterate 
+ * over the map with {@link #getKey(int)} and {@link #getValue(int)}.
+ * @see OffHeapCollection
+ * @see ImmutableMap
+ */
+public final class OffHeapStringMap extends OffHeapCollection {
+	private static final long serialVersionUID = 7352116934063021887L;
+	
+	/**
+	 * The position of the hash table. Each slot has two ints: the hash of the key and
+	 * the index of the entry plus 1 (0 for empty slots).
+	 */
+	private final static int SLOTS_POS = 0;
+	
+	/**
+	 * The number of entries.
+	 */
+	private final int size;
+	
+	/**
+	 * The number of slots in the hash table, a power of two.
+	 */
+	private final int capacity;
+
+	/**
+	 * The position of the key table, see {@link StringTable}.
+	 */
+	private final int keysPos;
+	
+	/**
+	 * The position of the value table, see {@link StringTable}.
+	 */
+	private final int valuesPos;
+	
+	/**
+	 * Creates a new map that contains the entries of the given map. 
+	 * @param data the entries (will be copied)
+	 * @throws IllegalArgumentException if the argument or a key or value was null, or the map 
+	 *    would be larger than 2 GB
+	 */
+	public OffHeapStringMap(Map<String, String> data) {
+		this(new Layout(data));
+	}
+	
+	/**
+	 * Creates a new map from the given layout.
+	 * @param layout the layout
+	 */
+	private OffHeapStringMap(Layout layout) {
+		super(layout.memory);
+		size = layout.size;
+		capacity = layout.capacity;
+		keysPos = layout.keysPos;
+		valuesPos = layout.valuesPos;
+	}
+	
+	/**
+	 * Computes the memory of a new map.
+	 */
+	private static class Layout {
+		final ByteBuffer memory;
+		final int size;
+		final int capacity;
+		final int keysPos;
+		final int valuesPos;
+		
+		/**
+		 * Creates the memory of the map.
+		 * @param data the entries
+		 * @throws IllegalArgumentException if the argument or a key or value was null, or 
+		 *    the map would be larger than 2 GB
+		 */
+		Layout(Map<String, String> data) {
+			if (data == null)
+				throw new IllegalArgumentException("Argument must not be null");
+			size = data.size();
+			List<String> keyList = new ArrayList<String>(size);
+			List<String> valueList = new ArrayList<String>(size);
+			for (Map.Entry<String, String> e: data.entrySet()) {
+				keyList.add(e.getKey());
+				valueList.add(e.getValue());
+			}
+			byte[][] keys = StringTable.encode(keyList, size, "key");
+			byte[][] values = StringTable.encode(valueList, size, "value");
+
+			int c = 2;
+			while (c < size * 2)
+				c *= 2;
+			capacity = c;
+			long kp = SLOTS_POS + 8L * capacity;
+			long vp = kp + StringTable.getSize(keys);
+			if (vp > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Off-heap collection would be larger than 2 GB.");
+			keysPos = (int) kp;
+			valuesPos = (int) vp;
+			memory = allocate(vp + StringTable.getSize(values));
+			
+			StringTable.write(memory, keysPos, keys);
+			StringTable.write(memory, valuesPos, values);
+			for (int i = 0; i < size; i++) {
+				int hash = hash(keyList.get(i));
+				int slot = hash & (capacity - 1);
+				while (memory.getInt(SLOTS_POS + 8 * slot + 4) != 0)
+					slot = (slot + 1) & (capacity - 1);
+				memory.putInt(SLOTS_POS + 8 * slot, hash);
+				memory.putInt(SLOTS_POS + 8 * slot + 4, i + 1);
+			}
+		}
+	}
+	
+	/**
+	 * Computes the hash of a key.
+	 * @param key the key
+	 * @return the hash
+	 */
+	private static int hash(String key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * Returns the index of the entry with the given key.
+	 * @param key the key to find
+	 * @return the index, or -1 if not found
+	 * @throws IllegalStateException if the map has been freed
+	 */
+	public int indexOf(String key) {
+		if (key == null)
+			return -1;
+		ByteBuffer m = beginAccess();
+		try {
+			return indexOf(key, m);
+		}
+		finally {
+			endAccess();
+		}
+	}
+	
+	/**
+	 * Returns the index of the entry with the given key. 
+	 * @param key the key to find, not null
+	 * @param m the buffer of the map, while it is being accessed
+	 * @return the index, or -1 if not found
+	 */
+	private int indexOf(String key, ByteBuffer m) {
+		int hash = hash(key);
+		byte[] encoded = null;
+		int slot = hash & (capacity - 1);
+		while (true) {
+			int entry = m.getInt(SLOTS_POS + 8 * slot + 4);
+			if (entry == 0)
+				return -1;
+			if (m.getInt(SLOTS_POS + 8 * slot) == hash) {
+				if (encoded == null)
+					encoded = key.getBytes(StringTable.UTF8);
+				if (StringTable.equalsAt(m, keysPos, entry - 1, encoded))
+					return entry - 1;
+			}
+			slot = (slot + 1) & (capacity - 1);
+		}
+	}
+	
+	/**
+	 * Returns the value for the given key.
+	 * @param key the key 
+	 * @return the value, or null if the key is not in the map
+	 * @throws IllegalStateException if the map has been freed
+	 */
+	public String get(String key) {
+		if (key == null)
+			return null;
+		ByteBuffer m = beginAccess();
+		try {
+			int idx = indexOf(key, m);
+			if (idx < 0)
+				return null;
+			return StringTable.get(m, valuesPos, idx);
+		}
+		finally {
+			endAccess();
+		}
+	}
+	
+	/**
+	 * Checks whether the map contains the given key.
+	 * @param key the key 
+	 * @return true if the key is in the map
+	 * @throws IllegalStateException if the map has been freed
+	 */
+	public boolean containsKey(String key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Returns the key of the entry with the given index.
+	 * @param index the index of the entry
+	 * @return the key
+	 * @throws IndexOutOfBoundsException if the index is not within 0 and {@link #size()}-1
+	 * @throws IllegalStateException if the map has been freed
+	 */
+	public String getKey(int index) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException(String.format("Index %d is outside of 0-%d", index, size));
+		ByteBuffer m = beginAccess();
+		try {
+			return StringTable.get(m, keysPos, index);
+		}
+		finally {
+			endAccess();
+		}
+	}
+
+	/**
+	 * Returns the value of the entry with the given index.
+	 * @param index the index of the entry
+	 * @return the value
+	 * @throws IndexOutOfBoundsException if the index is not within 0 and {@link #size()}-1
+	 * @throws IllegalStateException if the map has been freed
+	 */
+	public String getValue(int index) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException(String.format("Index %d is outside of 0-%d", index, size));
+		ByteBuffer m = beginAccess();
+		try {
+			return StringTable.get(m, valuesPos, index);
+		}
+		finally {
+			endAccess();
+		}
+	}
+	
+	/**
+	 * Returns the number of entries.
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Checks whether the map is empty.
+	 * @return true if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Copies the map into a new, modifiable Map on the heap.
+	 * @return the new map
+	 * @throws IllegalStateException if the map has been freed
+	 */
+	public Map<String, String> toMap() {
+		HashMap<String, String> r = new HashMap<String, String>();
+		for (int i = 0; i < size; i++)
+			r.put(getKey(i), getValue(i));
+		return r;
+	}
+	
+	/**
+	 * Checks whether the given object is an OffHeapStringMap with the same entries.
+	 * @param obj the object to compare to
+	 * @return true if equal
+	 * @throws IllegalStateException if one of the maps has been freed
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
+		if (!(obj instanceof OffHeapStringMap))
+			return false;
+		OffHeapStringMap o = (OffHeapStringMap) obj;
+		if (o.size != size)
+			return false;
+		for (int i = 0; i < size; i++)
+			if (!getValue(i).equals(o.get(getKey(i))))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Returns a hash code based on the entries, like {@link java.util.AbstractMap#hashCode()}.
+	 * @return the hash code
+	 * @throws IllegalStateException if the map has been freed
+	 */
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for (int i = 0; i < size; i++)
+			h += getKey(i).hashCode() ^ getValue(i).hashCode();
+		return h;
+	}
+	
+	@Override
+	public String toString() {
+		return "OffHeapStringMap[size="+size+"]";
+	}
+}
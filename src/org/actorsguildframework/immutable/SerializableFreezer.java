@@ -17,6 +17,8 @@ package org.actorsguildframework.immutable;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -24,6 +26,8 @@ import java.io.Serializable;
 
 import org.actorsguildframework.ActorRuntimeException;
 import org.actorsguildframework.Immutable;
+import org.actorsguildframework.internal.util.FreezerStatistics;
+import org.actorsguildframework.internal.util.RuntimeEventDispatcher;
 
 /**
  * A class to transport Serializable objects between threads. It freezes the
@@ -43,12 +47,23 @@ public final class SerializableFreezer<T> implements Immutable {
 	 */
 	private SerializableFreezer(T object) {
 		try {
+			boolean statistics = FreezerStatistics.isEnabled();
+			boolean events = RuntimeEventDispatcher.isEnabled();
+			long start = (statistics || events) ? System.nanoTime() : 0;
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			ObjectOutputStream oos = new ObjectOutputStream(baos);
 			oos.writeObject(object);
 			oos.close();
 			
 			frozenObject = baos.toByteArray();
+			if (statistics) {
+				FreezerStatistics.freezeNanos.add(System.nanoTime() - start);
+				FreezerStatistics.freezeCount.increment();
+				FreezerStatistics.frozenBytes.add(frozenObject.length);
+			}
+			if (events)
+				RuntimeEventDispatcher.frozen((object == null) ? null : object.getClass(), frozenObject.length, 
+						System.nanoTime() - start);
 		}
 		catch (IOException e) {
 			throw new ActorRuntimeException("Error while serializing", e);
@@ -66,6 +81,40 @@ public final class SerializableFreezer<T> implements Immutable {
 		return new SerializableFreezer<T>(object);
 	}
 	
+	/**
+	 * Creates a new SerializableFreezer by reading the frozen form written by 
+	 * {@link #writeFrozen(DataOutput)}.
+	 * @param in the input to read from
+	 * @throws IOException if reading failed
+	 */
+	private SerializableFreezer(DataInput in) throws IOException {
+		frozenObject = new byte[in.readInt()];
+		in.readFully(frozenObject);
+	}
+	
+	/**
+	 * Writes the frozen form of the object, without deserializing it. Use 
+	 * {@link #readFrozen(DataInput)} to read it. 
+	 * @param out the output to write to
+	 * @throws IOException if writing failed
+	 */
+	public void writeFrozen(DataOutput out) throws IOException {
+		out.writeInt(frozenObject.length);
+		out.write(frozenObject);
+	}
+	
+	/**
+	 * Reads a SerializableFreezer that has been written by {@link #writeFrozen(DataOutput)},
+	 * without deserializing the object.
+	 * @param <T> the type of the frozen object
+	 * @param in the input to read from
+	 * @return the new SerializableFreezer
+	 * @throws IOException if reading failed
+	 */
+	public static <T> SerializableFreezer<T> readFrozen(DataInput in) throws IOException {
+		return new SerializableFreezer<T>(in);
+	}
+	
 	/**
 	 * Returns a deep copy of the frozen object.
 	 * @return the frozen object
@@ -73,9 +122,16 @@ public final class SerializableFreezer<T> implements Immutable {
 	@SuppressWarnings("unchecked")
 	public T get() {
 		try {
+			boolean statistics = FreezerStatistics.isEnabled();
+			long start = statistics ? System.nanoTime() : 0;
 			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(frozenObject)); 
 			T r = (T) ois.readObject();
 			ois.close();
+			if (statistics) {
+				FreezerStatistics.thawNanos.add(System.nanoTime() - start);
+				FreezerStatistics.thawCount.increment();
+				FreezerStatistics.thawedBytes.add(frozenObject.length);
+			}
 			return r;
 		}
 		catch (IOException e) {
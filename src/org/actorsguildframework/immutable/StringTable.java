@@ -0,0 +1,145 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.immutable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Helper functions to store a table of UTF-8 strings in a ByteBuffer, for the off-heap
+ * collections. 
+ * <p>
+ * The layout of a table at position p is:
+ * <ul>
+ * <li>the number of strings n (int)</li>
+ * <li>n+1 offsets (int each). Offset i points to the first byte of string i, relative to 
+ *   the first byte after the offsets; offset n points to the end of the last string</li>
+ * <li>the UTF-8 bytes of all strings</li>
+ * </ul>
+ * All functions use only absolute positions and do not modify the buffer's position.
+ */
+final class StringTable {
+	/**
+	 * The UTF-8 charset.
+	 */
+	final static Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private StringTable() {
+	}
+	
+	/**
+	 * Encodes the given strings in UTF-8.
+	 * @param strings the strings to encode
+	 * @param count the number of strings
+	 * @param what a description of the strings, for the error message
+	 * @return the encoded strings
+	 * @throws IllegalArgumentException if a string was null
+	 */
+	static byte[][] encode(Iterable<String> strings, int count, String what) {
+		byte[][] r = new byte[count][];
+		int i = 0;
+		for (String s: strings) {
+			if (s == null)
+				throw new IllegalArgumentException(String.format("Off-heap collections do not support null %ss.", what));
+			r[i++] = s.getBytes(UTF8);
+		}
+		return r;
+	}
+	
+	/**
+	 * Returns the size of a table for the given strings.
+	 * @param strings the encoded strings
+	 * @return the size in bytes
+	 */
+	static long getSize(byte[][] strings) {
+		long size = 4L * (strings.length + 2);
+		for (byte[] s: strings)
+			size += s.length;
+		return size;
+	}
+	
+	/**
+	 * Writes a table into the buffer.
+	 * @param buffer the buffer to write to
+	 * @param pos the position of the table
+	 * @param strings the encoded strings
+	 */
+	static void write(ByteBuffer buffer, int pos, byte[][] strings) {
+		buffer.putInt(pos, strings.length);
+		ByteBuffer data = buffer.duplicate();
+		data.position(pos + 4 * (strings.length + 2));
+		int offset = 0;
+		for (int i = 0; i < strings.length; i++) {
+			buffer.putInt(pos + 4 * (i + 1), offset);
+			data.put(strings[i]);
+			offset += strings[i].length;
+		}
+		buffer.putInt(pos + 4 * (strings.length + 1), offset);
+	}
+	
+	/**
+	 * Returns the number of strings in the table.
+	 * @param buffer the buffer 
+	 * @param pos the position of the table
+	 * @return the number of strings
+	 */
+	static int getCount(ByteBuffer buffer, int pos) {
+		return buffer.getInt(pos);
+	}
+	
+	/**
+	 * Returns the string with the given index.
+	 * @param buffer the buffer 
+	 * @param pos the position of the table
+	 * @param index the index of the string. Must be valid.
+	 * @return the string
+	 */
+	static String get(ByteBuffer buffer, int pos, int index) {
+		int n = buffer.getInt(pos);
+		int start = buffer.getInt(pos + 4 * (index + 1));
+		int end = buffer.getInt(pos + 4 * (index + 2));
+		byte[] b = new byte[end - start];
+		ByteBuffer data = buffer.duplicate();
+		data.position(pos + 4 * (n + 2) + start);
+		data.get(b);
+		return new String(b, UTF8);
+	}
+	
+	/**
+	 * Compares the string with the given index to the given UTF-8 bytes, 
+	 * without decoding the string.
+	 * @param buffer the buffer 
+	 * @param pos the position of the table
+	 * @param index the index of the string. Must be valid.
+	 * @param s the encoded string to compare to
+	 * @return true if both are equal
+	 */
+	static boolean equalsAt(ByteBuffer buffer, int pos, int index, byte[] s) {
+		int n = buffer.getInt(pos);
+		int start = buffer.getInt(pos + 4 * (index + 1));
+		int end = buffer.getInt(pos + 4 * (index + 2));
+		if (end - start != s.length)
+			return false;
+		int dataPos = pos + 4 * (n + 2) + start;
+		for (int i = 0; i < s.length; i++)
+			if (buffer.get(dataPos + i) != s[i])
+				return false;
+		return true;
+	}
+}
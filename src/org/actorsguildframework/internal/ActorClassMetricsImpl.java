@@ -0,0 +1,161 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.actorsguildframework.internal.util.Log2Histogram;
+import org.actorsguildframework.internal.util.StripedCounter;
+import org.actorsguildframework.metrics.ActorClassMetrics;
+import org.actorsguildframework.metrics.ActorClassMetricsMXBean;
+import org.actorsguildframework.metrics.HistogramSnapshot;
+
+/**
+ * Collects the metrics of an actor class. Thread-safe.
+ * @see MetricsCollector
+ */
+public final class ActorClassMetricsImpl implements ActorClassMetrics, ActorClassMetricsMXBean {
+	/**
+	 * The actor class.
+	 */
+	private final Class<?> actorClass;
+	
+	/**
+	 * The number of executed messages.
+	 */
+	private final StripedCounter messageCount = new StripedCounter();
+	
+	/**
+	 * The largest mailbox size seen so far.
+	 */
+	private final AtomicInteger mailboxHighWaterMark = new AtomicInteger();
+	
+	/**
+	 * The time between queueing and execution of the messages.
+	 */
+	private final Log2Histogram queueWait = new Log2Histogram();
+	
+	/**
+	 * The execution time of the messages.
+	 */
+	private final Log2Histogram executionTime = new Log2Histogram();
+
+	/**
+	 * Creates a new instance.
+	 * @param actorClass the actor class
+	 */
+	public ActorClassMetricsImpl(Class<?> actorClass) {
+		this.actorClass = actorClass;
+	}
+	
+	/**
+	 * Records the execution of a message.
+	 * @param queueWaitNanos the time the message spent in the mailbox, in ns
+	 * @param executionNanos the execution time, in ns
+	 */
+	public void recordMessage(long queueWaitNanos, long executionNanos) {
+		messageCount.increment();
+		queueWait.record(queueWaitNanos);
+		executionTime.record(executionNanos);
+	}
+	
+	/**
+	 * Updates the high-water mark of the mailbox size.
+	 * @param mailboxSize the current size of a mailbox
+	 */
+	public void updateMailboxSize(int mailboxSize) {
+		int hw = mailboxHighWaterMark.get();
+		while ((mailboxSize > hw) && !mailboxHighWaterMark.compareAndSet(hw, mailboxSize))
+			hw = mailboxHighWaterMark.get();
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetrics#getActorClass()
+	 */
+	public Class<?> getActorClass() {
+		return actorClass;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetrics#getMessageCount()
+	 */
+	public long getMessageCount() {
+		return messageCount.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetrics#getMailboxHighWaterMark()
+	 */
+	public int getMailboxHighWaterMark() {
+		return mailboxHighWaterMark.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetrics#getQueueWaitHistogram()
+	 */
+	public HistogramSnapshot getQueueWaitHistogram() {
+		return queueWait.snapshot();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetrics#getExecutionTimeHistogram()
+	 */
+	public HistogramSnapshot getExecutionTimeHistogram() {
+		return executionTime.snapshot();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetricsMXBean#getQueueWaitMean()
+	 */
+	public double getQueueWaitMean() {
+		return queueWait.snapshot().getMean();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetricsMXBean#getQueueWaitP50()
+	 */
+	public long getQueueWaitP50() {
+		return queueWait.snapshot().getPercentile(50);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetricsMXBean#getQueueWaitP99()
+	 */
+	public long getQueueWaitP99() {
+		return queueWait.snapshot().getPercentile(99);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetricsMXBean#getExecutionTimeMean()
+	 */
+	public double getExecutionTimeMean() {
+		return executionTime.snapshot().getMean();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetricsMXBean#getExecutionTimeP50()
+	 */
+	public long getExecutionTimeP50() {
+		return executionTime.snapshot().getPercentile(50);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.ActorClassMetricsMXBean#getExecutionTimeP99()
+	 */
+	public long getExecutionTimeP99() {
+		return executionTime.snapshot().getPercentile(99);
+	}
+}
@@ -15,11 +15,19 @@
  */
 package org.actorsguildframework.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.actorsguildframework.Actor;
+import org.actorsguildframework.AgentShutdownException;
+import org.actorsguildframework.AsyncResult;
 import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.ImmediateResult;
+import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.OneWay;
+import org.actorsguildframework.annotations.Priority;
 import org.actorsguildframework.annotations.ThreadUsage;
 import org.actorsguildframework.internal.util.FastQueue;
 import org.actorsguildframework.internal.util.L;
@@ -32,6 +40,11 @@ public abstract class ActorState extends FastQueue.Entry{
 	private final static L log = new L(DefaultAgent.class);
 	private final static AtomicLong actorIdGenerator = new AtomicLong();
 	
+	/**
+	 * The result returned for all one-way messages (see {@link OneWay}).
+	 */
+	private final static ImmediateResult<Void> ONE_WAY_RESULT = new ImmediateResult<Void>(null);
+	
 	/**
 	 * A reference to the Actor's scheduler.
 	 */
@@ -47,14 +60,45 @@ public abstract class ActorState extends FastQueue.Entry{
 	 */
 	private final long actorNumber = actorIdGenerator.addAndGet(1);
 	
+	/**
+	 * The metrics of the actor's class, or null if metrics are disabled.
+	 */
+	private final ActorClassMetricsImpl classMetrics;
+	
 	/**
 	 * Contains the list of all incoming messages that need to be processed in this 
 	 * actor.
 	 * 
 	 * Locking policy: you must lock {@link ControllerImplementation#actorLock} before accessing this field.
-	 * @see #mailboxMT 
 	 */	
-	protected final FastQueue<MessageInvocation<?>> mailbox;
+	protected final Mailbox mailbox;
+	
+	/**
+	 * The highest priority in the mailbox at the time the actor has been registered in 
+	 * the controller's queue.
+	 * 
+	 * Locking policy: you must lock {@link ControllerImplementation#actorLock} before accessing this field.
+	 */
+	private int registeredPriority = Priority.NORMAL;
+	
+	/**
+	 * The controller queue that the actor is currently in, or null if it is in no queue.
+	 * Managed by the controller.
+	 * 
+	 * Locking policy: you must lock {@link ControllerImplementation#actorLock} before accessing this field.
+	 */
+	FastQueue<ActorState> schedulingQueue;
+	
+	/**
+	 * The worker group the actor will be queued in.
+	 */
+	private final WorkerGroup homeGroup;
+	
+	/**
+	 * The journal for durable messages, or null if the actor's durable messages are
+	 * not logged.
+	 */
+	private volatile MessageJournal journal;
 	
 	/**
 	 * Creates a new ActorState instance.
@@ -64,7 +108,10 @@ public abstract class ActorState extends FastQueue.Entry{
 	public ActorState(Controller scheduler, Actor actor) {
 		this.controller = scheduler;
 		this.actor = actor;
-		this.mailbox = new FastQueue<MessageInvocation<?>>();
+		this.mailbox = new Mailbox();
+		this.homeGroup = scheduler.assignHomeGroup();
+		MetricsCollector metrics = scheduler.getMetrics();
+		this.classMetrics = (metrics != null) ? metrics.getOrCreateActorClassMetrics(actor.getClass().getSuperclass()) : null;
 	}
 
 	/**
@@ -75,15 +122,26 @@ public abstract class ActorState extends FastQueue.Entry{
 		return actor;
 	}
 	
+	/**
+	 * Returns the worker group the actor will be queued in. Workers of other groups
+	 * only execute the actor if they have nothing else to do.
+	 * @return the home group
+	 */
+	public WorkerGroup getHomeGroup() {
+		return homeGroup;
+	}
+	
 	/**
 	 * Adds the given message invocation to the appropriate queue.
 	 * 
 	 * @param invk the invocation of the initializer
 	 */
-	private void addInvokationMessage(MessageInvocation<?> invk) {
+	protected void addInvokationMessage(MessageInvocation<?> invk) {
 		controller.getActorLock().lock();
 		try {
 			mailbox.add(invk);
+			if (classMetrics != null)
+				classMetrics.updateMailboxSize(mailbox.size());
 			updateControllerQueueUnsynchronized();
 		}
 		finally {
@@ -96,14 +154,31 @@ public abstract class ActorState extends FastQueue.Entry{
 	 * @param caller the caller to use
 	 * @param usage the thread usage of the message
 	 * @param args the arguments of the message. Will be copied (deep copy for mutables)
-	 * @return the result handle
+	 * @return the result handle. For one-way messages, an AsyncResult that is always ready
+	 * @throws AgentShutdownException if the agent is shutting down and does not accept the message
+	 * @throws org.actorsguildframework.ActorRuntimeException if the message could not be 
+	 *   written to the actor's journal
 	 */
 	@SuppressWarnings("unchecked")
-	public AsyncResultImpl<?> queueMessage(MessageCaller caller, ThreadUsage usage, Object[] args) {
+	public AsyncResult<?> queueMessage(MessageCaller<?> caller, ThreadUsage usage, Object[] args) {
 		
 		MessageInvocation superInvk = ThreadState.get().getCurrentInvocation();
+		controller.admitMessage(superInvk == null);
 		MessageInvocation invk = new MessageInvocation(this, caller, args, superInvk, 
 				usage, false);
+		MessageJournal j = journal;
+		if (j != null) {
+			long seq;
+			try {
+				seq = j.append(caller, args);
+			}
+			catch (RuntimeException e) {
+				controller.recordCompletedMessages(1); // the message has been admitted, but will never run
+				throw e;
+			}
+			if (seq >= 0)
+				invk.setJournalEntry(j, seq);
+		}
 
 		if (controller.isLoggingActions())
 			log.info("Queueing message #%d for #%d (%s): %s(%s)",
@@ -112,6 +187,8 @@ public abstract class ActorState extends FastQueue.Entry{
 					caller.getMessageName(), Arrays.deepToString(args));
 
 		addInvokationMessage(invk);
+		if (caller.isOneWay())
+			return ONE_WAY_RESULT;
 		return invk.getAsyncResult();
 	}
 	
@@ -147,6 +224,137 @@ public abstract class ActorState extends FastQueue.Entry{
 	 */
 	public abstract void updateControllerQueueUnsynchronized();
 	
+	/**
+	 * Removes the given message from the mailbox, if it has not been started yet.
+	 * A removed message is discarded in the journal that logged it.
+	 * @param invk the message to remove. Must have been sent to this actor.
+	 * @return true if the message has been removed, false if it was not in the mailbox
+	 */
+	public boolean removeMessage(MessageInvocation<?> invk) {
+		controller.getActorLock().lock();
+		try {
+			if (!mailbox.isInQueue(invk) || !mailbox.remove(invk))
+				return false;
+			updateControllerQueueUnsynchronized();
+		}
+		finally {
+			controller.getActorLock().unlock();
+		}
+		invk.discardJournalEntry();
+		return true;
+	}
+	
+	/**
+	 * Removes all messages from the mailbox, for example because the controller shuts down.
+	 * You must lock the {@link ControllerImplementation#actorLock} before calling this method.
+	 * @param removedMessages receives the removed messages
+	 */
+	public void removeAllMessagesUnsynchronized(List<MessageInvocation<?>> removedMessages) {
+		MessageInvocation<?> m;
+		while ((m = mailbox.pop()) != null)
+			removedMessages.add(m);
+		updateControllerQueueUnsynchronized();
+	}
+	
+	/**
+	 * Removes the invocations that directly follow the given message in the mailbox,
+	 * if they are invocations of the same message and the message supports batches
+	 * (see {@link org.actorsguildframework.annotations.Batch}).
+	 * 
+	 * Locking policy: you must lock {@link ControllerImplementation#actorLock} before calling this.
+	 * @param first the first message of the batch, already removed from the mailbox
+	 * @return the batch, including first, or null if no other invocation could be added to it
+	 */
+	protected List<MessageInvocation<?>> popBatchUnsynchronized(MessageInvocation<?> first) {
+		MessageCaller<?> caller = first.getCaller();
+		int maxSize = caller.getMaxBatchSize();
+		if (maxSize < 2)
+			return null;
+		
+		ArrayList<MessageInvocation<?>> batch = null;
+		MessageInvocation<?> next;
+		while (((next = mailbox.peek()) != null) && (next.getCaller() == caller) && 
+				((batch == null) || (batch.size() < maxSize))) {
+			if (batch == null) {
+				batch = new ArrayList<MessageInvocation<?>>();
+				batch.add(first);
+			}
+			batch.add(mailbox.pop());
+		}
+		return batch;
+	}
+	
+	/**
+	 * Executes the given message or batch. 
+	 * @param msg the message to execute
+	 * @param batch the batch that contains the message, or null to execute only the message
+	 * @param ts the current ThreadState
+	 * @see #popBatchUnsynchronized(MessageInvocation)
+	 */
+	protected static void runMessageOrBatchNow(MessageInvocation<?> msg, List<MessageInvocation<?>> batch, ThreadState ts) {
+		if (batch == null)
+			msg.runMessageNow(ts);
+		else
+			MessageInvocation.runBatchNow(ts, batch);
+	}
+	
+	/**
+	 * Updates the priority that is used for registering the actor in the controller to 
+	 * the highest priority in the mailbox.
+	 * You must lock the {@link ControllerImplementation#actorLock} before calling this method.
+	 * @return true if the priority has changed, false otherwise
+	 */
+	protected boolean updateRegisteredPriorityUnsynchronized() {
+		int p = getHighestPriorityUnsynchronized();
+		if (p == registeredPriority)
+			return false;
+		registeredPriority = p;
+		return true;
+	}
+	
+	/**
+	 * Returns the highest priority of the messages that are waiting for execution.
+	 * You must lock the {@link ControllerImplementation#actorLock} before calling this method.
+	 * @return the highest priority, or {@link Priority#NORMAL} if there are no messages
+	 */
+	protected int getHighestPriorityUnsynchronized() {
+		return mailbox.getHighestPriority();
+	}
+	
+	/**
+	 * Returns the highest priority of the messages in the mailbox, as it has been when the
+	 * actor's registration in the controller has been updated the last time.
+	 * You must lock the {@link ControllerImplementation#actorLock} before calling this method.
+	 * @return the priority
+	 */
+	public int getRegisteredPriorityUnsynchronized() {
+		return registeredPriority;
+	}
+	
+	/**
+	 * Sets the journal that logs the invocations of the actor's messages.
+	 * @param journal the journal, or null to stop logging
+	 */
+	public void setJournal(MessageJournal journal) {
+		this.journal = journal;
+	}
+	
+	/**
+	 * Returns the journal that logs the invocations of the actor's messages.
+	 * @return the journal, or null if messages are not logged
+	 */
+	public MessageJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Returns the metrics of the actor's class.
+	 * @return the metrics, or null if metrics are disabled
+	 */
+	public ActorClassMetricsImpl getClassMetrics() {
+		return classMetrics;
+	}
+	
 	/**
 	 * Returns the Controller of the actor.
 	 * @return the controller
@@ -163,6 +371,40 @@ public abstract class ActorState extends FastQueue.Entry{
 		return actorNumber;
 	}
 
+	/**
+	 * Returns the number of messages that are waiting in the actor's mailbox. The value
+	 * is read without locking and thus only an estimate, meant for load balancing.
+	 * @return the estimated number of queued messages
+	 */
+	public int getQueueLengthEstimate() {
+		return mailbox.size();
+	}
+
+	/**
+	 * Creates the state for a new actor proxy. Called by the constructor of the generated
+	 * proxy classes. If {@link RouterActorState#prepare(RouterActorState.Setup)} has been 
+	 * called in this thread, a {@link RouterActorState} will be created, and after
+	 * {@link RemoteActorState#prepare(MessageForwarder)} a {@link RemoteActorState}. 
+	 * Otherwise the state for the actor's concurrency model.
+	 * @param controller the controller of the actor
+	 * @param actor the new actor
+	 * @param model the concurrency model of the actor's class
+	 * @return the new state
+	 */
+	public static ActorState createState(Controller controller, Actor actor, ConcurrencyModel model) {
+		RouterActorState.Setup routerSetup = RouterActorState.takePreparedSetup();
+		if (routerSetup != null)
+			return new RouterActorState(controller, actor, routerSetup);
+		MessageForwarder forwarder = RemoteActorState.takePreparedForwarder();
+		if (forwarder != null)
+			return new RemoteActorState(controller, actor, forwarder);
+		if (model.isMultiThreadingCapable())
+			return new MultiThreadedActorState(controller, actor);
+		if (model == ConcurrencyModel.Pinned)
+			return new PinnedActorState(controller, actor);
+		return new SingleThreadedActorState(controller, actor);
+	}
+
 	/**
 	 * Returns the state of the given actor instance.
 	 * @param actor the actor
@@ -16,15 +16,21 @@
 package org.actorsguildframework.internal;
 
 import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.actorsguildframework.Actor;
 import org.actorsguildframework.ActorException;
 import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.AsyncResultFuture;
 import org.actorsguildframework.ImmediateResult;
+import org.actorsguildframework.ResultTimeoutException;
 import org.actorsguildframework.WrappedException;
 import org.actorsguildframework.immutable.ImmutableHelper;
 import org.actorsguildframework.immutable.SerializableFreezer;
 import org.actorsguildframework.internal.util.L;
+import org.actorsguildframework.internal.util.RuntimeEventDispatcher;
 
 /**
  * The 'real' implementation of AsyncResult that waits for the asynchronously running message to
@@ -115,54 +121,100 @@ public final class AsyncResultImpl<T> implements AsyncResult<T> {
 	}
 
 	/**
-	 * Sleeps until a result is available. 
+	 * Sleeps until a result is available, or until the deadline passed. 
 	 * @param ts the current ThreadState
-	 * @param throwExceptionif true, the method throws an exception if that is the method result. 
-	 *    Otherwise it returns null instead.
-	 * @return the result, or null for error
+	 * @param timed if true, the method returns when the deadline passed
+	 * @param deadlineNanos the deadline as value of {@link System#nanoTime()}. Ignored unless
+	 *    timed is set.
+	 * @return true if the result is available, false if the deadline passed
 	 * @throws ActorException if the {@link #wait()} is interrupted
-	 * @throws WrappedException if the message threw an exception and throwException was set
 	 */
-	@SuppressWarnings("unchecked")
-	private T sleepUntilResultAvailable(ThreadState ts, boolean throwException)
+	private boolean sleepUntilResultAvailable(ThreadState ts, boolean timed, long deadlineNanos)
 			throws ActorException {
 		synchronized (this) {
 			try {
-				WorkerState oldState = ts.setState(WorkerState.WaitingInternal);
-				while (mState == State.NOT_DONE)
-					this.wait();
-				ts.setState(oldState);
+				if (mState == State.NOT_DONE) {
+					long start = RuntimeEventDispatcher.isEnabled() ? System.nanoTime() : 0;
+					WorkerState oldState = ts.setState(WorkerState.WaitingInternal);
+					while (mState == State.NOT_DONE) {
+						if (!timed)
+							this.wait();
+						else {
+							long remaining = deadlineNanos - System.nanoTime();
+							if (remaining <= 0)
+								break;
+							TimeUnit.NANOSECONDS.timedWait(this, remaining);
+						}
+					}
+					ts.setState(oldState);
+					if (start != 0)
+						fireResultWait(System.nanoTime() - start);
+				}
 			}
 			catch (InterruptedException e) {
 				throw new ActorException("Got InterruptedException while waiting", e);
 			}
-			
-			if (mState == State.DONE_IMMUTABLE)
-				return (T) resultValue;
-			else if (mState == State.DONE_FROZEN)
-				return ((SerializableFreezer<T>) resultValue).get();
-			else if (throwException)
-				throw new WrappedException("Got exception", (Throwable) resultValue);
-			else
-				return null;
+			return mState != State.NOT_DONE;
 		}
 	}
+	
+	/**
+	 * Returns the result. The result must be available.
+	 * You must synchronize on this instance before calling this.
+	 * @return the result
+	 * @throws WrappedException if the message threw an exception
+	 */
+	@SuppressWarnings("unchecked")
+	private T getResultUnsynchronized() {
+		if (mState == State.DONE_IMMUTABLE)
+			return (T) resultValue;
+		else if (mState == State.DONE_FROZEN)
+			return ((SerializableFreezer<T>) resultValue).get();
+		else
+			throw new WrappedException("Got exception", (Throwable) resultValue);
+	}
 
 
+	/**
+	 * Sends the resultWait event to the {@link RuntimeEventDispatcher}.
+	 * @param waitNanos the time the thread waited, in ns
+	 */
+	private void fireResultWait(long waitNanos) {
+		ActorState target = mInvocation.getTargetActor();
+		RuntimeEventDispatcher.resultWait(target.getController().getAgent(), 
+				target.getActor().getClass().getSuperclass(), mInvocation.getCaller().getMessageName(), waitNanos);
+	}
+
 	/**
 	 * Sleeps until a result is available. Tries to execute the message it is waiting for
 	 * to accelerate the result.
-	 * @param throwException if true, the method throws an exception if that is the method result. 
-	 *    Otherwise it returns null instead.
-	 * @return the result, or null for error
-	 * @throws WrappedException if the message threw an exception and throwException was set
 	 */
-	private T tryExecuteOrSleepUntilResultIsAvailable(boolean throwException) {
+	private void tryExecuteOrSleepUntilResultIsAvailable() {
 		ThreadState ts = ThreadState.get();
 		
 		// try to execute the message we wait for now (better than waiting for another thread to do it)
-		mInvocation.getTargetActor().tryExecuteNow(mInvocation, ts);
-		return sleepUntilResultAvailable(ts, throwException);
+		tryExecuteNow(ts);
+		sleepUntilResultAvailable(ts, false, 0);
+	}
+	
+	/**
+	 * Tries to execute the message in the current thread, and records the attempt in
+	 * the metrics.
+	 * @param ts the current ThreadState
+	 * @return true if the message has been executed
+	 */
+	private boolean tryExecuteNow(ThreadState ts) {
+		ActorState target = mInvocation.getTargetActor();
+		Controller c = ts.getController();
+		if ((c != null) && (c != target.getController()))
+			return false; // never execute the actors of another dispatcher
+		if (target.getController().isTerminated())
+			return false;
+		boolean hit = target.tryExecuteNow(mInvocation, ts);
+		MetricsCollector metrics = target.getController().getMetrics();
+		if (metrics != null)
+			metrics.recordTryExecute(hit);
+		return hit;
 	}
 	
 	/* (non-Javadoc)
@@ -179,9 +231,26 @@ public final class AsyncResultImpl<T> implements AsyncResult<T> {
 				throw new WrappedException("Got exception", (Exception) resultValue);
 		}
 
-		return tryExecuteOrSleepUntilResultIsAvailable(true);
+		tryExecuteOrSleepUntilResultIsAvailable();
+		synchronized (this) {
+			return getResultUnsynchronized();
+		}
 	}
 
+	/**
+	 * Waits until the result is ready or the timeout expired, and then returns it. 
+	 * Unlike {@link #get()}, it never executes the message in the current thread, 
+	 * as this could take longer than the timeout.
+	 * @see org.actorsguildframework.AsyncResult#get(long, java.util.concurrent.TimeUnit)
+	 */
+	public T get(long timeout, TimeUnit unit) {
+		if (!await(timeout, unit))
+			throw new ResultTimeoutException(String.format("Message %s() did not return a result within %d %s.", 
+					mInvocation.getCaller().getMessageName(), timeout, unit));
+		synchronized (this) {
+			return getResultUnsynchronized();
+		}
+	}
 
 	/* (non-Javadoc)
 	 * @see org.actorsguildframework.AsyncResult#waitForResult()
@@ -191,7 +260,41 @@ public final class AsyncResultImpl<T> implements AsyncResult<T> {
 			if (mState != State.NOT_DONE)
 				return;
 		}
-		tryExecuteOrSleepUntilResultIsAvailable(false);
+		tryExecuteOrSleepUntilResultIsAvailable();
+	}
+
+	/**
+	 * Blocks until the result is ready or the timeout expired. Unlike {@link #await()}, 
+	 * it never executes the message in the current thread, as this could take longer 
+	 * than the timeout.
+	 * @see org.actorsguildframework.AsyncResult#await(long, java.util.concurrent.TimeUnit)
+	 */
+	public boolean await(long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized(this) {
+			if (mState != State.NOT_DONE)
+				return true;
+		}
+		return sleepUntilResultAvailable(ThreadState.get(), true, deadline);
+	}
+	
+	/**
+	 * Removes the message from the mailbox of its actor and sets a 
+	 * {@link CancellationException} as result. 
+	 * @see org.actorsguildframework.AsyncResult#cancel()
+	 */
+	public boolean cancel() {
+		synchronized(this) {
+			if (mState != State.NOT_DONE)
+				return false;
+		}
+		ActorState target = mInvocation.getTargetActor();
+		if (!target.removeMessage(mInvocation))
+			return false;
+		target.getController().recordCompletedMessages(1);
+		resultException(new CancellationException(String.format("Message %s() has been cancelled.",
+				mInvocation.getCaller().getMessageName())));
+		return true;
 	}
 
 
@@ -266,7 +369,9 @@ public final class AsyncResultImpl<T> implements AsyncResult<T> {
 	}
 	
 	/**
-	 * Call this when the result is ready.
+	 * Call this when the result is ready. Only the first result will be set, later calls
+	 * are ignored (this happens when the controller has been terminated while the message
+	 * was running).
 	 * @param state the type of result (must not be NOT_DONE!!)
 	 * @param result the result or exception (may be null if the result is null)
 	 */
@@ -276,6 +381,8 @@ public final class AsyncResultImpl<T> implements AsyncResult<T> {
 		
 		Notifier[] notifiersCopy = null;
 		synchronized (this) {
+			if (mState != State.NOT_DONE)
+				return;
 			mState = state;
 			resultValue = result;
 			if (notifiers != null) {
@@ -350,6 +457,14 @@ public final class AsyncResultImpl<T> implements AsyncResult<T> {
 			if (mState != State.NOT_DONE)
 				return true;
 		}
-		return mInvocation.getTargetActor().tryExecuteNow(mInvocation, ts);
+		return tryExecuteNow(ts);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#toFuture()
+	 */
+	public Future<T> toFuture() {
+		return new AsyncResultFuture<T>(this);
 	}
 }
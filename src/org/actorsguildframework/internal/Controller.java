@@ -17,7 +17,10 @@ package org.actorsguildframework.internal;
 
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.actorsguildframework.Actor;
 import org.actorsguildframework.Agent;
+import org.actorsguildframework.AgentShutdownException;
+import org.actorsguildframework.MessageExceptionHandler;
 
 /**
  * Controller interface. This is the central interface for the library code. 
@@ -28,13 +31,22 @@ public interface Controller {
 	 * Returns the next Actor to process from the queue and puts it at the end of the queue.
 	 * Thus the thread that takes it does not own it and it stays in the queue until the
 	 * thread actually empties the queue or locks the actor.
+	 * Actors of the worker's own group will be returned first.
 	 * You must lock actorLock before calling this!
+	 * @param group the worker group of the calling thread
 	 * @return the actor. Null if the actor queue is empty.
 	 * @throws InterruptedException if the thread is interrupted
 	 */
-	public ActorState getNextFromQueueUnsynchronized()
+	public ActorState getNextFromQueueUnsynchronized(WorkerGroup group)
 			throws InterruptedException;
 
+	/**
+	 * Returns the worker group for a new actor. Actors created by another actor's 
+	 * message share the creator's group, all others are distributed over the groups.
+	 * @return the home group for the new actor
+	 */
+	public WorkerGroup assignHomeGroup();
+
 	/**
 	 * Makes sure that the given actor is either in the queue or not, depending on the second 
 	 * argument. 
@@ -57,8 +69,25 @@ public interface Controller {
 	/**
 	 * Removes the state of a thread from the statistics.
 	 * @param oldState the thread's old state
+	 * @param group the worker group of the thread
+	 */
+	public void removeWorkerThreadState(WorkerState oldState, WorkerGroup group);
+
+	/**
+	 * Notifies the controller that a new message will be queued. 
+	 * @param external true if the message is sent by a thread that is not executing a message
+	 * @throws AgentShutdownException if the controller is terminated, or if it is draining 
+	 *         and the message is external
+	 */
+	public void admitMessage(boolean external);
+	
+	/**
+	 * Notifies the controller that messages have been completed. Used to measure 
+	 * the throughput for sizing the thread pool, and to find out when the controller
+	 * is drained.
+	 * @param count the number of completed messages
 	 */
-	public void removeWorkerThreadState(WorkerState oldState);
+	public void recordCompletedMessages(int count);
 
 	/**
 	 * Returns the agent of the controller.
@@ -66,6 +95,16 @@ public interface Controller {
 	 */
 	public Agent getAgent();
 
+	/**
+	 * Reports an exception that can not be returned to the sender of the message, 
+	 * for example because the message is a one-way message. 
+	 * @param actor the actor that executed the message
+	 * @param messageName the name of the message
+	 * @param exception the exception
+	 * @see MessageExceptionHandler
+	 */
+	public void handleUncaughtException(Actor actor, String messageName, Throwable exception);
+
 	/**
 	 * Returns a KeepRunningInterface for a worker that will tell the worker when to stop. 
 	 * @return the interface
@@ -78,6 +117,18 @@ public interface Controller {
 	 */
 	public boolean isLoggingActions();
 
+	/**
+	 * Returns the metrics collector of the controller.
+	 * @return the metrics collector, or null if metrics are disabled
+	 */
+	public MetricsCollector getMetrics();
+
+	/**
+	 * Returns the tracer of the controller.
+	 * @return the tracer, or null if tracing is disabled
+	 */
+	public Tracer getTracer();
+
 	/**
 	 * Returns the actor lock for accessing an ActorState of this Controller or and the 
 	 * mActorsWithWork list. 
@@ -85,10 +136,55 @@ public interface Controller {
 	 */
 	public ReentrantLock getActorLock();
 	
+	/**
+	 * Returns the number of lanes that multi-threaded actors split their messages into. 
+	 * @return the number of lanes, at least 1
+	 * @see MultiThreadedActorState
+	 */
+	public int getLaneCount();
+	
+	/**
+	 * Starts the dedicated thread of a pinned actor. The thread will be stopped
+	 * when the controller shuts down.
+	 * @param actorState the state of the actor, whose {@link PinnedActorState#run()} will be
+	 *        executed by the new thread
+	 */
+	public void startPinnedThread(PinnedActorState actorState);
+	
+	/**
+	 * Lets the controller stop accepting external messages (see {@link #admitMessage(boolean)}).
+	 * Messages sent by actors will still be accepted, so the queued messages can be finished.
+	 */
+	public void startDraining();
+	
+	/**
+	 * Waits until all queued messages have been processed.
+	 * @param deadlineNanos the deadline, as value of {@link System#nanoTime()}
+	 * @return true if all messages have been processed, false if the deadline passed or 
+	 *         the thread has been interrupted
+	 */
+	public boolean awaitDrained(long deadlineNanos);
+	
 	/**
 	 * Tries to shut down the controller with all its threads as soon as possible. Messages 
-	 * that have not been processed yet may not be processed. There is no guarantee
-	 * that this operation succeeds.
+	 * that have not been processed yet will not be processed, but fail with an 
+	 * {@link AgentShutdownException}. The messages of actors that are busy fail when the
+	 * running message has finished. There is no guarantee that the threads of running 
+	 * messages terminate.
 	 */
 	public void shutdown();
+	
+	/**
+	 * Checks whether {@link #shutdown()} has been called.
+	 * @return true if the controller is terminated
+	 */
+	public boolean isTerminated();
+	
+	/**
+	 * Waits until all threads of the controller have finished after {@link #shutdown()}.
+	 * @param deadlineNanos the deadline, as value of {@link System#nanoTime()}
+	 * @return true if all threads have finished, false if the deadline passed
+	 * @throws InterruptedException if the thread has been interrupted
+	 */
+	public boolean awaitTermination(long deadlineNanos) throws InterruptedException;
 }
\ No newline at end of file
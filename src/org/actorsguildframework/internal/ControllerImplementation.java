@@ -15,15 +15,25 @@
  */
 package org.actorsguildframework.internal;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AffinityProvider;
 import org.actorsguildframework.Agent;
+import org.actorsguildframework.AgentShutdownException;
+import org.actorsguildframework.MessageExceptionHandler;
+import org.actorsguildframework.annotations.Priority;
 import org.actorsguildframework.internal.util.FastQueue;
 import org.actorsguildframework.internal.util.L;
+import org.actorsguildframework.internal.util.RuntimeEventDispatcher;
+import org.actorsguildframework.internal.util.StripedCounter;
 
 /**
  * Main class. Controls threads as well as the list of actors that have work to do.
@@ -40,27 +50,103 @@ public final class ControllerImplementation implements Controller {
 	private final Agent agent;
 
 	/**
-	 * An executor (for thread-pooling) to use.
+	 * The worker groups. There is always at least one group. Each group has its own
+	 * thread pool and its own queues.
 	 */
-	private final ExecutorService executor;
+	private final WorkerGroup[] groups;
+	
+	/**
+	 * Used to distribute new actors over the groups.
+	 */
+	private final AtomicInteger nextHomeGroup = new AtomicInteger();
+	
+	/**
+	 * The number of lanes of multi-threaded actors.
+	 */
+	private final int laneCount;
+	
+	/**
+	 * The ThreadFactory for the threads of pinned actors.
+	 */
+	private final ThreadFactory threadFactory;
+	
+	/**
+	 * The pinned actors whose thread has been started. 
+	 * Locking policy: synchronize on the list before accessing it.
+	 */
+	private final List<PinnedActorState> pinnedActors = new ArrayList<PinnedActorState>();
+	
+	/**
+	 * Set when the controller has been shut down. 
+	 * Locking policy: synchronize on {@link #pinnedActors} before accessing it.
+	 */
+	private boolean shutdown;
+	
+	/**
+	 * Run state: the controller accepts all messages.
+	 */
+	private final static int RUNNING = 0;
+	
+	/**
+	 * Run state: the controller accepts only messages sent by actors.
+	 */
+	private final static int DRAINING = 1;
+	
+	/**
+	 * Run state: the controller has been shut down.
+	 */
+	private final static int TERMINATED = 2;
+	
+	/**
+	 * The maximum time between two checks in {@link #awaitDrained(long)}, in ms. The message 
+	 * counters can not be read atomically, so a notification may be missed.
+	 */
+	private final static long DRAIN_CHECK_INTERVAL_MILLIS = 50;
+	
+	/**
+	 * The run state, one of {@link #RUNNING}, {@link #DRAINING} and {@link #TERMINATED}.
+	 */
+	private volatile int runState = RUNNING;
+	
+	/**
+	 * Lock that is notified when the controller may be drained or terminated.
+	 */
+	private final Object drainLock = new Object();
+	
+	/**
+	 * Released when the controller has been shut down.
+	 */
+	private final CountDownLatch terminatedLatch = new CountDownLatch(1);
 	
 	/**
 	 * Lock for accessing an ActorState managed by this Controller or the mActorsWithWork list. 
 	 */
 	private final ReentrantLock actorLock = new ReentrantLock();
 	
-	/**
-	 * Contains a list of all actors that have unprocessed messages. Note that some
-	 * actors may be busy and are unable to execute a message. It is also not guaranteed 
-	 * that the list is always complete, for implementation reasons 
-	 * (in {@link ActorState#reacquireBusyLock(MessageInvocation)}) there is a small lag.
+	/*
+	 * Each worker group contains a list of all actors that have unprocessed messages 
+	 * (WorkerGroup.actorsWithWork). Note that some actors may be busy and are unable 
+	 * to execute a message. It is also not guaranteed that the list is always complete, 
+	 * for implementation reasons (in {@link ActorState#reacquireBusyLock(MessageInvocation)}) 
+	 * there is a small lag.
 	 * 
 	 * Threads should pick up the first ActorState that can be executed. If they find a task,
 	 * they should put it at the end. New entries should be inserted at the end as well.
 	 * 
-	 * Locking policy: you must synchronize actorLock before accessing this queue. 
+	 * Actors that have unprocessed messages with a priority higher than
+	 * {@link Priority#NORMAL} are in WorkerGroup.urgentActorsWithWork instead, if 
+	 * priorityScheduling is enabled. Threads will always take actors from the urgent
+	 * queues before they look into the others. 
+	 * An actor can be either in the urgent queue or in actorsWithWork, but not in both.
+	 * 
+	 * Locking policy: you must synchronize actorLock before accessing these queues. 
 	 */	
-	private final FastQueue<ActorState> actorsWithWork = new FastQueue<ActorState>(); 
+
+	/**
+	 * If enabled, actors that have messages with a high priority will be processed before
+	 * all other actors.
+	 */
+	private final boolean priorityScheduling;
 	
 
 	/**
@@ -80,18 +166,44 @@ public final class ControllerImplementation implements Controller {
 	private final boolean logActions;
 	
 	/**
-	 * Lock for accessing threadStatistics and activeThreads. 
+	 * Receives exceptions that can not be returned to the sender. If null, they will be logged.
+	 */
+	private final MessageExceptionHandler messageExceptionHandler;
+	
+	/**
+	 * Collects the metrics of the controller, or null if metrics are disabled.
+	 */
+	private final MetricsCollector metrics;
+	
+	/**
+	 * Records the execution of messages, or null if tracing is disabled.
+	 */
+	private final Tracer tracer;
+	
+	/**
+	 * The interval in which the number of threads is corrected, if no other event 
+	 * triggers a correction, in ns.
+	 */
+	final static long CORRECTION_INTERVAL_NANOS = 10 * 1000 * 1000;
+	
+	/**
+	 * Lock for correcting the number of threads, and for accessing workerThreads and 
+	 * the poolSizer. It is not needed when a thread only changes its state.
 	 * Anti-Deadlock: You may lock this after the actorLock, but never before!
 	 */
 	private Object threadLock = new Object();
 	
 	/**
-	 * An array that counts threads in the {@link WorkerState} states.
-	 * The index corresponds to the WorkerState ordinal number.
-	 * 
-	 * Locking policy: you must synchronize threadLock before accessing this queue. 
+	 * Counts threads in the {@link WorkerState} states.
+	 * The index corresponds to the WorkerState ordinal number. The counters are
+	 * striped, so threads can change their state without contention. 
+	 */
+	private final StripedCounter[] threadStatistics = createThreadStatistics();
+	
+	/**
+	 * The time of the next periodic correction of the number of threads, in ns.
 	 */
-	private int[] threadStatistics = new int[WorkerState.values().length];
+	private volatile long nextCorrectionNanos = System.nanoTime() + CORRECTION_INTERVAL_NANOS;
 	
 	/**
 	 * Counts the number of threads that the Controller is currently managing. 
@@ -103,18 +215,33 @@ public final class ControllerImplementation implements Controller {
 	/**
 	 * Returns the number of additional parallel tasks that could be processed, if there were
 	 * enough threads for this.
-	 * 
-	 * Locking policy: you must synchronize threadLock before accessing this field. 
 	 */
-	private int numberOfOpenParallelTasks;
+	private final AtomicInteger numberOfOpenParallelTasks = new AtomicInteger();
 
 	/**
 	 * Returns the number of threads that should terminate themselves in order to get 
-	 * have an optimal number of threads running
+	 * have an optimal number of threads running. Workers claim a kill with a CAS, 
+	 * so checking whether to terminate does not need a lock.
+	 */
+	private final AtomicInteger numberOfThreadsToKill = new AtomicInteger();
+	
+	/**
+	 * Determines the number of effective threads from the measured throughput, or null 
+	 * if the pool size is only limited by {@link #maxEffectiveWorker}.
 	 * 
 	 * Locking policy: you must synchronize threadLock before accessing this field. 
 	 */
-	private int numberOfThreadsToKill;
+	private final ThreadPoolSizer poolSizer;
+	
+	/**
+	 * Counts the messages that have been admitted for queueing.
+	 */
+	private final StripedCounter admittedMessages = new StripedCounter();
+	
+	/**
+	 * Counts the completed messages.
+	 */
+	private final StripedCounter completedMessages = new StripedCounter();
 	
 	/**
 	 * Creates a new controller.
@@ -122,24 +249,137 @@ public final class ControllerImplementation implements Controller {
 	 * @param threadFactory the ThreadFactory to use
 	 * @param maxPhysicalWorker the maximum number of physical worker threads to run
 	 * @param maxEffectiveWorker the maximum number of effective worker threads to run
+	 * @param adaptivePoolSizing if true, the number of effective worker threads will be 
+	 *        determined from the measured throughput, up to maxEffectiveWorker
 	 * @param logActions if true, actions like messages will be logged
+	 * @param priorityScheduling if true, actors with high-priority messages will be 
+	 *        processed first
+	 * @param messageExceptionHandler the handler for exceptions that can not be returned to the sender,
+	 *        or null to log them
+	 * @param metricsEnabled if true, metrics will be collected
+	 * @param jmxName the name to register the metrics in JMX, or null to skip the registration
+	 * @param tracer the tracer to record the execution of messages, or null to disable tracing
+	 * @param workerGroupCpus the CPUs of each worker group, or null for a single group
+	 *        whose threads are not pinned
+	 * @param affinityProvider the provider to pin the threads of the worker groups, or null
 	 */
 	public ControllerImplementation(Agent agent, ThreadFactory threadFactory, int maxPhysicalWorker, int maxEffectiveWorker,
-			boolean logActions) {
+			boolean adaptivePoolSizing, boolean logActions, boolean priorityScheduling, MessageExceptionHandler messageExceptionHandler,
+			boolean metricsEnabled, String jmxName, Tracer tracer,
+			int[][] workerGroupCpus, AffinityProvider affinityProvider) {
 		this.agent = agent;
-		this.executor = Executors.newCachedThreadPool(threadFactory);
+		this.threadFactory = threadFactory;
+		if ((workerGroupCpus == null) || (workerGroupCpus.length == 0))
+			this.groups = new WorkerGroup[] {new WorkerGroup(0, null, threadFactory, null)};
+		else {
+			this.groups = new WorkerGroup[workerGroupCpus.length];
+			for (int i = 0; i < groups.length; i++)
+				groups[i] = new WorkerGroup(i, workerGroupCpus[i], threadFactory, affinityProvider);
+		}
 		this.maxPhysicalWorker = maxPhysicalWorker;
 		this.maxEffectiveWorker = maxEffectiveWorker;
+		this.laneCount = Math.max(1, Math.min(maxEffectiveWorker, Runtime.getRuntime().availableProcessors()));
+		this.poolSizer = adaptivePoolSizing ? 
+				new ThreadPoolSizer(Runtime.getRuntime().availableProcessors(), maxEffectiveWorker, 
+						ThreadPoolSizer.DEFAULT_INTERVAL_NANOS, System.nanoTime()) : null;
 		this.logActions = logActions;
+		this.priorityScheduling = priorityScheduling;
+		this.messageExceptionHandler = messageExceptionHandler;
+		this.metrics = metricsEnabled ? new MetricsCollector(this, jmxName) : null;
+		this.tracer = tracer;
 	}
 	
 	/* (non-Javadoc)
-	 * @see org.actorsguildframework.internal.Controller#getNextFromQueueUnsynchronized()
+	 * @see org.actorsguildframework.internal.Controller#getNextFromQueueUnsynchronized(org.actorsguildframework.internal.WorkerGroup)
 	 */
-	public ActorState getNextFromQueueUnsynchronized() throws InterruptedException{
-		return actorsWithWork.rotate();
+	public ActorState getNextFromQueueUnsynchronized(WorkerGroup group) throws InterruptedException{
+		ActorState a = group.urgentActorsWithWork.rotate();
+		if (a != null)
+			return a;
+		for (int i = 1; i < groups.length; i++) {
+			a = groups[(group.getIndex() + i) % groups.length].urgentActorsWithWork.rotate();
+			if (a != null)
+				return a;
+		}
+		
+		a = group.actorsWithWork.rotate();
+		if (a != null)
+			return a;
+		// nothing to do at home: steal from the other groups
+		for (int i = 1; i < groups.length; i++) {
+			a = groups[(group.getIndex() + i) % groups.length].actorsWithWork.rotate();
+			if (a != null)
+				return a;
+		}
+		return null;
 	} 
 
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#assignHomeGroup()
+	 */
+	public WorkerGroup assignHomeGroup() {
+		if (groups.length == 1)
+			return groups[0];
+		
+		// actors created by a message stay with their creator, as they will probably talk a lot 
+		MessageInvocation<?> mi = ThreadState.get().getCurrentInvocation();
+		if ((mi != null) && (mi.getTargetActor().getController() == this))
+			return mi.getTargetActor().getHomeGroup();
+		
+		return groups[(nextHomeGroup.getAndIncrement() & Integer.MAX_VALUE) % groups.length];
+	}
+	
+	/**
+	 * Selects the group for a new worker thread: the group with the most waiting actors
+	 * per thread.
+	 * 
+	 * You must be synchronized on threadLock before calling this!
+	 * @return the group
+	 */
+	private WorkerGroup selectGroupForNewThreadUnsynchronized() {
+		WorkerGroup best = groups[0];
+		int bestScore = best.getQueuedActors() - best.workerThreads;
+		for (int i = 1; i < groups.length; i++) {
+			int score = groups[i].getQueuedActors() - groups[i].workerThreads;
+			if (score > bestScore) {
+				best = groups[i];
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+
+	
+	/**
+	 * Creates the counters for the thread statistics.
+	 * @return one counter for each {@link WorkerState}
+	 */
+	private static StripedCounter[] createThreadStatistics() {
+		StripedCounter[] r = new StripedCounter[WorkerState.values().length];
+		for (int i = 0; i < r.length; i++)
+			r[i] = new StripedCounter();
+		return r;
+	}
+	
+	/**
+	 * Returns how much a thread in the given state counts for the number of effective
+	 * threads, relative to the other states. Must be consistent with 
+	 * {@link #getEffectiveThreadsUnsynchronized()}.
+	 * @param state the state
+	 * @return the weight of the state
+	 */
+	private static int getStateWeight(WorkerState state) {
+		switch (state) {
+		case Running:
+			return 1024;
+		case RunningIO:
+			return 128;
+		case WaitingExternal:
+			return 8;
+		default:
+			return 0;
+		}
+	}
 	
 	/**
 	 * Returns the number of effective threads running in the system.
@@ -150,9 +390,9 @@ public final class ControllerImplementation implements Controller {
 	 * @return the number of effective threads
 	 */
 	private int getEffectiveThreadsUnsynchronized() {
-		return threadStatistics[WorkerState.Running.ordinal()] +
-			   threadStatistics[WorkerState.RunningIO.ordinal()] / 8 +
-			   threadStatistics[WorkerState.WaitingExternal.ordinal()] / 128;
+		return (int) (threadStatistics[WorkerState.Running.ordinal()].get() +
+			   threadStatistics[WorkerState.RunningIO.ordinal()].get() / 8 +
+			   threadStatistics[WorkerState.WaitingExternal.ordinal()].get() / 128);
 	}
 	
 	/**
@@ -164,28 +404,34 @@ public final class ControllerImplementation implements Controller {
 	 * @return the number of threads needed
 	 */
 	private int getThreadNumberCorrectionUnsynchronized() {
-		final int n = workerThreads - numberOfThreadsToKill;
+		final int n = workerThreads - numberOfThreadsToKill.get();
 		if (n > maxPhysicalWorker)
 			return maxPhysicalWorker - n;
 		
 		final int e = getEffectiveThreadsUnsynchronized();
-		if (e > maxEffectiveWorker)
-			return -Math.min(n, e - maxEffectiveWorker);
+		final int maxE = (poolSizer != null) ? poolSizer.getTarget() : maxEffectiveWorker;
+		if (e > maxE)
+			return -Math.min(n, e - maxE);
 		
-		return Math.min(Math.min(numberOfOpenParallelTasks, maxPhysicalWorker - n), maxEffectiveWorker - e);
+		return Math.min(Math.min(numberOfOpenParallelTasks.get(), maxPhysicalWorker - n), maxE - e);
 	}
 
 	/**
-	 * Creates the given number of threads.
+	 * Creates the given number of threads. Does nothing if the controller has been 
+	 * terminated.
 	 * 
 	 * You must be synchronized on threadLock before calling this!
 	 * @param n the number of threads to create
 	 */
 	private void createThreadsUnsynchronized(int n) {
+		if (runState == TERMINATED)
+			return;
 		int c = 0;
 		try {
 			for (int i = 0; i < n; i++) {
-				executor.execute(new Worker(this, createKeepRunningInterface()));
+				WorkerGroup group = selectGroupForNewThreadUnsynchronized();
+				group.getExecutor().execute(new Worker(this, createKeepRunningInterface(), group));
+				group.workerThreads++;
 				c++;
 			}
 		}
@@ -194,27 +440,67 @@ public final class ControllerImplementation implements Controller {
 		}
 		
 		workerThreads += c;
-		threadStatistics[WorkerState.Running.ordinal()] += c;
+		threadStatistics[WorkerState.Running.ordinal()].add(c);
+		if (metrics != null)
+			metrics.recordThreadsCreated(c);
+		if ((c > 0) && RuntimeEventDispatcher.isEnabled())
+			RuntimeEventDispatcher.workerThreadsSpawned(agent, c, workerThreads);
 	}
 
 	/**
-	 * Adds or kills threads to have the right number running.
+	 * Adds threads if there are not enough running. Threads are only killed here if there
+	 * are more than {@link #maxPhysicalWorker}. Other surplus threads will be killed by 
+	 * {@link #correctWorkerThreadsPeriodically(long)}, so a thread that waits only briefly 
+	 * does not cause a new thread to be created and another one to be killed.
 	 * 
 	 * You must be synchronized on threadLock before calling this!
 	 */
 	private void correctWorkerThreadsUnsynchronized() {
 		int c = getThreadNumberCorrectionUnsynchronized();
+		if ((c < 0) && (workerThreads - numberOfThreadsToKill.get() <= maxPhysicalWorker))
+			return;
+		adjustWorkerThreadsUnsynchronized(c);
+	}
+	
+	/**
+	 * Samples the throughput for the pool sizer and adds or kills threads to have the 
+	 * right number running. Does nothing if the correction is not due yet, or if another
+	 * thread is doing it already.
+	 * @param now the current time, in ns
+	 */
+	private void correctWorkerThreadsPeriodically(long now) {
+		synchronized (threadLock) {
+			if (now - nextCorrectionNanos < 0)
+				return;
+			nextCorrectionNanos = now + CORRECTION_INTERVAL_NANOS;
+			if ((poolSizer != null) && poolSizer.isSampleDue(now))
+				poolSizer.sample(now, completedMessages.get(), numberOfOpenParallelTasks.get() > 0);
+			adjustWorkerThreadsUnsynchronized(getThreadNumberCorrectionUnsynchronized());
+		}
+	}
+	
+	/**
+	 * Adds or kills the given number of threads.
+	 * 
+	 * You must be synchronized on threadLock before calling this!
+	 * @param c the number of threads to add, or to kill if negative
+	 */
+	private void adjustWorkerThreadsUnsynchronized(int c) {
 		if (c > 0) {
-			if (numberOfThreadsToKill > 0) {
-				int k = Math.min(c, numberOfThreadsToKill);
-				numberOfThreadsToKill -= k;
-				c -= k;
+			// revoke pending kills first; workers may claim them concurrently
+			int k;
+			while ((k = numberOfThreadsToKill.get()) > 0) {
+				int revoke = Math.min(c, k);
+				if (numberOfThreadsToKill.compareAndSet(k, k - revoke)) {
+					c -= revoke;
+					break;
+				}
 			}
 			if (c > 0)
 				createThreadsUnsynchronized(c);
  		}
 		else if (c < 0)
-			numberOfThreadsToKill += -c;
+			numberOfThreadsToKill.addAndGet(-c);
 	}
 
 
@@ -222,18 +508,40 @@ public final class ControllerImplementation implements Controller {
 	 * @see org.actorsguildframework.internal.Controller#updateActorStateQueueUnsynchronized(org.actorsguildframework.internal.ActorState, int, int)
 	 */
 	public void updateActorStateQueueUnsynchronized(ActorState actorState, int oldNumberOfOpenParallelTasks, int newNumberOfOpenParallelTasks) {
-		boolean shouldBeInQueue = (newNumberOfOpenParallelTasks>0);
-		if (shouldBeInQueue != actorsWithWork.isInQueue(actorState)) {
-			if (shouldBeInQueue)
-				actorsWithWork.add(actorState);
-			else
-				actorsWithWork.remove(actorState);
+		if ((newNumberOfOpenParallelTasks > 0) && (runState == TERMINATED)) {
+			// the actor was busy when the queues were cleared, or got a message from a 
+			// running actor afterwards: its messages will never be executed
+			List<MessageInvocation<?>> removedMessages = new ArrayList<MessageInvocation<?>>();
+			actorState.removeAllMessagesUnsynchronized(removedMessages);
+			if (!removedMessages.isEmpty())
+				failRemovedMessagesLater(removedMessages);
 		}
-
-		synchronized (threadLock) {
-			numberOfOpenParallelTasks += (newNumberOfOpenParallelTasks - oldNumberOfOpenParallelTasks);
-			correctWorkerThreadsUnsynchronized();
+		
+		WorkerGroup group = actorState.getHomeGroup();
+		FastQueue<ActorState> queue = null;
+		if ((newNumberOfOpenParallelTasks > 0) && (runState != TERMINATED))
+			queue = (priorityScheduling && (actorState.getRegisteredPriorityUnsynchronized() > Priority.NORMAL)) ?
+					group.urgentActorsWithWork : group.actorsWithWork;
+		if (queue != actorState.schedulingQueue) {
+			if (actorState.schedulingQueue != null)
+				actorState.schedulingQueue.remove(actorState);
+			if (queue != null) {
+				queue.add(actorState);
+				if (RuntimeEventDispatcher.isEnabled())
+					RuntimeEventDispatcher.actorScheduled(agent, actorState.getActor().getClass().getSuperclass(), 
+							queue == group.urgentActorsWithWork);
+			}
+			actorState.schedulingQueue = queue;
 		}
+		
+		if (oldNumberOfOpenParallelTasks == newNumberOfOpenParallelTasks)
+			return;
+
+		numberOfOpenParallelTasks.addAndGet(newNumberOfOpenParallelTasks - oldNumberOfOpenParallelTasks);
+		if (newNumberOfOpenParallelTasks > oldNumberOfOpenParallelTasks) // new work may need a thread
+			synchronized (threadLock) {
+				correctWorkerThreadsUnsynchronized();
+			}
 	}
 
 	/* (non-Javadoc)
@@ -243,20 +551,24 @@ public final class ControllerImplementation implements Controller {
 		if (oldState == newState)
 			return;
 
-		synchronized (threadLock) {
-			threadStatistics[oldState.ordinal()]--;
-			threadStatistics[newState.ordinal()]++;
-			correctWorkerThreadsUnsynchronized();
-		}
+		threadStatistics[oldState.ordinal()].add(-1);
+		threadStatistics[newState.ordinal()].increment();
+		
+		// only take the lock if a waiting message may need a replacement thread now 
+		if ((getStateWeight(newState) < getStateWeight(oldState)) && (numberOfOpenParallelTasks.get() > 0))
+			synchronized (threadLock) {
+				correctWorkerThreadsUnsynchronized();
+			}
 	}
 
 	/* (non-Javadoc)
-	 * @see org.actorsguildframework.internal.Controller#removeWorkerThreadState(org.actorsguildframework.internal.WorkerState)
+	 * @see org.actorsguildframework.internal.Controller#removeWorkerThreadState(org.actorsguildframework.internal.WorkerState, org.actorsguildframework.internal.WorkerGroup)
 	 */
-	public void removeWorkerThreadState(WorkerState oldState) {
+	public void removeWorkerThreadState(WorkerState oldState, WorkerGroup group) {
 		synchronized (threadLock) {
-			threadStatistics[oldState.ordinal()]--;
+			threadStatistics[oldState.ordinal()].add(-1);
 			workerThreads--;
+			group.workerThreads--;
 			correctWorkerThreadsUnsynchronized();
 		}
 	}
@@ -268,6 +580,24 @@ public final class ControllerImplementation implements Controller {
 		return agent;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#handleUncaughtException(org.actorsguildframework.Actor, java.lang.String, java.lang.Throwable)
+	 */
+	public void handleUncaughtException(Actor actor, String messageName, Throwable exception) {
+		if (messageExceptionHandler != null) {
+			try {
+				messageExceptionHandler.uncaughtException(actor, messageName, exception);
+				return;
+			}
+			catch (Throwable t) {
+				log.error("Got exception from MessageExceptionHandler: %s", t);
+				log.exception(t);
+			}
+		}
+		log.error("Uncaught exception in message %s() of actor %s: %s", messageName, actor.getClass().getName(), exception);
+		log.exception(exception);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.actorsguildframework.internal.Controller#createKeepRunningInterface()
 	 */
@@ -275,20 +605,97 @@ public final class ControllerImplementation implements Controller {
 		return new KeepRunningInterface() {
 			private boolean gotKilled = false; 
 			public boolean shouldContinue() {
-				synchronized (threadLock) {
-					if (gotKilled)
-						return false;
-					if (numberOfThreadsToKill == 0)
-						return true;
-					
-					numberOfThreadsToKill--;
-					gotKilled = true;
+				if (gotKilled || (runState == TERMINATED))
 					return false;
-				}
+				long now = System.nanoTime();
+				if (now - nextCorrectionNanos >= 0)
+					correctWorkerThreadsPeriodically(now);
+				
+				int k;
+				while ((k = numberOfThreadsToKill.get()) > 0)
+					if (numberOfThreadsToKill.compareAndSet(k, k - 1)) {
+						gotKilled = true;
+						if (metrics != null)
+							metrics.recordThreadKilled();
+						if (RuntimeEventDispatcher.isEnabled())
+							RuntimeEventDispatcher.workerThreadKilled(agent);
+						return false;
+					}
+				return true;
 			}
 		};
 	}
 
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#getMetrics()
+	 */
+	public MetricsCollector getMetrics() {
+		return metrics;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#getTracer()
+	 */
+	public Tracer getTracer() {
+		return tracer;
+	}
+	
+	/**
+	 * Returns a copy of the thread statistics.
+	 * @return the number of threads in each {@link WorkerState}, indexed by the ordinal number
+	 */
+	int[] getThreadStatistics() {
+		int[] r = new int[threadStatistics.length];
+		for (int i = 0; i < r.length; i++)
+			r[i] = (int) threadStatistics[i].get();
+		return r;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#recordCompletedMessages(int)
+	 */
+	public void recordCompletedMessages(int count) {
+		completedMessages.add(count);
+		if ((runState == DRAINING) && (getPendingMessages() <= 0))
+			synchronized (drainLock) {
+				drainLock.notifyAll();
+			}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#admitMessage(boolean)
+	 */
+	public void admitMessage(boolean external) {
+		int s = runState;
+		if (s == TERMINATED)
+			throw new AgentShutdownException("The agent has been shut down.");
+		if (external && (s == DRAINING))
+			throw new AgentShutdownException("The agent is shutting down and does not accept new messages.");
+		admittedMessages.increment();
+	}
+	
+	/**
+	 * Returns the number of messages that have been admitted, but not completed yet.
+	 * Reads the completed messages first, so the result can be too high, but is
+	 * never too low.
+	 * @return the number of pending messages
+	 */
+	private long getPendingMessages() {
+		long completed = completedMessages.get();
+		return admittedMessages.get() - completed;
+	}
+	
+	/**
+	 * Returns the number of effective threads the pool is currently aiming for.
+	 * @return the target number of effective threads
+	 */
+	int getTargetEffectiveWorker() {
+		synchronized (threadLock) {
+			return (poolSizer != null) ? poolSizer.getTarget() : maxEffectiveWorker;
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.actorsguildframework.internal.Controller#isLoggingActions()
 	 */
@@ -305,19 +712,173 @@ public final class ControllerImplementation implements Controller {
 		return actorLock;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#getLaneCount()
+	 */
+	public int getLaneCount() {
+		return laneCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#startPinnedThread(org.actorsguildframework.internal.PinnedActorState)
+	 */
+	public void startPinnedThread(PinnedActorState actorState) {
+		synchronized (pinnedActors) {
+			if (shutdown) {
+				actorState.stop();
+				return;
+			}
+			pinnedActors.add(actorState);
+		}
+		threadFactory.newThread(actorState).start();
+	}
+
+	/**
+	 * Removes all actors from the given queue, and removes their messages.
+	 * 
+	 * You must lock actorLock before calling this!
+	 * @param queue the queue to clear
+	 * @param removedMessages receives the messages that have been removed
+	 */
+	private void clearQueueUnsynchronized(FastQueue<ActorState> queue, List<MessageInvocation<?>> removedMessages) {
+		ActorState a;
+		while ((a = queue.pop()) != null) {
+			a.schedulingQueue = null;
+			a.removeAllMessagesUnsynchronized(removedMessages);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#startDraining()
+	 */
+	public void startDraining() {
+		synchronized (drainLock) {
+			if (runState == RUNNING)
+				runState = DRAINING;
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#awaitDrained(long)
+	 */
+	public boolean awaitDrained(long deadlineNanos) {
+		synchronized (drainLock) {
+			while (getPendingMessages() > 0) {
+				if (runState == TERMINATED)
+					return false;
+				long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+				if (remainingMillis <= 0)
+					return false;
+				try {
+					drainLock.wait(Math.min(remainingMillis, DRAIN_CHECK_INTERVAL_MILLIS));
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.actorsguildframework.internal.Controller#shutdown()
 	 */
 	public void shutdown() {
+		synchronized (drainLock) {
+			if (runState == TERMINATED)
+				return;
+			runState = TERMINATED;
+			drainLock.notifyAll();
+		}
+		
+		synchronized (pinnedActors) {
+			shutdown = true;
+			for (PinnedActorState a: pinnedActors)
+				a.stop();
+		}
+		
+		List<MessageInvocation<?>> removedMessages = new ArrayList<MessageInvocation<?>>();
 		actorLock.lock();
 		try {
-			actorsWithWork.clear();
-			executor.shutdownNow();
+			for (WorkerGroup g: groups) {
+				clearQueueUnsynchronized(g.urgentActorsWithWork, removedMessages);
+				clearQueueUnsynchronized(g.actorsWithWork, removedMessages);
+				g.getExecutor().shutdownNow();
+			}
 		}
 		finally {
 			actorLock.unlock();
 		}
+		
+		// fail the results outside of the lock, as they may invoke notifiers
+		failRemovedMessages(removedMessages);
+		
+		terminatedLatch.countDown();
+		if (metrics != null)
+			metrics.unregister();
+	}
+	
+	/**
+	 * Fails the results of messages that have been removed because of the shutdown, and
+	 * discards them in their journals. Must not be called while actorLock is locked, 
+	 * as the results may invoke notifiers.
+	 * @param removedMessages the removed messages
+	 */
+	private static void failRemovedMessages(List<MessageInvocation<?>> removedMessages) {
+		AgentShutdownException e = new AgentShutdownException("The agent has been shut down before the message could be processed.");
+		for (MessageInvocation<?> m: removedMessages) {
+			m.discardJournalEntry();
+			if (m.getAsyncResult() != null)
+				m.getAsyncResult().resultException(e);
+		}
+	}
+	
+	/**
+	 * Fails the results of messages that have been removed after the shutdown in a new 
+	 * thread, because the current thread holds actorLock. This only happens for the 
+	 * messages of actors that were busy during the shutdown.
+	 * @param removedMessages the removed messages
+	 */
+	private static void failRemovedMessagesLater(final List<MessageInvocation<?>> removedMessages) {
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				failRemovedMessages(removedMessages);
+			}
+		}, "Agent shutdown");
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#isTerminated()
+	 */
+	public boolean isTerminated() {
+		return runState == TERMINATED;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.internal.Controller#awaitTermination(long)
+	 */
+	public boolean awaitTermination(long deadlineNanos) throws InterruptedException {
+		if (!terminatedLatch.await(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS))
+			return false;
+		for (WorkerGroup g: groups)
+			if (!g.getExecutor().awaitTermination(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS))
+				return false;
+		PinnedActorState[] pinned;
+		synchronized (pinnedActors) {
+			pinned = pinnedActors.toArray(new PinnedActorState[pinnedActors.size()]);
+		}
+		for (PinnedActorState a: pinned)
+			if (!a.awaitStopped(deadlineNanos))
+				return false;
+		return true;
 	}
 }
 
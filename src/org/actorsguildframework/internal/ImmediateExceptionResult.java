@@ -15,7 +15,11 @@
  */
 package org.actorsguildframework.internal;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.AsyncResultFuture;
 import org.actorsguildframework.WrappedException;
 
 /**
@@ -47,6 +51,34 @@ public class ImmediateExceptionResult<T> implements AsyncResult<T> {
 		// do nothing, result is already there
 	}
 
+	/**
+	 * Throws the exception.
+	 * @param timeout ignored
+	 * @param unit ignored
+	 * @return never returns
+	 */
+	public T get(long timeout, TimeUnit unit) {
+		throw new WrappedException("Got exception", exception);
+	}
+
+	/**
+	 * Returns immediately, as the result is always ready in this implementation.
+	 * @param timeout ignored
+	 * @param unit ignored
+	 * @return always true
+	 */
+	public boolean await(long timeout, TimeUnit unit) {
+		return true;
+	}
+
+	/**
+	 * Always returns false, as the result is always ready in this implementation.
+	 * @return always false
+	 */
+	public boolean cancel() {
+		return false;
+	}
+
 	/**
 	 * Always returns true, as the result is always ready in this implementation.
 	 * @return always true
@@ -87,4 +119,12 @@ public class ImmediateExceptionResult<T> implements AsyncResult<T> {
 	public Throwable getException() {
 		return exception;
 	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.AsyncResult#toFuture()
+	 */
+	public Future<T> toFuture() {
+		return new AsyncResultFuture<T>(this);
+	}
 }
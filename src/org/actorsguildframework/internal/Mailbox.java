@@ -0,0 +1,241 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import org.actorsguildframework.annotations.Priority;
+import org.actorsguildframework.internal.util.FastQueue;
+
+/**
+ * The mailbox of an actor, containing all messages that have been queued but not
+ * executed yet.
+ * <p>
+ * Messages of the same priority are kept in FIFO order. Messages with a higher
+ * priority will be returned first by {@link #pop()}. To prevent starvation,
+ * the oldest message in the mailbox can only be overtaken {@link #STARVATION_LIMIT}
+ * times in a row. After that it will be returned, regardless of its priority.
+ * <p>
+ * As long as all messages have the same priority, the mailbox uses only a single
+ * FastQueue and is as fast as a plain FIFO.
+ * <p>
+ * Mailbox is not thread-safe.
+ */
+public final class Mailbox {
+	/**
+	 * The maximum number of times the oldest message in the mailbox can be overtaken
+	 * by messages with higher priority.
+	 */
+	public final static int STARVATION_LIMIT = 16;
+
+	/**
+	 * The priorities of the queues, sorted with the highest priority first.
+	 */
+	private int[] priorities;
+
+	/**
+	 * One queue for each priority in {@link #priorities}, in the same order.
+	 */
+	private FastQueue<MessageInvocation<?>>[] queues;
+
+	/**
+	 * The total number of messages in all queues.
+	 */
+	private int size;
+
+	/**
+	 * The number of times in a row that the oldest message has been overtaken.
+	 */
+	private int overtakeCount;
+
+	/**
+	 * Creates a new, empty mailbox.
+	 */
+	@SuppressWarnings("unchecked")
+	public Mailbox() {
+		priorities = new int[] { Priority.NORMAL };
+		queues = (FastQueue<MessageInvocation<?>>[]) new FastQueue<?>[] { new FastQueue<MessageInvocation<?>>() };
+	}
+
+	/**
+	 * Returns the index of the queue for the given priority.
+	 * @param priority the priority to look up
+	 * @return the index in {@link #queues}, or -1 if there is no such queue
+	 */
+	private int findQueue(int priority) {
+		for (int i = 0; i < priorities.length; i++)
+			if (priorities[i] == priority)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Creates a new queue for the given priority.
+	 * @param priority the priority of the new queue. There must not be a queue with this priority yet.
+	 * @return the index of the new queue
+	 */
+	@SuppressWarnings("unchecked")
+	private int createQueue(int priority) {
+		int pos = 0;
+		while ((pos < priorities.length) && (priorities[pos] > priority))
+			pos++;
+
+		int[] newPriorities = new int[priorities.length + 1];
+		FastQueue<MessageInvocation<?>>[] newQueues = (FastQueue<MessageInvocation<?>>[]) new FastQueue<?>[queues.length + 1];
+		System.arraycopy(priorities, 0, newPriorities, 0, pos);
+		System.arraycopy(queues, 0, newQueues, 0, pos);
+		newPriorities[pos] = priority;
+		newQueues[pos] = new FastQueue<MessageInvocation<?>>();
+		System.arraycopy(priorities, pos, newPriorities, pos+1, priorities.length - pos);
+		System.arraycopy(queues, pos, newQueues, pos+1, queues.length - pos);
+		priorities = newPriorities;
+		queues = newQueues;
+		return pos;
+	}
+
+	/**
+	 * Adds the message at the end of the queue for its priority.
+	 * @param message the message to add
+	 */
+	public void add(MessageInvocation<?> message) {
+		int idx = findQueue(message.getPriority());
+		if (idx < 0)
+			idx = createQueue(message.getPriority());
+		queues[idx].add(message);
+		size++;
+	}
+
+	/**
+	 * Returns the next message to process and removes it from the mailbox.
+	 * Returns null if empty.
+	 * @return the next message, or null if the mailbox is empty
+	 */
+	public MessageInvocation<?> pop() {
+		if (size == 0)
+			return null;
+		size--;
+		if (queues.length == 1)
+			return queues[0].pop();
+		return queues[nextQueue(true)].pop();
+	}
+
+	/**
+	 * Returns the message that the next {@link #pop()} would return, without removing it.
+	 * @return the next message, or null if the mailbox is empty
+	 */
+	public MessageInvocation<?> peek() {
+		if (size == 0)
+			return null;
+		if (queues.length == 1)
+			return queues[0].peek();
+		return queues[nextQueue(false)].peek();
+	}
+	
+	/**
+	 * Determines the queue that contains the next message. The mailbox must not be empty.
+	 * @param update if true, the overtake counter will be updated as if the message 
+	 *               had been removed
+	 * @return the index of the queue in {@link #queues}
+	 */
+	private int nextQueue(boolean update) {
+		int first = 0;
+		while (queues[first].isEmpty())
+			first++;
+
+		int oldest = first;
+		for (int i = first+1; i < queues.length; i++)
+			if ((!queues[i].isEmpty()) &&
+					(queues[i].peek().getMessageNumber() < queues[oldest].peek().getMessageNumber()))
+				oldest = i;
+
+		if (oldest == first) {
+			if (update)
+				overtakeCount = 0;
+			return first;
+		}
+		else if (overtakeCount >= STARVATION_LIMIT) {
+			if (update)
+				overtakeCount = 0;
+			return oldest;
+		}
+		else {
+			if (update)
+				overtakeCount++;
+			return first;
+		}
+	}
+
+	/**
+	 * Removes the given message from the mailbox.
+	 * @param message the message to remove. Must not be in the mailbox of another actor.
+	 * @return true if the message has been removed, false if it was not in the mailbox
+	 */
+	public boolean remove(MessageInvocation<?> message) {
+		int idx = findQueue(message.getPriority());
+		if ((idx < 0) || !queues[idx].remove(message))
+			return false;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Checks whether the given message is in a queue. As with
+	 * {@link FastQueue#isInQueue(org.actorsguildframework.internal.util.FastQueue.Entry)},
+	 * this method does not check whether it is really in this mailbox.
+	 * @param message the message to check
+	 * @return true if the message is queued
+	 */
+	public boolean isInQueue(MessageInvocation<?> message) {
+		return queues[0].isInQueue(message);
+	}
+
+	/**
+	 * Returns the highest priority of all messages in the mailbox.
+	 * @return the highest priority, or {@link Priority#NORMAL} if the mailbox is empty
+	 */
+	public int getHighestPriority() {
+		if (size == 0)
+			return Priority.NORMAL;
+		for (int i = 0; i < queues.length; i++)
+			if (!queues[i].isEmpty())
+				return priorities[i];
+		return Priority.NORMAL;
+	}
+
+	/**
+	 * Returns the number of messages in the mailbox.
+	 * @return the number of messages
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether the mailbox is empty.
+	 * @return true if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all messages from the mailbox.
+	 */
+	public void clear() {
+		for (FastQueue<MessageInvocation<?>> q: queues)
+			q.clear();
+		size = 0;
+		overtakeCount = 0;
+	}
+}
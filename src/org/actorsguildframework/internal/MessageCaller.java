@@ -15,8 +15,20 @@
  */
 package org.actorsguildframework.internal;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
 import org.actorsguildframework.Actor;
+import org.actorsguildframework.ActorRuntimeException;
 import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.annotations.Batch;
+import org.actorsguildframework.annotations.Durable;
+import org.actorsguildframework.annotations.Event;
+import org.actorsguildframework.annotations.OneWay;
+import org.actorsguildframework.annotations.Priority;
+import org.actorsguildframework.annotations.RouteKey;
+import org.actorsguildframework.annotations.ShardKey;
+import org.actorsguildframework.immutable.ImmutableList;
 import org.actorsguildframework.immutable.SerializableFreezer;
 
 /**
@@ -24,7 +36,6 @@ import org.actorsguildframework.immutable.SerializableFreezer;
  * @param <T> the result type
  */
 public abstract class MessageCaller<T> {
-
 	/**
 	 * Invokes the message method. Arguments that are Serializable and mutable 
 	 * will be wrapped as {@link SerializableFreezer}.
@@ -40,4 +51,117 @@ public abstract class MessageCaller<T> {
 	 * @return the message name
 	 */
 	public abstract String getMessageName();
+
+	/**
+	 * Returns the priority of the message. Generated callers override this
+	 * if the message has a {@link Priority} annotation.
+	 * @return the priority of the message
+	 */
+	public int getPriority() {
+		return Priority.NORMAL;
+	}
+
+	/**
+	 * Checks whether the message is a one-way message. Generated callers override this
+	 * if the message has a {@link OneWay} annotation.
+	 * @return true for one-way messages
+	 */
+	public boolean isOneWay() {
+		return false;
+	}
+
+	/**
+	 * Checks whether the message is durable. Generated callers override this
+	 * if the message has a {@link Durable} annotation.
+	 * @return true for durable messages
+	 */
+	public boolean isDurable() {
+		return false;
+	}
+	
+	/**
+	 * Checks whether the message is an event. Generated callers override this
+	 * if the message has an {@link Event} annotation.
+	 * @return true for event messages
+	 */
+	public boolean isEvent() {
+		return false;
+	}
+	
+	/**
+	 * Returns the signature of the message, consisting of the method name and the 
+	 * method descriptor, like "add(I)Lorg/actorsguildframework/AsyncResult;". It identifies
+	 * the message in logs (see {@link Durable} and {@link Event}) and in invocations of
+	 * remote actors. Generated callers always override this.
+	 * @return the signature, or null if unknown
+	 */
+	public String getMessageSignature() {
+		return null;
+	}
+
+	/**
+	 * Returns the name of the message's batch handler. Generated callers override this
+	 * if the message has a {@link Batch} annotation.
+	 * @return the name of the batch handler, or null if the message does not support batches
+	 */
+	public String getBatchHandlerName() {
+		return null;
+	}
+	
+	/**
+	 * Returns the message's batch handler, as found by its {@link MessageImplDescriptor}. 
+	 * Generated callers override this if the message has a {@link Batch} annotation.
+	 * @return the batch handler, or null if the message does not support batches
+	 */
+	public Method getBatchHandler() {
+		return null;
+	}
+	
+	/**
+	 * Returns the maximum number of invocations in a batch. Generated callers override this
+	 * if the message has a {@link Batch} annotation.
+	 * @return the maximum size of a batch. 1 if the message does not support batches
+	 */
+	public int getMaxBatchSize() {
+		return 1;
+	}
+	
+	/**
+	 * Returns the index of the argument that selects the lane of the message. Generated 
+	 * callers override this if an argument has a {@link ShardKey} annotation.
+	 * @return the index of the argument, or -1 if the message has no such argument
+	 */
+	public int getShardKeyIndex() {
+		return -1;
+	}
+	
+	/**
+	 * Returns the index of the argument that selects the member of a router. Generated 
+	 * callers override this if an argument has a {@link RouteKey} annotation.
+	 * @return the index of the argument, or -1 if the message has no such argument
+	 */
+	public int getRouteKeyIndex() {
+		return -1;
+	}
+	
+	/**
+	 * Invokes the batch handler of the message.
+	 * @param instance the instance of the method
+	 * @param arguments one list for each argument of the message, containing the unwrapped
+	 *                  arguments of all invocations
+	 * @return the result of the batch handler
+	 * @throws ActorRuntimeException if the message does not support batches
+	 * @throws Throwable the exception thrown by the batch handler
+	 */
+	public AsyncResult<?> invokeBatch(Actor instance, ImmutableList<?>[] arguments) throws Throwable {
+		Method m = getBatchHandler();
+		if (m == null)
+			throw new ActorRuntimeException(String.format("Message %s() does not support batches.", getMessageName()));
+		try {
+			return (AsyncResult<?>) m.invoke(instance, (Object[]) arguments);
+		}
+		catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
 }
@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import org.actorsguildframework.AsyncResult;
+
+/**
+ * A MessageForwarder sends the messages of a {@link RemoteActorState} to an actor that 
+ * lives somewhere else, for example in another JVM. Implementations must be thread-safe.
+ * @see org.actorsguildframework.io.RemoteNode
+ */
+public interface MessageForwarder {
+	/**
+	 * Forwards the invocation of a message. 
+	 * @param caller the caller of the message
+	 * @param arguments the arguments of the message, possibly wrapped as 
+	 *   {@link org.actorsguildframework.immutable.SerializableFreezer}
+	 * @return the result, which will be set when the reply arrives. For one-way messages,
+	 *   a result that is always ready
+	 * @throws org.actorsguildframework.ActorRuntimeException if the invocation could not be sent
+	 */
+	AsyncResult<?> forward(MessageCaller<?> caller, Object[] arguments);
+	
+	/**
+	 * Returns the number of forwarded invocations that are still waiting for their reply.
+	 * @return the number of pending invocations
+	 */
+	int getPendingCount();
+}
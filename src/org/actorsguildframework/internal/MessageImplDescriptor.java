@@ -19,15 +19,25 @@ import java.io.Serializable;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
 
 import org.actorsguildframework.Actor;
 import org.actorsguildframework.AsyncResult;
 import org.actorsguildframework.ConfigurationException;
+import org.actorsguildframework.annotations.Batch;
 import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.Durable;
+import org.actorsguildframework.annotations.Event;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.OneWay;
+import org.actorsguildframework.annotations.Priority;
+import org.actorsguildframework.annotations.RouteKey;
+import org.actorsguildframework.annotations.ShardKey;
 import org.actorsguildframework.annotations.Shared;
 import org.actorsguildframework.annotations.ThreadUsage;
 import org.actorsguildframework.annotations.Usage;
 import org.actorsguildframework.immutable.ImmutableHelper;
+import org.actorsguildframework.immutable.ImmutableList;
 
 /**
  * Describes the configuration of a message or initializer implementation.
@@ -53,22 +63,79 @@ public final class MessageImplDescriptor {
 	 */
 	private final ThreadUsage threadUsage;
 
+	/**
+	 * The priority of the message (see {@link Priority}).
+	 */
+	private final int priority;
+
 	/**
 	 * The method that implements the message.
 	 */
 	private final Method method;
 	
+	/**
+	 * The batch handler of the message (see {@link Batch}), or null if the message
+	 * does not support batches.
+	 */
+	private final Method batchHandler;
+	
+	/**
+	 * The maximum number of invocations in a batch. 1 if the message does not support batches.
+	 */
+	private final int maxBatchSize;
+	
+	/**
+	 * True if the message is a one-way message (see {@link OneWay}).
+	 */
+	private final boolean oneWay;
+	
+	/**
+	 * True if the message is durable (see {@link Durable}).
+	 */
+	private final boolean durable;
+	
+	/**
+	 * True if the message is an event (see {@link Event}).
+	 */
+	private final boolean event;
+	
+	/**
+	 * The index of the argument that is marked with {@link ShardKey}, or -1 if there is none.
+	 */
+	private final int shardKeyIndex;
+	
+	/**
+	 * The index of the argument that is marked with {@link RouteKey}, or -1 if there is none.
+	 */
+	private final int routeKeyIndex;
 	
 	/**
 	 * Creates a new instance.
 	 * @param ownerClass
 	 * @param threadUsage the ThreadUsage model
+	 * @param priority the priority of the message
 	 * @param method the method of the message
+	 * @param batchHandler the batch handler, or null
+	 * @param maxBatchSize the maximum size of a batch (1 for no batches)
+	 * @param oneWay true for one-way messages
+	 * @param durable true for durable messages
+	 * @param event true for event messages
+	 * @param shardKeyIndex the index of the {@link ShardKey} argument, or -1
+	 * @param routeKeyIndex the index of the {@link RouteKey} argument, or -1
 	 */
-	private MessageImplDescriptor(Class<?> ownerClass, ThreadUsage threadUsage, Method method) {
+	private MessageImplDescriptor(Class<?> ownerClass, ThreadUsage threadUsage, int priority, Method method,
+			Method batchHandler, int maxBatchSize, boolean oneWay, boolean durable, boolean event, int shardKeyIndex, int routeKeyIndex) {
 		this.ownerClass = ownerClass;
 		this.threadUsage = threadUsage;
+		this.priority = priority;
 		this.method = method;
+		this.batchHandler = batchHandler;
+		this.maxBatchSize = maxBatchSize;
+		this.oneWay = oneWay;
+		this.durable = durable;
+		this.event = event;
+		this.shardKeyIndex = shardKeyIndex;
+		this.routeKeyIndex = routeKeyIndex;
 	}
 	
 	/**
@@ -99,6 +166,31 @@ public final class MessageImplDescriptor {
 	}
 
 	
+	/**
+	 * Finds the batch handler with the given name in the class. A batch handler
+	 * must have one {@link ImmutableList} argument for each argument of the message.
+	 * @param cls the class to search
+	 * @param name the name of the batch handler
+	 * @param argumentCount the number of arguments of the message
+	 * @return the batch handler, or null if there is no such method
+	 */
+	private static Method findBatchHandler(Class<?> cls, String name, int argumentCount) {
+		Class<?>[] argTypes = new Class<?>[argumentCount];
+		for (int i = 0; i < argumentCount; i++)
+			argTypes[i] = ImmutableList.class;
+		
+		Class<?> c = cls;
+		while (c != null) {
+			try {
+				return c.getDeclaredMethod(name, argTypes);
+			}
+			catch (NoSuchMethodException e) {
+				c = c.getSuperclass();
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * Creates a new instance by inspecting the given method.
 	 * @param ownerClass the class that owns the message
@@ -121,8 +213,88 @@ public final class MessageImplDescriptor {
 		
 		Usage usageAnn = method.getAnnotation(Usage.class);
 		ThreadUsage threadUsage = (usageAnn != null) ? usageAnn.value() : ThreadUsage.CpuBound;
+		
+		Priority priorityAnn = method.getAnnotation(Priority.class);
+		int priority = (priorityAnn != null) ? priorityAnn.value() : Priority.NORMAL;
+
+		Method batchHandler = null;
+		int maxBatchSize = 1;
+		Batch batchAnn = method.getAnnotation(Batch.class);
+		if (batchAnn != null) {
+			if (batchAnn.maxSize() < 1)
+				throw new ConfigurationException("Method "+ method + " has a @Batch annotation with a maxSize smaller than 1.");
+			batchHandler = findBatchHandler(ownerClass, batchAnn.value(), method.getParameterTypes().length);
+			if (batchHandler == null)
+				throw new ConfigurationException("Method "+ method + " has a @Batch annotation, but the batch handler "+batchAnn.value()
+						+"() can not be found. The batch handler must have one ImmutableList argument for each argument of the message.");
+			if (!batchHandler.getReturnType().equals(AsyncResult.class))
+				throw new ConfigurationException("Batch handler "+ batchHandler + " does not return AsyncResult.");
+			if (Modifier.isStatic(batchHandler.getModifiers()))
+				throw new ConfigurationException("Batch handler "+ batchHandler + " must not be static.");
+			if (!Modifier.isPrivate(batchHandler.getModifiers()) && !Modifier.isFinal(batchHandler.getModifiers()))
+				throw new ConfigurationException("Batch handler "+ batchHandler + " must be declared private or final.");
+			if (batchHandler.isAnnotationPresent(Message.class))
+				throw new ConfigurationException("Batch handler "+ batchHandler + " must not be a message.");
+			batchHandler.setAccessible(true);
+			maxBatchSize = batchAnn.maxSize();
+		}
+
+		boolean oneWay = method.isAnnotationPresent(OneWay.class);
+		if (oneWay) {
+			java.lang.reflect.Type rt = method.getGenericReturnType();
+			if (!((rt instanceof ParameterizedType) && 
+					Void.class.equals(((ParameterizedType)rt).getActualTypeArguments()[0])))
+				throw new ConfigurationException("Method "+ method + " is declared as @OneWay, but does not return AsyncResult<Void>.");
+		}
+
+		boolean durable = method.isAnnotationPresent(Durable.class);
+		if (durable)
+			checkLoggedArguments(method, "@Durable");
+		boolean event = method.isAnnotationPresent(Event.class);
+		if (event)
+			checkLoggedArguments(method, "@Event");
+
+		int shardKeyIndex = -1;
+		int routeKeyIndex = -1;
+		Annotation[][] paramAnnotations = method.getParameterAnnotations();
+		for (int i = 0; i < paramAnnotations.length; i++)
+			for (Annotation a: paramAnnotations[i])
+				if (a.annotationType().equals(ShardKey.class)) {
+					if (shardKeyIndex >= 0)
+						throw new ConfigurationException("Method "+ method + " has more than one @ShardKey argument.");
+					if (!defaultConcurrencyModel.isMultiThreadingCapable())
+						throw new ConfigurationException("Method "+ method + " has a @ShardKey argument, but its actor is not multi-threaded.");
+					shardKeyIndex = i;
+				}
+				else if (a.annotationType().equals(RouteKey.class)) {
+					if (routeKeyIndex >= 0)
+						throw new ConfigurationException("Method "+ method + " has more than one @RouteKey argument.");
+					routeKeyIndex = i;
+				}
 
-		return new MessageImplDescriptor(ownerClass, threadUsage, method);
+		return new MessageImplDescriptor(ownerClass, threadUsage, priority, method, batchHandler, maxBatchSize, oneWay, durable, event, shardKeyIndex, routeKeyIndex);
+	}
+	
+	/**
+	 * Checks whether all arguments of a durable or event message can be written to a log.
+	 * @param method the method that implements the message
+	 * @param annotation the name of the annotation, for the error message
+	 * @throws ConfigurationException if an argument is not allowed for logged messages
+	 * @see Durable
+	 * @see Event
+	 */
+	private static void checkLoggedArguments(Method method, String annotation) {
+		Annotation[][] annotations = method.getParameterAnnotations();
+		Class<?>[] argClasses = method.getParameterTypes();
+		for (int i = 0; i < argClasses.length; i++) {
+			boolean shared = false;
+			for (Annotation a: annotations[i])
+				if (a.annotationType().equals(Shared.class))
+					shared = true;
+			if (shared || Actor.class.isAssignableFrom(argClasses[i]) || 
+					!(argClasses[i].isPrimitive() || Serializable.class.isAssignableFrom(argClasses[i])))
+				throw new ConfigurationException("Method "+ method + " is declared as "+annotation+", but argument "+(i+1)+" is not Serializable. All arguments of logged messages must be primitives, Serializable or Immutable.");
+		}
 	}
 
 	/**
@@ -133,6 +305,76 @@ public final class MessageImplDescriptor {
 		return threadUsage;
 	}
 	
+	/**
+	 * Returns the priority of the message.
+	 * @return the priority (see {@link Priority})
+	 */
+	public int getPriority() {
+		return priority;
+	}
+	
+	/**
+	 * Returns the batch handler of the message.
+	 * @return the batch handler, or null if the message does not support batches
+	 * @see Batch
+	 */
+	public Method getBatchHandler() {
+		return batchHandler;
+	}
+	
+	/**
+	 * Returns the maximum number of invocations in a batch.
+	 * @return the maximum size of a batch. 1 if the message does not support batches
+	 */
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+	
+	/**
+	 * Checks whether the message is a one-way message.
+	 * @return true for one-way messages
+	 * @see OneWay
+	 */
+	public boolean isOneWay() {
+		return oneWay;
+	}
+	
+	/**
+	 * Checks whether the message is durable.
+	 * @return true for durable messages
+	 * @see Durable
+	 */
+	public boolean isDurable() {
+		return durable;
+	}
+	
+	/**
+	 * Checks whether the message is an event.
+	 * @return true for event messages
+	 * @see Event
+	 */
+	public boolean isEvent() {
+		return event;
+	}
+	
+	/**
+	 * Returns the index of the argument that selects the lane of the message.
+	 * @return the index of the argument, or -1 if the message has no such argument
+	 * @see ShardKey
+	 */
+	public int getShardKeyIndex() {
+		return shardKeyIndex;
+	}
+	
+	/**
+	 * Returns the index of the argument that selects the member of a router.
+	 * @return the index of the argument, or -1 if the message has no such argument
+	 * @see RouteKey
+	 */
+	public int getRouteKeyIndex() {
+		return routeKeyIndex;
+	}
+	
 	/**
 	 * Returns the method that implements the message.
 	 * @return the method
@@ -16,13 +16,19 @@
 package org.actorsguildframework.internal;
 
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.actorsguildframework.ActorRuntimeException;
 import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.WrappedException;
+import org.actorsguildframework.annotations.Batch;
 import org.actorsguildframework.annotations.ThreadUsage;
+import org.actorsguildframework.immutable.ImmutableList;
+import org.actorsguildframework.immutable.SerializableFreezer;
 import org.actorsguildframework.internal.util.FastQueue;
 import org.actorsguildframework.internal.util.L;
+import org.actorsguildframework.internal.util.RuntimeEventDispatcher;
 
 
 /**
@@ -90,9 +96,37 @@ public final class MessageInvocation<R> extends FastQueue.Entry {
 	final private boolean isInitializer;
 	
 	/**
-	 * The AsyncResult representing the message's result.
+	 * The priority of the message.
+	 */
+	final private int priority;
+	
+	/**
+	 * The time the message has been created (in ns, see {@link System#nanoTime()}), 
+	 * or 0 if neither metrics, tracing nor runtime events are enabled.
+	 */
+	final private long queuedNanos;
+	
+	/**
+	 * The AsyncResult representing the message's result. Null for one-way messages.
 	 */
 	final private AsyncResultImpl<R> result;
+	
+	/**
+	 * The lane of a multi-threaded actor that the message has been queued in.
+	 * Set before the message is queued.
+	 */
+	private int lane;
+	
+	/**
+	 * The journal that logged the invocation, or null if it has not been logged.
+	 * Set before the message is queued.
+	 */
+	private MessageJournal journal;
+	
+	/**
+	 * The sequence number of the invocation in {@link #journal}.
+	 */
+	private long journalSequence;
 
 	/**
 	 * Creates a new instance
@@ -112,8 +146,12 @@ public final class MessageInvocation<R> extends FastQueue.Entry {
 		
 		this.threadUsage = usage;
 		this.isInitializer = isInitializer;
+		this.priority = caller.getPriority();
+		this.queuedNanos = ((target != null) && ((target.getClassMetrics() != null) || 
+				(target.getController().getTracer() != null) || RuntimeEventDispatcher.isEnabled())) ? 
+						System.nanoTime() : 0;
 		
-		this.result = new AsyncResultImpl<R>(this);
+		this.result = caller.isOneWay() ? null : new AsyncResultImpl<R>(this);
 		
 		if (arguments != null) {
 			this.arguments = new Object[arguments.length];
@@ -132,31 +170,223 @@ public final class MessageInvocation<R> extends FastQueue.Entry {
 		if (target.getController().isLoggingActions())
 			log.info("Executing message #%d now.", messageNumber);
 
+		ActorClassMetricsImpl metrics = target.getClassMetrics();
+		Tracer tracer = target.getController().getTracer();
+		boolean events = RuntimeEventDispatcher.isEnabled();
+		long start = ((metrics != null) || (tracer != null) || events) ? System.nanoTime() : 0;
 		WorkerState oldState = ts.startInvocation(this);
 		try {
 			AsyncResult<R> r;
 			r = caller.invoke(target.getActor(), arguments);
 			if (r == null)
-				result.resultException(new ActorRuntimeException(
+				setException(new ActorRuntimeException(
 						String.format("Actor %s message %s() returned null. This is not allowed. If you don't want to return a value, return \"noResult()\".", 
 						target.getActor().getClass().getName(), caller.getMessageName()))
 						);
 			else if (isInitializer && r.isReady() && (r.get() != target.getActor()))
-				result.resultException(new ActorRuntimeException(
+				setException(new ActorRuntimeException(
 						String.format("Actor %s initializer %s() must return a reference to itself. The easiest way to do this is to return \"result(this)\".", 
 						target.getActor().getClass().getName(), caller.getMessageName(), r.get()))
 						);
 			else
-				result.resultReady(r);
+				setResult(r);
 		}
 		catch (Throwable t) {
-			result.resultException(t);
+			setException(t);
 		}
 		ts.endInvocation(oldState);
+		if (journal != null)
+			journal.acknowledge(journalSequence);
+		target.getController().recordCompletedMessages(1);
+		if ((metrics != null) || (tracer != null) || events) {
+			long end = System.nanoTime();
+			if (metrics != null)
+				metrics.recordMessage(start - queuedNanos, end - start);
+			if (tracer != null)
+				tracer.record(ts, this, start, end);
+			if (events)
+				fireMessageExecuted(start, end - start);
+		}
 		if (target.getController().isLoggingActions())
 			log.info("Finished message #%d.", messageNumber);
 	}
 	
+	/**
+	 * Executes a batch of invocations of the same message now, using the message's
+	 * batch handler (see {@link Batch}). The caller is responsible for preventing two
+	 * messages of the same single-threaded actor to run simultaneously.
+	 * @param ts the current ThreadState
+	 * @param batch the invocations to execute. All must have the same caller and target.
+	 *              Must contain at least two elements.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void runBatchNow(ThreadState ts, final List<MessageInvocation<?>> batch) {
+		MessageInvocation<?> first = batch.get(0);
+		ActorState target = first.target;
+		if (target.getController().isLoggingActions())
+			log.info("Executing batch of %d invocations, starting with message #%d, now.", batch.size(), first.messageNumber);
+
+		int argCount = (first.arguments == null) ? 0 : first.arguments.length;
+		ImmutableList<?>[] columns = new ImmutableList<?>[argCount];
+		for (int i = 0; i < argCount; i++) {
+			Object[] column = new Object[batch.size()];
+			for (int j = 0; j < column.length; j++) {
+				Object a = batch.get(j).arguments[i];
+				column[j] = (a instanceof SerializableFreezer) ? ((SerializableFreezer<?>) a).get() : a;
+			}
+			columns[i] = new ImmutableList<Object>(column);
+		}
+		
+		ActorClassMetricsImpl metrics = target.getClassMetrics();
+		Tracer tracer = target.getController().getTracer();
+		boolean events = RuntimeEventDispatcher.isEnabled();
+		long start = ((metrics != null) || (tracer != null) || events) ? System.nanoTime() : 0;
+		WorkerState oldState = ts.startInvocation(first);
+		try {
+			AsyncResult<Object> r = (AsyncResult<Object>) first.caller.invokeBatch(target.getActor(), columns);
+			if (r == null)
+				batchException(batch, new ActorRuntimeException(
+						String.format("Actor %s batch handler %s() returned null. This is not allowed. If you don't want to return a value, return \"noResult()\".", 
+						target.getActor().getClass().getName(), first.caller.getBatchHandlerName())));
+			else if (r.isReady())
+				batchResultReady(batch, r);
+			else
+				r.addNotifier(new AsyncResult.Notifier<Object>() {
+					public void resultReady(AsyncResult<Object> result) {
+						batchResultReady(batch, result);
+					}
+				});
+		}
+		catch (Throwable t) {
+			batchException(batch, t);
+		}
+		ts.endInvocation(oldState);
+		for (MessageInvocation<?> m: batch)
+			if (m.journal != null)
+				m.journal.acknowledge(m.journalSequence);
+		target.getController().recordCompletedMessages(batch.size());
+		if ((metrics != null) || (tracer != null) || events) {
+			long executionNanos = (System.nanoTime() - start) / batch.size();
+			for (int i = 0; i < batch.size(); i++) {
+				MessageInvocation<?> m = batch.get(i);
+				if (metrics != null)
+					metrics.recordMessage(start - m.queuedNanos, executionNanos);
+				if (tracer != null) // split the batch's execution time evenly
+					tracer.record(ts, m, start + i * executionNanos, start + (i + 1) * executionNanos);
+				if (events)
+					m.fireMessageExecuted(start, executionNanos);
+			}
+		}
+		if (target.getController().isLoggingActions())
+			log.info("Finished batch starting with message #%d.", first.messageNumber);
+	}
+	
+	/**
+	 * Sends the messageExecuted event to the {@link RuntimeEventDispatcher}.
+	 * @param start the start of the execution, in ns
+	 * @param runNanos the duration of the execution, in ns
+	 */
+	private void fireMessageExecuted(long start, long runNanos) {
+		RuntimeEventDispatcher.messageExecuted(target.getController().getAgent(), 
+				target.getActor().getClass().getSuperclass(), caller.getMessageName(),
+				(queuedNanos != 0) ? (start - queuedNanos) : -1, runNanos);
+	}
+	
+	/**
+	 * Distributes the result of a batch handler to the invocations of the batch.
+	 * @param batch the invocations of the batch
+	 * @param r the result of the batch handler. Must be ready.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void batchResultReady(List<MessageInvocation<?>> batch, AsyncResult<Object> r) {
+		Throwable e = r.getException();
+		if (e != null) {
+			batchException(batch, e);
+			return;
+		}
+		
+		Object value;
+		try {
+			value = r.get();
+		}
+		catch (WrappedException t) {
+			batchException(batch, t.getCause());
+			return;
+		}
+		
+		List<?> values;
+		if (value == null)
+			values = null;
+		else if (value instanceof ImmutableList)
+			values = ((ImmutableList<?>) value).toList();
+		else if (value instanceof List)
+			values = (List<?>) value;
+		else {
+			batchException(batch, new ActorRuntimeException(
+					String.format("Batch handler %s() must return a list or null, but returned %s.", 
+							batch.get(0).caller.getBatchHandlerName(), value.getClass().getName())));
+			return;
+		}
+		if ((values != null) && (values.size() != batch.size())) {
+			batchException(batch, new ActorRuntimeException(
+					String.format("Batch handler %s() returned %d results for %d invocations.", 
+							batch.get(0).caller.getBatchHandlerName(), values.size(), batch.size())));
+			return;
+		}
+		
+		for (int i = 0; i < batch.size(); i++)
+			if (batch.get(i).result != null)
+				((AsyncResultImpl<Object>) batch.get(i).result).resultValue((values == null) ? null : values.get(i));
+	}
+	
+	/**
+	 * Sets the given exception as result of all invocations of the batch.
+	 * @param batch the invocations of the batch
+	 * @param t the exception
+	 */
+	private static void batchException(List<MessageInvocation<?>> batch, Throwable t) {
+		for (MessageInvocation<?> m: batch)
+			m.setException(t);
+	}
+	
+	/**
+	 * Sets the result of the message. For one-way messages, only exceptions will be
+	 * reported to the controller.
+	 * @param r the result returned by the message implementation
+	 */
+	private void setResult(AsyncResult<R> r) {
+		if (result != null) {
+			result.resultReady(r);
+			return;
+		}
+		
+		if (r.isReady()) {
+			Throwable e = r.getException();
+			if (e != null)
+				setException(e);
+		}
+		else
+			r.addNotifier(new AsyncResult.Notifier<R>() {
+				public void resultReady(AsyncResult<R> ar) {
+					Throwable e = ar.getException();
+					if (e != null)
+						setException(e);
+				}
+			});
+	}
+	
+	/**
+	 * Sets the exception as result of the message. For one-way messages, the exception 
+	 * will be reported to the controller.
+	 * @param t the exception
+	 */
+	private void setException(Throwable t) {
+		if (result != null)
+			result.resultException(t);
+		else
+			target.getController().handleUncaughtException(target.getActor(), caller.getMessageName(), t);
+	}
+	
 	/**
 	 * Returns the message that has invoked this message. Null if there is no such message
 	 * because an unmanaged thread invoked this message.
@@ -166,9 +396,17 @@ public final class MessageInvocation<R> extends FastQueue.Entry {
 		return superInvocation;
 	}
 
+	/**
+	 * Returns the caller that invokes the message.
+	 * @return the caller
+	 */
+	public MessageCaller<R> getCaller() {
+		return caller;
+	}
+
 	/**
 	 * Returns the AsyncResultImpl representing the message's result.
-	 * @return the AsyncResultImpl
+	 * @return the AsyncResultImpl, or null for one-way messages
 	 */
 	public AsyncResultImpl<R> getAsyncResult() {
 		return result;
@@ -190,6 +428,62 @@ public final class MessageInvocation<R> extends FastQueue.Entry {
 		return threadUsage;
 	}
 	
+	/**
+	 * Returns the priority of the message.
+	 * @return the priority
+	 */
+	public int getPriority() {
+		return priority;
+	}
+	
+	/**
+	 * Returns the argument with the given index.
+	 * @param index the index of the argument
+	 * @return the argument (possibly wrapped as {@link SerializableFreezer})
+	 */
+	Object getArgument(int index) {
+		return arguments[index];
+	}
+	
+	/**
+	 * Returns the lane of a multi-threaded actor that the message has been queued in.
+	 * @return the index of the lane
+	 */
+	int getLane() {
+		return lane;
+	}
+	
+	/**
+	 * Sets the lane of a multi-threaded actor that the message will be queued in.
+	 * @param lane the index of the lane
+	 */
+	void setLane(int lane) {
+		this.lane = lane;
+	}
+	
+	/**
+	 * Sets the journal that logged the invocation. It will be acknowledged after the
+	 * invocation has been executed.
+	 * @param journal the journal
+	 * @param journalSequence the sequence number of the invocation in the journal
+	 */
+	void setJournalEntry(MessageJournal journal, long journalSequence) {
+		this.journal = journal;
+		this.journalSequence = journalSequence;
+	}
+	
+	/**
+	 * Tells the journal that logged the invocation, if any, that it will not be executed.
+	 * Must be called after the invocation has been removed from the mailbox. 
+	 */
+	void discardJournalEntry() {
+		MessageJournal j = journal;
+		if (j == null)
+			return;
+		journal = null;
+		j.discard(journalSequence);
+	}
+	
 	/**
 	 * Returns the target of the message.
 	 * @return the message's target
@@ -198,6 +492,15 @@ public final class MessageInvocation<R> extends FastQueue.Entry {
 		return target;
 	}
 	
+	/**
+	 * Returns the time the message has been created.
+	 * @return the time in ns (see {@link System#nanoTime()}), or 0 if neither metrics
+	 *         nor tracing are enabled
+	 */
+	public long getQueuedNanos() {
+		return queuedNanos;
+	}
+	
 	/**
 	 * The number of this message (a sequential number).
 	 * @return the id
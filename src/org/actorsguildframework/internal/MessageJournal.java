@@ -0,0 +1,51 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+/**
+ * A MessageJournal logs the invocations of an actor's messages, so they can
+ * be sent again after a crash. Each implementation decides which messages it logs.
+ * Implementations must be thread-safe.
+ * @see org.actorsguildframework.io.DurableMailbox
+ * @see org.actorsguildframework.io.EventJournal
+ */
+public interface MessageJournal {
+	/**
+	 * Writes the invocation of a message to the journal, if the journal logs the message. 
+	 * Invoked before the message is queued. 
+	 * @param caller the caller of the message
+	 * @param arguments the arguments of the message, possibly wrapped as 
+	 *   {@link org.actorsguildframework.immutable.SerializableFreezer}
+	 * @return the sequence number of the invocation, for {@link #acknowledge(long)}, or
+	 *   -1 if the message is not logged
+	 * @throws org.actorsguildframework.ActorRuntimeException if the invocation could not be written
+	 */
+	long append(MessageCaller<?> caller, Object[] arguments);
+	
+	/**
+	 * Marks the invocation as processed. Invoked after the message has been executed,
+	 * in the thread that executed it.
+	 * @param sequence the sequence number returned by {@link #append(MessageCaller, Object[])}
+	 */
+	void acknowledge(long sequence);
+	
+	/**
+	 * Marks the invocation as discarded: it has been removed before it could be executed, 
+	 * for example because it has been cancelled, and must never be replayed. 
+	 * @param sequence the sequence number returned by {@link #append(MessageCaller, Object[])}
+	 */
+	void discard(long sequence);
+}
@@ -0,0 +1,288 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.actorsguildframework.internal.util.FreezerStatistics;
+import org.actorsguildframework.internal.util.L;
+import org.actorsguildframework.internal.util.StripedCounter;
+import org.actorsguildframework.metrics.ActorClassMetrics;
+import org.actorsguildframework.metrics.AgentMetrics;
+import org.actorsguildframework.metrics.AgentMetricsMXBean;
+
+/**
+ * Collects the metrics of a controller. Thread-safe.
+ */
+public final class MetricsCollector implements AgentMetrics, AgentMetricsMXBean {
+	private final static L log = new L(MetricsCollector.class);
+	
+	/**
+	 * The domain of all MBeans.
+	 */
+	private final static String JMX_DOMAIN = "org.actorsguildframework";
+	
+	/**
+	 * The controller whose metrics are collected.
+	 */
+	private final ControllerImplementation controller;
+	
+	/**
+	 * The name of the agent in JMX, or null if the metrics should not be registered.
+	 */
+	private final String jmxName;
+	
+	/**
+	 * The metrics of all actor classes.
+	 */
+	private final ConcurrentHashMap<Class<?>, ActorClassMetricsImpl> classMetrics = 
+		new ConcurrentHashMap<Class<?>, ActorClassMetricsImpl>();
+	
+	/**
+	 * The names of all registered MBeans.
+	 * Synchronize this instance before accessing it.
+	 */
+	private final ArrayList<ObjectName> registeredNames = new ArrayList<ObjectName>();
+	
+	/**
+	 * True after {@link #unregister()}.
+	 * Synchronize this instance before accessing it.
+	 */
+	private boolean unregistered;
+	
+	/**
+	 * The number of started worker threads.
+	 */
+	private final StripedCounter threadsCreated = new StripedCounter();
+
+	/**
+	 * The number of killed worker threads.
+	 */
+	private final StripedCounter threadsKilled = new StripedCounter();
+	
+	/**
+	 * The number of tryExecuteNow() invocations.
+	 */
+	private final StripedCounter tryExecuteAttempts = new StripedCounter();
+
+	/**
+	 * The number of successful tryExecuteNow() invocations.
+	 */
+	private final StripedCounter tryExecuteHits = new StripedCounter();
+	
+	/**
+	 * Creates a new instance and registers it in JMX, if a name has been given. 
+	 * Enables the {@link FreezerStatistics} until {@link #unregister()} is called.
+	 * @param controller the controller
+	 * @param jmxName the name of the agent in JMX, or null to skip registration
+	 */
+	public MetricsCollector(ControllerImplementation controller, String jmxName) {
+		this.controller = controller;
+		this.jmxName = jmxName;
+		FreezerStatistics.addUser();
+		if (jmxName != null)
+			register(this, "type=Agent,name="+ObjectName.quote(jmxName));
+	}
+	
+	/**
+	 * Registers the given object in the platform MBean server. Errors are logged.
+	 * @param mbean the MBean to register
+	 * @param properties the key properties of the name
+	 */
+	private void register(Object mbean, String properties) {
+		try {
+			ObjectName name = new ObjectName(JMX_DOMAIN+":"+properties);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+			synchronized (this) {
+				registeredNames.add(name);
+			}
+		}
+		catch (JMException e) {
+			log.error("Can not register MBean %s: %s", properties, e);
+		}
+	}
+	
+	/**
+	 * Removes all MBeans of this instance from the platform MBean server, and stops
+	 * updating the {@link FreezerStatistics} for this instance.
+	 */
+	public void unregister() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		synchronized (this) {
+			if (!unregistered) {
+				unregistered = true;
+				FreezerStatistics.removeUser();
+			}
+			for (ObjectName name: registeredNames) {
+				try {
+					server.unregisterMBean(name);
+				}
+				catch (JMException e) {
+					log.error("Can not unregister MBean %s: %s", name, e);
+				}
+			}
+			registeredNames.clear();
+		}
+	}
+	
+	/**
+	 * Returns the metrics of the given actor class, and creates them if needed.
+	 * @param actorClass the actor class (not the proxy class)
+	 * @return the metrics
+	 */
+	public ActorClassMetricsImpl getOrCreateActorClassMetrics(Class<?> actorClass) {
+		ActorClassMetricsImpl m = classMetrics.get(actorClass);
+		if (m != null)
+			return m;
+		
+		ActorClassMetricsImpl newMetrics = new ActorClassMetricsImpl(actorClass);
+		m = classMetrics.putIfAbsent(actorClass, newMetrics);
+		if (m != null)
+			return m;
+		if (jmxName != null)
+			register(newMetrics, "type=ActorClass,agent="+ObjectName.quote(jmxName)+",name="+ObjectName.quote(actorClass.getName()));
+		return newMetrics;
+	}
+	
+	/**
+	 * Records a started worker thread.
+	 * @param n the number of started threads
+	 */
+	public void recordThreadsCreated(int n) {
+		threadsCreated.add(n);
+	}
+	
+	/**
+	 * Records a killed worker thread.
+	 */
+	public void recordThreadKilled() {
+		threadsKilled.increment();
+	}
+	
+	/**
+	 * Records an invocation of {@link ActorState#tryExecuteNow(MessageInvocation, ThreadState)}.
+	 * @param hit true if the message could be executed
+	 */
+	public void recordTryExecute(boolean hit) {
+		tryExecuteAttempts.increment();
+		if (hit)
+			tryExecuteHits.increment();
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getActorClassMetrics()
+	 */
+	public Collection<ActorClassMetrics> getActorClassMetrics() {
+		return new ArrayList<ActorClassMetrics>(classMetrics.values());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getActorClassMetrics(java.lang.Class)
+	 */
+	public ActorClassMetrics getActorClassMetrics(Class<?> actorClass) {
+		return classMetrics.get(actorClass);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getWorkerThreadCounts()
+	 */
+	public Map<String, Integer> getWorkerThreadCounts() {
+		int[] stats = controller.getThreadStatistics();
+		TreeMap<String, Integer> r = new TreeMap<String, Integer>();
+		for (WorkerState ws: WorkerState.values())
+			r.put(ws.name(), stats[ws.ordinal()]);
+		return r;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getThreadsCreated()
+	 */
+	public long getThreadsCreated() {
+		return threadsCreated.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getThreadsKilled()
+	 */
+	public long getThreadsKilled() {
+		return threadsKilled.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getTryExecuteAttempts()
+	 */
+	public long getTryExecuteAttempts() {
+		return tryExecuteAttempts.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getTryExecuteHits()
+	 */
+	public long getTryExecuteHits() {
+		return tryExecuteHits.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getFreezeCount()
+	 */
+	public long getFreezeCount() {
+		return FreezerStatistics.freezeCount.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getFrozenBytes()
+	 */
+	public long getFrozenBytes() {
+		return FreezerStatistics.frozenBytes.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getFreezeNanos()
+	 */
+	public long getFreezeNanos() {
+		return FreezerStatistics.freezeNanos.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getThawCount()
+	 */
+	public long getThawCount() {
+		return FreezerStatistics.thawCount.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getThawedBytes()
+	 */
+	public long getThawedBytes() {
+		return FreezerStatistics.thawedBytes.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.AgentMetrics#getThawNanos()
+	 */
+	public long getThawNanos() {
+		return FreezerStatistics.thawNanos.get();
+	}
+}
@@ -15,14 +15,48 @@
  */
 package org.actorsguildframework.internal;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.actorsguildframework.Actor;
+import org.actorsguildframework.annotations.Priority;
+import org.actorsguildframework.annotations.ShardKey;
 
 /**
- * ActorState implementation for single-threaded actors.
+ * ActorState implementation for multi-threaded actors.
+ * <p>
+ * The messages are distributed over several lanes (see {@link Controller#getLaneCount()}), 
+ * each a Mailbox that is locked by synchronizing on it. A message goes into the lane 
+ * selected by its {@link ShardKey} argument, or otherwise into the next lane of the 
+ * sending thread. Lanes do not serialize the execution, they only distribute the 
+ * contention for the queue.
+ * <p>
+ * {@link #queuedMessages} counts the messages in all lanes. A thread must reserve a message
+ * by decrementing it before removing a message from a lane, and a message is only 
+ * counted after it has been added to its lane. Thus the lanes always contain at least 
+ * as many messages as are counted or reserved, and a thread with a reservation will find 
+ * a message. As the actor never needs more threads than it has lanes, the controller
+ * only needs to be updated while there are not more messages than lanes. As long as 
+ * there are more, worker threads keep executing the actor's messages without taking
+ * the actor lock.
  */
 public final class MultiThreadedActorState extends ActorState {
+	/**
+	 * The lanes. Each lane is locked by synchronizing on it.
+	 */
+	private final Mailbox[] lanes;
+	
+	/**
+	 * The number of messages in all lanes that have not been reserved yet.
+	 */
+	private final AtomicInteger queuedMessages = new AtomicInteger();
+	
 	/**
 	 * Contains the number of additional threads that could now start running for this actor.
+	 * This is the number of queued messages, but not more than the number of lanes.
+	 * 
+	 * Locking policy: you must lock {@link ControllerImplementation#actorLock} before accessing this field.
 	 */
 	private int numberOfThreadsNeeded;
 	
@@ -33,6 +67,123 @@ public final class MultiThreadedActorState extends ActorState {
 	 */
 	public MultiThreadedActorState(Controller scheduler, Actor actor) {
 		super(scheduler, actor);
+		lanes = new Mailbox[scheduler.getLaneCount()];
+		for (int i = 0; i < lanes.length; i++)
+			lanes[i] = new Mailbox();
+	}
+	
+	/**
+	 * Selects the lane for a new message.
+	 * @param invk the message
+	 * @return the index of the lane
+	 */
+	private int selectLane(MessageInvocation<?> invk) {
+		if (lanes.length == 1)
+			return 0;
+		int keyIndex = invk.getCaller().getShardKeyIndex();
+		int h;
+		if (keyIndex >= 0) {
+			Object key = invk.getArgument(keyIndex);
+			h = (key == null) ? 0 : key.hashCode();
+			h ^= (h >>> 16);
+		}
+		else
+			h = ThreadState.get().nextLane();
+		return (h & 0x7fffffff) % lanes.length;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.internal.ActorState#addInvokationMessage(org.actorsguildframework.internal.MessageInvocation)
+	 */
+	@Override
+	protected void addInvokationMessage(MessageInvocation<?> invk) {
+		int lane = selectLane(invk);
+		invk.setLane(lane);
+		Mailbox m = lanes[lane];
+		synchronized (m) {
+			m.add(invk);
+		}
+		
+		int n = queuedMessages.incrementAndGet();
+		if (getClassMetrics() != null)
+			getClassMetrics().updateMailboxSize(n);
+		if ((n <= lanes.length) || (invk.getPriority() > Priority.NORMAL)) {
+			controller.getActorLock().lock();
+			try {
+				updateControllerQueueUnsynchronized();
+			}
+			finally {
+				controller.getActorLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Reserves a message. Without the actor lock, a message can only be reserved if this 
+	 * does not change {@link #numberOfThreadsNeeded}.
+	 * @param locked true if the current thread holds the actor lock
+	 * @return true if a message has been reserved
+	 */
+	private boolean reserve(boolean locked) {
+		int min = locked ? 0 : lanes.length;
+		while (true) {
+			int q = queuedMessages.get();
+			if (q <= min)
+				return false;
+			if (queuedMessages.compareAndSet(q, q - 1))
+				return true;
+		}
+	}
+	
+	/**
+	 * Removes a reserved message from the lanes, starting with the given lane.
+	 * @param firstLane the index of the first lane to look at
+	 * @return the message
+	 */
+	private MessageInvocation<?> popReserved(int firstLane) {
+		while (true) {
+			for (int i = 0; i < lanes.length; i++) {
+				Mailbox m = lanes[(firstLane + i) % lanes.length];
+				synchronized (m) {
+					MessageInvocation<?> msg = m.pop();
+					if (msg != null)
+						return msg;
+				}
+			}
+			// the reserved message is still being added or removed by another thread 
+			Thread.yield();
+		}
+	}
+	
+	/**
+	 * Removes the invocations that directly follow the given message in its lane, if they
+	 * are invocations of the same message and the message supports batches. Every 
+	 * additional invocation must be reserved.
+	 * @param first the first message of the batch, already removed from its lane
+	 * @param locked true if the current thread holds the actor lock
+	 * @return the batch, including first, or null if no other invocation could be added to it
+	 */
+	private List<MessageInvocation<?>> popBatch(MessageInvocation<?> first, boolean locked) {
+		MessageCaller<?> caller = first.getCaller();
+		int maxSize = caller.getMaxBatchSize();
+		if (maxSize < 2)
+			return null;
+		
+		ArrayList<MessageInvocation<?>> batch = null;
+		Mailbox m = lanes[first.getLane()];
+		synchronized (m) {
+			MessageInvocation<?> next;
+			while (((next = m.peek()) != null) && (next.getCaller() == caller) && 
+					((batch == null) || (batch.size() < maxSize)) && reserve(locked)) {
+				if (batch == null) {
+					batch = new ArrayList<MessageInvocation<?>>();
+					batch.add(first);
+				}
+				batch.add(m.pop());
+			}
+		}
+		return batch;
 	}
 	
 	/*
@@ -55,8 +206,14 @@ public final class MultiThreadedActorState extends ActorState {
 		boolean success;
 		controller.getActorLock().lock();
 		try {	
-			success = mailbox.remove(message);
-			updateControllerQueueUnsynchronized();	
+			Mailbox m = lanes[message.getLane()];
+			synchronized (m) {
+				success = m.remove(message);
+			}
+			if (success) {
+				queuedMessages.decrementAndGet();
+				updateControllerQueueUnsynchronized();	
+			}
 		}
 		finally {
 			controller.getActorLock().unlock();
@@ -64,42 +221,106 @@ public final class MultiThreadedActorState extends ActorState {
 		return success;
 	}
 	
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Executes queued messages. The actor lock is only held for the first message. After 
+	 * that, the method continues without the lock as long as there are more messages 
+	 * than lanes.
 	 * @see org.actorsguildframework.internal.ActorState#executeAllQueuedMessagesUnsynchronized(org.actorsguildframework.internal.ThreadState, org.actorsguildframework.internal.KeepRunningInterface)
 	 */
 	public int executeAllQueuedMessagesUnsynchronized(ThreadState ts, KeepRunningInterface keepRunning) {
 		int msgsExecuted = 0;
-		while (keepRunning.shouldContinue()) {
-			MessageInvocation<?> msg = mailbox.pop();
-			if (msg == null) {// no msg left -> leave
-				updateControllerQueueUnsynchronized();
-				return msgsExecuted;
+		int firstLane = (int) (Thread.currentThread().getId() % lanes.length);
+		boolean locked = true;
+		try {
+			while (keepRunning.shouldContinue() && reserve(locked)) {
+				MessageInvocation<?> msg = popReserved(firstLane);
+				List<MessageInvocation<?>> batch = popBatch(msg, locked);
+				if (locked) {
+					updateControllerQueueUnsynchronized();
+					controller.getActorLock().unlock(); // unlock for the execution!!
+					locked = false;
+				}
+				
+				runMessageOrBatchNow(msg, batch, ts);
+				msgsExecuted += (batch == null) ? 1 : batch.size();
 			}
-			
-			updateControllerQueueUnsynchronized();
-			controller.getActorLock().unlock(); // unlock for the execution!!
-			try {
-				msg.runMessageNow(ts);
-			}
-			finally {
+		}
+		finally {
+			if (!locked)
 				controller.getActorLock().lock();
-			}
-
-			msgsExecuted++;
 		}
 		updateControllerQueueUnsynchronized();
 		return msgsExecuted;
 	}
 	
+	/**
+	 * Returns the highest priority of all lanes.
+	 * @see org.actorsguildframework.internal.ActorState#getHighestPriorityUnsynchronized()
+	 */
+	@Override
+	protected int getHighestPriorityUnsynchronized() {
+		int p = Integer.MIN_VALUE;
+		for (Mailbox m: lanes)
+			synchronized (m) {
+				if (!m.isEmpty())
+					p = Math.max(p, m.getHighestPriority());
+			}
+		return (p == Integer.MIN_VALUE) ? Priority.NORMAL : p;
+	}
+	
+	/**
+	 * Removes the given message from its lane. The message must be reserved like every 
+	 * other message that is removed, which may fail while it is still being added.
+	 * @see org.actorsguildframework.internal.ActorState#removeMessage(org.actorsguildframework.internal.MessageInvocation)
+	 */
+	@Override
+	public boolean removeMessage(MessageInvocation<?> invk) {
+		controller.getActorLock().lock();
+		try {
+			Mailbox m = lanes[invk.getLane()];
+			synchronized (m) {
+				if (!m.isInQueue(invk) || !reserve(true))
+					return false;
+				m.remove(invk);
+			}
+			updateControllerQueueUnsynchronized();
+		}
+		finally {
+			controller.getActorLock().unlock();
+		}
+		invk.discardJournalEntry();
+		return true;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.internal.ActorState#removeAllMessagesUnsynchronized(java.util.List)
+	 */
+	@Override
+	public void removeAllMessagesUnsynchronized(List<MessageInvocation<?>> removedMessages) {
+		while (reserve(true))
+			removedMessages.add(popReserved(0));
+		updateControllerQueueUnsynchronized();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.internal.ActorState#getQueueLengthEstimate()
+	 */
+	@Override
+	public int getQueueLengthEstimate() {
+		return Math.max(0, queuedMessages.get());
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.actorsguildframework.internal.ActorState#updateControllerQueueUnsynchronized()
 	 */
 	public void updateControllerQueueUnsynchronized() {
 		int oldNumberOfThreadsNeeded = numberOfThreadsNeeded;
-		numberOfThreadsNeeded = mailbox.size();
-		if (oldNumberOfThreadsNeeded == numberOfThreadsNeeded)
+		numberOfThreadsNeeded = Math.max(0, Math.min(queuedMessages.get(), lanes.length));
+		boolean priorityChanged = updateRegisteredPriorityUnsynchronized();
+		if ((oldNumberOfThreadsNeeded == numberOfThreadsNeeded) && !priorityChanged)
 			return;
 		controller.updateActorStateQueueUnsynchronized(this, oldNumberOfThreadsNeeded, numberOfThreadsNeeded);
 	}
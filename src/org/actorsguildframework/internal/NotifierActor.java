@@ -0,0 +1,45 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Model;
+import org.actorsguildframework.annotations.OneWay;
+import org.actorsguildframework.annotations.Shared;
+
+/**
+ * NotifierActor runs tasks in the worker threads of its agent. It is used to invoke the 
+ * notifiers of a {@link org.actorsguildframework.CompletableResult} that has been 
+ * completed by a thread outside of the agent. 
+ * Every agent has at most one NotifierActor, created on demand.
+ */
+@Model(ConcurrencyModel.Stateless)
+public class NotifierActor extends Actor {
+	/**
+	 * Runs the given task. 
+	 * @param task the task to run
+	 * @return always ready
+	 */
+	@Message
+	@OneWay
+	public AsyncResult<Void> run(@Shared Runnable task) {
+		task.run();
+		return noResult();
+	}
+}
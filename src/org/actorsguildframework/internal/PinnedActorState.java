@@ -0,0 +1,241 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AgentShutdownException;
+import org.actorsguildframework.annotations.ConcurrencyModel;
+
+/**
+ * ActorState implementation for pinned actors (see {@link ConcurrencyModel#Pinned}).
+ * <p>
+ * A pinned actor executes all its messages in a dedicated thread and is never 
+ * registered in the controller's queues. New messages are handed to the thread with a
+ * lock-free queue; the thread is woken up with {@link LockSupport#unpark(Thread)} 
+ * only if it is parked. The thread is started with the first message and stopped
+ * when the controller shuts down.
+ * <p>
+ * Unlike in the other ActorStates, {@link #mailbox} is only accessed by the dedicated 
+ * thread and thus does not require the actor lock.
+ */
+public final class PinnedActorState extends ActorState implements Runnable {
+	/**
+	 * New messages, not yet moved into the {@link #mailbox}.
+	 */
+	private final ConcurrentLinkedQueue<MessageInvocation<?>> inbox = new ConcurrentLinkedQueue<MessageInvocation<?>>();
+	
+	/**
+	 * The number of messages that have been queued, but not executed yet. 
+	 */
+	private final AtomicInteger pendingMessages = new AtomicInteger();
+	
+	/**
+	 * Set when the dedicated thread has been started.
+	 */
+	private final AtomicBoolean started = new AtomicBoolean();
+	
+	/**
+	 * The dedicated thread, or null if it is not running yet.
+	 */
+	private volatile Thread thread;
+	
+	/**
+	 * True while the dedicated thread is parked or about to park.
+	 */
+	private volatile boolean parked;
+
+	/**
+	 * Set to stop the dedicated thread.
+	 */
+	private volatile boolean stopped;
+	
+	/**
+	 * Released when the dedicated thread has finished.
+	 */
+	private final CountDownLatch stoppedLatch = new CountDownLatch(1);
+	
+	/**
+	 * Creates a new PinnedActorState instance.
+	 * @param scheduler the Actor's scheduler
+	 * @param actor the actor whose state this instance is representing
+	 */
+	public PinnedActorState(Controller scheduler, Actor actor) {
+		super(scheduler, actor);
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.internal.ActorState#addInvokationMessage(org.actorsguildframework.internal.MessageInvocation)
+	 */
+	@Override
+	protected void addInvokationMessage(MessageInvocation<?> invk) {
+		inbox.offer(invk);
+		int pending = pendingMessages.incrementAndGet();
+		if (getClassMetrics() != null)
+			getClassMetrics().updateMailboxSize(pending);
+		
+		if (!started.get() && started.compareAndSet(false, true))
+			controller.startPinnedThread(this);
+		else if (parked) {
+			Thread t = thread;
+			if (t != null)
+				LockSupport.unpark(t);
+		}
+		
+		// the thread may have been stopped, or never started because of the shutdown, 
+		// before the message has been offered. Then nobody else will see it.
+		if (stopped || controller.isTerminated())
+			failInbox();
+	}
+	
+	/**
+	 * Fails all messages of the inbox with an {@link AgentShutdownException}. Called by
+	 * the dedicated thread when it stops, and by senders that find the actor stopped, 
+	 * so that messages offered concurrently with the shutdown can not be left behind.
+	 */
+	private void failInbox() {
+		AgentShutdownException e = null;
+		MessageInvocation<?> m;
+		while ((m = inbox.poll()) != null) {
+			pendingMessages.decrementAndGet();
+			if (e == null)
+				e = new AgentShutdownException("The agent has been shut down before the message could be processed.");
+			m.discardJournalEntry();
+			if (m.getAsyncResult() != null)
+				m.getAsyncResult().resultException(e);
+		}
+	}
+	
+	/**
+	 * Stops the dedicated thread after the current message. Messages that have not been 
+	 * executed yet will fail with an {@link AgentShutdownException}.
+	 */
+	public void stop() {
+		stopped = true;
+		Thread t = thread;
+		if (t != null)
+			LockSupport.unpark(t);
+	}
+	
+	/**
+	 * The loop of the dedicated thread.
+	 */
+	public void run() {
+		thread = Thread.currentThread();
+		ThreadState ts = ThreadState.get();
+		try {
+			while (!stopped) {
+				MessageInvocation<?> m;
+				while ((m = inbox.poll()) != null)
+					mailbox.add(m);
+				
+				MessageInvocation<?> msg = mailbox.pop();
+				if (msg == null) {
+					// the flag must be set before checking the inbox, so a new message
+					// either is seen here or unparks the thread 
+					parked = true;
+					if (inbox.isEmpty() && !stopped)
+						LockSupport.park(this);
+					parked = false;
+					continue;
+				}
+				
+				List<MessageInvocation<?>> batch = popBatchUnsynchronized(msg);
+				runMessageOrBatchNow(msg, batch, ts);
+				pendingMessages.addAndGet((batch == null) ? -1 : -batch.size());
+			}
+		}
+		finally {
+			stopped = true; // also if a message threw an Error
+			AgentShutdownException e = new AgentShutdownException("The agent has been shut down before the message could be processed.");
+			MessageInvocation<?> m;
+			while ((m = mailbox.pop()) != null) {
+				m.discardJournalEntry();
+				if (m.getAsyncResult() != null)
+					m.getAsyncResult().resultException(e);
+			}
+			failInbox();
+			thread = null;
+			stoppedLatch.countDown();
+		}
+	}
+	
+	/**
+	 * Waits until the dedicated thread has finished. The thread must have been started.
+	 * @param deadlineNanos the deadline, as value of {@link System#nanoTime()}
+	 * @return true if the thread has finished, false if the deadline passed
+	 * @throws InterruptedException if the current thread has been interrupted
+	 */
+	public boolean awaitStopped(long deadlineNanos) throws InterruptedException {
+		return stoppedLatch.await(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Always returns false, because the messages of a pinned actor can only be executed
+	 * in its own thread. 
+	 * @see org.actorsguildframework.internal.ActorState#tryExecuteNow(org.actorsguildframework.internal.MessageInvocation, org.actorsguildframework.internal.ThreadState)
+	 */
+	public boolean tryExecuteNow(MessageInvocation<?> msgI, ThreadState ts) {
+		return false;
+	}
+
+	/**
+	 * Does nothing, because pinned actors are never queued in the controller.
+	 * @see org.actorsguildframework.internal.ActorState#executeAllQueuedMessagesUnsynchronized(org.actorsguildframework.internal.ThreadState, org.actorsguildframework.internal.KeepRunningInterface)
+	 */
+	public int executeAllQueuedMessagesUnsynchronized(ThreadState ts, KeepRunningInterface keepRunning) {
+		return 0;
+	}
+
+	/**
+	 * Removes the message if it has not been taken by the dedicated thread yet. Unlike 
+	 * the other ActorStates, this needs o(n) time, as the message must be searched in the 
+	 * lock-free queue.
+	 * @see org.actorsguildframework.internal.ActorState#removeMessage(org.actorsguildframework.internal.MessageInvocation)
+	 */
+	@Override
+	public boolean removeMessage(MessageInvocation<?> invk) {
+		if (!inbox.remove(invk))
+			return false;
+		pendingMessages.decrementAndGet();
+		invk.discardJournalEntry();
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.actorsguildframework.internal.ActorState#getQueueLengthEstimate()
+	 */
+	@Override
+	public int getQueueLengthEstimate() {
+		return pendingMessages.get();
+	}
+
+	/**
+	 * Does nothing, because pinned actors are never queued in the controller.
+	 * @see org.actorsguildframework.internal.ActorState#updateControllerQueueUnsynchronized()
+	 */
+	public void updateControllerQueueUnsynchronized() {
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.annotations.ThreadUsage;
+
+/**
+ * The state of a remote actor reference, an actor proxy that forwards all messages to 
+ * a {@link MessageForwarder}. The proxy never executes messages itself.
+ * @see org.actorsguildframework.io.RemoteNode
+ */
+public final class RemoteActorState extends ActorState {
+	/**
+	 * The forwarder for a remote reference that is about to be created in the current thread.
+	 */
+	private final static ThreadLocal<MessageForwarder> preparedForwarder = new ThreadLocal<MessageForwarder>();
+	
+	/**
+	 * The forwarder.
+	 */
+	private final MessageForwarder forwarder;
+	
+	/**
+	 * Creates a new instance.
+	 * @param controller the controller of the proxy
+	 * @param actor the actor proxy that represents the remote actor
+	 * @param forwarder the forwarder that sends the messages
+	 */
+	RemoteActorState(Controller controller, Actor actor, MessageForwarder forwarder) {
+		super(controller, actor);
+		this.forwarder = forwarder;
+	}
+
+	/**
+	 * Lets the next actor proxy that is created in the current thread become a 
+	 * remote reference that sends its messages to the given forwarder. 
+	 * @param forwarder the forwarder, or null to cancel a prepared forwarder
+	 * @see ActorState#createState(Controller, Actor, org.actorsguildframework.annotations.ConcurrencyModel)
+	 */
+	public static void prepare(MessageForwarder forwarder) {
+		if (forwarder == null)
+			preparedForwarder.remove();
+		else
+			preparedForwarder.set(forwarder);
+	}
+	
+	/**
+	 * Returns the forwarder that has been prepared in the current thread and removes it.
+	 * @return the forwarder, or null if there is none
+	 */
+	static MessageForwarder takePreparedForwarder() {
+		MessageForwarder f = preparedForwarder.get();
+		if (f != null)
+			preparedForwarder.remove();
+		return f;
+	}
+	
+	/**
+	 * Returns the forwarder.
+	 * @return the forwarder
+	 */
+	public MessageForwarder getForwarder() {
+		return forwarder;
+	}
+	
+	/**
+	 * Forwards the message.
+	 * @see org.actorsguildframework.internal.ActorState#queueMessage(org.actorsguildframework.internal.MessageCaller, org.actorsguildframework.annotations.ThreadUsage, java.lang.Object[])
+	 */
+	@Override
+	public AsyncResult<?> queueMessage(MessageCaller<?> caller, ThreadUsage usage, Object[] args) {
+		return forwarder.forward(caller, args);
+	}
+	
+	/**
+	 * Returns the number of forwarded messages that are waiting for their reply.
+	 * @see org.actorsguildframework.internal.ActorState#getQueueLengthEstimate()
+	 */
+	@Override
+	public int getQueueLengthEstimate() {
+		return forwarder.getPendingCount();
+	}
+
+	/**
+	 * Always returns false, because the proxy never has messages.
+	 * @see org.actorsguildframework.internal.ActorState#removeMessage(org.actorsguildframework.internal.MessageInvocation)
+	 */
+	@Override
+	public boolean removeMessage(MessageInvocation<?> invk) {
+		return false;
+	}
+
+	/**
+	 * Always returns false, because the proxy never has messages.
+	 * @see org.actorsguildframework.internal.ActorState#tryExecuteNow(org.actorsguildframework.internal.MessageInvocation, org.actorsguildframework.internal.ThreadState)
+	 */
+	public boolean tryExecuteNow(MessageInvocation<?> msgI, ThreadState ts) {
+		return false;
+	}
+
+	/**
+	 * Does nothing, because the proxy is never queued in the controller.
+	 * @see org.actorsguildframework.internal.ActorState#executeAllQueuedMessagesUnsynchronized(org.actorsguildframework.internal.ThreadState, org.actorsguildframework.internal.KeepRunningInterface)
+	 */
+	public int executeAllQueuedMessagesUnsynchronized(ThreadState ts, KeepRunningInterface keepRunning) {
+		return 0;
+	}
+
+	/**
+	 * Does nothing, because the proxy is never queued in the controller.
+	 * @see org.actorsguildframework.internal.ActorState#updateControllerQueueUnsynchronized()
+	 */
+	public void updateControllerQueueUnsynchronized() {
+	}
+}
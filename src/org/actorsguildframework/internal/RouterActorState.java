@@ -0,0 +1,318 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.Props;
+import org.actorsguildframework.RoutingStrategy;
+import org.actorsguildframework.annotations.RouteKey;
+import org.actorsguildframework.annotations.ThreadUsage;
+
+/**
+ * The state of a router, an actor proxy that forwards all messages to the members of 
+ * a group of actors of the same class. The router never executes messages itself.
+ * <p>
+ * For {@link RoutingStrategy#ConsistentHash}, each member owns {@link #VIRTUAL_NODES} points 
+ * on a hash ring. The points of a member depend only on its index in the group, so 
+ * adding or removing the last member only moves the keys of that member.
+ */
+public final class RouterActorState extends ActorState {
+	/**
+	 * The number of points on the hash ring per member. More points distribute the keys
+	 * more evenly.
+	 */
+	public final static int VIRTUAL_NODES = 128;
+	
+	/**
+	 * The setup of a router that is about to be created in the current thread.
+	 */
+	private final static ThreadLocal<Setup> preparedSetup = new ThreadLocal<Setup>();
+	
+	/**
+	 * Describes the router to create.
+	 */
+	public static final class Setup {
+		private final RoutingStrategy strategy;
+		private final Actor[] members;
+		private final Props props;
+		
+		/**
+		 * Creates a new instance.
+		 * @param strategy the routing strategy
+		 * @param members the initial members of the group. Must not be empty.
+		 * @param props the properties of the members, or null
+		 */
+		public Setup(RoutingStrategy strategy, Actor[] members, Props props) {
+			this.strategy = strategy;
+			this.members = members.clone();
+			this.props = props;
+		}
+	}
+	
+	/**
+	 * The immutable routing table for a set of members.
+	 */
+	private static final class Routes {
+		final Actor[] members;
+		final ActorState[] states;
+		
+		/**
+		 * The hashes of all points of the ring, sorted in ascending order.
+		 */
+		final int[] ringHashes;
+		
+		/**
+		 * The index of the member owning the point with the same index in {@link #ringHashes}.
+		 */
+		final int[] ringOwners;
+		
+		Routes(Actor[] members) {
+			this.members = members;
+			states = new ActorState[members.length];
+			for (int i = 0; i < members.length; i++)
+				states[i] = ActorState.getState(members[i]);
+			
+			long[] points = new long[members.length * VIRTUAL_NODES];
+			for (int i = 0; i < points.length; i++)
+				points[i] = (((long)mix(i)) << 32) | (i / VIRTUAL_NODES);
+			Arrays.sort(points);
+			ringHashes = new int[points.length];
+			ringOwners = new int[points.length];
+			for (int i = 0; i < points.length; i++) {
+				ringHashes[i] = (int)(points[i] >> 32);
+				ringOwners[i] = (int)points[i];
+			}
+		}
+		
+		/**
+		 * Finds the member that owns the given key.
+		 * @param key the key, may be null
+		 * @return the index of the member
+		 */
+		int lookup(Object key) {
+			int h = mix((key == null) ? 0 : key.hashCode());
+			int pos = Arrays.binarySearch(ringHashes, h);
+			if (pos < 0) {
+				pos = -pos - 1;
+				if (pos == ringHashes.length)
+					pos = 0;
+			}
+			return ringOwners[pos];
+		}
+	}
+
+	/**
+	 * The routing strategy.
+	 */
+	private final RoutingStrategy strategy;
+	
+	/**
+	 * The properties of the members, used for new members. May be null.
+	 */
+	private final Props props;
+	
+	/**
+	 * The current routing table. Replaced as a whole when the group is resized.
+	 */
+	private volatile Routes routes;
+	
+	/**
+	 * Counter for round-robin distribution.
+	 */
+	private final AtomicInteger nextMember = new AtomicInteger();
+	
+	/**
+	 * Creates a new instance.
+	 * @param controller the controller of the router
+	 * @param actor the actor proxy that represents the router
+	 * @param setup the setup of the router
+	 */
+	RouterActorState(Controller controller, Actor actor, Setup setup) {
+		super(controller, actor);
+		this.strategy = setup.strategy;
+		this.props = setup.props;
+		this.routes = new Routes(setup.members);
+	}
+
+	/**
+	 * Lets the next actor proxy that is created in the current thread become a 
+	 * router with the given setup. 
+	 * @param setup the setup, or null to cancel a prepared setup
+	 * @see ActorState#createState(Controller, Actor, org.actorsguildframework.annotations.ConcurrencyModel)
+	 */
+	public static void prepare(Setup setup) {
+		if (setup == null)
+			preparedSetup.remove();
+		else
+			preparedSetup.set(setup);
+	}
+	
+	/**
+	 * Returns the setup that has been prepared in the current thread and removes it.
+	 * @return the setup, or null if there is none
+	 */
+	static Setup takePreparedSetup() {
+		Setup s = preparedSetup.get();
+		if (s != null)
+			preparedSetup.remove();
+		return s;
+	}
+	
+	/**
+	 * Mixes the bits of the given hash code, so that similar hash codes are spread over 
+	 * the ring.
+	 * @param h the hash code
+	 * @return the mixed value
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+	
+	/**
+	 * Returns the routing strategy.
+	 * @return the strategy
+	 */
+	public RoutingStrategy getStrategy() {
+		return strategy;
+	}
+	
+	/**
+	 * Returns the properties that are used to create new members.
+	 * @return the properties, or null
+	 */
+	public Props getProps() {
+		return props;
+	}
+	
+	/**
+	 * Returns the current members of the group.
+	 * @return a copy of the member list
+	 */
+	public Actor[] getMembers() {
+		return routes.members.clone();
+	}
+	
+	/**
+	 * Replaces the members of the group. Messages that have already been forwarded
+	 * stay in the mailbox of their member. To keep the key distribution stable, 
+	 * members should only be added or removed at the end of the list.
+	 * @param members the new members. Must not be empty.
+	 */
+	public void setMembers(Actor[] members) {
+		if (members.length == 0)
+			throw new IllegalArgumentException("A router needs at least one member.");
+		routes = new Routes(members.clone());
+	}
+	
+	/**
+	 * Selects the member that receives the given message.
+	 * @param r the current routing table
+	 * @param caller the message's caller
+	 * @param args the arguments of the message
+	 * @return the state of the member
+	 */
+	private ActorState selectMember(Routes r, MessageCaller<?> caller, Object[] args) {
+		ActorState[] states = r.states;
+		switch (strategy) {
+		case ConsistentHash:
+			int keyIndex = caller.getRouteKeyIndex();
+			if (keyIndex >= 0)
+				return states[r.lookup(args[keyIndex])];
+			return states[(nextMember.getAndIncrement() & Integer.MAX_VALUE) % states.length];
+		case RoundRobin:
+			return states[(nextMember.getAndIncrement() & Integer.MAX_VALUE) % states.length];
+		case LeastLoaded:
+			// start at a rotating position, so ties do not always go to the same member
+			int start = (nextMember.getAndIncrement() & Integer.MAX_VALUE) % states.length;
+			ActorState best = states[start];
+			int bestLength = best.getQueueLengthEstimate();
+			for (int i = 1; (i < states.length) && (bestLength > 0); i++) {
+				ActorState s = states[(start + i) % states.length];
+				int length = s.getQueueLengthEstimate();
+				if (length < bestLength) {
+					best = s;
+					bestLength = length;
+				}
+			}
+			return best;
+		default:
+			throw new IllegalStateException("Unknown routing strategy " + strategy);
+		}
+	}
+	
+	/**
+	 * Forwards the message to a member of the group. 
+	 * @see RouteKey
+	 * @see org.actorsguildframework.internal.ActorState#queueMessage(org.actorsguildframework.internal.MessageCaller, org.actorsguildframework.annotations.ThreadUsage, java.lang.Object[])
+	 */
+	@Override
+	public AsyncResult<?> queueMessage(MessageCaller<?> caller, ThreadUsage usage, Object[] args) {
+		return selectMember(routes, caller, args).queueMessage(caller, usage, args);
+	}
+	
+	/**
+	 * Returns the sum of the queue lengths of all members.
+	 * @see org.actorsguildframework.internal.ActorState#getQueueLengthEstimate()
+	 */
+	@Override
+	public int getQueueLengthEstimate() {
+		int sum = 0;
+		for (ActorState s: routes.states)
+			sum += s.getQueueLengthEstimate();
+		return sum;
+	}
+
+	/**
+	 * Always returns false, because the router never has messages.
+	 * @see org.actorsguildframework.internal.ActorState#removeMessage(org.actorsguildframework.internal.MessageInvocation)
+	 */
+	@Override
+	public boolean removeMessage(MessageInvocation<?> invk) {
+		return false;
+	}
+
+	/**
+	 * Always returns false, because the router never has messages.
+	 * @see org.actorsguildframework.internal.ActorState#tryExecuteNow(org.actorsguildframework.internal.MessageInvocation, org.actorsguildframework.internal.ThreadState)
+	 */
+	public boolean tryExecuteNow(MessageInvocation<?> msgI, ThreadState ts) {
+		return false;
+	}
+
+	/**
+	 * Does nothing, because the router is never queued in the controller.
+	 * @see org.actorsguildframework.internal.ActorState#executeAllQueuedMessagesUnsynchronized(org.actorsguildframework.internal.ThreadState, org.actorsguildframework.internal.KeepRunningInterface)
+	 */
+	public int executeAllQueuedMessagesUnsynchronized(ThreadState ts, KeepRunningInterface keepRunning) {
+		return 0;
+	}
+
+	/**
+	 * Does nothing, because the router is never queued in the controller.
+	 * @see org.actorsguildframework.internal.ActorState#updateControllerQueueUnsynchronized()
+	 */
+	public void updateControllerQueueUnsynchronized() {
+	}
+}
@@ -15,6 +15,7 @@
  */
 package org.actorsguildframework.internal;
 
+import java.util.List;
 import java.util.concurrent.locks.Condition;
 
 import org.actorsguildframework.Actor;
@@ -74,24 +75,25 @@ public final class SingleThreadedActorState extends ActorState {
 				MessageInvocation<?> msg = mailbox.pop();
 				if (msg == null) // no message left -> leave (shouldn't happen)
 					break;
+				List<MessageInvocation<?>> batch = popBatchUnsynchronized(msg);
 				
 				isBusyWith = msg;
 				updateControllerQueueUnsynchronized();
 				controller.getActorLock().unlock(); // unlock for the execution!!
 				try {
-					msg.runMessageNow(ts);
+					runMessageOrBatchNow(msg, batch, ts);
 				}
 				finally {
 					controller.getActorLock().lock();
 				}
 					
 				isBusyWith = null;
-				if (msg == finalMsg) {
+				if ((msg == finalMsg) || ((batch != null) && batch.contains(finalMsg))) {
 					success = true;
 					break;
 				}
 			}
-			while (mailbox.isInQueue(finalMsg));
+			while (mailbox.isInQueue(finalMsg) && !controller.isTerminated());
 			
 			busyLockFreed.signal();
 			updateControllerQueueUnsynchronized();
@@ -119,12 +121,13 @@ public final class SingleThreadedActorState extends ActorState {
 				updateControllerQueueUnsynchronized();
 				return msgsExecuted;
 			}
+			List<MessageInvocation<?>> batch = popBatchUnsynchronized(msg);
 			
 			isBusyWith = msg;
 			updateControllerQueueUnsynchronized();
 			controller.getActorLock().unlock(); // unlock for the execution!!
 			try {
-				msg.runMessageNow(ts);
+				runMessageOrBatchNow(msg, batch, ts);
 			}
 			finally {
 				controller.getActorLock().lock();
@@ -132,7 +135,7 @@ public final class SingleThreadedActorState extends ActorState {
 
 			isBusyWith = null;
 			busyLockFreed.signal(); 
-			msgsExecuted++;
+			msgsExecuted += (batch == null) ? 1 : batch.size();
 		}
 		updateControllerQueueUnsynchronized();
 		return msgsExecuted;
@@ -145,7 +148,8 @@ public final class SingleThreadedActorState extends ActorState {
 	public void updateControllerQueueUnsynchronized() {
 		int oldNumberOfThreadsNeeded = numberOfThreadsNeeded;
 		numberOfThreadsNeeded = (((isBusyWith == null) && !mailbox.isEmpty()) ? 1 : 0);
-		if (oldNumberOfThreadsNeeded == numberOfThreadsNeeded)
+		boolean priorityChanged = updateRegisteredPriorityUnsynchronized();
+		if ((oldNumberOfThreadsNeeded == numberOfThreadsNeeded) && !priorityChanged)
 			return;
 		controller.updateActorStateQueueUnsynchronized(this, oldNumberOfThreadsNeeded, numberOfThreadsNeeded);
 	}
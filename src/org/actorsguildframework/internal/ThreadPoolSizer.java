@@ -0,0 +1,160 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+/**
+ * Determines the number of effective worker threads using hill climbing on the measured
+ * throughput, similar to the .NET thread pool. In every sample interval, it compares 
+ * the number of completed messages with the previous interval. If the throughput 
+ * improved, it moves the target further in the same direction; if it got worse, it 
+ * reverses the direction. Changes within the noise band do not move the target at all,
+ * which keeps the pool from oscillating.
+ * <p>
+ * The target only grows while there is work waiting for a thread. Without a backlog,
+ * it shrinks slowly towards the minimum.
+ * <p>
+ * ThreadPoolSizer is not thread-safe. The controller calls it while holding its thread lock.
+ */
+public final class ThreadPoolSizer {
+	/**
+	 * The default length of a sample interval, in ns.
+	 */
+	public final static long DEFAULT_INTERVAL_NANOS = 100 * 1000 * 1000;
+	
+	/**
+	 * Relative throughput changes below this value are regarded as noise.
+	 */
+	final static double NOISE = 0.05;
+	
+	/**
+	 * The minimum target.
+	 */
+	private final int minTarget;
+
+	/**
+	 * The maximum target.
+	 */
+	private final int maxTarget;
+	
+	/**
+	 * The length of a sample interval, in ns.
+	 */
+	private final long intervalNanos;
+	
+	/**
+	 * The current number of effective threads that the pool should run.
+	 */
+	private int target;
+	
+	/**
+	 * The direction of the last step, either 1 or -1.
+	 */
+	private int direction = 1;
+	
+	/**
+	 * The throughput of the last interval in messages per ns, or -1 if there was none.
+	 */
+	private double lastThroughput = -1;
+	
+	/**
+	 * The start time of the current interval.
+	 */
+	private long intervalStart;
+	
+	/**
+	 * The number of completed messages at the start of the current interval.
+	 */
+	private long intervalStartCompleted;
+
+	/**
+	 * Creates a new instance.
+	 * @param minTarget the minimum number of effective threads, at least 1
+	 * @param maxTarget the maximum number of effective threads
+	 * @param intervalNanos the length of a sample interval, in ns
+	 * @param now the current time, in ns (see {@link System#nanoTime()})
+	 */
+	public ThreadPoolSizer(int minTarget, int maxTarget, long intervalNanos, long now) {
+		this.minTarget = Math.max(1, Math.min(minTarget, maxTarget));
+		this.maxTarget = Math.max(this.minTarget, maxTarget);
+		this.intervalNanos = intervalNanos;
+		this.target = this.minTarget;
+		this.intervalStart = now;
+	}
+	
+	/**
+	 * Checks whether the current sample interval is over.
+	 * @param now the current time, in ns
+	 * @return true if {@link #sample(long, long, boolean)} should be called
+	 */
+	public boolean isSampleDue(long now) {
+		return now - intervalStart >= intervalNanos;
+	}
+	
+	/**
+	 * Ends the current sample interval and adjusts the target.
+	 * @param now the current time, in ns
+	 * @param completed the total number of messages completed so far
+	 * @param backlog true if there is work waiting for a thread
+	 * @return true if the target changed
+	 */
+	public boolean sample(long now, long completed, boolean backlog) {
+		long elapsed = now - intervalStart;
+		if (elapsed <= 0)
+			return false;
+		double throughput = (completed - intervalStartCompleted) / (double) elapsed;
+		intervalStart = now;
+		intervalStartCompleted = completed;
+		
+		int oldTarget = target;
+		if (!backlog) {
+			// no demand: forget the history and slowly give threads back
+			lastThroughput = -1;
+			direction = 1;
+			if (target > minTarget)
+				target--;
+			return target != oldTarget;
+		}
+		
+		if (lastThroughput >= 0) {
+			if (throughput < lastThroughput * (1 - NOISE))
+				direction = -direction;
+			else if (throughput <= lastThroughput * (1 + NOISE)) {
+				lastThroughput = throughput;
+				return false;
+			}
+		}
+		lastThroughput = throughput;
+		
+		target += direction;
+		if (target > maxTarget) {
+			target = maxTarget;
+			direction = -1;
+		}
+		else if (target < minTarget) {
+			target = minTarget;
+			direction = 1;
+		}
+		return target != oldTarget;
+	}
+	
+	/**
+	 * Returns the number of effective threads that the pool should run.
+	 * @return the target
+	 */
+	public int getTarget() {
+		return target;
+	}
+}
@@ -42,7 +42,10 @@ public final class ThreadState {
 	}
 
 	private Controller controller; // null if not a worker thread
+	private WorkerGroup workerGroup; // null if not a worker thread
 	private ArrayList<MessageInvocation<?>> currentInvocationsStack;
+	private TraceBuffer traceBuffer; // null if the thread did not trace yet
+	private int laneCounter; // for the round-robin selection of lanes
 	
 	
 	private ThreadState() {
@@ -55,19 +58,31 @@ public final class ThreadState {
 	 * This should have happened before the thread was created.
 	 * 
 	 * @param controller the controller
+	 * @param group the worker group of the thread
 	 */
-	public void initWorker(Controller controller) {
+	public void initWorker(Controller controller, WorkerGroup group) {
 		this.controller = controller;
+		this.workerGroup = group;
 		this.currentState = WorkerState.Running;
 		this.currentInvocationsStack.clear();
 	}
 
+	/**
+	 * Returns a new number for the round-robin selection of a lane of a multi-threaded 
+	 * actor. Every call returns the next number.
+	 * @return the number, possibly negative
+	 */
+	public int nextLane() {
+		return laneCounter++;
+	}
+
 	/**
 	 * Called by a worker before it ends. 
 	 */
 	public void uninitWorker() {
-		controller.removeWorkerThreadState(currentState);
+		controller.removeWorkerThreadState(currentState, workerGroup);
 		controller = null;
+		workerGroup = null;
 		if (currentInvocationsStack.size() > 0)
 			throw new RuntimeException("Uninit worker called, but invocation stack size "+
 				currentInvocationsStack.size());
@@ -106,6 +121,32 @@ public final class ThreadState {
 			return null;
 	}
 
+	/**
+	 * Returns the controller of the worker thread.
+	 * @return the controller, or null if the thread is not a worker thread
+	 */
+	public Controller getController() {
+		return controller;
+	}
+
+	/**
+	 * Returns the buffer the thread writes its trace records into.
+	 * @return the buffer, or null if the thread did not record anything yet
+	 * @see Tracer
+	 */
+	TraceBuffer getTraceBuffer() {
+		return traceBuffer;
+	}
+
+	/**
+	 * Sets the buffer the thread writes its trace records into.
+	 * @param traceBuffer the buffer
+	 * @see Tracer
+	 */
+	void setTraceBuffer(TraceBuffer traceBuffer) {
+		this.traceBuffer = traceBuffer;
+	}
+
 	/**
 	 * Sets the current state of the thread. This will update the scheduler's statistics.
 	 * @param state the new state of the thread
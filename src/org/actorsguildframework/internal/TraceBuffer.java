@@ -0,0 +1,174 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A ring buffer for trace records, owned by a single thread. Only the owner thread 
+ * writes into the buffer, so writing needs neither locks nor CAS operations. Other threads 
+ * can read the buffer at any time (see {@link #copyTo(List)}); records that may have been 
+ * overwritten while they have been read are dropped. 
+ * When the buffer is full, the oldest records will be overwritten.
+ * @see Tracer
+ */
+final class TraceBuffer {
+	/**
+	 * A single trace record, as returned by {@link TraceBuffer#copyTo(List)}.
+	 */
+	static final class Record {
+		/**
+		 * The number of the message.
+		 */
+		long messageNumber;
+		/**
+		 * The number of the message that sent the message, or 0 if it was sent by an 
+		 * unmanaged thread.
+		 */
+		long parentNumber;
+		/**
+		 * The number of the target actor.
+		 */
+		long actorNumber;
+		/**
+		 * The id of the thread that executed the message.
+		 */
+		long threadId;
+		/**
+		 * The time the message has been queued, in ns.
+		 */
+		long queuedNanos;
+		/**
+		 * The time the execution started, in ns.
+		 */
+		long startNanos;
+		/**
+		 * The time the execution ended, in ns.
+		 */
+		long endNanos;
+		/**
+		 * The caller of the message, for the name.
+		 */
+		MessageCaller<?> caller;
+		/**
+		 * The class of the actor (the proxy class).
+		 */
+		Class<?> actorClass;
+	}
+	
+	/**
+	 * The Tracer the buffer belongs to.
+	 */
+	final Tracer tracer;
+	
+	/**
+	 * The thread that currently owns the buffer, or null if the buffer is free.
+	 */
+	final AtomicReference<Thread> owner = new AtomicReference<Thread>();
+	
+	/**
+	 * The size of the buffer minus one. The size is always a power of two.
+	 */
+	private final int mask;
+	
+	private final long[] messageNumbers;
+	private final long[] parentNumbers;
+	private final long[] actorNumbers;
+	private final long[] threadIds;
+	private final long[] queuedNanos;
+	private final long[] startNanos;
+	private final long[] endNanos;
+	private final MessageCaller<?>[] callers;
+	private final Class<?>[] actorClasses;
+	
+	/**
+	 * The number of records that have been written so far. Written only by the owner thread.
+	 */
+	private final AtomicLong position = new AtomicLong();
+	
+	/**
+	 * Creates a new buffer.
+	 * @param tracer the Tracer the buffer belongs to
+	 * @param size the number of records in the buffer. Must be a power of two.
+	 */
+	TraceBuffer(Tracer tracer, int size) {
+		this.tracer = tracer;
+		mask = size - 1;
+		messageNumbers = new long[size];
+		parentNumbers = new long[size];
+		actorNumbers = new long[size];
+		threadIds = new long[size];
+		queuedNanos = new long[size];
+		startNanos = new long[size];
+		endNanos = new long[size];
+		callers = new MessageCaller<?>[size];
+		actorClasses = new Class<?>[size];
+	}
+	
+	/**
+	 * Adds a record. Must only be called by the owner thread.
+	 * @param mi the message
+	 * @param start the start of the execution, in ns
+	 * @param end the end of the execution, in ns
+	 */
+	void add(MessageInvocation<?> mi, long start, long end) {
+		long p = position.get();
+		int i = (int) (p & mask);
+		MessageInvocation<?> parent = mi.getSuperInvocation();
+		ActorState target = mi.getTargetActor();
+		messageNumbers[i] = mi.getMessageNumber();
+		parentNumbers[i] = (parent != null) ? parent.getMessageNumber() : 0;
+		actorNumbers[i] = target.getActorNumber();
+		threadIds[i] = Thread.currentThread().getId();
+		queuedNanos[i] = mi.getQueuedNanos();
+		startNanos[i] = start;
+		endNanos[i] = end;
+		callers[i] = mi.getCaller();
+		actorClasses[i] = target.getActor().getClass();
+		position.lazySet(p + 1);
+	}
+	
+	/**
+	 * Copies all records into the given list. Can be called by any thread.
+	 * @param records the list to add the records to
+	 */
+	void copyTo(List<Record> records) {
+		long end = position.get();
+		long start = Math.max(0, end - (mask + 1));
+		Record[] copy = new Record[(int) (end - start)];
+		for (long p = start; p < end; p++) {
+			int i = (int) (p & mask);
+			Record r = new Record();
+			r.messageNumber = messageNumbers[i];
+			r.parentNumber = parentNumbers[i];
+			r.actorNumber = actorNumbers[i];
+			r.threadId = threadIds[i];
+			r.queuedNanos = queuedNanos[i];
+			r.startNanos = startNanos[i];
+			r.endNanos = endNanos[i];
+			r.caller = callers[i];
+			r.actorClass = actorClasses[i];
+			copy[(int) (p - start)] = r;
+		}
+		
+		// drop the records that may have been overwritten while copying
+		long valid = Math.max(start, position.get() - mask);
+		for (long p = valid; p < end; p++)
+			records.add(copy[(int) (p - start)]);
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records the execution of messages for later analysis. Each thread writes into its own
+ * {@link TraceBuffer}, so recording is cheap and does not need locks. The records can be 
+ * exported in the Chrome trace event format, which can be viewed in chrome://tracing or 
+ * Perfetto. 
+ * Tracer is thread-safe.
+ */
+public final class Tracer {
+	/**
+	 * The size of each thread's buffer. A power of two.
+	 */
+	private final int bufferSize;
+	
+	/**
+	 * The time the tracer has been created, in ns. All exported times are relative to it.
+	 */
+	private final long baseNanos = System.nanoTime();
+	
+	/**
+	 * All buffers, including those of threads that have ended.
+	 */
+	private final CopyOnWriteArrayList<TraceBuffer> buffers = new CopyOnWriteArrayList<TraceBuffer>();
+	
+	/**
+	 * The names of all threads that have recorded messages, by thread id.
+	 */
+	private final ConcurrentHashMap<Long, String> threadNames = new ConcurrentHashMap<Long, String>();
+	
+	/**
+	 * The buffer of the current thread. Only used if the buffer in the 
+	 * {@link ThreadState} belongs to another Tracer.
+	 */
+	private final ThreadLocal<TraceBuffer> threadBuffer = new ThreadLocal<TraceBuffer>();
+	
+	/**
+	 * Creates a new Tracer.
+	 * @param bufferSize the minimum number of records per thread. Will be rounded up 
+	 *                   to the next power of two.
+	 */
+	public Tracer(int bufferSize) {
+		int s = 16;
+		while (s < bufferSize)
+			s *= 2;
+		this.bufferSize = s;
+	}
+	
+	/**
+	 * Records the execution of a message in the current thread.
+	 * @param ts the current thread's ThreadState
+	 * @param mi the message
+	 * @param start the start of the execution, in ns
+	 * @param end the end of the execution, in ns
+	 */
+	public void record(ThreadState ts, MessageInvocation<?> mi, long start, long end) {
+		TraceBuffer b = ts.getTraceBuffer();
+		if ((b == null) || (b.tracer != this)) {
+			b = threadBuffer.get();
+			if (b == null) {
+				b = acquireBuffer();
+				threadBuffer.set(b);
+			}
+			ts.setTraceBuffer(b);
+		}
+		b.add(mi, start, end);
+	}
+	
+	/**
+	 * Returns a buffer for the current thread. Re-uses the buffer of a thread that ended,
+	 * so short-living threads do not waste memory.
+	 * @return the buffer
+	 */
+	private TraceBuffer acquireBuffer() {
+		Thread current = Thread.currentThread();
+		threadNames.put(current.getId(), current.getName());
+		for (TraceBuffer b: buffers) {
+			Thread owner = b.owner.get();
+			if (((owner == null) || !owner.isAlive()) && b.owner.compareAndSet(owner, current))
+				return b;
+		}
+		TraceBuffer b = new TraceBuffer(this, bufferSize);
+		b.owner.set(current);
+		buffers.add(b);
+		return b;
+	}
+	
+	/**
+	 * Returns all records of all threads, sorted by start time.
+	 * @return the records
+	 */
+	private ArrayList<TraceBuffer.Record> getRecords() {
+		ArrayList<TraceBuffer.Record> records = new ArrayList<TraceBuffer.Record>();
+		for (TraceBuffer b: buffers)
+			b.copyTo(records);
+		Collections.sort(records, new Comparator<TraceBuffer.Record>() {
+			public int compare(TraceBuffer.Record o1, TraceBuffer.Record o2) {
+				return (o1.startNanos < o2.startNanos) ? -1 : ((o1.startNanos == o2.startNanos) ? 0 : 1);
+			}
+		});
+		return records;
+	}
+	
+	/**
+	 * Writes all records in the Chrome trace event format (JSON). Every message is written
+	 * as a complete event on the thread that executed it. If the message that sent it
+	 * has also been recorded, a flow event connects the point where the message has been
+	 * sent with its execution.
+	 * @param w the writer to write to
+	 * @throws IOException if writing failed
+	 */
+	public void writeChromeTrace(Writer w) throws IOException {
+		ArrayList<TraceBuffer.Record> records = getRecords();
+		HashMap<Long, Long> threadOfMessage = new HashMap<Long, Long>();
+		for (TraceBuffer.Record r: records)
+			threadOfMessage.put(r.messageNumber, r.threadId);
+		
+		w.write("{\"traceEvents\":[\n");
+		boolean first = true;
+		for (Long tid: threadNames.keySet()) {
+			if (!first)
+				w.write(",\n");
+			first = false;
+			w.write(String.format("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+					tid, escape(threadNames.get(tid))));
+		}
+		
+		for (TraceBuffer.Record r: records) {
+			String actorClass = r.actorClass.getSuperclass().getName();
+			if (!first)
+				w.write(",\n");
+			first = false;
+			w.write(String.format("{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"ts\":%s,\"dur\":%s,\"pid\":1,\"tid\":%d,"+
+					"\"args\":{\"message\":%d,\"parent\":%d,\"actor\":%d,\"queueWaitUs\":%s}}",
+					escape(r.caller.getMessageName()), escape(actorClass), 
+					micros(r.startNanos - baseNanos), micros(r.endNanos - r.startNanos), r.threadId,
+					r.messageNumber, r.parentNumber, r.actorNumber, 
+					micros(r.startNanos - r.queuedNanos)));
+			
+			Long parentThread = threadOfMessage.get(r.parentNumber);
+			if ((r.parentNumber != 0) && (parentThread != null)) {
+				w.write(String.format(",\n{\"name\":\"send\",\"cat\":\"flow\",\"ph\":\"s\",\"id\":%d,\"ts\":%s,\"pid\":1,\"tid\":%d}",
+						r.messageNumber, micros(r.queuedNanos - baseNanos), parentThread));
+				w.write(String.format(",\n{\"name\":\"send\",\"cat\":\"flow\",\"ph\":\"f\",\"bp\":\"e\",\"id\":%d,\"ts\":%s,\"pid\":1,\"tid\":%d}",
+						r.messageNumber, micros(r.startNanos - baseNanos), r.threadId));
+			}
+		}
+		w.write("\n]}\n");
+		w.flush();
+	}
+	
+	/**
+	 * Converts ns to a microsecond string.
+	 * @param nanos the time in ns
+	 * @return the time in microseconds, with three decimal places
+	 */
+	private static String micros(long nanos) {
+		long abs = Math.abs(nanos);
+		return String.format("%s%d.%03d", (nanos < 0) ? "-" : "", abs / 1000, abs % 1000);
+	}
+	
+	/**
+	 * Escapes a string for JSON.
+	 * @param s the string
+	 * @return the escaped string
+	 */
+	private static String escape(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if ((c == '"') || (c == '\\'))
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+}
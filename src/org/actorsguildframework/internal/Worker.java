@@ -27,15 +27,18 @@ public final class Worker implements Runnable {
 	private final static L log = new L(Worker.class);
 	private final Controller controller;
 	private final KeepRunningInterface keepRunning;
+	private final WorkerGroup group;
 	
 	/**
 	 * Creates a new instance.
 	 * @param controller the Controller to use
 	 * @param keepRunning the kill interface
+	 * @param group the worker group of the thread
 	 */
-	public Worker(Controller controller, KeepRunningInterface keepRunning) {
+	public Worker(Controller controller, KeepRunningInterface keepRunning, WorkerGroup group) {
 		this.controller = controller;
 		this.keepRunning = keepRunning;
+		this.group = group;
 	}
 	
 	/**
@@ -43,12 +46,12 @@ public final class Worker implements Runnable {
 	 */
 	public void run() {
 		ThreadState ts = ThreadState.get();
-		ts.initWorker(controller);
+		ts.initWorker(controller, group);
 		try {
 			controller.getActorLock().lock();
 			try {
 				while (keepRunning.shouldContinue()) {
-					ActorState a = controller.getNextFromQueueUnsynchronized();
+					ActorState a = controller.getNextFromQueueUnsynchronized(group);
 					if (a == null)
 						break;
 					int executed = a.executeAllQueuedMessagesUnsynchronized(ts, keepRunning);
@@ -0,0 +1,145 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.actorsguildframework.AffinityProvider;
+import org.actorsguildframework.internal.util.FastQueue;
+import org.actorsguildframework.internal.util.L;
+
+/**
+ * A group of worker threads that share a set of CPUs, like the cores of a socket. 
+ * Each actor has a home group (see {@link ActorState#getHomeGroup()}) and will be 
+ * queued there. Workers take actors from their own group first, and steal them from 
+ * other groups only if their own group has no work.
+ * Each group has its own thread pool, so threads never move between groups.
+ */
+public final class WorkerGroup {
+	private final static L log = new L(WorkerGroup.class);
+	
+	/**
+	 * The index of the group in the controller.
+	 */
+	private final int index;
+	
+	/**
+	 * The CPUs of the group, or null if the threads are not pinned.
+	 */
+	private final int[] cpus;
+	
+	/**
+	 * The thread pool of the group.
+	 */
+	private final ExecutorService executor;
+	
+	/**
+	 * Contains all actors of this group that have unprocessed messages. 
+	 * See ControllerImplementation for details.
+	 * 
+	 * Locking policy: you must lock {@link ControllerImplementation#getActorLock()} before accessing this queue.
+	 */
+	final FastQueue<ActorState> actorsWithWork = new FastQueue<ActorState>();
+	
+	/**
+	 * Contains the actors of this group that have unprocessed messages with a priority 
+	 * higher than {@link org.actorsguildframework.annotations.Priority#NORMAL}.
+	 * 
+	 * Locking policy: you must lock {@link ControllerImplementation#getActorLock()} before accessing this queue.
+	 */
+	final FastQueue<ActorState> urgentActorsWithWork = new FastQueue<ActorState>();
+	
+	/**
+	 * The number of worker threads running in this group.
+	 * 
+	 * Locking policy: you must synchronize the controller's thread lock before accessing this field.
+	 */
+	int workerThreads;
+	
+	/**
+	 * Creates a new group.
+	 * @param index the index of the group
+	 * @param cpus the CPUs of the group, or null to not pin the threads
+	 * @param threadFactory the factory for the group's threads
+	 * @param affinityProvider the provider to pin the threads. Ignored if cpus is null.
+	 */
+	public WorkerGroup(int index, int[] cpus, ThreadFactory threadFactory, AffinityProvider affinityProvider) {
+		this.index = index;
+		this.cpus = (cpus != null) ? cpus.clone() : null;
+		if ((cpus != null) && (affinityProvider != null))
+			threadFactory = createPinningThreadFactory(threadFactory, affinityProvider);
+		this.executor = Executors.newCachedThreadPool(threadFactory);
+	}
+	
+	/**
+	 * Creates a ThreadFactory that pins each new thread to the group's CPUs before it runs.
+	 * @param threadFactory the ThreadFactory that creates the threads
+	 * @param affinityProvider the provider to pin the threads
+	 * @return the new ThreadFactory
+	 */
+	private ThreadFactory createPinningThreadFactory(final ThreadFactory threadFactory, final AffinityProvider affinityProvider) {
+		return new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				return threadFactory.newThread(new Runnable() {
+					public void run() {
+						try {
+							affinityProvider.bindCurrentThread(cpus);
+						}
+						catch (RuntimeException e) {
+							log.error("Can not pin thread of worker group %d: %s", index, e);
+						}
+						r.run();
+					}
+				});
+			}
+		};
+	}
+	
+	/**
+	 * Returns the index of the group.
+	 * @return the index
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Returns the CPUs of the group.
+	 * @return a copy of the CPU numbers, or null if the threads are not pinned
+	 */
+	public int[] getCpus() {
+		return (cpus != null) ? cpus.clone() : null;
+	}
+	
+	/**
+	 * Returns the thread pool of the group.
+	 * @return the executor
+	 */
+	ExecutorService getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Returns the number of actors waiting in this group. The value is read without 
+	 * locking and may be outdated.
+	 * @return the number of actors with work
+	 */
+	int getQueuedActors() {
+		return actorsWithWork.size() + urgentActorsWithWork.size();
+	}
+}
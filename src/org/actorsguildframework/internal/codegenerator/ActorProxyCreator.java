@@ -17,6 +17,7 @@ package org.actorsguildframework.internal.codegenerator;
 
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
@@ -29,17 +30,17 @@ import org.actorsguildframework.ActorRuntimeException;
 import org.actorsguildframework.AsyncResult;
 import org.actorsguildframework.ConfigurationException;
 import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.Priority;
 import org.actorsguildframework.annotations.Shared;
 import org.actorsguildframework.immutable.ImmutableHelper;
 import org.actorsguildframework.immutable.SerializableFreezer;
 import org.actorsguildframework.internal.ActorClassDescriptor;
+import org.actorsguildframework.internal.ActorState;
 import org.actorsguildframework.internal.ActorProxy;
 import org.actorsguildframework.internal.BeanClassDescriptor;
 import org.actorsguildframework.internal.BeanFactory;
 import org.actorsguildframework.internal.MessageCaller;
 import org.actorsguildframework.internal.MessageImplDescriptor;
-import org.actorsguildframework.internal.MultiThreadedActorState;
-import org.actorsguildframework.internal.SingleThreadedActorState;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
@@ -127,16 +128,17 @@ public final class ActorProxyCreator {
 	}
 
 	/**
-	 * Create or get a MessageCaller implementation for the given method.
-	 * @param ownerClass the class that owns the message
-	 * @param method the method to invoke
+	 * Create or get a MessageCaller implementation for the given message.
+	 * @param messageDescriptor the descriptor of the message to invoke
 	 * @return the message caller
 	 * @throws NoSuchMethodException 
 	 * @throws SecurityException 
 	 */
 	@SuppressWarnings("unchecked")
-	public static Class<MessageCaller<?>> createMessageCaller(Class<?> ownerClass, Method method) 
+	public static Class<MessageCaller<?>> createMessageCaller(MessageImplDescriptor messageDescriptor) 
 		throws SecurityException, NoSuchMethodException {
+		Class<?> ownerClass = messageDescriptor.getOwnerClass();
+		Method method = messageDescriptor.getMethod();
 		
 		String className = String.format("%s_%s_%d__MESSAGECALLER", 
 				ownerClass.getName(),
@@ -228,9 +230,117 @@ public final class ActorProxyCreator {
 			mv.visitMaxs(0, 0);
 			mv.visitEnd();
 		}
+		if (messageDescriptor.getPriority() != Priority.NORMAL)
+			writeConstantIntMethod(cw, classNameInternal, "getPriority", messageDescriptor.getPriority());
+		if (messageDescriptor.isOneWay())
+			writeConstantBooleanMethod(cw, classNameInternal, "isOneWay", true);
+		if (messageDescriptor.isDurable())
+			writeConstantBooleanMethod(cw, classNameInternal, "isDurable", true);
+		if (messageDescriptor.isEvent())
+			writeConstantBooleanMethod(cw, classNameInternal, "isEvent", true);
+		writeConstantStringMethod(cw, classNameInternal, "getMessageSignature", method.getName()+Type.getMethodDescriptor(method));
+		Method batchHandler = messageDescriptor.getBatchHandler();
+		if (batchHandler != null) {
+			writeConstantStringMethod(cw, classNameInternal, "getBatchHandlerName", batchHandler.getName());
+			writeConstantIntMethod(cw, classNameInternal, "getMaxBatchSize", messageDescriptor.getMaxBatchSize());
+			
+			// the handler is usually private, so it can only be invoked by reflection. 
+			// The caller keeps the Method in a static field that is set after loading.
+			cw.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC, BATCH_HANDLER_FIELD_NAME, "Ljava/lang/reflect/Method;", null, null)
+			  .visitEnd();
+			mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "getBatchHandler", "()Ljava/lang/reflect/Method;", null, null);
+			mv.visitCode();
+			Label l0 = new Label();
+			mv.visitLabel(l0);
+			mv.visitFieldInsn(Opcodes.GETSTATIC, classNameInternal, BATCH_HANDLER_FIELD_NAME, "Ljava/lang/reflect/Method;");
+			mv.visitInsn(Opcodes.ARETURN);
+			Label l1 = new Label();
+			mv.visitLabel(l1);
+			mv.visitLocalVariable("this", "L"+classNameInternal+";", null, l0, l1, 0);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+		if (messageDescriptor.getShardKeyIndex() >= 0)
+			writeConstantIntMethod(cw, classNameInternal, "getShardKeyIndex", messageDescriptor.getShardKeyIndex());
+		if (messageDescriptor.getRouteKeyIndex() >= 0)
+			writeConstantIntMethod(cw, classNameInternal, "getRouteKeyIndex", messageDescriptor.getRouteKeyIndex());
 		cw.visitEnd();
 
-		return (Class<MessageCaller<?>>)GenerationUtils.loadClass(className, cw.toByteArray());
+		Class<MessageCaller<?>> callerClass = (Class<MessageCaller<?>>)GenerationUtils.loadClass(className, cw.toByteArray());
+		if (batchHandler != null) {
+			try {
+				Field f = callerClass.getDeclaredField(BATCH_HANDLER_FIELD_NAME);
+				f.setAccessible(true);
+				f.set(null, batchHandler);
+			}
+			catch (Exception e) {
+				throw new ActorException("Unexpected error while creating message caller", e);
+			}
+		}
+		return callerClass;
+	}
+	
+	/**
+	 * Writes a method without arguments that returns the given int constant. 
+	 * @param cw the ClassWriter to write to
+	 * @param classNameInternal the internal name of the class
+	 * @param methodName the name of the method
+	 * @param value the value to return
+	 */
+	private static void writeConstantIntMethod(ClassWriter cw, String classNameInternal, String methodName, int value) {
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, methodName, "()I", null, null);
+		mv.visitCode();
+		Label l0 = new Label();
+		mv.visitLabel(l0);
+		mv.visitLdcInsn(Integer.valueOf(value));
+		mv.visitInsn(Opcodes.IRETURN);
+		Label l1 = new Label();
+		mv.visitLabel(l1);
+		mv.visitLocalVariable("this", "L"+classNameInternal+";", null, l0, l1, 0);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	/**
+	 * Writes a method without arguments that returns the given boolean constant. 
+	 * @param cw the ClassWriter to write to
+	 * @param classNameInternal the internal name of the class
+	 * @param methodName the name of the method
+	 * @param value the value to return
+	 */
+	private static void writeConstantBooleanMethod(ClassWriter cw, String classNameInternal, String methodName, boolean value) {
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, methodName, "()Z", null, null);
+		mv.visitCode();
+		Label l0 = new Label();
+		mv.visitLabel(l0);
+		mv.visitInsn(value ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+		mv.visitInsn(Opcodes.IRETURN);
+		Label l1 = new Label();
+		mv.visitLabel(l1);
+		mv.visitLocalVariable("this", "L"+classNameInternal+";", null, l0, l1, 0);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	/**
+	 * Writes a method without arguments that returns the given String constant. 
+	 * @param cw the ClassWriter to write to
+	 * @param classNameInternal the internal name of the class
+	 * @param methodName the name of the method
+	 * @param value the value to return
+	 */
+	private static void writeConstantStringMethod(ClassWriter cw, String classNameInternal, String methodName, String value) {
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, methodName, "()Ljava/lang/String;", null, null);
+		mv.visitCode();
+		Label l0 = new Label();
+		mv.visitLabel(l0);
+		mv.visitLdcInsn(value);
+		mv.visitInsn(Opcodes.ARETURN);
+		Label l1 = new Label();
+		mv.visitLabel(l1);
+		mv.visitLocalVariable("this", "L"+classNameInternal+";", null, l0, l1, 0);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
 	}
 
 	/**
@@ -246,6 +356,7 @@ public final class ActorProxyCreator {
 
 	private static final String MESSAGE_CALLER_NAME_FORMAT =  "messageCaller_%d__ACTORPROXY";
 	private static final String SUPER_CALLER_NAME_FORMAT =  "%s__ACTORPROXYMETHOD_original";
+	private static final String BATCH_HANDLER_FIELD_NAME =  "batchHandler__MESSAGECALLER";
 
 	/**
 	 * Creates a synchronized delegate method for a message method.
@@ -263,18 +374,19 @@ public final class ActorProxyCreator {
 		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + (isSynchronized ? Opcodes.ACC_SYNCHRONIZED : 0), 
 				String.format(SUPER_CALLER_NAME_FORMAT, method.getName()), simpleDescriptor, genericSignature, null);
 		mv.visitCode();
+		int[] slots = getArgumentSlots(method);
 		Label l0 = new Label();
 		mv.visitLabel(l0);
 		mv.visitVarInsn(Opcodes.ALOAD, 0);
 		for (int j = 0; j < method.getParameterTypes().length; j++)
-			mv.visitVarInsn(Type.getType(method.getParameterTypes()[j]).getOpcode(Opcodes.ILOAD), j+1);
+			mv.visitVarInsn(Type.getType(method.getParameterTypes()[j]).getOpcode(Opcodes.ILOAD), slots[j]);
 		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(actorClass), method.getName(), simpleDescriptor);
 		mv.visitInsn(Type.getType(method.getReturnType()).getOpcode(Opcodes.IRETURN));
 		Label l1 = new Label();
 		mv.visitLabel(l1);
 		mv.visitLocalVariable("this", classNameDescriptor, null, l0, l1, 0);
 		for (int j = 0; j < method.getParameterTypes().length; j++)
-			mv.visitLocalVariable("arg"+j, Type.getDescriptor(method.getParameterTypes()[j]), GenericTypeHelper.getSignatureIfGeneric(method.getGenericParameterTypes()[j]), l0, l1, j+1);
+			mv.visitLocalVariable("arg"+j, Type.getDescriptor(method.getParameterTypes()[j]), GenericTypeHelper.getSignatureIfGeneric(method.getGenericParameterTypes()[j]), l0, l1, slots[j]);
 		mv.visitMaxs(0, 0);
 		mv.visitEnd();
 	}
@@ -295,7 +407,8 @@ public final class ActorProxyCreator {
 		final String classNameInternal = className.replace('.', '/');
 		String classNameDescriptor = "L" + classNameInternal + ";";
 
-		final Type actorState = Type.getType(acd.getConcurrencyModel().isMultiThreadingCapable() ? MultiThreadedActorState.class : SingleThreadedActorState.class);
+		final Type actorState = Type.getType(ActorState.class);
+		final String concurrencyModelName = acd.getConcurrencyModel().name();
 		
 		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
 		MethodVisitor mv;
@@ -319,7 +432,7 @@ public final class ActorProxyCreator {
 			mv.visitCode();
 			
 			for (int i = 0; i < acd.getMessageCount(); i++) {
-				Class<?> caller = createMessageCaller(acd.getMessage(i).getOwnerClass(), acd.getMessage(i).getMethod());
+				Class<?> caller = createMessageCaller(acd.getMessage(i));
 				String mcName = Type.getInternalName(caller);
 				mv.visitTypeInsn(Opcodes.NEW, mcName);
 				mv.visitInsn(Opcodes.DUP);
@@ -335,11 +448,10 @@ public final class ActorProxyCreator {
 			@Override
 			public void write(MethodVisitor mv) {
 				mv.visitVarInsn(Opcodes.ALOAD, 0);
-				mv.visitTypeInsn(Opcodes.NEW, actorState.getInternalName());
-				mv.visitInsn(Opcodes.DUP);
 				mv.visitVarInsn(Opcodes.ALOAD, 1);
 				mv.visitVarInsn(Opcodes.ALOAD, 0);
-				mv.visitMethodInsn(Opcodes.INVOKESPECIAL, actorState.getInternalName(), "<init>", "(Lorg/actorsguildframework/internal/Controller;Lorg/actorsguildframework/Actor;)V");
+				mv.visitFieldInsn(Opcodes.GETSTATIC, "org/actorsguildframework/annotations/ConcurrencyModel", concurrencyModelName, "Lorg/actorsguildframework/annotations/ConcurrencyModel;");
+				mv.visitMethodInsn(Opcodes.INVOKESTATIC, actorState.getInternalName(), "createState", "(Lorg/actorsguildframework/internal/Controller;Lorg/actorsguildframework/Actor;Lorg/actorsguildframework/annotations/ConcurrencyModel;)Lorg/actorsguildframework/internal/ActorState;");
 				mv.visitFieldInsn(Opcodes.PUTFIELD, classNameInternal, "actorState__ACTORPROXY", actorState.getDescriptor());
 			}
 		});
@@ -410,11 +522,41 @@ public final class ActorProxyCreator {
 			return false;
 		if (ImmutableHelper.isImmutableType(c))
 			return false;
+		if (isSharedArgument(m, idx))
+			return false;
+		return (!c.isInterface()) || Serializable.class.isAssignableFrom(c);
+	}
+	
+	/**
+	 * Checks whether the given argument of the method has a @Shared annotation.
+	 * @param m the method to check
+	 * @param idx the parameter index
+	 * @return true if the argument is shared, false otherwise
+	 */
+	private static boolean isSharedArgument(Method m, int idx) {
 		Annotation[][] paramAnnotations = m.getParameterAnnotations();
 		for (Annotation a: paramAnnotations[idx])
 			if (a.annotationType().equals(Shared.class))
-				return false;
-		return (!c.isInterface()) || Serializable.class.isAssignableFrom(c);
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Returns the local variable slots of the method's arguments. Long and double 
+	 * arguments take two slots.
+	 * @param method the method
+	 * @return an array with the slot of each argument, followed by the first free slot
+	 */
+	private static int[] getArgumentSlots(Method method) {
+		Class<?>[] types = method.getParameterTypes();
+		int[] slots = new int[types.length + 1];
+		int slot = 1;
+		for (int j = 0; j < types.length; j++) {
+			slots[j] = slot;
+			slot += Type.getType(types[j]).getSize();
+		}
+		slots[types.length] = slot;
+		return slots;
 	}
 	
 	/**
@@ -439,6 +581,7 @@ public final class ActorProxyCreator {
 		{
 			mv = cw.visitMethod(Opcodes.ACC_PUBLIC, method.getName(), simpleDescriptor, genericSignature, null);
 			mv.visitCode();
+			int[] slots = getArgumentSlots(method);
 			Label l0 = new Label();
 			mv.visitLabel(l0);
 			mv.visitIntInsn(Opcodes.BIPUSH, method.getParameterTypes().length);
@@ -450,15 +593,15 @@ public final class ActorProxyCreator {
 				if (paraType.isPrimitive()) {
 					String wrapperClass = GenerationUtils.getWrapperInternalName(paraType);
 					Type primType = Type.getType(paraType);
-					mv.visitVarInsn(primType.getOpcode(Opcodes.ILOAD), j+1);
+					mv.visitVarInsn(primType.getOpcode(Opcodes.ILOAD), slots[j]);
 					mv.visitMethodInsn(Opcodes.INVOKESTATIC, wrapperClass, "valueOf", "("+primType.getDescriptor()+")"+"L"+wrapperClass+";");			
 				}
 				else if (isArgumentFreezingRequired(method, j, paraType)) {
-					mv.visitVarInsn(Opcodes.ALOAD, j+1);
+					mv.visitVarInsn(Opcodes.ALOAD, slots[j]);
 					mv.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(SerializableFreezer.class), "freeze", Type.getMethodDescriptor(SerializableFreezer.class.getMethod("freeze", Object.class)));
 				}
-				else if (paraType.isInterface()) {
-					mv.visitVarInsn(Opcodes.ALOAD, j+1);
+				else if (paraType.isInterface() && !isSharedArgument(method, j)) {
+					mv.visitVarInsn(Opcodes.ALOAD, slots[j]);
 					mv.visitInsn(Opcodes.DUP);
 					mv.visitTypeInsn(Opcodes.INSTANCEOF, "org/actorsguildframework/Actor");
 					Label lEndif = new Label();
@@ -471,26 +614,26 @@ public final class ActorProxyCreator {
 					mv.visitLabel(lEndif);
 				}
 				else
-					mv.visitVarInsn(Opcodes.ALOAD, j+1);
+					mv.visitVarInsn(Opcodes.ALOAD, slots[j]);
 
 				mv.visitInsn(Opcodes.AASTORE);
 			}
 			Label l1 = new Label();
 			mv.visitLabel(l1);
-			mv.visitVarInsn(Opcodes.ASTORE, method.getParameterTypes().length+1); // method.getParameterTypes().length+1 ==> 'args' local variable
+			mv.visitVarInsn(Opcodes.ASTORE, slots[method.getParameterTypes().length]); // 'args' local variable, after the arguments
 			mv.visitVarInsn(Opcodes.ALOAD, 0);
 			mv.visitFieldInsn(Opcodes.GETFIELD, classNameInternal, "actorState__ACTORPROXY", actorState.getDescriptor());
 			mv.visitFieldInsn(Opcodes.GETSTATIC, classNameInternal, String.format(MESSAGE_CALLER_NAME_FORMAT, index), "Lorg/actorsguildframework/internal/MessageCaller;");
 			mv.visitFieldInsn(Opcodes.GETSTATIC, "org/actorsguildframework/annotations/ThreadUsage", messageDescriptor.getThreadUsage().name(), "Lorg/actorsguildframework/annotations/ThreadUsage;");
-			mv.visitVarInsn(Opcodes.ALOAD, method.getParameterTypes().length+1);
-			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, actorState.getInternalName(), "queueMessage", "(Lorg/actorsguildframework/internal/MessageCaller;Lorg/actorsguildframework/annotations/ThreadUsage;[Ljava/lang/Object;)Lorg/actorsguildframework/internal/AsyncResultImpl;");
+			mv.visitVarInsn(Opcodes.ALOAD, slots[method.getParameterTypes().length]);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, actorState.getInternalName(), "queueMessage", "(Lorg/actorsguildframework/internal/MessageCaller;Lorg/actorsguildframework/annotations/ThreadUsage;[Ljava/lang/Object;)Lorg/actorsguildframework/AsyncResult;");
 			mv.visitInsn(Opcodes.ARETURN);
 			Label l4 = new Label();
 			mv.visitLabel(l4);
 			mv.visitLocalVariable("this", classNameDescriptor, null, l0, l4, 0);
 			for (int j = 0; j < method.getParameterTypes().length; j++)
-				mv.visitLocalVariable("arg"+j, Type.getDescriptor(method.getParameterTypes()[j]), GenericTypeHelper.getSignatureIfGeneric(method.getGenericParameterTypes()[j]), l0, l4, j+1);
-			mv.visitLocalVariable("args", "[Ljava/lang/Object;", null, l1, l4, method.getParameterTypes().length+1);
+				mv.visitLocalVariable("arg"+j, Type.getDescriptor(method.getParameterTypes()[j]), GenericTypeHelper.getSignatureIfGeneric(method.getGenericParameterTypes()[j]), l0, l4, slots[j]);
+			mv.visitLocalVariable("args", "[Ljava/lang/Object;", null, l1, l4, slots[method.getParameterTypes().length]);
 			mv.visitMaxs(0, 0);
 			mv.visitEnd();
 		}
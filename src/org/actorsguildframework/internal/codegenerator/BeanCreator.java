@@ -230,7 +230,11 @@ public final class BeanCreator {
 		}
 	}
 
-	private final static String PROP_FIELD_NAME_TEMPLATE = "%s__BEAN_PROP";
+	/**
+	 * Format string for the name of the field that stores the value of a generated 
+	 * property. The argument is the property's name.
+	 */
+	public final static String PROP_FIELD_NAME_TEMPLATE = "%s__BEAN_PROP";
 	
 	/**
 	 * Creates and loads the bean implementation class.
@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Allocates direct ByteBuffers and releases their memory without waiting for the 
+ * garbage collector. 
+ * <p>
+ * Java offers no public API to free a direct buffer, so DirectMemory uses the 
+ * JVM's internal cleaner through reflection (sun.misc.Unsafe.invokeCleaner on Java 9
+ * and later, the buffer's cleaner on older JVMs). If neither is available, 
+ * {@link #free(ByteBuffer)} does nothing and the memory will be released by the garbage
+ * collector, as usual.
+ * DirectMemory is thread-safe.
+ */
+public final class DirectMemory {
+	/**
+	 * The Unsafe instance, or null if not available.
+	 */
+	private final static Object unsafe;
+
+	/**
+	 * Unsafe.invokeCleaner(ByteBuffer), or null if not available.
+	 */
+	private final static Method invokeCleaner;
+	
+	static {
+		Object u = null;
+		Method m = null;
+		try {
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			u = f.get(null);
+			m = c.getMethod("invokeCleaner", ByteBuffer.class);
+		}
+		catch (Exception e) {
+			u = null;
+			m = null;
+		}
+		unsafe = u;
+		invokeCleaner = m;
+	}
+	
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private DirectMemory() {
+	}
+	
+	/**
+	 * Allocates a new direct buffer.
+	 * @param size the size in bytes
+	 * @return the new buffer, filled with zeros
+	 */
+	public static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocateDirect(size);
+	}
+	
+	/**
+	 * Releases the memory of the given buffer immediately. The buffer must have been
+	 * returned by {@link #allocate(int)} (not a slice or duplicate of it), and neither 
+	 * the buffer nor any view of it must be used afterwards: accessing freed memory may
+	 * crash the JVM.
+	 * @param buffer the buffer to free
+	 * @return true if the memory has been released, false if this is not supported by
+	 *   the JVM and the memory will be released by the garbage collector
+	 */
+	public static boolean free(ByteBuffer buffer) {
+		if (!buffer.isDirect())
+			return false;
+		try {
+			if (invokeCleaner != null) {
+				invokeCleaner.invoke(unsafe, buffer);
+				return true;
+			}
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner == null)
+				return false;
+			Method cleanMethod = cleaner.getClass().getMethod("clean");
+			cleanMethod.setAccessible(true);
+			cleanMethod.invoke(cleaner);
+			return true;
+		}
+		catch (Exception e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.actorsguildframework.immutable.SerializableFreezer;
+
+/**
+ * JVM-wide statistics of {@link SerializableFreezer}. Freezing is not bound to an agent,
+ * thus these counters are shared by all agents. They are only updated while at least
+ * one agent collects metrics.
+ */
+public final class FreezerStatistics {
+	/**
+	 * The number of agents that collect metrics.
+	 */
+	private final static AtomicInteger users = new AtomicInteger();
+	
+	/**
+	 * The number of frozen objects.
+	 */
+	public final static StripedCounter freezeCount = new StripedCounter();
+
+	/**
+	 * The number of bytes of all frozen objects.
+	 */
+	public final static StripedCounter frozenBytes = new StripedCounter();
+
+	/**
+	 * The time spent freezing, in ns.
+	 */
+	public final static StripedCounter freezeNanos = new StripedCounter();
+
+	/**
+	 * The number of thawed objects.
+	 */
+	public final static StripedCounter thawCount = new StripedCounter();
+	
+	/**
+	 * The number of bytes of all thawed objects.
+	 */
+	public final static StripedCounter thawedBytes = new StripedCounter();
+
+	/**
+	 * The time spent thawing, in ns.
+	 */
+	public final static StripedCounter thawNanos = new StripedCounter();
+	
+	/**
+	 * Not instantiable.
+	 */
+	private FreezerStatistics() {
+	}
+	
+	/**
+	 * Checks whether the statistics should be updated.
+	 * @return true if at least one agent collects metrics
+	 */
+	public static boolean isEnabled() {
+		return users.get() != 0;
+	}
+	
+	/**
+	 * Starts updating the statistics for an agent that collects metrics.
+	 * Must be followed by a call to {@link #removeUser()}.
+	 */
+	public static void addUser() {
+		users.incrementAndGet();
+	}
+
+	/**
+	 * Stops updating the statistics for an agent, unless other agents still collect 
+	 * metrics.
+	 */
+	public static void removeUser() {
+		users.decrementAndGet();
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.actorsguildframework.metrics.HistogramSnapshot;
+
+/**
+ * A histogram for non-negative long values with logarithmic buckets: bucket 0 counts 
+ * the value 0, bucket i counts values in the range [2^(i-1), 2^i). Like {@link StripedCounter},
+ * it is striped by thread, so recording a value is cheap even when many threads record 
+ * at the same time. 
+ * Log2Histogram is thread-safe.
+ */
+public final class Log2Histogram {
+	/**
+	 * The maximum number of stripes for a histogram. 
+	 */
+	private final static int MAX_STRIPES = 16;
+	
+	/**
+	 * The number of stripes of this histogram.
+	 */
+	private final static int STRIPES = Math.min(StripedCounter.STRIPES, MAX_STRIPES);
+	
+	/**
+	 * The bucket counters. Stripe s uses the indices s*BUCKETS to (s+1)*BUCKETS-1.
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(STRIPES * HistogramSnapshot.BUCKETS);
+	
+	/**
+	 * The sum of all recorded values.
+	 */
+	private final StripedCounter sum = new StripedCounter();
+	
+	/**
+	 * Records the given value. Negative values are recorded as 0.
+	 * @param value the value to record
+	 */
+	public void record(long value) {
+		int stripe = StripedCounter.currentStripe() & (STRIPES - 1);
+		buckets.incrementAndGet(stripe * HistogramSnapshot.BUCKETS + HistogramSnapshot.getBucket(value));
+		if (value > 0)
+			sum.add(value);
+	}
+	
+	/**
+	 * Creates a snapshot of the histogram. The result is not atomic if there are 
+	 * concurrent updates.
+	 * @return the snapshot
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] counts = new long[HistogramSnapshot.BUCKETS];
+		for (int s = 0; s < STRIPES; s++)
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += buckets.get(s * HistogramSnapshot.BUCKETS + i);
+		return new HistogramSnapshot(counts, sum.get());
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal.util;
+
+import org.actorsguildframework.Agent;
+import org.actorsguildframework.metrics.RuntimeEventListener;
+
+/**
+ * Delivers runtime events to the registered {@link RuntimeEventListener}s. 
+ * Callers should check {@link #isEnabled()} before collecting the data of an event, 
+ * so events cost nothing but a volatile read when no listener is registered.
+ * @see org.actorsguildframework.metrics.RuntimeEvents
+ */
+public final class RuntimeEventDispatcher {
+	private final static L log = new L(RuntimeEventDispatcher.class);
+
+	/**
+	 * All registered listeners. Copy-on-write, so it can be read without locking.
+	 */
+	private static volatile RuntimeEventListener[] listeners = new RuntimeEventListener[0];
+	
+	/**
+	 * Checks whether any listener is registered.
+	 * @return true if events should be created
+	 */
+	public static boolean isEnabled() {
+		return listeners.length != 0;
+	}
+	
+	/**
+	 * Registers a listener.
+	 * @param listener the listener to add
+	 */
+	public static synchronized void addListener(RuntimeEventListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("listener must not be null");
+		RuntimeEventListener[] l = new RuntimeEventListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, l, 0, listeners.length);
+		l[listeners.length] = listener;
+		listeners = l;
+	}
+	
+	/**
+	 * Removes a listener. Does nothing if it is not registered.
+	 * @param listener the listener to remove
+	 */
+	public static synchronized void removeListener(RuntimeEventListener listener) {
+		for (int i = 0; i < listeners.length; i++)
+			if (listeners[i] == listener) {
+				RuntimeEventListener[] l = new RuntimeEventListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, l, 0, i);
+				System.arraycopy(listeners, i + 1, l, i, l.length - i);
+				listeners = l;
+				return;
+			}
+	}
+	
+	/**
+	 * Logs an exception thrown by a listener.
+	 * @param t the exception
+	 */
+	private static void listenerFailed(Throwable t) {
+		log.error("Got exception from RuntimeEventListener: %s", t);
+		log.exception(t);
+	}
+	
+	/**
+	 * Sends the event to all listeners.
+	 * @see RuntimeEventListener#messageExecuted(Agent, Class, String, long, long)
+	 */
+	public static void messageExecuted(Agent agent, Class<?> actorClass, String messageName, long queueNanos, long runNanos) {
+		for (RuntimeEventListener l: listeners)
+			try {
+				l.messageExecuted(agent, actorClass, messageName, queueNanos, runNanos);
+			}
+			catch (Throwable t) {
+				listenerFailed(t);
+			}
+	}
+
+	/**
+	 * Sends the event to all listeners.
+	 * @see RuntimeEventListener#actorScheduled(Agent, Class, boolean)
+	 */
+	public static void actorScheduled(Agent agent, Class<?> actorClass, boolean urgent) {
+		for (RuntimeEventListener l: listeners)
+			try {
+				l.actorScheduled(agent, actorClass, urgent);
+			}
+			catch (Throwable t) {
+				listenerFailed(t);
+			}
+	}
+
+	/**
+	 * Sends the event to all listeners.
+	 * @see RuntimeEventListener#workerThreadsSpawned(Agent, int, int)
+	 */
+	public static void workerThreadsSpawned(Agent agent, int count, int workerThreads) {
+		for (RuntimeEventListener l: listeners)
+			try {
+				l.workerThreadsSpawned(agent, count, workerThreads);
+			}
+			catch (Throwable t) {
+				listenerFailed(t);
+			}
+	}
+
+	/**
+	 * Sends the event to all listeners.
+	 * @see RuntimeEventListener#workerThreadKilled(Agent)
+	 */
+	public static void workerThreadKilled(Agent agent) {
+		for (RuntimeEventListener l: listeners)
+			try {
+				l.workerThreadKilled(agent);
+			}
+			catch (Throwable t) {
+				listenerFailed(t);
+			}
+	}
+
+	/**
+	 * Sends the event to all listeners.
+	 * @see RuntimeEventListener#resultWait(Agent, Class, String, long)
+	 */
+	public static void resultWait(Agent agent, Class<?> actorClass, String messageName, long waitNanos) {
+		for (RuntimeEventListener l: listeners)
+			try {
+				l.resultWait(agent, actorClass, messageName, waitNanos);
+			}
+			catch (Throwable t) {
+				listenerFailed(t);
+			}
+	}
+
+	/**
+	 * Sends the event to all listeners.
+	 * @see RuntimeEventListener#frozen(Class, int, long)
+	 */
+	public static void frozen(Class<?> objectClass, int bytes, long nanos) {
+		for (RuntimeEventListener l: listeners)
+			try {
+				l.frozen(objectClass, bytes, nanos);
+			}
+			catch (Throwable t) {
+				listenerFailed(t);
+			}
+	}
+	
+	/**
+	 * Not instantiable.
+	 */
+	private RuntimeEventDispatcher() {
+	}
+}
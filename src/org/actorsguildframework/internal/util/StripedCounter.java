@@ -0,0 +1,90 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that can be updated by many threads with little contention. The value
+ * is spread over several cells, one per cache line, and each thread updates the cell 
+ * selected by its thread id. Reading the value sums up all cells, so it is more
+ * expensive than updating it. 
+ * StripedCounter is thread-safe.
+ */
+public final class StripedCounter {
+	/**
+	 * The distance between two cells, in longs. Keeps each cell in its own cache line.
+	 */
+	final static int PADDING = 8;
+	
+	/**
+	 * The number of cells. Always a power of two.
+	 */
+	final static int STRIPES = stripeCount();
+
+	/**
+	 * The cells. Cell i is at index (i+1)*PADDING; the first cache line stays empty
+	 * to keep the cells away from the array header.
+	 */
+	private final AtomicLongArray cells = new AtomicLongArray((STRIPES + 1) * PADDING);
+	
+	/**
+	 * Computes the number of stripes, based on the number of processors.
+	 * @return the number of stripes, a power of two between 2 and 64
+	 */
+	private static int stripeCount() {
+		int n = 2;
+		while ((n < 64) && (n < Runtime.getRuntime().availableProcessors() * 2))
+			n *= 2;
+		return n;
+	}
+	
+	/**
+	 * Returns the stripe to use for the current thread.
+	 * @return the stripe number, between 0 and {@link #STRIPES}-1
+	 */
+	static int currentStripe() {
+		long id = Thread.currentThread().getId();
+		return ((int)(id * 0x9E3779B9L) >>> 16) & (STRIPES - 1);
+	}
+	
+	/**
+	 * Adds the given value.
+	 * @param x the value to add
+	 */
+	public void add(long x) {
+		cells.addAndGet((currentStripe() + 1) * PADDING, x);
+	}
+	
+	/**
+	 * Adds one.
+	 */
+	public void increment() {
+		add(1);
+	}
+	
+	/**
+	 * Returns the current value. The result is not an atomic snapshot if there are
+	 * concurrent updates.
+	 * @return the sum of all cells
+	 */
+	public long get() {
+		long sum = 0;
+		for (int i = 1; i <= STRIPES; i++)
+			sum += cells.get(i * PADDING);
+		return sum;
+	}
+}
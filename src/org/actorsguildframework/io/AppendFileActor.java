@@ -0,0 +1,294 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.ConfigurationException;
+import org.actorsguildframework.annotations.Batch;
+import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.DefaultValue;
+import org.actorsguildframework.annotations.Initializer;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Model;
+import org.actorsguildframework.annotations.Prop;
+import org.actorsguildframework.immutable.ByteSlice;
+import org.actorsguildframework.immutable.ImmutableList;
+
+/**
+ * AppendFileActor appends data to a file through memory-mapped segments, and reads
+ * it back without copying. Data is passed as {@link ByteSlice}, which is immutable, 
+ * so it is passed by reference between the actor and its callers.
+ * <p>
+ * The actor is {@link ConcurrencyModel#Pinned}: all file operations run in the actor's 
+ * own thread, so they never occupy the agent's worker threads, and callers receive the 
+ * completions as AsyncResults. 
+ * <p>
+ * Appends are durable when their result is ready, unless syncOnAppend has been 
+ * disabled. When several appends are queued, they are written together and made 
+ * durable with a single sync of the file (group commit), so the cost of the sync is 
+ * shared by all of them. 
+ * <p>
+ * The file starts with a header that contains the size of the committed data. If 
+ * the process dies, data that has not been committed is lost, but all committed 
+ * data remains readable. Offsets do not include the header.
+ * <p>
+ * Create an AppendFileActor with {@link org.actorsguildframework.Agent#create(Class, org.actorsguildframework.Props)},
+ * setting at least the property "fileName".
+ */
+@Model(ConcurrencyModel.Pinned)
+public abstract class AppendFileActor extends Actor {
+	/**
+	 * The size of the file header.
+	 */
+	final static int HEADER_SIZE = 8;
+	
+	@DefaultValue("segmentSize")
+	final static int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	@DefaultValue("syncOnAppend")
+	final static boolean DEFAULT_SYNC_ON_APPEND = true;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer header;
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private long size;
+	private long committedSize;
+	private boolean closed;
+	
+	/**
+	 * Returns the name of the file. The file will be created if it does not exist.
+	 * @return the file name
+	 */
+	@Prop
+	public abstract String getFileName();
+	
+	/**
+	 * Returns the size of the segments that are mapped into memory. The file always 
+	 * grows by a whole segment. The default is 16 MB.
+	 * @return the segment size in bytes
+	 */
+	@Prop
+	public abstract int getSegmentSize();
+	
+	/**
+	 * If true, every append is committed before its result is ready. If false, 
+	 * appends are only committed by {@link #sync()} and {@link #close()}. 
+	 * The default is true.
+	 * @return true to commit each append
+	 */
+	@Prop
+	public abstract boolean getSyncOnAppend();
+	
+	/**
+	 * Checks the properties.
+	 * @throws ConfigurationException if a property is invalid
+	 */
+	@Initializer
+	public void checkProps() {
+		if (getFileName() == null)
+			throw new ConfigurationException("The property fileName must be set.");
+		if (getSegmentSize() <= 0)
+			throw new ConfigurationException("The property segmentSize must be positive.");
+	}
+	
+	/**
+	 * Opens the file, unless it is open already.
+	 * @throws IOException if the file could not be opened
+	 * @throws IllegalStateException if the actor has been closed
+	 */
+	private void ensureOpen() throws IOException {
+		if (channel != null)
+			return;
+		if (closed)
+			throw new IllegalStateException("The file has been closed.");
+		file = new RandomAccessFile(getFileName(), "rw");
+		channel = file.getChannel();
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		size = header.getLong(0);
+		committedSize = size;
+	}
+	
+	/**
+	 * Returns the segment with the given index, mapping it if necessary.
+	 * @param index the index of the segment
+	 * @return the segment
+	 * @throws IOException if the segment could not be mapped
+	 */
+	private MappedByteBuffer getSegment(int index) throws IOException {
+		int segmentSize = getSegmentSize();
+		while (segments.size() <= index)
+			segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 
+					HEADER_SIZE + (long) segments.size() * segmentSize, segmentSize));
+		return segments.get(index);
+	}
+	
+	/**
+	 * Writes the data at the end of the file, without committing it.
+	 * @param data the data to write
+	 * @return the offset of the data
+	 * @throws IOException if writing failed
+	 */
+	private long write(ByteSlice data) throws IOException {
+		int segmentSize = getSegmentSize();
+		long offset = size;
+		ByteBuffer src = data.asByteBuffer();
+		while (src.hasRemaining()) {
+			int within = (int) (size % segmentSize);
+			int n = Math.min(src.remaining(), segmentSize - within);
+			ByteBuffer b = getSegment((int) (size / segmentSize)).duplicate();
+			b.position(within);
+			ByteBuffer part = src.duplicate();
+			part.limit(src.position() + n);
+			b.put(part);
+			src.position(src.position() + n);
+			size += n;
+		}
+		return offset;
+	}
+	
+	/**
+	 * Makes all written data durable and updates the committed size in the header.
+	 */
+	private void commit() {
+		if (committedSize == size)
+			return;
+		int segmentSize = getSegmentSize();
+		int first = (int) (committedSize / segmentSize);
+		int last = (int) ((size - 1) / segmentSize);
+		for (int i = first; i <= last; i++)
+			segments.get(i).force();
+		header.putLong(0, size);
+		header.force();
+		committedSize = size;
+	}
+	
+	/**
+	 * Appends the data at the end of the file.
+	 * @param data the data to append
+	 * @return the offset of the data in the file
+	 * @throws IOException if writing failed
+	 * @throws IllegalStateException if the actor has been closed
+	 */
+	@Message
+	@Batch("appendBatch")
+	public AsyncResult<Long> append(ByteSlice data) throws IOException {
+		ensureOpen();
+		long offset = write(data);
+		if (getSyncOnAppend())
+			commit();
+		return result(offset);
+	}
+	
+	/**
+	 * Batch handler for {@link #append(ByteSlice)}. Writes all data and commits only once.
+	 * @param data the data of all appends
+	 * @return the offsets of the data
+	 * @throws IOException if writing failed
+	 */
+	private AsyncResult<List<Long>> appendBatch(ImmutableList<ByteSlice> data) throws IOException {
+		ensureOpen();
+		List<Long> offsets = new ArrayList<Long>(data.size());
+		for (ByteSlice d: data)
+			offsets.add(write(d));
+		if (getSyncOnAppend())
+			commit();
+		return result(offsets);
+	}
+	
+	/**
+	 * Commits all appended data.
+	 * @return nothing
+	 * @throws IOException if the file could not be opened
+	 * @throws IllegalStateException if the actor has been closed
+	 */
+	@Message
+	public AsyncResult<Void> sync() throws IOException {
+		ensureOpen();
+		commit();
+		return noResult();
+	}
+	
+	/**
+	 * Returns the given region of the file. The data is not copied: the ByteSlice is a 
+	 * read-only view of the mapped file.
+	 * @param offset the offset of the region
+	 * @param length the length of the region
+	 * @return the region
+	 * @throws IOException if the region could not be mapped
+	 * @throws IllegalArgumentException if the region is not inside the appended data 
+	 * @throws IllegalStateException if the actor has been closed
+	 */
+	@Message
+	public AsyncResult<ByteSlice> read(long offset, int length) throws IOException {
+		ensureOpen();
+		if ((offset < 0) || (length < 0) || (offset + length > size))
+			throw new IllegalArgumentException(String.format("Region %d+%d is outside of the file (size %d).", offset, length, size));
+		
+		int segmentSize = getSegmentSize();
+		int within = (int) (offset % segmentSize);
+		if (within + length <= segmentSize) {
+			ByteBuffer b = getSegment((int) (offset / segmentSize)).duplicate();
+			b.position(within);
+			b.limit(within + length);
+			return result(ByteSlice.wrap(b)); // appended data is never modified
+		}
+		// region spans several segments: map it separately
+		return result(ByteSlice.wrap(channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + offset, length)));
+	}
+	
+	/**
+	 * Returns the size of the appended data, including data that has not been committed yet.
+	 * @return the size in bytes
+	 * @throws IOException if the file could not be opened
+	 * @throws IllegalStateException if the actor has been closed
+	 */
+	@Message
+	public AsyncResult<Long> getSize() throws IOException {
+		ensureOpen();
+		return result(size);
+	}
+	
+	/**
+	 * Commits all data and closes the file. The actor can not be used anymore afterwards.
+	 * Regions that have been read before stay valid.
+	 * @return nothing
+	 * @throws IOException if closing failed
+	 */
+	@Message
+	public AsyncResult<Void> close() throws IOException {
+		if (channel != null) {
+			commit();
+			channel.close();
+			file.close();
+			channel = null;
+			file = null;
+			header = null;
+			segments.clear();
+		}
+		closed = true;
+		return noResult();
+	}
+}
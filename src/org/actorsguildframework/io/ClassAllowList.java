@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.actorsguildframework.Immutable;
+
+/**
+ * The classes that may be deserialized from data that has been received from another 
+ * process. Only allowing known classes prevents a peer from running the deserialization 
+ * code of arbitrary classes on the class path.
+ * <p>
+ * Always allowed are primitives, the classes of the packages <code>java.lang</code>, 
+ * <code>java.util</code> and <code>java.math</code>, enums, exceptions and all 
+ * {@link Immutable} classes, as well as arrays of allowed classes. Other classes must 
+ * be added to the list, either one by one or by package.
+ * ClassAllowList is thread-safe.
+ */
+final class ClassAllowList {
+	/**
+	 * The packages whose classes are always allowed.
+	 */
+	private final static String[] DEFAULT_PACKAGES = {"java.lang", "java.util", "java.math"};
+	
+	/**
+	 * The names of the allowed classes.
+	 */
+	private final Set<String> classes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/**
+	 * The allowed packages.
+	 */
+	private final CopyOnWriteArrayList<String> packages = new CopyOnWriteArrayList<String>();
+	
+	/**
+	 * Allows the given class.
+	 * @param c the class
+	 */
+	void allowClass(Class<?> c) {
+		while (c.isArray())
+			c = c.getComponentType();
+		if (!c.isPrimitive())
+			classes.add(c.getName());
+	}
+	
+	/**
+	 * Allows all classes of the given package, but not of its sub-packages.
+	 * @param packageName the name of the package
+	 */
+	void allowPackage(String packageName) {
+		packages.addIfAbsent(packageName);
+	}
+	
+	/**
+	 * Checks whether the given class may be deserialized.
+	 * @param c the class, loaded without initialization
+	 * @return true if allowed
+	 */
+	boolean isAllowed(Class<?> c) {
+		while (c.isArray())
+			c = c.getComponentType();
+		if (c.isPrimitive() || c.isEnum() || Immutable.class.isAssignableFrom(c) || 
+				Throwable.class.isAssignableFrom(c) || (c == StackTraceElement.class) || 
+				classes.contains(c.getName()))
+			return true;
+		String name = c.getName();
+		int dot = name.lastIndexOf('.');
+		String packageName = (dot < 0) ? "" : name.substring(0, dot);
+		for (String p: DEFAULT_PACKAGES)
+			if (p.equals(packageName))
+				return true;
+		return packages.contains(packageName);
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.ActorRuntimeException;
+import org.actorsguildframework.annotations.Durable;
+import org.actorsguildframework.immutable.SerializableFreezer;
+import org.actorsguildframework.internal.ActorState;
+import org.actorsguildframework.internal.MessageCaller;
+import org.actorsguildframework.internal.MessageJournal;
+import org.actorsguildframework.internal.RouterActorState;
+
+/**
+ * DurableMailbox keeps the invocations of an actor's {@link Durable} messages in a 
+ * write-ahead log, so they are not lost when the JVM dies. 
+ * <p>
+ * Open the mailbox with the directory of its log, create the actor and then 
+ * {@link #attach(Actor)} the mailbox to it. Attaching sends all invocations again that
+ * have been logged, but not processed, when the mailbox was used the last time. 
+ * From then on, every invocation of a durable message is appended to the log before it 
+ * is queued, and acknowledged in the log after it has been executed:
+ * <pre>
+ * DurableMailbox mailbox = new DurableMailbox(new File("orders"));
+ * OrderActor orders = agent.create(OrderActor.class);
+ * mailbox.attach(orders);
+ * ...
+ * agent.shutdown();
+ * mailbox.close();
+ * </pre>
+ * <p>
+ * The log is stored in memory-mapped segment files. Appending an invocation is a copy 
+ * into mapped memory, which survives a crash of the JVM without any sync. If 
+ * syncOnAppend is enabled, each append also waits until the log has been written to 
+ * disk, so invocations survive a crash of the operating system as well. Appends of 
+ * several threads are synced together (group commit), so the cost of a sync is shared
+ * by all of them. A segment file is deleted as soon as it and all older segments contain
+ * only acknowledged invocations.
+ * <p>
+ * Arguments are written in their frozen form (see {@link SerializableFreezer}). Strings, 
+ * Integers, Longs, Booleans and Doubles are written in a compact binary form, all other 
+ * arguments are serialized. 
+ * <p>
+ * Replayed invocations are identified by the message's name and signature. If a 
+ * message has been removed or its arguments have been changed since the invocation 
+ * has been logged, {@link #attach(Actor)} fails. 
+ * DurableMailbox is thread-safe. 
+ * @see Durable
+ */
+public final class DurableMailbox implements MessageJournal {
+	/**
+	 * The default size of a segment file, 64 MB.
+	 */
+	public final static int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The minimum size of a segment file.
+	 */
+	public final static int MIN_SEGMENT_SIZE = SegmentLog.MIN_SEGMENT_SIZE;
+	
+	private final static byte RECORD_INVOCATION = 1;
+	private final static byte RECORD_ACKNOWLEDGE = 2;
+	
+	/**
+	 * The log.
+	 */
+	private final SegmentLog log;
+	
+	/**
+	 * The invocations to replay on {@link #attach(Actor)}, or null if attached. 
+	 * Maps sequence numbers to encoded invocations. Guarded by this.
+	 */
+	private LinkedHashMap<Long, byte[]> replay = new LinkedHashMap<Long, byte[]>();
+	
+	/**
+	 * The state of the actor the mailbox has been attached to, or null. Guarded by this.
+	 */
+	private ActorState attachedState;
+	
+	/**
+	 * True after {@link #close()}. Guarded by this.
+	 */
+	private boolean closed;
+	
+	/**
+	 * Contains the sequence number of the invocation that is being replayed by the current 
+	 * thread, or null.
+	 */
+	private final ThreadLocal<Long> replaySequence = new ThreadLocal<Long>();
+	
+	/**
+	 * Opens the mailbox in the given directory, with the default segment size and 
+	 * without syncing. Invocations survive a crash of the JVM, but not necessarily a 
+	 * crash of the operating system. 
+	 * @param directory the directory of the log. Will be created if it does not exist.
+	 * @throws IOException if the log could not be read
+	 * @throws IllegalArgumentException if the directory was null
+	 */
+	public DurableMailbox(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE, false);
+	}
+
+	/**
+	 * Opens the mailbox in the given directory. 
+	 * @param directory the directory of the log. Will be created if it does not exist.
+	 * @param segmentSize the size of a segment file in bytes, at least {@link #MIN_SEGMENT_SIZE}
+	 * @param syncOnAppend if true, every append waits until the log has been synced to disk
+	 * @throws IOException if the log could not be read
+	 * @throws IllegalArgumentException if the directory was null or the segment size too small
+	 */
+	public DurableMailbox(File directory, int segmentSize, boolean syncOnAppend) throws IOException {
+		log = new SegmentLog(directory, segmentSize, syncOnAppend);
+		log.recover(new SegmentLog.RecordHandler() {
+			public boolean record(byte type, long sequence, byte[] payload) {
+				if (type == RECORD_INVOCATION) {
+					replay.put(sequence, payload);
+					return true;
+				}
+				if (type == RECORD_ACKNOWLEDGE) {
+					long acknowledged = ByteBuffer.wrap(payload).getLong();
+					if (replay.remove(acknowledged) != null)
+						log.release(acknowledged);
+				}
+				return false;
+			}
+		}, 0);
+	}
+	
+	/**
+	 * Writes the invocation of a durable message to the log. Called by the framework, 
+	 * before the invocation is queued. Invocations of other messages are not logged.
+	 * @param caller the caller of the message
+	 * @param arguments the arguments of the message
+	 * @return the sequence number of the invocation, or -1 if the message is not durable
+	 * @throws ActorRuntimeException if the mailbox has been closed, or the invocation 
+	 *     could not be written
+	 */
+	public long append(MessageCaller<?> caller, Object[] arguments) {
+		if (!caller.isDurable())
+			return -1;
+		Long replayed = replaySequence.get();
+		if (replayed != null)
+			return replayed.longValue();
+		return log.append(RECORD_INVOCATION, InvocationCodec.encode(caller.getMessageSignature(), arguments), true);
+	}
+	
+	/**
+	 * Marks the invocation as processed in the log. Called by the framework, after the 
+	 * invocation has been executed.
+	 * @param sequence the sequence number of the invocation
+	 */
+	public void acknowledge(long sequence) {
+		synchronized (this) {
+			if (closed)
+				return;
+		}
+		byte[] payload = new byte[8];
+		ByteBuffer.wrap(payload).putLong(sequence);
+		try {
+			log.append(RECORD_ACKNOWLEDGE, payload, false);
+		}
+		catch (ActorRuntimeException e) {
+			return; // closed in the meantime. The invocation will be replayed, which is acceptable
+		}
+		log.release(sequence);
+	}
+
+	/**
+	 * Marks the invocation as processed in the log, because it has been removed before 
+	 * it could be executed by {@link org.actorsguildframework.AsyncResult#cancel()} or
+	 * by shutting down the agent. Its caller has already been notified, so it must not 
+	 * be replayed. 
+	 * Called by the framework.
+	 * @param sequence the sequence number of the invocation
+	 */
+	public void discard(long sequence) {
+		acknowledge(sequence);
+	}
+
+	/**
+	 * Attaches the mailbox to the given actor. From now on, the invocations of the 
+	 * actor's durable messages are logged. All invocations that have not been 
+	 * acknowledged when the mailbox was used the last time are sent to the actor again, 
+	 * in the order they have been logged. Their results are discarded.
+	 * <p>
+	 * A mailbox can only be attached to a single actor, and only once.
+	 * @param actor the actor to attach to
+	 * @return the number of replayed invocations
+	 * @throws IllegalArgumentException if the actor was null or a router
+	 * @throws IllegalStateException if the mailbox has already been attached or closed
+	 * @throws ActorRuntimeException if an invocation could not be replayed, for example
+	 *    because the actor does not have the message anymore
+	 */
+	public int attach(Actor actor) {
+		if (actor == null)
+			throw new IllegalArgumentException("actor must not be null");
+		ActorState state = ActorState.getState(actor);
+		if (state instanceof RouterActorState)
+			throw new IllegalArgumentException("A durable mailbox can not be attached to a router. Attach one mailbox to each member instead.");
+		List<Long> sequences;
+		List<byte[]> invocations;
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("The durable mailbox has been closed.");
+			if (attachedState != null)
+				throw new IllegalStateException("The durable mailbox has already been attached to an actor.");
+			attachedState = state;
+			sequences = new ArrayList<Long>(replay.keySet());
+			invocations = new ArrayList<byte[]>(replay.values());
+			replay = null;
+		}
+		state.setJournal(this);
+		for (int i = 0; i < sequences.size(); i++) {
+			replaySequence.set(sequences.get(i));
+			try {
+				InvocationCodec.invoke(actor, invocations.get(i), Durable.class);
+			}
+			finally {
+				replaySequence.remove();
+			}
+		}
+		return sequences.size();
+	}
+	
+	/**
+	 * Closes the mailbox. The actor's durable messages will not be logged anymore, and 
+	 * acknowledgements of running invocations are ignored, so they will be replayed. 
+	 * If all invocations have been acknowledged, the log files are deleted. 
+	 * Call this after the agent has been shut down. Calling close() more than once
+	 * has no effect.
+	 */
+	public void close() {
+		ActorState state;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			state = attachedState;
+		}
+		if (state != null)
+			state.setJournal(null);
+		log.close(true);
+	}
+	
+	/**
+	 * Returns the number of logged invocations that have not been acknowledged yet,
+	 * including those that are waiting to be replayed.
+	 * @return the number of unacknowledged invocations
+	 */
+	public int getPendingCount() {
+		return log.getTrackedCount();
+	}
+	
+	/**
+	 * Returns the number of segment files.
+	 * @return the number of segment files
+	 */
+	public int getSegmentCount() {
+		return log.getSegmentCount();
+	}
+	
+	/**
+	 * Returns the directory of the log.
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return log.getDirectory();
+	}
+}
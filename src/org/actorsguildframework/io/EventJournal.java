@@ -0,0 +1,686 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.ActorRuntimeException;
+import org.actorsguildframework.annotations.Event;
+import org.actorsguildframework.annotations.Prop;
+import org.actorsguildframework.immutable.ImmutableHelper;
+import org.actorsguildframework.immutable.SerializableFreezer;
+import org.actorsguildframework.internal.ActorClassDescriptor;
+import org.actorsguildframework.internal.ActorState;
+import org.actorsguildframework.internal.BeanClassDescriptor;
+import org.actorsguildframework.internal.MessageCaller;
+import org.actorsguildframework.internal.MessageJournal;
+import org.actorsguildframework.internal.MultiThreadedActorState;
+import org.actorsguildframework.internal.PropertyDescriptor;
+import org.actorsguildframework.internal.RouterActorState;
+import org.actorsguildframework.internal.codegenerator.BeanCreator;
+import org.actorsguildframework.internal.util.L;
+
+/**
+ * EventJournal makes the state of an actor persistent by logging its {@link Event} 
+ * messages and taking snapshots of its @{@link Prop} properties. 
+ * <p>
+ * Open the journal with its directory, create the actor and then {@link #attach(Actor)} 
+ * the journal to it. Attaching restores the properties from the latest snapshot and sends 
+ * all events again that have been logged after the snapshot. From then on, every 
+ * invocation of an event message is appended to the journal before it is queued:
+ * <pre>
+ * EventJournal journal = new EventJournal(new File("accounts"));
+ * AccountActor account = agent.create(AccountActor.class);
+ * journal.attach(account);
+ * ...
+ * agent.shutdown();
+ * journal.close();
+ * </pre>
+ * <p>
+ * After every snapshotInterval events, and after {@link #requestSnapshot()}, the journal 
+ * takes a snapshot of the actor. The snapshot is taken in the actor's thread right after 
+ * an event has been executed, and only consists of a frozen copy of the properties: 
+ * immutable values are kept, all other values are copied with {@link SerializableFreezer}. 
+ * The snapshot is then written to disk by a background thread, so the actor 
+ * can continue processing messages in the meantime. When the snapshot file is complete, 
+ * older snapshots and all log segments that contain only older events are deleted. 
+ * <p>
+ * Only properties that are generated by the framework are stored in snapshots. 
+ * Properties with a @{@link org.actorsguildframework.annotations.Shared} annotation are 
+ * skipped, all other property values must be Serializable. The actor must not keep state 
+ * outside of its properties, and event messages must change the state the same way 
+ * when they are executed again. 
+ * <p>
+ * Events are stored in the same kind of log as the invocations of a {@link DurableMailbox}.
+ * EventJournal is thread-safe. 
+ * @see Event
+ */
+public final class EventJournal implements MessageJournal {
+	private final static L log = new L(EventJournal.class);
+
+	/**
+	 * The default size of a segment file, 64 MB.
+	 */
+	public final static int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The minimum size of a segment file.
+	 */
+	public final static int MIN_SEGMENT_SIZE = SegmentLog.MIN_SEGMENT_SIZE;
+	
+	/**
+	 * The default number of events between two snapshots.
+	 */
+	public final static int DEFAULT_SNAPSHOT_INTERVAL = 1000;
+	
+	private final static byte RECORD_EVENT = 1;
+	private final static byte RECORD_DISCARD = 2;
+
+	private final static String SNAPSHOT_PREFIX = "snapshot-";
+	private final static String SNAPSHOT_SUFFIX = ".snap";
+	private final static String SNAPSHOT_TEMP_SUFFIX = ".tmp";
+	
+	/**
+	 * The log of events.
+	 */
+	private final SegmentLog segmentLog;
+	
+	/**
+	 * True to sync snapshot files before they are used.
+	 */
+	private final boolean syncOnAppend;
+	
+	/**
+	 * The number of events between two snapshots.
+	 */
+	private final int snapshotInterval;
+	
+	/**
+	 * Writes the snapshots.
+	 */
+	private final ExecutorService snapshotWriter;
+	
+	/**
+	 * The sequence number of the latest snapshot, or 0 if there is none.
+	 */
+	private volatile long lastSnapshotSequence;
+	
+	/**
+	 * The properties of the latest snapshot to restore on {@link #attach(Actor)}, or null if 
+	 * attached or if there was no snapshot. Guarded by this.
+	 */
+	private Map<String, Object> restore;
+	
+	/**
+	 * The events to replay on {@link #attach(Actor)}, or null if attached. 
+	 * Maps sequence numbers to encoded invocations. Guarded by this.
+	 */
+	private LinkedHashMap<Long, byte[]> replay = new LinkedHashMap<Long, byte[]>();
+	
+	/**
+	 * The actor the journal has been attached to, or null. Guarded by this.
+	 */
+	private Actor attachedActor;
+
+	/**
+	 * The properties to store in snapshots, or null if not attached. Guarded by this.
+	 */
+	private List<PropertyDescriptor> properties;
+	
+	/**
+	 * The fields of {@link #properties}, or null if not attached. Guarded by this.
+	 */
+	private List<Field> propertyFields;
+
+	/**
+	 * The sequence numbers of the events that have been logged, but not executed yet. 
+	 * Guarded by this.
+	 */
+	private final TreeSet<Long> pending = new TreeSet<Long>();
+	
+	/**
+	 * The number of appends that are in progress, whose sequence numbers are not 
+	 * in {@link #pending} yet. Guarded by this.
+	 */
+	private int appending;
+	
+	/**
+	 * The highest sequence number of all executed events. Guarded by this.
+	 */
+	private long lastExecuted;
+	
+	/**
+	 * The number of events executed since the last snapshot. Guarded by this.
+	 */
+	private int eventsSinceSnapshot;
+	
+	/**
+	 * True if a snapshot has been requested by {@link #requestSnapshot()}. Guarded by this.
+	 */
+	private boolean snapshotRequested;
+	
+	/**
+	 * True after {@link #close()}. Guarded by this.
+	 */
+	private boolean closed;
+	
+	/**
+	 * Contains the sequence number of the event that is being replayed by the current 
+	 * thread, or null.
+	 */
+	private final ThreadLocal<Long> replaySequence = new ThreadLocal<Long>();
+	
+	/**
+	 * Opens the journal in the given directory, with the default segment size, 
+	 * the default snapshot interval and without syncing. Events survive a crash of the 
+	 * JVM, but not necessarily a crash of the operating system. 
+	 * @param directory the directory of the journal. Will be created if it does not exist.
+	 * @throws IOException if the journal could not be read
+	 * @throws IllegalArgumentException if the directory was null
+	 */
+	public EventJournal(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE, false, DEFAULT_SNAPSHOT_INTERVAL);
+	}
+
+	/**
+	 * Opens the journal in the given directory. 
+	 * @param directory the directory of the journal. Will be created if it does not exist.
+	 * @param segmentSize the size of a segment file in bytes, at least {@link #MIN_SEGMENT_SIZE}
+	 * @param syncOnAppend if true, every append waits until the log has been synced to disk,
+	 *    and snapshots are synced before they replace older snapshots
+	 * @param snapshotInterval the number of events between two snapshots, at least 1
+	 * @throws IOException if the journal could not be read
+	 * @throws IllegalArgumentException if the directory was null, the segment size too small
+	 *    or the snapshot interval less than 1
+	 */
+	public EventJournal(File directory, int segmentSize, boolean syncOnAppend, int snapshotInterval) throws IOException {
+		if (snapshotInterval < 1)
+			throw new IllegalArgumentException("snapshotInterval must be at least 1");
+		this.syncOnAppend = syncOnAppend;
+		this.snapshotInterval = snapshotInterval;
+		segmentLog = new SegmentLog(directory, segmentSize, syncOnAppend);
+		
+		loadSnapshot();
+		final long snapshotSequence = lastSnapshotSequence;
+		segmentLog.truncate(snapshotSequence);
+		segmentLog.recover(new SegmentLog.RecordHandler() {
+			public boolean record(byte type, long sequence, byte[] payload) {
+				if ((type == RECORD_EVENT) && (sequence > snapshotSequence))
+					replay.put(sequence, payload);
+				else if (type == RECORD_DISCARD)
+					replay.remove(ByteBuffer.wrap(payload).getLong());
+				return false;
+			}
+		}, snapshotSequence);
+		lastExecuted = snapshotSequence;
+		
+		snapshotWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "EventJournal snapshot writer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Finds the snapshot files in the directory and deletes incomplete ones.
+	 * @return the snapshot files, oldest first
+	 */
+	private File[] findSnapshotFiles() {
+		for (File f: segmentLog.getDirectory().listFiles(new SnapshotFilter(SNAPSHOT_TEMP_SUFFIX)))
+			if (!f.delete())
+				log.error("Can not delete incomplete snapshot %s", f);
+		File[] files = segmentLog.getDirectory().listFiles(new SnapshotFilter(SNAPSHOT_SUFFIX));
+		Arrays.sort(files); // sequence numbers have a fixed width
+		return files;
+	}
+	
+	/**
+	 * Loads the latest valid snapshot into {@link #restore} and {@link #lastSnapshotSequence}.
+	 */
+	@SuppressWarnings("unchecked")
+	private void loadSnapshot() {
+		File[] files = findSnapshotFiles();
+		for (int i = files.length - 1; i >= 0; i--) {
+			try {
+				DataInputStream in = new DataInputStream(new FileInputStream(files[i]));
+				try {
+					long seq = in.readLong();
+					byte[] data = new byte[in.readInt()];
+					int crc = in.readInt();
+					in.readFully(data);
+					CRC32 crc32 = new CRC32();
+					crc32.update(data);
+					if ((int) crc32.getValue() != crc) {
+						log.error("Snapshot %s is corrupt, ignoring it", files[i]);
+						continue;
+					}
+					ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+					restore = (Map<String, Object>) ois.readObject();
+					lastSnapshotSequence = seq;
+					return;
+				}
+				finally {
+					in.close();
+				}
+			}
+			catch (IOException e) {
+				log.error("Can not read snapshot %s, ignoring it", files[i]);
+				log.exception(e);
+			}
+			catch (ClassNotFoundException e) {
+				throw new ActorRuntimeException(String.format("Can not read snapshot %s", files[i]), e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the invocation of an event message to the journal. Called by the framework, 
+	 * before the invocation is queued. Invocations of other messages are not logged.
+	 * @param caller the caller of the message
+	 * @param arguments the arguments of the message
+	 * @return the sequence number of the event, or -1 if the message is not an event
+	 * @throws ActorRuntimeException if the journal has been closed, or the event 
+	 *     could not be written
+	 */
+	public long append(MessageCaller<?> caller, Object[] arguments) {
+		if (!caller.isEvent())
+			return -1;
+		Long replayed = replaySequence.get();
+		if (replayed != null) {
+			synchronized (this) {
+				pending.add(replayed);
+			}
+			return replayed.longValue();
+		}
+		
+		byte[] payload = InvocationCodec.encode(caller.getMessageSignature(), arguments);
+		synchronized (this) {
+			appending++;
+		}
+		long seq = -1;
+		try {
+			seq = segmentLog.append(RECORD_EVENT, payload, false);
+		}
+		finally {
+			synchronized (this) {
+				appending--;
+				if (seq >= 0)
+					pending.add(seq);
+			}
+		}
+		return seq;
+	}
+	
+	/**
+	 * Notes that the event has been executed and takes a snapshot if one is due. 
+	 * Called by the framework in the actor's thread, after the event has been executed.
+	 * @param sequence the sequence number of the event
+	 */
+	public void acknowledge(long sequence) {
+		Actor actor;
+		List<PropertyDescriptor> props;
+		List<Field> fields;
+		long snapshotSequence;
+		synchronized (this) {
+			pending.remove(sequence);
+			lastExecuted = Math.max(lastExecuted, sequence);
+			eventsSinceSnapshot++;
+			if (closed || (attachedActor == null) || 
+					((eventsSinceSnapshot < snapshotInterval) && !snapshotRequested))
+				return;
+			// the state must contain all events up to the snapshot, and none after it 
+			if ((appending > 0) || (!pending.isEmpty() && (pending.first().longValue() < lastExecuted)))
+				return;
+			eventsSinceSnapshot = 0;
+			snapshotRequested = false;
+			actor = attachedActor;
+			props = properties;
+			fields = propertyFields;
+			snapshotSequence = lastExecuted;
+		}
+		
+		final LinkedHashMap<String, Object> values = new LinkedHashMap<String, Object>();
+		try {
+			for (int i = 0; i < props.size(); i++) {
+				PropertyDescriptor pd = props.get(i);
+				Object value = fields.get(i).get(actor);
+				if ((value != null) && !ImmutableHelper.isImmutableType(pd.getPropertyClass()))
+					value = SerializableFreezer.freeze(value);
+				values.put(pd.getName(), value);
+			}
+		}
+		catch (IllegalAccessException e) {
+			log.exception(e);
+			return;
+		}
+		catch (ActorRuntimeException e) {
+			log.error("Can not take snapshot of %s", actor);
+			log.exception(e);
+			return;
+		}
+		
+		final long seq = snapshotSequence;
+		snapshotWriter.execute(new Runnable() {
+			public void run() {
+				writeSnapshot(seq, values);
+			}
+		});
+	}
+	
+	/**
+	 * Notes that the event will not be executed, because it has been cancelled or the
+	 * agent has been shut down before. Its caller has already been notified, so it will 
+	 * not be replayed. Called by the framework.
+	 * @param sequence the sequence number of the event
+	 */
+	public void discard(long sequence) {
+		synchronized (this) {
+			pending.remove(sequence);
+			if (closed)
+				return;
+		}
+		byte[] payload = new byte[8];
+		ByteBuffer.wrap(payload).putLong(sequence);
+		try {
+			segmentLog.append(RECORD_DISCARD, payload, false);
+		}
+		catch (ActorRuntimeException e) {
+			log.error("Can not discard event %d, it will be replayed", sequence);
+			log.exception(e);
+		}
+	}
+	
+	/**
+	 * Writes a snapshot file, and then deletes older snapshots and events.
+	 * Runs in the background thread.
+	 * @param seq the sequence number of the last event contained in the snapshot
+	 * @param values the property values
+	 */
+	private void writeSnapshot(long seq, LinkedHashMap<String, Object> values) {
+		String name = String.format("%s%016d", SNAPSHOT_PREFIX, seq);
+		File temp = new File(segmentLog.getDirectory(), name + SNAPSHOT_TEMP_SUFFIX);
+		File file = new File(segmentLog.getDirectory(), name + SNAPSHOT_SUFFIX);
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(values);
+			oos.close();
+			byte[] data = bos.toByteArray();
+			CRC32 crc32 = new CRC32();
+			crc32.update(data);
+			
+			FileOutputStream fos = new FileOutputStream(temp);
+			try {
+				DataOutputStream out = new DataOutputStream(fos);
+				out.writeLong(seq);
+				out.writeInt(data.length);
+				out.writeInt((int) crc32.getValue());
+				out.write(data);
+				out.flush();
+				if (syncOnAppend)
+					fos.getFD().sync();
+			}
+			finally {
+				fos.close();
+			}
+			if (!temp.renameTo(file))
+				throw new IOException("Can not rename snapshot "+temp+" to "+file);
+		}
+		catch (IOException e) {
+			log.error("Can not write snapshot %s", file);
+			log.exception(e);
+			if (temp.exists() && !temp.delete())
+				log.error("Can not delete incomplete snapshot %s", temp);
+			return;
+		}
+
+		lastSnapshotSequence = seq;
+		for (File f: findSnapshotFiles())
+			if (!f.equals(file) && !f.delete())
+				log.error("Can not delete snapshot %s", f);
+		segmentLog.truncate(seq);
+	}
+	
+	/**
+	 * Requests a snapshot after the next event, regardless of the snapshot interval.
+	 */
+	public synchronized void requestSnapshot() {
+		snapshotRequested = true;
+	}
+
+	/**
+	 * Attaches the journal to the given actor. The actor's properties are set to the values 
+	 * of the latest snapshot, and all events that have been logged after the snapshot are 
+	 * sent to the actor again, in the order they have been logged. Their results are 
+	 * discarded. From now on, the actor's events are logged. 
+	 * <p>
+	 * Call this right after creating the actor, before sending any messages to it. 
+	 * A journal can only be attached to a single actor, and only once.
+	 * @param actor the actor to attach to
+	 * @return the number of replayed events
+	 * @throws IllegalArgumentException if the actor was null, a router or a multi-threaded 
+	 *    actor
+	 * @throws IllegalStateException if the journal has already been attached or closed
+	 * @throws ActorRuntimeException if the snapshot could not be restored or an event could 
+	 *    not be replayed, for example because the actor does not have the message anymore
+	 */
+	public int attach(Actor actor) {
+		if (actor == null)
+			throw new IllegalArgumentException("actor must not be null");
+		ActorState state = ActorState.getState(actor);
+		if (state instanceof RouterActorState)
+			throw new IllegalArgumentException("An event journal can not be attached to a router. Attach one journal to each member instead.");
+		if (state instanceof MultiThreadedActorState)
+			throw new IllegalArgumentException("An event journal can not be attached to a multi-threaded actor.");
+		
+		List<PropertyDescriptor> props = new ArrayList<PropertyDescriptor>();
+		List<Field> fields = new ArrayList<Field>();
+		HashMap<String, Field> fieldsByName = new HashMap<String, Field>();
+		@SuppressWarnings("unchecked")
+		BeanClassDescriptor bcd = ActorClassDescriptor.create((Class<? extends Actor>) actor.getClass().getSuperclass()).getBeanClassDescriptor();
+		for (int i = 0; i < bcd.getPropertyCount(); i++) {
+			PropertyDescriptor pd = bcd.getProperty(i);
+			if (!pd.getPropertySource().isGenerating() || pd.isSharedReference())
+				continue;
+			Field f = findPropertyField(actor.getClass(), pd.getName());
+			props.add(pd);
+			fields.add(f);
+			fieldsByName.put(pd.getName(), f);
+		}
+		
+		List<Long> sequences;
+		List<byte[]> events;
+		Map<String, Object> values;
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("The event journal has been closed.");
+			if (attachedActor != null)
+				throw new IllegalStateException("The event journal has already been attached to an actor.");
+			attachedActor = actor;
+			properties = props;
+			propertyFields = fields;
+			sequences = new ArrayList<Long>(replay.keySet());
+			events = new ArrayList<byte[]>(replay.values());
+			values = restore;
+			replay = null;
+			restore = null;
+		}
+		
+		if (values != null)
+			restoreProperties(actor, values, fieldsByName);
+		state.setJournal(this);
+		for (int i = 0; i < sequences.size(); i++) {
+			replaySequence.set(sequences.get(i));
+			try {
+				InvocationCodec.invoke(actor, events.get(i), Event.class);
+			}
+			finally {
+				replaySequence.remove();
+			}
+		}
+		return sequences.size();
+	}
+	
+	/**
+	 * Finds the field of a generated property.
+	 * @param proxyClass the class of the actor proxy
+	 * @param name the name of the property
+	 * @return the field, accessible
+	 * @throws ActorRuntimeException if the field does not exist
+	 */
+	private static Field findPropertyField(Class<?> proxyClass, String name) {
+		String fieldName = String.format(BeanCreator.PROP_FIELD_NAME_TEMPLATE, name);
+		for (Class<?> c = proxyClass; c != null; c = c.getSuperclass()) {
+			try {
+				Field f = c.getDeclaredField(fieldName);
+				f.setAccessible(true);
+				return f;
+			}
+			catch (NoSuchFieldException e) {
+				// continue with superclass
+			}
+		}
+		throw new ActorRuntimeException(String.format("Can not find the field of property %s in %s", name, proxyClass.getName()));
+	}
+	
+	/**
+	 * Sets the properties of the actor to the values of a snapshot. Values of properties
+	 * that do not exist anymore are ignored.
+	 * @param actor the actor
+	 * @param values the values of the snapshot
+	 * @param fields the fields of the properties
+	 * @throws ActorRuntimeException if a property could not be set
+	 */
+	private static void restoreProperties(Actor actor, Map<String, Object> values, Map<String, Field> fields) {
+		for (Map.Entry<String, Object> e: values.entrySet()) {
+			Field f = fields.get(e.getKey());
+			if (f == null)
+				continue;
+			Object value = e.getValue();
+			if ((value != null) && !ImmutableHelper.isImmutableType(f.getType()))
+				value = ((SerializableFreezer<?>) value).get();
+			try {
+				f.set(actor, value);
+			}
+			catch (IllegalAccessException ex) {
+				throw new ActorRuntimeException(String.format("Can not restore property %s", e.getKey()), ex);
+			}
+			catch (IllegalArgumentException ex) {
+				throw new ActorRuntimeException(String.format("Can not restore property %s: the snapshot's value has the wrong type", e.getKey()), ex);
+			}
+		}
+	}
+	
+	/**
+	 * Closes the journal. The actor's events will not be logged anymore. Waits until
+	 * the snapshot that is being written has been completed. The log files are kept.
+	 * Call this after the agent has been shut down. Calling close() more than once
+	 * has no effect.
+	 */
+	public void close() {
+		Actor actor;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			actor = attachedActor;
+		}
+		if (actor != null)
+			ActorState.getState(actor).setJournal(null);
+		snapshotWriter.shutdown();
+		try {
+			snapshotWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		segmentLog.close(false);
+	}
+	
+	/**
+	 * Returns the sequence number of the last event that is contained in the latest 
+	 * snapshot.
+	 * @return the sequence number, or 0 if there is no snapshot
+	 */
+	public long getLastSnapshotSequence() {
+		return lastSnapshotSequence;
+	}
+	
+	/**
+	 * Returns the number of segment files.
+	 * @return the number of segment files
+	 */
+	public int getSegmentCount() {
+		return segmentLog.getSegmentCount();
+	}
+	
+	/**
+	 * Returns the directory of the journal.
+	 * @return the directory
+	 */
+	public File getDirectory() {
+		return segmentLog.getDirectory();
+	}
+	
+	/**
+	 * Accepts snapshot files with the given suffix.
+	 */
+	private static class SnapshotFilter implements FilenameFilter {
+		private final String suffix;
+		
+		/**
+		 * Creates a new filter.
+		 * @param suffix the suffix of the files
+		 */
+		SnapshotFilter(String suffix) {
+			this.suffix = suffix;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		public boolean accept(File dir, String name) {
+			return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(suffix);
+		}
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.ActorRuntimeException;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.immutable.SerializableFreezer;
+import org.objectweb.asm.Type;
+
+/**
+ * Encodes message invocations for {@link DurableMailbox}, {@link EventJournal} and 
+ * {@link RemoteNode}, and sends them to an actor.
+ * <p>
+ * An invocation is stored as the message's signature (see 
+ * {@link org.actorsguildframework.internal.MessageCaller#getMessageSignature()}), followed
+ * by the arguments. Arguments are written in their frozen form (see {@link SerializableFreezer}). 
+ * Strings, Integers, Longs, Booleans and Doubles are written in a compact binary form, all 
+ * other arguments are serialized. Single values, like the results of messages, use the same
+ * format as arguments.
+ */
+final class InvocationCodec {
+	private final static byte ARG_NULL = 0;
+	private final static byte ARG_FROZEN = 1;
+	private final static byte ARG_STRING = 2;
+	private final static byte ARG_INT = 3;
+	private final static byte ARG_LONG = 4;
+	private final static byte ARG_BOOLEAN = 5;
+	private final static byte ARG_DOUBLE = 6;
+	private final static byte ARG_OBJECT = 7;
+	
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * Private constructor to prevent instantiation.
+	 */
+	private InvocationCodec() {
+	}
+	
+	/**
+	 * Encodes the invocation of a message.
+	 * @param signature the signature of the message
+	 * @param arguments the arguments, or null
+	 * @return the encoded invocation
+	 * @throws ActorRuntimeException if an argument can not be written
+	 */
+	static byte[] encode(String signature, Object[] arguments) {
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+			DataOutputStream out = new DataOutputStream(bos);
+			out.writeUTF(signature);
+			int n = (arguments == null) ? 0 : arguments.length;
+			out.writeInt(n);
+			for (int i = 0; i < n; i++)
+				writeArgument(out, arguments[i]);
+			out.close();
+			return bos.toByteArray();
+		}
+		catch (IOException e) {
+			throw new ActorRuntimeException("Can not encode invocation", e);
+		}
+	}
+	
+	/**
+	 * Encodes a single value, like the result of a message.
+	 * @param value the value, or null
+	 * @return the encoded value
+	 * @throws ActorRuntimeException if the value can not be written
+	 */
+	static byte[] encodeValue(Object value) {
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(32);
+			DataOutputStream out = new DataOutputStream(bos);
+			writeArgument(out, value);
+			out.close();
+			return bos.toByteArray();
+		}
+		catch (IOException e) {
+			throw new ActorRuntimeException("Can not encode value", e);
+		}
+	}
+	
+	/**
+	 * Decodes a value written by {@link #encodeValue(Object)}. The value is read directly
+	 * from the buffer, starting at its position.
+	 * @param encoded the buffer that contains the encoded value
+	 * @param allowList the classes that may be deserialized, or null to allow all
+	 * @return the value
+	 * @throws ActorRuntimeException if the value can not be read, or contains a class 
+	 *   that is not allowed
+	 */
+	static Object decodeValue(ByteBuffer encoded, ClassAllowList allowList) {
+		try {
+			return readArgument(encoded, allowList);
+		}
+		catch (IOException e) {
+			throw new ActorRuntimeException("Can not decode value", e);
+		}
+		catch (BufferUnderflowException e) {
+			throw new ActorRuntimeException("Can not decode value: it is truncated");
+		}
+		catch (ClassNotFoundException e) {
+			throw new ActorRuntimeException("Can not decode value", e);
+		}
+	}
+	
+	/**
+	 * Writes a message argument.
+	 * @param out the output to write to
+	 * @param a the argument, possibly wrapped as {@link SerializableFreezer}
+	 * @throws IOException if writing failed
+	 * @throws ActorRuntimeException if the argument is an Actor or not Serializable
+	 */
+	private static void writeArgument(DataOutputStream out, Object a) throws IOException {
+		if (a == null)
+			out.writeByte(ARG_NULL);
+		else if (a instanceof SerializableFreezer) {
+			out.writeByte(ARG_FROZEN);
+			((SerializableFreezer<?>) a).writeFrozen(out);
+		}
+		else if (a instanceof String) {
+			byte[] b = ((String) a).getBytes(UTF8);
+			out.writeByte(ARG_STRING);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+		else if (a instanceof Integer) {
+			out.writeByte(ARG_INT);
+			out.writeInt(((Integer) a).intValue());
+		}
+		else if (a instanceof Long) {
+			out.writeByte(ARG_LONG);
+			out.writeLong(((Long) a).longValue());
+		}
+		else if (a instanceof Boolean) {
+			out.writeByte(ARG_BOOLEAN);
+			out.writeBoolean(((Boolean) a).booleanValue());
+		}
+		else if (a instanceof Double) {
+			out.writeByte(ARG_DOUBLE);
+			out.writeDouble(((Double) a).doubleValue());
+		}
+		else if ((a instanceof Actor) || !(a instanceof Serializable))
+			throw new ActorRuntimeException(String.format("Value of type %s can not be written. Only Serializable values are allowed.", 
+					a.getClass().getName()));
+		else {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bos);
+			oos.writeObject(a);
+			oos.close();
+			out.writeByte(ARG_OBJECT);
+			out.writeInt(bos.size());
+			bos.writeTo(out);
+		}
+	}
+	
+	/**
+	 * Reads a message argument written by {@link #writeArgument(DataOutputStream, Object)}
+	 * directly from the buffer. Strings and serialized objects are decoded from slices of
+	 * the buffer, without copying them first.
+	 * @param in the buffer to read from. Its position is advanced behind the argument.
+	 * @param allowList the classes that may be deserialized, or null to allow all
+	 * @return the argument (not wrapped)
+	 * @throws IOException if reading failed, or a class is not allowed
+	 * @throws ClassNotFoundException if the argument's class can not be found
+	 */
+	private static Object readArgument(ByteBuffer in, ClassAllowList allowList) throws IOException, ClassNotFoundException {
+		byte type = in.get();
+		switch (type) {
+		case ARG_NULL:
+			return null;
+		case ARG_STRING:
+			return UTF8.decode(slice(in, in.getInt())).toString();
+		case ARG_INT:
+			return Integer.valueOf(in.getInt());
+		case ARG_LONG:
+			return Long.valueOf(in.getLong());
+		case ARG_BOOLEAN:
+			return Boolean.valueOf(in.get() != 0);
+		case ARG_DOUBLE:
+			return Double.valueOf(in.getDouble());
+		case ARG_FROZEN: // the frozen form is the length, followed by the serialized object
+		case ARG_OBJECT:
+		{
+			ObjectInputStream ois = new AllowListObjectInputStream(new ByteBufferInputStream(slice(in, in.getInt())), allowList);
+			Object r = ois.readObject();
+			ois.close();
+			return r;
+		}
+		default:
+			throw new IOException("Unknown argument type "+type);
+		}
+	}
+	
+	/**
+	 * Returns the next bytes of the buffer as a new buffer, and advances the buffer's
+	 * position behind them.
+	 * @param in the buffer
+	 * @param length the number of bytes
+	 * @return the slice
+	 * @throws IOException if the buffer does not have enough bytes
+	 */
+	private static ByteBuffer slice(ByteBuffer in, int length) throws IOException {
+		if ((length < 0) || (length > in.remaining()))
+			throw new IOException("Invalid length "+length);
+		ByteBuffer s = in.slice();
+		s.limit(length);
+		in.position(in.position() + length);
+		return s;
+	}
+	
+	/**
+	 * Sends an encoded invocation to the actor. The message must have the given
+	 * annotation. The invocation is read directly from the buffer, starting at its position.
+	 * @param actor the actor to send to
+	 * @param encoded the invocation, as returned by {@link #encode(String, Object[])}
+	 * @param annotation the annotation the message must have
+	 * @param allowList the classes that may be deserialized, or null to allow all
+	 * @return the result of the message
+	 * @throws ActorRuntimeException if the invocation could not be sent, for example because
+	 *    the actor does not have the message, or an argument contains a class that is not 
+	 *    allowed
+	 */
+	static AsyncResult<?> invoke(Actor actor, ByteBuffer encoded, Class<? extends Annotation> annotation, ClassAllowList allowList) {
+		String signature = null;
+		try {
+			signature = new DataInputStream(new ByteBufferInputStream(encoded)).readUTF();
+			Object[] args = new Object[encoded.getInt()];
+			for (int i = 0; i < args.length; i++)
+				args[i] = readArgument(encoded, allowList);
+			return (AsyncResult<?>) findMessage(actor.getClass().getSuperclass(), signature, annotation).invoke(actor, args);
+		}
+		catch (InvocationTargetException e) {
+			throw new ActorRuntimeException(String.format("Can not send message %s", signature), e);
+		}
+		catch (IllegalAccessException e) {
+			throw new ActorRuntimeException(String.format("Can not send message %s", signature), e);
+		}
+		catch (IOException e) {
+			throw new ActorRuntimeException("Can not read encoded invocation", e);
+		}
+		catch (BufferUnderflowException e) {
+			throw new ActorRuntimeException("Can not read encoded invocation: it is truncated");
+		}
+		catch (ClassNotFoundException e) {
+			throw new ActorRuntimeException("Can not read encoded invocation", e);
+		}
+	}
+	
+	/**
+	 * Sends an encoded invocation to the actor. The message must have the given
+	 * annotation.
+	 * @param actor the actor to send to
+	 * @param encoded the invocation, as returned by {@link #encode(String, Object[])}
+	 * @param annotation the annotation the message must have
+	 * @return the result of the message
+	 * @throws ActorRuntimeException if the invocation could not be sent, for example because
+	 *    the actor does not have the message
+	 */
+	static AsyncResult<?> invoke(Actor actor, byte[] encoded, Class<? extends Annotation> annotation) {
+		return invoke(actor, ByteBuffer.wrap(encoded), annotation, null);
+	}
+	
+	/**
+	 * Finds the message with the given signature.
+	 * @param actorClass the class of the actor (not the proxy)
+	 * @param signature the signature
+	 * @param annotation the annotation the message must have
+	 * @return the message's method
+	 * @throws ActorRuntimeException if there is no such message
+	 */
+	private static Method findMessage(Class<?> actorClass, String signature, Class<? extends Annotation> annotation) {
+		for (Method m: actorClass.getMethods())
+			if (signature.equals(m.getName() + Type.getMethodDescriptor(m)) && m.isAnnotationPresent(annotation))
+				return m;
+		throw new ActorRuntimeException(String.format("Can not send message %s: the actor %s has no such message with a @%s annotation.", 
+				signature, actorClass.getName(), annotation.getSimpleName()));
+	}
+
+	/**
+	 * An ObjectInputStream that only resolves the classes of a {@link ClassAllowList}.
+	 */
+	private final static class AllowListObjectInputStream extends ObjectInputStream {
+		private final ClassAllowList allowList;
+		
+		/**
+		 * Creates a new instance.
+		 * @param in the stream to read from
+		 * @param allowList the classes that may be deserialized, or null to allow all
+		 * @throws IOException if the stream header could not be read
+		 */
+		AllowListObjectInputStream(InputStream in, ClassAllowList allowList) throws IOException {
+			super(in);
+			this.allowList = allowList;
+		}
+		
+		/**
+		 * Resolves the class, which is loaded without being initialized, and checks
+		 * whether it is allowed.
+		 * @see java.io.ObjectInputStream#resolveClass(java.io.ObjectStreamClass)
+		 */
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			Class<?> c = super.resolveClass(desc);
+			if ((allowList != null) && !allowList.isAllowed(c))
+				throw new InvalidClassException(desc.getName(), "class is not allowed");
+			return c;
+		}
+		
+		/**
+		 * Rejects dynamic proxies, unless all classes are allowed.
+		 * @see java.io.ObjectInputStream#resolveProxyClass(java.lang.String[])
+		 */
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+			if (allowList != null)
+				throw new InvalidClassException("Proxy", "dynamic proxies are not allowed");
+			return super.resolveProxyClass(interfaces);
+		}
+	}
+}
@@ -0,0 +1,925 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.ActorRuntimeException;
+import org.actorsguildframework.Agent;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.CompletableResult;
+import org.actorsguildframework.ImmediateResult;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.immutable.SerializableFreezer;
+import org.actorsguildframework.internal.ActorState;
+import org.actorsguildframework.internal.MessageCaller;
+import org.actorsguildframework.internal.MessageForwarder;
+import org.actorsguildframework.internal.RemoteActorState;
+import org.actorsguildframework.internal.ThreadState;
+import org.actorsguildframework.internal.WorkerState;
+import org.actorsguildframework.internal.util.DirectMemory;
+import org.actorsguildframework.internal.util.L;
+
+/**
+ * RemoteNode lets actors of different agents send messages to each other over TCP, 
+ * usually between JVMs on the same host. 
+ * <p>
+ * Every node listens on a port and has a registry that maps names to the local actors 
+ * it exports. Other nodes look up an actor by the address of its node and its name, 
+ * and get a remote reference: a proxy that is an instance of the actor's class, but sends 
+ * all messages to the remote actor. Its results are set when the reply arrives:
+ * <pre>
+ * // in the server's JVM
+ * RemoteNode server = new RemoteNode(agent, new InetSocketAddress("localhost", 7000));
+ * server.register("orders", agent.create(OrderActor.class));
+ * 
+ * // in the client's JVM
+ * RemoteNode client = new RemoteNode(agent);
+ * OrderActor orders = client.lookup(OrderActor.class, new InetSocketAddress("localhost", 7000), "orders");
+ * int id = orders.order("book", 2).get();
+ * </pre>
+ * <p>
+ * A remote reference is created like a regular actor, so its constructor and 
+ * initializers run once, but it never processes messages. All arguments and results of
+ * remote messages must be primitives, Serializable or Immutable. Actors can not be sent 
+ * as arguments. Arguments are sent in their frozen form (see {@link SerializableFreezer}), 
+ * so they are serialized only once. If a message fails on the remote node, the result 
+ * contains its exception. If the connection is lost, the results of all pending messages 
+ * fail with an {@link ActorRuntimeException}, as do all later messages of the reference.
+ * The notifiers of the results run in the agent's worker threads, not in the thread 
+ * that reads the replies from the connection.
+ * <p>
+ * All messages between two nodes share one connection. Messages are pipelined: a node 
+ * sends the next message without waiting for the reply to the previous one, and 
+ * replies are matched to their messages by a request id. Messages of the same sender 
+ * thread arrive in the order they have been sent. Each connection has a writer thread 
+ * that sends all frames that have been queued in the meantime with a single write, 
+ * so under load many messages share one system call and one TCP packet. 
+ * <p>
+ * The payload of a frame is encoded into an array outside of the connection's lock and 
+ * then copied into a direct buffer, which is written to the socket without further 
+ * copying. Received frames are decoded from slices of the receive buffer: 
+ * strings and serialized arguments and results are read from the buffer without 
+ * copying their bytes into an array first. Each frame consists of the length of the rest of the frame (int), its type (byte), 
+ * the request id (long, 0 for one-way messages), the id of the target actor (int) and 
+ * the payload. 
+ * <p>
+ * RemoteNode does not authenticate its peers. Every process that can connect to the 
+ * node's port can look up all registered actors and send them any message, so nodes 
+ * should only listen on the loopback interface or in trusted networks. Deserializing 
+ * data from the network can run the deserialization code of any class on the class path,
+ * so a node only deserializes arguments, results and exceptions of allowed classes: 
+ * primitives, classes of <code>java.lang</code>, <code>java.util</code> and 
+ * <code>java.math</code>, enums, exceptions, {@link org.actorsguildframework.Immutable} 
+ * classes, the parameter types of the messages of registered actors and the result 
+ * types of the messages of looked up actors. Other classes, like the classes of the 
+ * elements of a collection, must be allowed using {@link #allowClass(Class)} or 
+ * {@link #allowPackage(String)}. Invocations and replies that contain other classes fail 
+ * with an {@link ActorRuntimeException}.
+ * <p>
+ * RemoteNode is thread-safe.
+ */
+public final class RemoteNode {
+	private final static L log = new L(RemoteNode.class);
+	
+	/**
+	 * The maximum number of bytes that may wait for sending on a connection. Threads 
+	 * that send messages wait while the limit is exceeded. Replies are never delayed.
+	 */
+	public final static int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+	/**
+	 * The maximum size of a frame.
+	 */
+	public final static int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+	private final static byte FRAME_LOOKUP = 1;
+	private final static byte FRAME_LOOKUP_REPLY = 2;
+	private final static byte FRAME_INVOKE = 3;
+	private final static byte FRAME_RESULT = 4;
+	private final static byte FRAME_ERROR = 5;
+	
+	/**
+	 * The size of a frame's header: length, type, request id and target.
+	 */
+	private final static int FRAME_HEADER_SIZE = 17;
+	
+	/**
+	 * The initial size of the send and receive buffers. A send buffer that has grown
+	 * beyond it is replaced by a buffer of this size when it is mostly empty again.
+	 */
+	private final static int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * The result of one-way messages.
+	 */
+	private final static ImmediateResult<Void> ONE_WAY_RESULT = new ImmediateResult<Void>(null);
+	
+	/**
+	 * The agent that creates the remote references.
+	 */
+	private final Agent agent;
+	
+	/**
+	 * The channel that accepts connections.
+	 */
+	private final ServerSocketChannel serverChannel;
+	
+	/**
+	 * Maps names to the ids of exported actors.
+	 */
+	private final ConcurrentHashMap<String, Integer> names = new ConcurrentHashMap<String, Integer>();
+	
+	/**
+	 * Maps ids to exported actors.
+	 */
+	private final ConcurrentHashMap<Integer, Actor> exported = new ConcurrentHashMap<Integer, Actor>();
+	
+	/**
+	 * The last id that has been assigned to an exported actor.
+	 */
+	private final AtomicInteger lastExportId = new AtomicInteger();
+	
+	/**
+	 * The classes that may be deserialized from received frames.
+	 */
+	private final ClassAllowList allowList = new ClassAllowList();
+	
+	/**
+	 * The connections this node opened, by address. Guarded by this.
+	 */
+	private final HashMap<InetSocketAddress, Connection> outgoing = new HashMap<InetSocketAddress, Connection>();
+
+	/**
+	 * All open connections. Guarded by this.
+	 */
+	private final HashSet<Connection> connections = new HashSet<Connection>();
+
+	/**
+	 * True after {@link #close()}. Guarded by this.
+	 */
+	private boolean closed;
+	
+	/**
+	 * A connection to another node. Both nodes can send messages over a connection.
+	 */
+	private final class Connection {
+		private final SocketChannel channel;
+		private final String remoteName;
+		
+		/**
+		 * Receives the frames to send. Guarded by this.
+		 */
+		private ByteBuffer pending = DirectMemory.allocate(BUFFER_SIZE);
+		
+		/**
+		 * The buffer that is being written by the writer thread. Only accessed by the 
+		 * writer thread, except when the buffers are swapped.
+		 */
+		private ByteBuffer writing = DirectMemory.allocate(BUFFER_SIZE);
+		
+		/**
+		 * The results of requests that are waiting for their reply, by request id.
+		 */
+		private final ConcurrentHashMap<Long, CompletableResult<Object>> replies = new ConcurrentHashMap<Long, CompletableResult<Object>>();
+		
+		/**
+		 * The last request id.
+		 */
+		private final AtomicLong lastRequestId = new AtomicLong();
+		
+		/**
+		 * True after {@link #close(Exception)}. Guarded by this.
+		 */
+		private boolean closed;
+		
+		/**
+		 * The reason why the connection has been closed, or null. Guarded by this.
+		 */
+		private Exception closeCause;
+		
+		/**
+		 * Creates a new connection and starts its threads.
+		 * @param channel the connected channel
+		 * @throws IOException if the channel could not be configured
+		 */
+		Connection(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			channel.socket().setTcpNoDelay(true); // frames are batched by the writer
+			remoteName = String.valueOf(channel.socket().getRemoteSocketAddress());
+			
+			Thread reader = new Thread(new Runnable() {
+				public void run() {
+					readFrames();
+				}
+			}, "RemoteNode reader "+remoteName);
+			reader.setDaemon(true);
+			Thread writer = new Thread(new Runnable() {
+				public void run() {
+					writeFrames();
+				}
+			}, "RemoteNode writer "+remoteName);
+			writer.setDaemon(true);
+			reader.start();
+			writer.start();
+		}
+		
+		/**
+		 * Queues a frame for sending. If the frame must wait because too many bytes are 
+		 * pending, a worker thread is marked as waiting, so the controller can start 
+		 * another worker in the meantime.
+		 * @param type the type of the frame
+		 * @param requestId the request id, or 0 
+		 * @param target the id of the target actor, or 0
+		 * @param payload the payload
+		 * @param wait if true, waits while too many bytes are pending
+		 * @throws ActorRuntimeException if the connection has been closed
+		 */
+		void send(byte type, long requestId, int target, byte[] payload, boolean wait) {
+			int size = FRAME_HEADER_SIZE + payload.length;
+			if (size > MAX_FRAME_SIZE)
+				throw new ActorRuntimeException(String.format("The frame has %d bytes, more than the maximum of %d bytes.", size, MAX_FRAME_SIZE));
+			synchronized (this) {
+				if (wait && !closed && (pending.position() > MAX_PENDING_BYTES)) {
+					ThreadState ts = ThreadState.get();
+					WorkerState oldState = ts.setState(WorkerState.WaitingInternal);
+					try {
+						while (!closed && (pending.position() > MAX_PENDING_BYTES))
+							wait();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new ActorRuntimeException("Interrupted while waiting to send a message", e);
+					}
+					finally {
+						ts.setState(oldState);
+					}
+				}
+				if (closed)
+					throw new ActorRuntimeException(String.format("The connection to %s has been closed.", remoteName), closeCause);
+				
+				if (pending.remaining() < size) {
+					ByteBuffer b = DirectMemory.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+					pending.flip();
+					b.put(pending);
+					DirectMemory.free(pending);
+					pending = b;
+				}
+				boolean wasEmpty = pending.position() == 0;
+				pending.putInt(size - 4);
+				pending.put(type);
+				pending.putLong(requestId);
+				pending.putInt(target);
+				pending.put(payload);
+				if (wasEmpty)
+					notifyAll();
+			}
+		}
+		
+		/**
+		 * Sends a request and registers its result.
+		 * @param type the type of the frame
+		 * @param target the id of the target actor, or 0
+		 * @param payload the payload
+		 * @return the result, which will be set when the reply arrives
+		 * @throws ActorRuntimeException if the connection has been closed
+		 */
+		CompletableResult<Object> request(byte type, int target, byte[] payload) {
+			long id = lastRequestId.incrementAndGet();
+			CompletableResult<Object> r = new CompletableResult<Object>(agent);
+			replies.put(id, r);
+			try {
+				send(type, id, target, payload, true);
+			}
+			catch (ActorRuntimeException e) {
+				replies.remove(id);
+				throw e;
+			}
+			return r;
+		}
+		
+		/**
+		 * Sends an exception as reply to a request.
+		 * @param requestId the request id
+		 * @param exception the exception
+		 */
+		void sendError(long requestId, Exception exception) {
+			byte[] payload;
+			try {
+				payload = InvocationCodec.encodeValue(exception);
+			}
+			catch (ActorRuntimeException e) {
+				payload = InvocationCodec.encodeValue(new ActorRuntimeException(exception.toString()));
+			}
+			try {
+				send(FRAME_ERROR, requestId, 0, payload, false);
+			}
+			catch (ActorRuntimeException e) {
+				// connection closed, nobody waits for the reply anymore
+			}
+		}
+		
+		/**
+		 * Loop of the writer thread. Sends the pending frames, with a single write 
+		 * for all frames that have been queued since the last write.
+		 */
+		private void writeFrames() {
+			try {
+				while (true) {
+					synchronized (this) {
+						while (!closed && (pending.position() == 0))
+							wait();
+						if (closed)
+							return;
+						ByteBuffer b = pending;
+						pending = writing;
+						writing = b;
+						notifyAll(); // wake up senders that wait for space
+					}
+					writing.flip();
+					int written = writing.limit();
+					while (writing.hasRemaining())
+						channel.write(writing);
+					writing.clear();
+					
+					// replies do not wait for space, so a burst of them can grow the 
+					// buffer far beyond MAX_PENDING_BYTES. Do not keep it after the burst.
+					if ((writing.capacity() > BUFFER_SIZE) && (written < writing.capacity() / 4)) {
+						DirectMemory.free(writing);
+						writing = DirectMemory.allocate(BUFFER_SIZE);
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				close(e);
+			}
+			catch (IOException e) {
+				close(e);
+			}
+		}
+		
+		/**
+		 * Loop of the reader thread. Reads frames and dispatches them.
+		 */
+		private void readFrames() {
+			ByteBuffer in = DirectMemory.allocate(BUFFER_SIZE);
+			try {
+				while (channel.read(in) >= 0) {
+					in.flip();
+					while (in.remaining() >= 4) {
+						int pos = in.position();
+						int length = in.getInt(pos);
+						if ((length < FRAME_HEADER_SIZE - 4) || (length > MAX_FRAME_SIZE))
+							throw new IOException("Invalid frame length "+length);
+						if (in.remaining() < length + 4) {
+							if (in.capacity() < length + 4) {
+								ByteBuffer b = DirectMemory.allocate(length + 4);
+								b.put(in);
+								b.flip();
+								DirectMemory.free(in);
+								in = b;
+							}
+							break;
+						}
+						byte type = in.get(pos + 4);
+						long requestId = in.getLong(pos + 5);
+						int target = in.getInt(pos + 13);
+						in.position(pos + FRAME_HEADER_SIZE);
+						ByteBuffer payload = in.slice();
+						payload.limit(length + 4 - FRAME_HEADER_SIZE);
+						in.position(pos + 4 + length);
+						dispatch(type, requestId, target, payload);
+					}
+					in.compact();
+				}
+				close(null);
+			}
+			catch (IOException e) {
+				close(e);
+			}
+			finally {
+				DirectMemory.free(in);
+			}
+		}
+		
+		/**
+		 * Handles a received frame. The payload is fully decoded before this method returns.
+		 * @param type the type of the frame
+		 * @param requestId the request id
+		 * @param target the id of the target actor
+		 * @param payload the payload, a slice of the receive buffer that is only valid 
+		 *    during the call
+		 * @throws IOException if the frame is invalid
+		 */
+		private void dispatch(byte type, long requestId, int target, ByteBuffer payload) throws IOException {
+			switch (type) {
+			case FRAME_LOOKUP:
+			{
+				DataInputStream in = new DataInputStream(new ByteBufferInputStream(payload));
+				String name = in.readUTF();
+				String className = in.readUTF();
+				try {
+					send(FRAME_LOOKUP_REPLY, requestId, resolve(name, className), new byte[0], false);
+				}
+				catch (ActorRuntimeException e) {
+					sendError(requestId, e);
+				}
+				return;
+			}
+			case FRAME_INVOKE:
+				invoke(requestId, target, payload);
+				return;
+			case FRAME_LOOKUP_REPLY:
+			{
+				CompletableResult<Object> r = replies.remove(requestId);
+				if (r != null)
+					r.complete(Integer.valueOf(target));
+				return;
+			}
+			case FRAME_RESULT:
+			case FRAME_ERROR:
+			{
+				CompletableResult<Object> r = replies.remove(requestId);
+				if (r == null)
+					return;
+				try {
+					Object value = InvocationCodec.decodeValue(payload, allowList);
+					if (type == FRAME_RESULT)
+						r.complete(value);
+					else
+						r.fail((Throwable) value);
+				}
+				catch (ActorRuntimeException e) {
+					r.fail(e);
+				}
+				return;
+			}
+			default:
+				throw new IOException("Unknown frame type "+type);
+			}
+		}
+		
+		/**
+		 * Sends a received invocation to the exported actor, and sends the result back
+		 * when it is ready.
+		 * @param requestId the request id, or 0 for one-way messages
+		 * @param target the id of the actor
+		 * @param payload the encoded invocation
+		 */
+		private void invoke(long requestId, int target, ByteBuffer payload) {
+			AsyncResult<?> result;
+			try {
+				Actor actor = exported.get(target);
+				if (actor == null)
+					throw new ActorRuntimeException(String.format("There is no actor with the id %d.", target));
+				result = InvocationCodec.invoke(actor, payload, Message.class, allowList);
+			}
+			catch (RuntimeException e) {
+				if (requestId != 0)
+					sendError(requestId, e);
+				else
+					log.exception(e);
+				return;
+			}
+			if (requestId != 0)
+				sendReplyWhenReady(requestId, result);
+		}
+		
+		/**
+		 * Sends the result of an invocation back when it is ready.
+		 * @param <T> the type of the result
+		 * @param requestId the request id
+		 * @param result the result of the invocation
+		 */
+		private <T> void sendReplyWhenReady(final long requestId, AsyncResult<T> result) {
+			result.addNotifier(new AsyncResult.Notifier<T>() {
+				public void resultReady(AsyncResult<T> r) {
+					Throwable t = r.getException();
+					if (t != null) {
+						sendError(requestId, (t instanceof Exception) ? (Exception) t : new ActorRuntimeException(t.toString()));
+						return;
+					}
+					byte[] value;
+					try {
+						value = InvocationCodec.encodeValue(r.get());
+					}
+					catch (RuntimeException e) {
+						sendError(requestId, e);
+						return;
+					}
+					try {
+						send(FRAME_RESULT, requestId, 0, value, false);
+					}
+					catch (ActorRuntimeException e) {
+						// connection closed, nobody waits for the reply anymore
+					}
+				}
+			});
+		}
+		
+		/**
+		 * Closes the connection and fails all requests that wait for a reply. 
+		 * Calling close() more than once has no effect.
+		 * @param cause the reason, or null if the connection has been closed regularly
+		 */
+		void close(Exception cause) {
+			synchronized (this) {
+				if (closed)
+					return;
+				closed = true;
+				closeCause = cause;
+				notifyAll();
+			}
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				log.exception(e);
+			}
+			if ((cause != null) && !(cause instanceof ClosedChannelException))
+				log.error("Connection to %s closed: %s", remoteName, cause);
+			
+			ActorRuntimeException failure = new ActorRuntimeException(String.format("The connection to %s has been closed.", remoteName), cause);
+			for (Long id: new ArrayList<Long>(replies.keySet())) {
+				CompletableResult<Object> r = replies.remove(id);
+				if (r != null)
+					r.fail(failure);
+			}
+			removeConnection(this);
+		}
+		
+		/**
+		 * Checks whether the connection has been closed.
+		 * @return true if closed
+		 */
+		synchronized boolean isClosed() {
+			return closed;
+		}
+		
+		/**
+		 * Returns the number of requests that wait for their reply.
+		 * @return the number of requests
+		 */
+		int getPendingCount() {
+			return replies.size();
+		}
+	}
+	
+	/**
+	 * Forwards the messages of a remote reference over a connection.
+	 */
+	private final static class RemoteReference implements MessageForwarder {
+		private final Connection connection;
+		private final int target;
+		
+		/**
+		 * Creates a new instance.
+		 * @param connection the connection to the node of the actor
+		 * @param target the id of the actor on its node
+		 */
+		RemoteReference(Connection connection, int target) {
+			this.connection = connection;
+			this.target = target;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.actorsguildframework.internal.MessageForwarder#forward(org.actorsguildframework.internal.MessageCaller, java.lang.Object[])
+		 */
+		public AsyncResult<?> forward(MessageCaller<?> caller, Object[] arguments) {
+			byte[] payload = InvocationCodec.encode(caller.getMessageSignature(), arguments);
+			if (caller.isOneWay()) {
+				connection.send(FRAME_INVOKE, 0, target, payload, true);
+				return ONE_WAY_RESULT;
+			}
+			return connection.request(FRAME_INVOKE, target, payload);
+		}
+		
+		/*
+		 * (non-Javadoc)
+		 * @see org.actorsguildframework.internal.MessageForwarder#getPendingCount()
+		 */
+		public int getPendingCount() {
+			return connection.getPendingCount();
+		}
+	}
+	
+	/**
+	 * Creates a new node that listens on an ephemeral port of the loopback interface.
+	 * Use {@link #getAddress()} to find out the port. 
+	 * @param agent the agent that creates the remote references
+	 * @throws IOException if the node could not listen
+	 * @throws IllegalArgumentException if the agent was null
+	 */
+	public RemoteNode(Agent agent) throws IOException {
+		this(agent, new InetSocketAddress(InetAddress.getByName(null), 0));
+	}
+	
+	/**
+	 * Creates a new node that listens on the given address.
+	 * @param agent the agent that creates the remote references
+	 * @param bindAddress the address to listen on
+	 * @throws IOException if the node could not listen
+	 * @throws IllegalArgumentException if an argument was null
+	 */
+	public RemoteNode(Agent agent, InetSocketAddress bindAddress) throws IOException {
+		if (agent == null)
+			throw new IllegalArgumentException("agent must not be null");
+		if (bindAddress == null)
+			throw new IllegalArgumentException("bindAddress must not be null");
+		this.agent = agent;
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(bindAddress);
+		
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				acceptConnections();
+			}
+		}, "RemoteNode acceptor "+getAddress());
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+	
+	/**
+	 * Loop of the acceptor thread.
+	 */
+	private void acceptConnections() {
+		while (true) {
+			SocketChannel c;
+			try {
+				c = serverChannel.accept();
+			}
+			catch (IOException e) {
+				if (serverChannel.isOpen())
+					log.exception(e);
+				return;
+			}
+			try {
+				synchronized (this) {
+					if (closed) {
+						c.close();
+						return;
+					}
+					connections.add(new Connection(c));
+				}
+			}
+			catch (IOException e) {
+				log.exception(e);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the address the node listens on.
+	 * @return the address
+	 */
+	public InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+	}
+	
+	/**
+	 * Registers a local actor under the given name, so other nodes can look it up. 
+	 * @param name the name of the actor
+	 * @param actor the actor
+	 * @throws IllegalArgumentException if an argument was null, or if there is already
+	 *   an actor with this name
+	 */
+	public void register(String name, Actor actor) {
+		if (name == null)
+			throw new IllegalArgumentException("name must not be null");
+		if (actor == null)
+			throw new IllegalArgumentException("actor must not be null");
+		ActorState.getState(actor); // fails for non-proxies
+		int id = lastExportId.incrementAndGet();
+		exported.put(id, actor);
+		if (names.putIfAbsent(name, id) != null) {
+			exported.remove(id);
+			throw new IllegalArgumentException(String.format("There is already an actor registered as %s.", name));
+		}
+		for (Method m: actor.getClass().getSuperclass().getMethods())
+			if (m.isAnnotationPresent(Message.class))
+				for (Class<?> p: m.getParameterTypes())
+					allowList.allowClass(p);
+	}
+	
+	/**
+	 * Allows the deserialization of the given class in arguments and results that this
+	 * node receives. Needed for classes that are not allowed by default, for example for
+	 * the elements of collections.
+	 * @param c the class to allow
+	 * @throws IllegalArgumentException if the class was null
+	 */
+	public void allowClass(Class<?> c) {
+		if (c == null)
+			throw new IllegalArgumentException("c must not be null");
+		allowList.allowClass(c);
+	}
+
+	/**
+	 * Allows the deserialization of all classes of the given package (but not of its 
+	 * sub-packages) in arguments and results that this node receives. 
+	 * @param packageName the name of the package
+	 * @throws IllegalArgumentException if the name was null
+	 */
+	public void allowPackage(String packageName) {
+		if (packageName == null)
+			throw new IllegalArgumentException("packageName must not be null");
+		allowList.allowPackage(packageName);
+	}
+	
+	/**
+	 * Removes an actor from the registry. Later messages of remote references to the actor 
+	 * will fail. 
+	 * @param name the name of the actor
+	 * @return true if the actor has been removed, false if there was no actor with the name
+	 */
+	public boolean unregister(String name) {
+		Integer id = names.remove(name);
+		if (id == null)
+			return false;
+		exported.remove(id);
+		return true;
+	}
+	
+	/**
+	 * Finds an exported actor for a lookup request.
+	 * @param name the name of the actor
+	 * @param className the name of the class the other node expects
+	 * @return the id of the actor
+	 * @throws ActorRuntimeException if there is no such actor, or it has the wrong class
+	 */
+	private int resolve(String name, String className) {
+		Integer id = names.get(name);
+		Actor actor = (id == null) ? null : exported.get(id);
+		if (actor == null)
+			throw new ActorRuntimeException(String.format("There is no actor registered as %s.", name));
+		for (Class<?> c = actor.getClass().getSuperclass(); c != null; c = c.getSuperclass())
+			if (c.getName().equals(className))
+				return id.intValue();
+		throw new ActorRuntimeException(String.format("The actor registered as %s has the class %s, which is not a %s.", 
+				name, actor.getClass().getSuperclass().getName(), className));
+	}
+	
+	/**
+	 * Looks up an actor on another node and returns a remote reference to it. Waits until
+	 * the other node has replied.
+	 * @param <T> the type of the actor
+	 * @param actorClass the class of the actor. The remote actor must be an instance of 
+	 *    a class with the same name.
+	 * @param address the address of the other node
+	 * @param name the name the actor has been registered under
+	 * @return the remote reference
+	 * @throws IllegalArgumentException if an argument was null
+	 * @throws IllegalStateException if this node has been closed
+	 * @throws ActorRuntimeException if the node can not be reached, or has no such actor
+	 */
+	public <T extends Actor> T lookup(Class<T> actorClass, InetSocketAddress address, String name) {
+		if (actorClass == null)
+			throw new IllegalArgumentException("actorClass must not be null");
+		if (address == null)
+			throw new IllegalArgumentException("address must not be null");
+		if (name == null)
+			throw new IllegalArgumentException("name must not be null");
+		
+		for (Method m: actorClass.getMethods()) {
+			Type t = m.getGenericReturnType();
+			if (m.isAnnotationPresent(Message.class) && (t instanceof ParameterizedType)) {
+				Type value = ((ParameterizedType) t).getActualTypeArguments()[0];
+				if (value instanceof Class)
+					allowList.allowClass((Class<?>) value);
+			}
+		}
+		
+		Connection c = getConnection(address);
+		byte[] payload;
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bos);
+			out.writeUTF(name);
+			out.writeUTF(actorClass.getName());
+			out.close();
+			payload = bos.toByteArray();
+		}
+		catch (IOException e) {
+			throw new ActorRuntimeException("Can not encode lookup", e);
+		}
+		CompletableResult<Object> r = c.request(FRAME_LOOKUP, 0, payload);
+		r.await();
+		Throwable t = r.getException();
+		if (t instanceof ActorRuntimeException)
+			throw (ActorRuntimeException) t;
+		else if (t != null)
+			throw new ActorRuntimeException(String.format("Can not look up %s at %s: %s", name, address, t));
+		
+		RemoteActorState.prepare(new RemoteReference(c, ((Integer) r.get()).intValue()));
+		try {
+			return agent.create(actorClass);
+		}
+		finally {
+			RemoteActorState.prepare(null);
+		}
+	}
+	
+	/**
+	 * Returns the open connection to the given node, or opens a new one.
+	 * @param address the address of the node
+	 * @return the connection
+	 * @throws IllegalStateException if this node has been closed
+	 * @throws ActorRuntimeException if the connection could not be opened
+	 */
+	private synchronized Connection getConnection(InetSocketAddress address) {
+		if (closed)
+			throw new IllegalStateException("The node has been closed.");
+		Connection c = outgoing.get(address);
+		if ((c != null) && !c.isClosed())
+			return c;
+		try {
+			c = new Connection(SocketChannel.open(address));
+		}
+		catch (IOException e) {
+			throw new ActorRuntimeException(String.format("Can not connect to %s", address), e);
+		}
+		outgoing.put(address, c);
+		connections.add(c);
+		return c;
+	}
+	
+	/**
+	 * Removes a closed connection.
+	 * @param c the connection
+	 */
+	private synchronized void removeConnection(Connection c) {
+		connections.remove(c);
+		for (Map.Entry<InetSocketAddress, Connection> e: outgoing.entrySet())
+			if (e.getValue() == c) {
+				outgoing.remove(e.getKey());
+				break;
+			}
+	}
+	
+	/**
+	 * Returns the number of open connections, both incoming and outgoing.
+	 * @return the number of connections
+	 */
+	public synchronized int getConnectionCount() {
+		return connections.size();
+	}
+	
+	/**
+	 * Closes the node and all its connections. The results of messages that are waiting 
+	 * for a reply fail, and messages that have not been sent yet are lost. 
+	 * Calling close() more than once has no effect.
+	 */
+	public void close() {
+		List<Connection> open;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			open = new ArrayList<Connection>(connections);
+		}
+		try {
+			serverChannel.close();
+		}
+		catch (IOException e) {
+			log.exception(e);
+		}
+		for (Connection c: open)
+			c.close(null);
+	}
+}
@@ -0,0 +1,538 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.actorsguildframework.ActorRuntimeException;
+import org.actorsguildframework.internal.util.DirectMemory;
+import org.actorsguildframework.internal.util.L;
+
+/**
+ * A write-ahead log that is stored in memory-mapped segment files. This is the storage of
+ * {@link DurableMailbox} and {@link EventJournal}.
+ * <p>
+ * Every record has a type, a sequence number assigned by the log and a payload. 
+ * Appending a record is a copy into mapped memory, which survives a crash of the JVM 
+ * without any sync. If syncOnAppend is enabled, {@link #append(byte, byte[], boolean)}
+ * also waits until the record has been written to disk. Appends of several threads are 
+ * synced together (group commit), so the cost of a sync is shared by all of them.
+ * <p>
+ * The oldest segment file is deleted as soon as it is not the current segment anymore, 
+ * all its tracked records have been released (see {@link #release(long)}) and it 
+ * contains no records after the truncation point (see {@link #truncate(long)}).
+ * <p>
+ * Each record starts with the length of the record body (int, 0 marks the end of the 
+ * segment) and the CRC32 of the body (int). The body consists of the record type (byte), 
+ * the sequence number (long) and the payload. The length is written last, so an 
+ * incomplete record is never read.
+ * <p>
+ * Open a log by creating it and then calling {@link #recover(RecordHandler, long)} 
+ * exactly once. SegmentLog is thread-safe.
+ */
+final class SegmentLog {
+	private final static L log = new L(SegmentLog.class);
+	
+	/**
+	 * The minimum size of a segment file.
+	 */
+	final static int MIN_SEGMENT_SIZE = 4096;
+	
+	/**
+	 * The prefix of segment file names.
+	 */
+	final static String SEGMENT_PREFIX = "segment-";
+	
+	/**
+	 * The suffix of segment file names.
+	 */
+	final static String SEGMENT_SUFFIX = ".wal";
+	
+	/**
+	 * The size of the record header: the length and the CRC32 of the body.
+	 */
+	private final static int RECORD_HEADER_SIZE = 8;
+
+	/**
+	 * The size of the type and sequence number at the beginning of each record body.
+	 */
+	private final static int RECORD_PREFIX_SIZE = 9;
+	
+	/**
+	 * Receives the records of the segments from an earlier session.
+	 */
+	interface RecordHandler {
+		/**
+		 * Called for each record, in log order.
+		 * @param type the type of the record
+		 * @param sequence the sequence number of the record
+		 * @param payload the payload
+		 * @return true to track the record, so it must be released with {@link SegmentLog#release(long)}
+		 */
+		boolean record(byte type, long sequence, byte[] payload);
+	}
+	
+	/**
+	 * A segment file of the log.
+	 */
+	private static class Segment {
+		/**
+		 * The number of the segment. Newer segments have higher numbers.
+		 */
+		final long number;
+		
+		/**
+		 * The file of the segment.
+		 */
+		final File file;
+		
+		/**
+		 * The mapped file, or null if it is not mapped (segments from an earlier session).
+		 */
+		MappedByteBuffer buffer;
+		
+		/**
+		 * The position to write the next record to.
+		 */
+		int position;
+		
+		/**
+		 * The number of tracked records in this segment that have not been released yet.
+		 */
+		int outstanding;
+		
+		/**
+		 * The highest sequence number in this segment, or 0 if empty.
+		 */
+		long lastSequence;
+		
+		/**
+		 * Creates a new Segment.
+		 * @param number the number of the segment
+		 * @param file the file of the segment
+		 */
+		Segment(long number, File file) {
+			this.number = number;
+			this.file = file;
+		}
+	}
+	
+	private final File directory;
+	private final int segmentSize;
+	private final boolean syncOnAppend;
+	
+	/**
+	 * All segments, oldest first. The last one is {@link #current}. Guarded by this.
+	 */
+	private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+	
+	/**
+	 * Maps the sequence numbers of all unreleased tracked records to their segment.
+	 * Guarded by this.
+	 */
+	private final HashMap<Long, Segment> tracked = new HashMap<Long, Segment>();
+	
+	/**
+	 * The segment to append to, or null before recovery. Guarded by this.
+	 */
+	private Segment current;
+	
+	/**
+	 * The last sequence number that has been assigned. Guarded by this.
+	 */
+	private long sequence;
+	
+	/**
+	 * Segments containing only records up to this sequence number can be deleted. 
+	 * Guarded by this.
+	 */
+	private long truncation = Long.MAX_VALUE;
+	
+	/**
+	 * The number of records that have been appended. Guarded by this.
+	 */
+	private long appendCount;
+	
+	/**
+	 * The number of appended records that have been synced to disk.
+	 */
+	private volatile long syncedCount;
+	
+	/**
+	 * Lock for syncing and unmapping segments. Must be locked before this, if 
+	 * both are locked.
+	 */
+	private final Object syncLock = new Object();
+	
+	/**
+	 * True after {@link #close(boolean)}. Guarded by this.
+	 */
+	private boolean closed;
+	
+	/**
+	 * Creates a new log. Call {@link #recover(RecordHandler, long)} before using it.
+	 * @param directory the directory of the log. Will be created if it does not exist.
+	 * @param segmentSize the size of a segment file in bytes, at least {@link #MIN_SEGMENT_SIZE}
+	 * @param syncOnAppend if true, every append waits until the log has been synced to disk
+	 * @throws IOException if the directory could not be created
+	 * @throws IllegalArgumentException if the directory was null or the segment size too small
+	 */
+	SegmentLog(File directory, int segmentSize, boolean syncOnAppend) throws IOException {
+		if (directory == null)
+			throw new IllegalArgumentException("directory must not be null");
+		if (segmentSize < MIN_SEGMENT_SIZE)
+			throw new IllegalArgumentException("segmentSize must be at least "+MIN_SEGMENT_SIZE);
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.syncOnAppend = syncOnAppend;
+		
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Can not create directory "+directory);
+	}
+	
+	/**
+	 * Reads the records of all existing segments and starts a new segment for appending.
+	 * @param handler receives the records
+	 * @param minSequence the lowest sequence number that must not be assigned to new records.
+	 *    Sequence numbers are always higher than those of the existing records as well.
+	 * @throws IOException if the log could not be read
+	 */
+	void recover(RecordHandler handler, long minSequence) throws IOException {
+		long maxNumber = 0;
+		long maxSequence = minSequence;
+		for (File f: findSegmentFiles()) {
+			String name = f.getName();
+			long number = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+			Segment s = new Segment(number, f);
+			synchronized (this) {
+				segments.add(s);
+			}
+			scan(s, handler);
+			maxSequence = Math.max(maxSequence, s.lastSequence);
+			maxNumber = number;
+		}
+		
+		List<Segment> removed;
+		synchronized (this) {
+			sequence = maxSequence;
+			current = createSegment(maxNumber + 1, segmentSize);
+			segments.add(current);
+			removed = removeDeletableSegments();
+		}
+		deleteSegments(removed);
+	}
+	
+	/**
+	 * Returns the segment files in the directory, oldest first.
+	 * @return the segment files
+	 */
+	private File[] findSegmentFiles() {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return new File[0];
+		ArrayList<File> r = new ArrayList<File>();
+		for (File f: files)
+			if (f.getName().startsWith(SEGMENT_PREFIX) && f.getName().endsWith(SEGMENT_SUFFIX))
+				r.add(f);
+		File[] a = r.toArray(new File[r.size()]);
+		Arrays.sort(a); // the numbers have a fixed length, so the order is numeric
+		return a;
+	}
+	
+	/**
+	 * Reads the records of a segment from an earlier session. Reading stops at the end 
+	 * marker or at the first incomplete or corrupt record.
+	 * @param s the segment to read
+	 * @param handler receives the records
+	 * @throws IOException if the segment could not be read
+	 */
+	private void scan(Segment s, RecordHandler handler) throws IOException {
+		MappedByteBuffer b;
+		RandomAccessFile raf = new RandomAccessFile(s.file, "r");
+		try {
+			b = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally {
+			raf.close();
+		}
+		
+		try {
+			int pos = 0;
+			while (pos + RECORD_HEADER_SIZE <= b.capacity()) {
+				int len = b.getInt(pos);
+				if ((len < RECORD_PREFIX_SIZE) || (len > b.capacity() - pos - RECORD_HEADER_SIZE))
+					break;
+				byte[] body = new byte[len];
+				ByteBuffer d = b.duplicate();
+				d.position(pos + RECORD_HEADER_SIZE);
+				d.get(body);
+				CRC32 crc = new CRC32();
+				crc.update(body);
+				if ((int) crc.getValue() != b.getInt(pos + 4))
+					break;
+				
+				long seq = ByteBuffer.wrap(body).getLong(1);
+				if (handler.record(body[0], seq, Arrays.copyOfRange(body, RECORD_PREFIX_SIZE, len)))
+					synchronized (this) {
+						tracked.put(seq, s);
+						s.outstanding++;
+					}
+				s.lastSequence = Math.max(s.lastSequence, seq);
+				pos += RECORD_HEADER_SIZE + len;
+			}
+		}
+		finally {
+			DirectMemory.free(b);
+		}
+	}
+	
+	/**
+	 * Creates and maps a new segment file.
+	 * @param number the number of the segment
+	 * @param size the size of the file
+	 * @return the new segment
+	 * @throws IOException if the file could not be created
+	 */
+	private Segment createSegment(long number, int size) throws IOException {
+		Segment s = new Segment(number, new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX)));
+		RandomAccessFile raf = new RandomAccessFile(s.file, "rw");
+		try {
+			raf.setLength(size);
+			s.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		finally {
+			raf.close();
+		}
+		return s;
+	}
+	
+	/**
+	 * Appends a record to the log.
+	 * @param type the type of the record
+	 * @param payload the payload
+	 * @param track true to track the record. Its segment will not be deleted before the
+	 *    record has been released with {@link #release(long)}.
+	 * @return the sequence number of the record
+	 * @throws ActorRuntimeException if the log has been closed, or the record could 
+	 *     not be written
+	 */
+	long append(byte type, byte[] payload, boolean track) {
+		int len = RECORD_PREFIX_SIZE + payload.length;
+		int needed = RECORD_HEADER_SIZE + len;
+		long seq;
+		long count;
+		synchronized (this) {
+			if (closed || (current == null))
+				throw new ActorRuntimeException("The log has been closed.");
+			if (current.position + needed > current.buffer.capacity()) {
+				try {
+					if (syncOnAppend)
+						current.buffer.force();
+					current = createSegment(current.number + 1, Math.max(segmentSize, needed + RECORD_HEADER_SIZE));
+					segments.add(current);
+				}
+				catch (IOException e) {
+					throw new ActorRuntimeException("Can not create a new log segment", e);
+				}
+			}
+			seq = ++sequence;
+			byte[] body = new byte[len];
+			ByteBuffer.wrap(body).put(type).putLong(seq).put(payload);
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			MappedByteBuffer b = current.buffer;
+			int pos = current.position;
+			ByteBuffer d = b.duplicate();
+			d.position(pos + RECORD_HEADER_SIZE);
+			d.put(body);
+			b.putInt(pos + 4, (int) crc.getValue());
+			b.putInt(pos, len);
+			current.position += needed;
+			current.lastSequence = seq;
+			if (track) {
+				tracked.put(seq, current);
+				current.outstanding++;
+			}
+			count = ++appendCount;
+		}
+		if (syncOnAppend)
+			commit(count);
+		return seq;
+	}
+	
+	/**
+	 * Releases a tracked record. 
+	 * @param seq the sequence number of the record
+	 * @return true if the record has been released, false if it was not tracked 
+	 *    (or already released)
+	 */
+	boolean release(long seq) {
+		List<Segment> removed;
+		synchronized (this) {
+			Segment s = tracked.remove(seq);
+			if (s == null)
+				return false;
+			s.outstanding--;
+			removed = closed ? null : removeDeletableSegments();
+		}
+		deleteSegments(removed);
+		return true;
+	}
+	
+	/**
+	 * Allows to delete all segments that contain only records up to the given 
+	 * sequence number (and no unreleased tracked records).
+	 * @param seq the sequence number
+	 */
+	void truncate(long seq) {
+		List<Segment> removed;
+		synchronized (this) {
+			if (closed)
+				return;
+			truncation = seq;
+			removed = removeDeletableSegments();
+		}
+		deleteSegments(removed);
+	}
+	
+	/**
+	 * Removes the oldest segments from {@link #segments} as long as they can be deleted.
+	 * You must lock this before calling this method.
+	 * @return the removed segments, or null if none has been removed
+	 */
+	private List<Segment> removeDeletableSegments() {
+		List<Segment> r = null;
+		while ((segments.size() > 1) && (segments.peekFirst().outstanding == 0) && 
+				(segments.peekFirst().lastSequence <= truncation)) {
+			if (r == null)
+				r = new ArrayList<Segment>();
+			r.add(segments.pollFirst());
+		}
+		return r;
+	}
+	
+	/**
+	 * Unmaps and deletes the given segments. 
+	 * You must not lock this before calling this method.
+	 * @param removed the segments to delete, or null
+	 */
+	private void deleteSegments(List<Segment> removed) {
+		if (removed == null)
+			return;
+		synchronized (syncLock) {
+			for (Segment s: removed) {
+				if (s.buffer != null)
+					DirectMemory.free(s.buffer);
+				s.buffer = null;
+				if (!s.file.delete())
+					log.error("Can not delete segment file %s", s.file);
+			}
+		}
+	}
+	
+	/**
+	 * Waits until the given number of appends has been synced to disk. If no other 
+	 * thread is syncing, syncs all appends so far.
+	 * @param count the number of appends
+	 */
+	private void commit(long count) {
+		if (syncedCount >= count)
+			return;
+		synchronized (syncLock) {
+			if (syncedCount >= count)
+				return;
+			MappedByteBuffer b;
+			long target;
+			synchronized (this) {
+				if (closed)
+					return;
+				b = current.buffer;
+				target = appendCount;
+			}
+			b.force();
+			syncedCount = target;
+		}
+	}
+	
+	/**
+	 * Closes the log. Later appends fail, later releases are ignored. 
+	 * Calling close() more than once has no effect.
+	 * @param deleteIfReleased if true and all tracked records have been released, 
+	 *   all segments that could be deleted with the current truncation point will be deleted, 
+	 *   including the current one
+	 */
+	void close(boolean deleteIfReleased) {
+		List<Segment> deleted = new ArrayList<Segment>();
+		synchronized (syncLock) {
+			synchronized (this) {
+				if (closed)
+					return;
+				closed = true;
+				boolean deletable = deleteIfReleased && tracked.isEmpty();
+				for (Segment s: segments) {
+					if (s.buffer != null) {
+						if (syncOnAppend)
+							s.buffer.force();
+						DirectMemory.free(s.buffer);
+						s.buffer = null;
+					}
+					deletable = deletable && (s.lastSequence <= truncation); // only the oldest segments
+					if (deletable)
+						deleted.add(s);
+				}
+				segments.clear();
+			}
+		}
+		for (Segment s: deleted)
+			if (!s.file.delete())
+				log.error("Can not delete segment file %s", s.file);
+	}
+	
+	/**
+	 * Returns the number of tracked records that have not been released yet.
+	 * @return the number of tracked records
+	 */
+	synchronized int getTrackedCount() {
+		return tracked.size();
+	}
+	
+	/**
+	 * Returns the number of segment files.
+	 * @return the number of segment files
+	 */
+	synchronized int getSegmentCount() {
+		return segments.size();
+	}
+	
+	/**
+	 * Returns the directory of the log.
+	 * @return the directory
+	 */
+	File getDirectory() {
+		return directory;
+	}
+}
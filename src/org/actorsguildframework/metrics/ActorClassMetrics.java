@@ -0,0 +1,56 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.metrics;
+
+/**
+ * Runtime metrics of all actors of a class in an agent.
+ * @see AgentMetrics#getActorClassMetrics()
+ */
+public interface ActorClassMetrics {
+	/**
+	 * Returns the actor class.
+	 * @return the class of the actors (not the proxy class)
+	 */
+	public Class<?> getActorClass();
+	
+	/**
+	 * Returns the number of messages that have been executed by actors of the class.
+	 * @return the number of executed messages
+	 */
+	public long getMessageCount();
+	
+	/**
+	 * Returns the largest number of messages that have been queued in the mailbox of an 
+	 * actor of this class.
+	 * @return the high-water mark of the mailbox size
+	 */
+	public int getMailboxHighWaterMark();
+	
+	/**
+	 * Returns the histogram of the time messages spent in the mailbox before they were
+	 * executed, in nanoseconds.
+	 * @return the queue-wait histogram
+	 */
+	public HistogramSnapshot getQueueWaitHistogram();
+	
+	/**
+	 * Returns the histogram of the execution time of the messages, in nanoseconds.
+	 * For messages that return an unfinished AsyncResult, this is the time until the
+	 * message implementation returned.
+	 * @return the execution-time histogram
+	 */
+	public HistogramSnapshot getExecutionTimeHistogram();
+}
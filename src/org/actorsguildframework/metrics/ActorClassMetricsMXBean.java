@@ -0,0 +1,72 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.metrics;
+
+/**
+ * JMX interface of {@link ActorClassMetrics}. Registered under the name
+ * <code>org.actorsguildframework:type=ActorClass,agent=&lt;jmxName&gt;,name=&lt;className&gt;</code>.
+ * All times are in nanoseconds.
+ * @see org.actorsguildframework.DefaultAgent.Configuration#setJmxName(String)
+ */
+public interface ActorClassMetricsMXBean {
+	/**
+	 * @return the number of executed messages
+	 * @see ActorClassMetrics#getMessageCount()
+	 */
+	public long getMessageCount();
+	
+	/**
+	 * @return the high-water mark of the mailbox size
+	 * @see ActorClassMetrics#getMailboxHighWaterMark()
+	 */
+	public int getMailboxHighWaterMark();
+	
+	/**
+	 * @return the mean time messages spent in the mailbox
+	 * @see ActorClassMetrics#getQueueWaitHistogram()
+	 */
+	public double getQueueWaitMean();
+	
+	/**
+	 * @return the median time messages spent in the mailbox (upper bound of the bucket)
+	 * @see ActorClassMetrics#getQueueWaitHistogram()
+	 */
+	public long getQueueWaitP50();
+	
+	/**
+	 * @return the 99th percentile of the time messages spent in the mailbox (upper bound of the bucket)
+	 * @see ActorClassMetrics#getQueueWaitHistogram()
+	 */
+	public long getQueueWaitP99();
+	
+	/**
+	 * @return the mean execution time
+	 * @see ActorClassMetrics#getExecutionTimeHistogram()
+	 */
+	public double getExecutionTimeMean();
+	
+	/**
+	 * @return the median execution time (upper bound of the bucket)
+	 * @see ActorClassMetrics#getExecutionTimeHistogram()
+	 */
+	public long getExecutionTimeP50();
+	
+	/**
+	 * @return the 99th percentile of the execution time (upper bound of the bucket)
+	 * @see ActorClassMetrics#getExecutionTimeHistogram()
+	 */
+	public long getExecutionTimeP99();
+}
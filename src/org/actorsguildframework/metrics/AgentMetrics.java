@@ -0,0 +1,121 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.metrics;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Runtime metrics of an agent. All counters are cumulative since the creation of 
+ * the agent. Values are read without locking, so they are not atomic snapshots, but
+ * they are cheap enough to be collected in production.
+ * @see org.actorsguildframework.DefaultAgent#getMetrics()
+ * @see org.actorsguildframework.DefaultAgent.Configuration#setMetricsEnabled(boolean)
+ */
+public interface AgentMetrics {
+	/**
+	 * Returns the metrics of all actor classes that have been created in the agent.
+	 * @return the metrics of all actor classes
+	 */
+	public Collection<ActorClassMetrics> getActorClassMetrics();
+	
+	/**
+	 * Returns the metrics of the given actor class.
+	 * @param actorClass the class of the actor (not the proxy class)
+	 * @return the metrics, or null if no actor of this class has been created
+	 */
+	public ActorClassMetrics getActorClassMetrics(Class<?> actorClass);
+
+	/**
+	 * Returns the number of worker threads in each state. The keys are the names of
+	 * the worker states, like "Running", "Idle" or "WaitingExternal".
+	 * @return a map of worker state to number of threads
+	 */
+	public Map<String, Integer> getWorkerThreadCounts();
+	
+	/**
+	 * Returns the number of worker threads that have been started.
+	 * @return the number of started threads
+	 */
+	public long getThreadsCreated();
+	
+	/**
+	 * Returns the number of worker threads that have been stopped because there were
+	 * more threads than needed.
+	 * @return the number of stopped threads
+	 */
+	public long getThreadsKilled();
+	
+	/**
+	 * Returns the number of times a thread waiting for a result tried to execute the
+	 * message itself.
+	 * @return the number of attempts
+	 */
+	public long getTryExecuteAttempts();
+	
+	/**
+	 * Returns the number of times a thread waiting for a result could execute the 
+	 * message itself, instead of waiting for another thread.
+	 * @return the number of successful attempts
+	 */
+	public long getTryExecuteHits();
+	
+	/**
+	 * Returns the number of objects that have been frozen by 
+	 * {@link org.actorsguildframework.immutable.SerializableFreezer}. This value is collected for
+	 * the whole JVM, not just for the agent, while any agent collects metrics.
+	 * @return the number of frozen objects
+	 */
+	public long getFreezeCount();
+	
+	/**
+	 * Returns the total size of all objects frozen by 
+	 * {@link org.actorsguildframework.immutable.SerializableFreezer}, in bytes. This value 
+	 * is collected for the whole JVM, not just for the agent, while any agent collects metrics.
+	 * @return the number of bytes
+	 */
+	public long getFrozenBytes();
+	
+	/**
+	 * Returns the time spent freezing objects, in nanoseconds. This value is collected for
+	 * the whole JVM, not just for the agent, while any agent collects metrics.
+	 * @return the time in ns
+	 */
+	public long getFreezeNanos();
+	
+	/**
+	 * Returns the number of objects that have been thawed (deserialized) by 
+	 * {@link org.actorsguildframework.immutable.SerializableFreezer}. This value is collected for
+	 * the whole JVM, not just for the agent, while any agent collects metrics.
+	 * @return the number of thawed objects
+	 */
+	public long getThawCount();
+	
+	/**
+	 * Returns the total size of all objects thawed by 
+	 * {@link org.actorsguildframework.immutable.SerializableFreezer}, in bytes. This value 
+	 * is collected for the whole JVM, not just for the agent, while any agent collects metrics.
+	 * @return the number of bytes
+	 */
+	public long getThawedBytes();
+
+	/**
+	 * Returns the time spent thawing objects, in nanoseconds. This value is collected for
+	 * the whole JVM, not just for the agent, while any agent collects metrics.
+	 * @return the time in ns
+	 */
+	public long getThawNanos();
+}
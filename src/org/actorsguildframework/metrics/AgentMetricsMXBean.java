@@ -0,0 +1,92 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX interface of {@link AgentMetrics}. Registered under the name
+ * <code>org.actorsguildframework:type=Agent,name=&lt;jmxName&gt;</code>.
+ * @see org.actorsguildframework.DefaultAgent.Configuration#setJmxName(String)
+ */
+public interface AgentMetricsMXBean {
+	/**
+	 * Returns the number of worker threads in each state.
+	 * @return a map of worker state name to number of threads
+	 * @see AgentMetrics#getWorkerThreadCounts()
+	 */
+	public Map<String, Integer> getWorkerThreadCounts();
+	
+	/**
+	 * @return the number of started threads
+	 * @see AgentMetrics#getThreadsCreated()
+	 */
+	public long getThreadsCreated();
+	
+	/**
+	 * @return the number of stopped threads
+	 * @see AgentMetrics#getThreadsKilled()
+	 */
+	public long getThreadsKilled();
+	
+	/**
+	 * @return the number of attempts
+	 * @see AgentMetrics#getTryExecuteAttempts()
+	 */
+	public long getTryExecuteAttempts();
+	
+	/**
+	 * @return the number of successful attempts
+	 * @see AgentMetrics#getTryExecuteHits()
+	 */
+	public long getTryExecuteHits();
+	
+	/**
+	 * @return the number of frozen objects
+	 * @see AgentMetrics#getFreezeCount()
+	 */
+	public long getFreezeCount();
+	
+	/**
+	 * @return the number of frozen bytes
+	 * @see AgentMetrics#getFrozenBytes()
+	 */
+	public long getFrozenBytes();
+	
+	/**
+	 * @return the time in ns
+	 * @see AgentMetrics#getFreezeNanos()
+	 */
+	public long getFreezeNanos();
+	
+	/**
+	 * @return the number of thawed objects
+	 * @see AgentMetrics#getThawCount()
+	 */
+	public long getThawCount();
+	
+	/**
+	 * @return the number of thawed bytes
+	 * @see AgentMetrics#getThawedBytes()
+	 */
+	public long getThawedBytes();
+	
+	/**
+	 * @return the time in ns
+	 * @see AgentMetrics#getThawNanos()
+	 */
+	public long getThawNanos();
+}
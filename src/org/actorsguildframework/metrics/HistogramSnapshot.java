@@ -0,0 +1,149 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.metrics;
+
+import org.actorsguildframework.Immutable;
+
+/**
+ * An immutable snapshot of a histogram with logarithmic buckets. Bucket 0 contains the 
+ * number of 0 values, bucket i the number of values in the range [2^(i-1), 2^i). 
+ * Percentiles are estimated as the upper bound of the bucket that contains them, so 
+ * they are accurate within a factor of 2. 
+ * All time values are in nanoseconds.
+ */
+public final class HistogramSnapshot implements Immutable {
+	private static final long serialVersionUID = -2367729342137834571L;
+
+	/**
+	 * The number of buckets.
+	 */
+	public final static int BUCKETS = 64;
+	
+	/**
+	 * The number of values in each bucket.
+	 */
+	private final long[] counts;
+	
+	/**
+	 * The number of values.
+	 */
+	private final long count;
+	
+	/**
+	 * The sum of all values.
+	 */
+	private final long sum;
+	
+	/**
+	 * Creates a new snapshot.
+	 * @param counts the number of values in each bucket. Must have {@link #BUCKETS} elements. 
+	 *               Will not be copied.
+	 * @param sum the sum of all values
+	 */
+	public HistogramSnapshot(long[] counts, long sum) {
+		if (counts.length != BUCKETS)
+			throw new IllegalArgumentException("counts must have "+BUCKETS+" elements");
+		this.counts = counts;
+		this.sum = sum;
+		long c = 0;
+		for (long n: counts)
+			c += n;
+		this.count = c;
+	}
+	
+	/**
+	 * Returns the bucket for the given value.
+	 * @param value the value. Negative values are treated like 0.
+	 * @return the bucket, between 0 and {@link #BUCKETS}-1
+	 */
+	public static int getBucket(long value) {
+		if (value <= 0)
+			return 0;
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+	
+	/**
+	 * Returns the largest value that can be counted in the given bucket.
+	 * @param bucket the bucket
+	 * @return the upper bound of the bucket (inclusive)
+	 */
+	public static long getBucketUpperBound(int bucket) {
+		if (bucket <= 0)
+			return 0;
+		if (bucket >= 63)
+			return Long.MAX_VALUE;
+		return (1L << bucket) - 1;
+	}
+	
+	/**
+	 * Returns the number of values in the given bucket.
+	 * @param bucket the bucket
+	 * @return the number of values
+	 */
+	public long getBucketCount(int bucket) {
+		return counts[bucket];
+	}
+	
+	/**
+	 * Returns the number of values in the histogram.
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the sum of all values in the histogram.
+	 * @return the sum
+	 */
+	public long getSum() {
+		return sum;
+	}
+	
+	/**
+	 * Returns the mean of all values.
+	 * @return the mean, or 0 if the histogram is empty
+	 */
+	public double getMean() {
+		return (count == 0) ? 0 : ((double)sum) / count;
+	}
+	
+	/**
+	 * Estimates the given percentile.
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the upper bound of the bucket that contains the percentile, or 0 if the
+	 *         histogram is empty
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100.0);
+		if (rank < 1)
+			rank = 1;
+		long c = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			c += counts[i];
+			if (c >= rank)
+				return getBucketUpperBound(i);
+		}
+		return getBucketUpperBound(BUCKETS - 1);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1f p50=%d p99=%d", count, getMean(), getPercentile(50), getPercentile(99));
+	}
+}
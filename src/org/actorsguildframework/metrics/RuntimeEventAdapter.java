@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.metrics;
+
+import org.actorsguildframework.Agent;
+
+/**
+ * An implementation of {@link RuntimeEventListener} that ignores all events. Extend it 
+ * and override the methods for the events you are interested in.
+ */
+public class RuntimeEventAdapter implements RuntimeEventListener {
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.RuntimeEventListener#messageExecuted(org.actorsguildframework.Agent, java.lang.Class, java.lang.String, long, long)
+	 */
+	public void messageExecuted(Agent agent, Class<?> actorClass, String messageName, long queueNanos, long runNanos) {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.RuntimeEventListener#actorScheduled(org.actorsguildframework.Agent, java.lang.Class, boolean)
+	 */
+	public void actorScheduled(Agent agent, Class<?> actorClass, boolean urgent) {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.RuntimeEventListener#workerThreadsSpawned(org.actorsguildframework.Agent, int, int)
+	 */
+	public void workerThreadsSpawned(Agent agent, int count, int workerThreads) {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.RuntimeEventListener#workerThreadKilled(org.actorsguildframework.Agent)
+	 */
+	public void workerThreadKilled(Agent agent) {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.RuntimeEventListener#resultWait(org.actorsguildframework.Agent, java.lang.Class, java.lang.String, long)
+	 */
+	public void resultWait(Agent agent, Class<?> actorClass, String messageName, long waitNanos) {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.actorsguildframework.metrics.RuntimeEventListener#frozen(java.lang.Class, int, long)
+	 */
+	public void frozen(Class<?> objectClass, int bytes, long nanos) {
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.metrics;
+
+import org.actorsguildframework.Agent;
+
+/**
+ * Receives events from the runtime of all agents, for example to forward them to a 
+ * profiler or a flight recorder. Register listeners with 
+ * {@link RuntimeEvents#addListener(RuntimeEventListener)}.
+ * <p>
+ * The methods are called synchronously in the thread that caused the event, and some 
+ * of them while the runtime holds internal locks. They must be fast, must not block 
+ * and must not send messages to actors. Exceptions thrown by a listener will be logged 
+ * and ignored.
+ * @see RuntimeEventAdapter
+ */
+public interface RuntimeEventListener {
+	/**
+	 * Called after a message has been executed.
+	 * @param agent the agent of the actor
+	 * @param actorClass the class of the actor (not the proxy class)
+	 * @param messageName the name of the message
+	 * @param queueNanos the time the message waited in the queue in ns, or -1 if unknown
+	 *                   (because the listener has been registered after the message had been sent)
+	 * @param runNanos the time the execution took, in ns. For batches (see 
+	 *                 {@link org.actorsguildframework.annotations.Batch}), each message 
+	 *                 gets an equal part of the batch's execution time
+	 */
+	public void messageExecuted(Agent agent, Class<?> actorClass, String messageName, long queueNanos, long runNanos);
+	
+	/**
+	 * Called when an actor has been put into the scheduler's queue because it has work
+	 * that can be executed.
+	 * @param agent the agent of the actor
+	 * @param actorClass the class of the actor (not the proxy class)
+	 * @param urgent true if the actor has been put into the queue for high-priority actors
+	 */
+	public void actorScheduled(Agent agent, Class<?> actorClass, boolean urgent);
+	
+	/**
+	 * Called after the agent started new worker threads.
+	 * @param agent the agent
+	 * @param count the number of new threads
+	 * @param workerThreads the number of worker threads after the change
+	 */
+	public void workerThreadsSpawned(Agent agent, int count, int workerThreads);
+	
+	/**
+	 * Called when a worker thread has been told to terminate because there are too many.
+	 * @param agent the agent
+	 */
+	public void workerThreadKilled(Agent agent);
+	
+	/**
+	 * Called after a thread had to wait for the result of a message, because the 
+	 * message could not be executed in the waiting thread.
+	 * @param agent the agent of the message's actor
+	 * @param actorClass the class of the actor (not the proxy class)
+	 * @param messageName the name of the message
+	 * @param waitNanos the time the thread waited, in ns
+	 */
+	public void resultWait(Agent agent, Class<?> actorClass, String messageName, long waitNanos);
+
+	/**
+	 * Called after an object has been frozen by 
+	 * {@link org.actorsguildframework.immutable.SerializableFreezer}. Freezing is not bound to an agent.
+	 * @param objectClass the class of the frozen object
+	 * @param bytes the size of the frozen object, in bytes
+	 * @param nanos the time freezing took, in ns
+	 */
+	public void frozen(Class<?> objectClass, int bytes, long nanos);
+}
@@ -0,0 +1,47 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.metrics;
+
+import org.actorsguildframework.internal.util.RuntimeEventDispatcher;
+
+/**
+ * The JVM-wide registry of {@link RuntimeEventListener}s. As long as no listener is 
+ * registered, the runtime does not create any events, and the only cost is a read of
+ * a volatile field at each place that could create an event.
+ */
+public final class RuntimeEvents {
+	/**
+	 * Registers a listener. It will receive the events of all agents in the JVM.
+	 * @param listener the listener to add
+	 */
+	public static void addListener(RuntimeEventListener listener) {
+		RuntimeEventDispatcher.addListener(listener);
+	}
+	
+	/**
+	 * Removes a listener. Does nothing if it is not registered.
+	 * @param listener the listener to remove
+	 */
+	public static void removeListener(RuntimeEventListener listener) {
+		RuntimeEventDispatcher.removeListener(listener);
+	}
+	
+	/**
+	 * Not instantiable.
+	 */
+	private RuntimeEvents() {
+	}
+}
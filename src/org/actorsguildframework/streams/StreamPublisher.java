@@ -0,0 +1,301 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.streams;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.CompletableResult;
+import org.actorsguildframework.ImmediateResult;
+import org.actorsguildframework.immutable.ImmutableList;
+
+/**
+ * StreamPublisher sends a stream of items to {@link StreamSubscriber} actors, 
+ * respecting the demand of each subscriber. It is usually kept in a field of the actor 
+ * that produces the items.
+ * <p>
+ * Items that a subscriber has not requested yet are kept in a buffer of limited size 
+ * for each subscriber. {@link #offer(Object)} refuses new items as long as the buffer 
+ * of any subscriber is full. The producer can then use {@link #awaitCapacity()} to 
+ * find out when it can continue. As {@link #awaitCapacity()} returns an AsyncResult, 
+ * a producing actor can return it from a message, and does not need to block its thread.
+ * <p>
+ * Items are only sent to subscribers that are subscribed at the time of the 
+ * offer. If there is no subscriber, items are dropped.
+ * <p>
+ * StreamPublisher is thread-safe.
+ * @param <T> the type of the items
+ * @see StreamSubscriber
+ */
+public final class StreamPublisher<T> {
+	/**
+	 * The maximum number of buffered items per subscriber.
+	 */
+	private final int bufferSize;
+	
+	/**
+	 * All active subscriptions.
+	 * Synchronize on the StreamPublisher before accessing it.
+	 */
+	private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+	
+	/**
+	 * True after {@link #close()} or {@link #closeExceptionally(Throwable)}.
+	 * Synchronize on the StreamPublisher before accessing it.
+	 */
+	private boolean closed;
+	
+	/**
+	 * The error passed to {@link #closeExceptionally(Throwable)}, or null.
+	 * Synchronize on the StreamPublisher before accessing it.
+	 */
+	private Throwable error;
+	
+	/**
+	 * The result returned by {@link #awaitCapacity()}, or null if nobody is waiting.
+	 * Synchronize on the StreamPublisher before accessing it.
+	 */
+	private CompletableResult<Void> capacityResult;
+	
+	/**
+	 * The subscription of a single subscriber. 
+	 * All fields are guarded by the StreamPublisher.
+	 */
+	private final class Subscription implements StreamSubscription {
+		private final StreamSubscriber<? super T> subscriber;
+		private final ArrayDeque<T> buffer = new ArrayDeque<T>();
+		private long demand;
+		private boolean done;
+		
+		/**
+		 * Creates a new subscription.
+		 * @param subscriber the subscriber
+		 */
+		Subscription(StreamSubscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.actorsguildframework.streams.StreamSubscription#request(long)
+		 */
+		public void request(long n) {
+			if (n <= 0)
+				throw new IllegalArgumentException("The number of requested items must be positive.");
+			synchronized (StreamPublisher.this) {
+				if (done)
+					return;
+				demand += n;
+				if (demand < 0)
+					demand = Long.MAX_VALUE; // overflow: unbounded
+				deliverUnsynchronized();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.actorsguildframework.streams.StreamSubscription#cancel()
+		 */
+		public void cancel() {
+			synchronized (StreamPublisher.this) {
+				if (done)
+					return;
+				endUnsynchronized();
+			}
+		}
+		
+		/**
+		 * Removes the subscription. 
+		 * You must synchronize on the StreamPublisher before calling this.
+		 */
+		void endUnsynchronized() {
+			done = true;
+			buffer.clear();
+			subscriptions.remove(this);
+			checkCapacityUnsynchronized();
+		}
+		
+		/**
+		 * Sends as many buffered items as the demand allows, and the end of the stream
+		 * if the publisher has been closed.
+		 * You must synchronize on the StreamPublisher before calling this.
+		 */
+		@SuppressWarnings("unchecked")
+		void deliverUnsynchronized() {
+			if (done)
+				return;
+			if (error != null) {
+				endUnsynchronized();
+				subscriber.onError(error);
+				return;
+			}
+			
+			if ((demand > 0) && !buffer.isEmpty()) {
+				int n = (int) Math.min(demand, buffer.size());
+				Object[] items = new Object[n];
+				for (int i = 0; i < n; i++)
+					items[i] = buffer.poll();
+				demand -= n;
+				((StreamSubscriber<T>) subscriber).onNext(new ImmutableList<T>((T[]) items));
+				checkCapacityUnsynchronized();
+			}
+			
+			if (closed && buffer.isEmpty()) {
+				endUnsynchronized();
+				subscriber.onComplete();
+			}
+		}
+	}
+	
+	/**
+	 * Creates a new StreamPublisher.
+	 * @param bufferSize the maximum number of items that are buffered for a subscriber 
+	 *   that has not requested them yet
+	 * @throws IllegalArgumentException if the buffer size is smaller than 1
+	 */
+	public StreamPublisher(int bufferSize) {
+		if (bufferSize < 1)
+			throw new IllegalArgumentException("The buffer size must be at least 1.");
+		this.bufferSize = bufferSize;
+	}
+	
+	/**
+	 * Adds a subscriber. It will receive all items offered after the subscription, 
+	 * as soon as it requests them. If the publisher has already been closed, the 
+	 * subscriber will receive only the end of the stream.
+	 * @param subscriber the subscriber, usually an actor
+	 * @return the new subscription. It is also passed to 
+	 *   {@link StreamSubscriber#onSubscribe(StreamSubscription)}
+	 * @throws IllegalArgumentException if the subscriber was null
+	 */
+	public synchronized StreamSubscription subscribe(StreamSubscriber<? super T> subscriber) {
+		if (subscriber == null)
+			throw new IllegalArgumentException("subscriber argument was null");
+		Subscription s = new Subscription(subscriber);
+		subscriptions.add(s);
+		subscriber.onSubscribe(s);
+		if (closed)
+			s.deliverUnsynchronized();
+		return s;
+	}
+	
+	/**
+	 * Offers an item to all subscribers. The item is sent immediately to all subscribers
+	 * that requested it, and buffered for the others. 
+	 * @param item the item to send. It must be either Immutable, Serializable or an Actor
+	 * @return true if the item has been accepted, false if the buffer of at least one 
+	 *   subscriber is full. In that case, no subscriber gets the item 
+	 * @throws IllegalStateException if the publisher has been closed
+	 * @see #awaitCapacity()
+	 */
+	public synchronized boolean offer(T item) {
+		if (closed)
+			throw new IllegalStateException("The publisher has been closed.");
+		if (!hasCapacity())
+			return false;
+		for (int i = subscriptions.size() - 1; i >= 0; i--) {
+			Subscription s = subscriptions.get(i);
+			s.buffer.add(item);
+			s.deliverUnsynchronized();
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks whether {@link #offer(Object)} would accept an item now.
+	 * @return true if the buffers of all subscribers have room for another item
+	 */
+	public synchronized boolean hasCapacity() {
+		for (Subscription s: subscriptions)
+			if (s.buffer.size() >= bufferSize)
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Returns a result that is ready as soon as {@link #offer(Object)} would accept 
+	 * another item. An actor can return it from a message to continue producing 
+	 * when the subscribers requested more items, without blocking a thread.
+	 * @return the result
+	 */
+	public synchronized AsyncResult<Void> awaitCapacity() {
+		if (hasCapacity())
+			return new ImmediateResult<Void>(null);
+		if (capacityResult == null)
+			capacityResult = new CompletableResult<Void>();
+		return capacityResult;
+	}
+	
+	/**
+	 * Completes the result of {@link #awaitCapacity()}, if there is capacity now.
+	 * You must synchronize on the StreamPublisher before calling this.
+	 */
+	private void checkCapacityUnsynchronized() {
+		if ((capacityResult != null) && hasCapacity()) {
+			capacityResult.complete(null);
+			capacityResult = null;
+		}
+	}
+	
+	/**
+	 * Ends the stream. The subscribers will receive all buffered items when they 
+	 * request them, and then {@link StreamSubscriber#onComplete()}.
+	 * Does nothing if the publisher has already been closed.
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		for (int i = subscriptions.size() - 1; i >= 0; i--)
+			subscriptions.get(i).deliverUnsynchronized();
+	}
+	
+	/**
+	 * Ends the stream with an error. All subscribers will receive
+	 * {@link StreamSubscriber#onError(Throwable)} immediately, and all buffered items are dropped.
+	 * Does nothing if the publisher has already been closed.
+	 * @param error the error to send
+	 * @throws IllegalArgumentException if the error was null
+	 */
+	public synchronized void closeExceptionally(Throwable error) {
+		if (error == null)
+			throw new IllegalArgumentException("error argument was null");
+		if (closed)
+			return;
+		closed = true;
+		this.error = error;
+		for (int i = subscriptions.size() - 1; i >= 0; i--)
+			subscriptions.get(i).deliverUnsynchronized();
+	}
+	
+	/**
+	 * Checks whether the publisher has been closed.
+	 * @return true if closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * Returns the number of active subscribers.
+	 * @return the number of subscribers
+	 */
+	public synchronized int getSubscriberCount() {
+		return subscriptions.size();
+	}
+}
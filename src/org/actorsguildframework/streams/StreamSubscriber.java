@@ -0,0 +1,72 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.streams;
+
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.immutable.ImmutableList;
+
+/**
+ * StreamSubscriber is the interface of actors that receive a stream of items from 
+ * a {@link StreamPublisher}. An actor implements the methods of StreamSubscriber 
+ * as @Message methods, so all items arrive in its mailbox like regular messages. 
+ * <p>
+ * The flow of items is controlled by the subscriber: it must call 
+ * {@link StreamSubscription#request(long)} to receive items, and the publisher never 
+ * sends more items than requested. Thus the mailbox of the subscriber never contains 
+ * more items than it has asked for, and a pipeline of actors needs only bounded memory,
+ * even if the producer is faster than the consumer.
+ * <p>
+ * The subscriber should be a single-threaded actor, as the order of the messages
+ * is not guaranteed for multi-threaded actors. The argument of 
+ * {@link #onSubscribe(StreamSubscription)} must be declared as @Shared in the
+ * implementation, as the subscription is thread-safe and must not be copied.
+ * <p>
+ * The methods are invoked in the following order: first 
+ * {@link #onSubscribe(StreamSubscription)}, then {@link #onNext(ImmutableList)} any
+ * number of times, and finally either {@link #onComplete()} or {@link #onError(Throwable)}.
+ * @param <T> the type of the items
+ * @see StreamPublisher
+ */
+public interface StreamSubscriber<T> {
+	/**
+	 * Invoked when the subscription starts. The subscriber should request the 
+	 * first items here. Implementations must declare the argument as @Shared.
+	 * @param subscription the subscription
+	 * @return a result that can be ignored
+	 */
+	public AsyncResult<Void> onSubscribe(StreamSubscription subscription);
+	
+	/**
+	 * Invoked with the next items of the stream. Items are delivered in batches, 
+	 * but never more than requested.
+	 * @param items the items, at least one
+	 * @return a result that can be ignored
+	 */
+	public AsyncResult<Void> onNext(ImmutableList<T> items);
+	
+	/**
+	 * Invoked when the publisher has failed. No more items will be sent.
+	 * @param error the error
+	 * @return a result that can be ignored
+	 */
+	public AsyncResult<Void> onError(Throwable error);
+	
+	/**
+	 * Invoked after the last item of the stream. 
+	 * @return a result that can be ignored
+	 */
+	public AsyncResult<Void> onComplete();
+}
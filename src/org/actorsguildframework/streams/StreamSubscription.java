@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.streams;
+
+/**
+ * StreamSubscription connects a {@link StreamSubscriber} with a {@link StreamPublisher}. 
+ * The subscriber uses it to signal how many items it is willing to receive, and to
+ * stop the subscription.
+ * <p>
+ * Implementations are thread-safe.
+ * @see StreamSubscriber#onSubscribe(StreamSubscription)
+ */
+public interface StreamSubscription {
+	/**
+	 * Requests more items. The publisher will never send more items than requested in total.
+	 * @param n the number of additional items. Must be positive
+	 * @throws IllegalArgumentException if n was not positive
+	 */
+	public void request(long n);
+	
+	/**
+	 * Stops the subscription. The publisher will not send any more items and drops 
+	 * the items it has buffered for the subscriber. Items that have already been sent 
+	 * may still arrive.
+	 */
+	public void cancel();
+}
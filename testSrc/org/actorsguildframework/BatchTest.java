@@ -0,0 +1,215 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.Batch;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.ThreadUsage;
+import org.actorsguildframework.annotations.Usage;
+import org.actorsguildframework.immutable.ImmutableList;
+import org.junit.Test;
+
+/**
+ * Unit tests for batch delivery of messages.
+ */
+public class BatchTest {
+	/**
+	 * Single-threaded test actor with batched messages.
+	 */
+	public static class MyActor extends Actor {
+		/**
+		 * The sizes of all batches and single invocations, in execution order.
+		 */
+		public volatile String log = "";
+		
+		/**
+		 * Blocks {@link #waitForFlag()} while true.
+		 */
+		public volatile boolean runFlag = true;
+		
+		/**
+		 * Blocks the actor until {@link #runFlag} is cleared.
+		 * @return void
+		 */
+		@Message
+		@Usage(ThreadUsage.Waiting)
+		public AsyncResult<Void> waitForFlag() {
+			while (runFlag) {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					throw new ActorRuntimeException("Interrupted while waiting for the flag", e);
+				}
+			}
+			return noResult();
+		}
+		
+		/**
+		 * Multiplies the arguments.
+		 * @param a first factor
+		 * @param b second factor
+		 * @return the product
+		 */
+		@Message
+		@Batch(value="multiplyBatch", maxSize=4)
+		public AsyncResult<Integer> multiply(int a, int b) {
+			log += "1 ";
+			return result(a * b);
+		}
+		
+		/**
+		 * Batch handler for {@link #multiply(int, int)}.
+		 * @param a the first factors
+		 * @param b the second factors
+		 * @return the products
+		 */
+		private AsyncResult<List<Integer>> multiplyBatch(ImmutableList<Integer> a, ImmutableList<Integer> b) {
+			log += a.size() + " ";
+			List<Integer> r = new ArrayList<Integer>();
+			for (int i = 0; i < a.size(); i++)
+				r.add(a.get(i) * b.get(i));
+			return result(r);
+		}
+		
+		/**
+		 * Fails, always.
+		 * @param a ignored
+		 * @return never
+		 */
+		@Message
+		@Batch("failBatch")
+		public AsyncResult<Void> fail(String a) {
+			throw new RuntimeException("single");
+		}
+		
+		/**
+		 * Batch handler for {@link #fail(String)}.
+		 * @param a ignored
+		 * @return never
+		 */
+		private AsyncResult<Void> failBatch(ImmutableList<String> a) {
+			throw new RuntimeException("batch");
+		}
+	}
+	
+	/**
+	 * Actor with a missing batch handler.
+	 */
+	public static class NoHandlerActor extends Actor {
+		/**
+		 * Does nothing.
+		 * @param a ignored
+		 * @return void
+		 */
+		@Message
+		@Batch("missingBatch")
+		public AsyncResult<Void> doSomething(int a) {
+			return noResult();
+		}
+	}
+
+	/**
+	 * Actor with a batch handler that is neither private nor final.
+	 */
+	public static class OverridableHandlerActor extends Actor {
+		/**
+		 * Does nothing.
+		 * @param a ignored
+		 * @return void
+		 */
+		@Message
+		@Batch("doSomethingBatch")
+		public AsyncResult<Void> doSomething(int a) {
+			return noResult();
+		}
+		
+		/**
+		 * Batch handler for {@link #doSomething(int)}.
+		 * @param a ignored
+		 * @return void
+		 */
+		protected AsyncResult<Void> doSomethingBatch(ImmutableList<Integer> a) {
+			return noResult();
+		}
+	}
+
+	/**
+	 * Tests that queued invocations are delivered in batches, and that each caller gets 
+	 * its own result.
+	 * @throws InterruptedException 
+	 */
+	@Test
+	public void testBatch() throws InterruptedException {
+		DefaultAgent a = new DefaultAgent();
+		MyActor ma = a.create(MyActor.class);
+		AsyncResult<Void> blocker = ma.waitForFlag();
+		Thread.sleep(50); // give the blocker time to start
+		List<AsyncResult<Integer>> results = new ArrayList<AsyncResult<Integer>>();
+		for (int i = 0; i < 6; i++)
+			results.add(ma.multiply(i, 3));
+		ma.runFlag = false;
+		blocker.await();
+		Assert.assertNull(blocker.getException());
+		for (int i = 0; i < 6; i++)
+			Assert.assertEquals(i * 3, results.get(i).get().intValue());
+		Assert.assertEquals("4 2 ", ma.log);
+		
+		Assert.assertEquals(12, ma.multiply(3, 4).get().intValue());
+		Assert.assertEquals("4 2 1 ", ma.log);
+	}
+
+	/**
+	 * Tests that exceptions of the batch handler are delivered to all callers.
+	 * @throws InterruptedException 
+	 */
+	@Test
+	public void testBatchException() throws InterruptedException {
+		DefaultAgent a = new DefaultAgent();
+		MyActor ma = a.create(MyActor.class);
+		AsyncResult<Void> blocker = ma.waitForFlag();
+		Thread.sleep(50); // give the blocker time to start
+		AsyncResult<Void> r1 = ma.fail("a");
+		AsyncResult<Void> r2 = ma.fail("b");
+		ma.runFlag = false;
+		a.awaitAll(blocker, r1, r2);
+		Assert.assertNull(blocker.getException());
+		Assert.assertEquals("batch", r1.getException().getMessage());
+		Assert.assertEquals("batch", r2.getException().getMessage());
+	}
+
+	/**
+	 * Tests an actor with a missing batch handler.
+	 */
+	@Test(expected=ConfigurationException.class)
+	public void testMissingBatchHandler() {
+		DefaultAgent a = new DefaultAgent();
+		a.create(NoHandlerActor.class);
+	}
+	
+	/**
+	 * Tests an actor with a batch handler that could be overridden.
+	 */
+	@Test(expected=ConfigurationException.class)
+	public void testOverridableBatchHandler() {
+		DefaultAgent a = new DefaultAgent();
+		a.create(OverridableHandlerActor.class);
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.Message;
+import org.junit.Test;
+
+/**
+ * Unit tests for CompletableResult and AsyncResultFuture.
+ */
+public class CompletableResultTest {
+	/**
+	 * Actor that returns results that are completed by another thread.
+	 */
+	public static class CallbackActor extends Actor {
+		private int calls;
+		
+		/**
+		 * Returns a result that will be completed by a new thread.
+		 * @param delayMs the delay before the result is completed
+		 * @param value the value to return 
+		 * @return the value
+		 */
+		@Message
+		public AsyncResult<String> callback(final int delayMs, final String value) {
+			calls++;
+			final CompletableResult<String> r = new CompletableResult<String>();
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(delayMs);
+					} 
+					catch (InterruptedException e) {
+						// ignore
+					}
+					if (value == null)
+						r.fail(new IllegalStateException("no value"));
+					else
+						r.complete(value);
+				}
+			}.start();
+			return r;
+		}
+		
+		/**
+		 * Returns the number of callback() invocations.
+		 * @return the number of calls
+		 */
+		@Message
+		public AsyncResult<Integer> getCalls() {
+			return result(calls);
+		}
+	}
+	
+	/**
+	 * Tests a message returning a CompletableResult.
+	 */
+	@Test
+	public void testMessageResult() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			CallbackActor a = ag.create(CallbackActor.class);
+			AsyncResult<String> r1 = a.callback(300, "a");
+			AsyncResult<String> r2 = a.callback(0, "b");
+			AsyncResult<String> r3 = a.callback(0, null);
+			// actor is not blocked while the results are pending
+			Assert.assertEquals(3, a.getCalls().get().intValue());
+			Assert.assertEquals("b", r2.get());
+			Assert.assertEquals("a", r1.get());
+			r3.await();
+			Assert.assertTrue(r3.getException() instanceof IllegalStateException);
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests completing a CompletableResult directly.
+	 */
+	@Test
+	public void testComplete() {
+		CompletableResult<Integer> r = new CompletableResult<Integer>();
+		Assert.assertFalse(r.isReady());
+		Assert.assertFalse(r.await(10, TimeUnit.MILLISECONDS));
+		try {
+			r.get(10, TimeUnit.MILLISECONDS);
+			Assert.fail();
+		}
+		catch (ResultTimeoutException e) {
+			// expected
+		}
+		final int[] notified = new int[1];
+		r.addNotifier(new AsyncResult.Notifier<Integer>() {
+			public void resultReady(AsyncResult<Integer> result) {
+				notified[0] = result.get();
+			}
+		});
+		Assert.assertTrue(r.complete(5));
+		Assert.assertFalse(r.complete(6));
+		Assert.assertFalse(r.cancel());
+		Assert.assertEquals(5, notified[0]);
+		Assert.assertEquals(5, r.get().intValue());
+		Assert.assertNull(r.getException());
+	}
+	
+	/**
+	 * Tests that the notifiers of a CompletableResult created with an agent are invoked 
+	 * in the agent's workers, and in the completing thread after the shutdown.
+	 * @throws InterruptedException if interrupted
+	 */
+	@Test
+	public void testNotifyInWorkers() throws InterruptedException {
+		DefaultAgent ag = new DefaultAgent();
+		final Thread[] notifierThread = new Thread[1];
+		final CountDownLatch notified = new CountDownLatch(1);
+		AsyncResult.Notifier<Integer> n = new AsyncResult.Notifier<Integer>() {
+			public void resultReady(AsyncResult<Integer> result) {
+				notifierThread[0] = Thread.currentThread();
+				notified.countDown();
+			}
+		};
+		try {
+			CompletableResult<Integer> r = new CompletableResult<Integer>(ag);
+			r.addNotifier(n);
+			Assert.assertTrue(r.complete(1));
+			Assert.assertEquals(1, r.get().intValue()); // waiters do not need the workers
+			Assert.assertTrue(notified.await(10, TimeUnit.SECONDS));
+			Assert.assertNotNull(notifierThread[0]);
+			Assert.assertNotSame(Thread.currentThread(), notifierThread[0]);
+			
+			r = new CompletableResult<Integer>(ag);
+			r.addNotifier(n);
+			ag.shutdown();
+			Assert.assertTrue(r.complete(2));
+			Assert.assertSame(Thread.currentThread(), notifierThread[0]);
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests the Future view.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testFuture() throws Exception {
+		CompletableResult<String> r = new CompletableResult<String>();
+		Future<String> f = r.toFuture();
+		Assert.assertFalse(f.isDone());
+		try {
+			f.get(10, TimeUnit.MILLISECONDS);
+			Assert.fail();
+		}
+		catch (TimeoutException e) {
+			// expected
+		}
+		r.complete("x");
+		Assert.assertTrue(f.isDone());
+		Assert.assertEquals("x", f.get());
+		
+		CompletableResult<String> r2 = new CompletableResult<String>();
+		r2.fail(new IllegalArgumentException());
+		try {
+			r2.toFuture().get();
+			Assert.fail();
+		}
+		catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		
+		Future<String> f3 = new CompletableResult<String>().toFuture();
+		Assert.assertTrue(f3.cancel(false));
+		Assert.assertTrue(f3.isCancelled());
+		try {
+			f3.get();
+			Assert.fail();
+		}
+		catch (CancellationException e) {
+			// expected
+		}
+		
+		Assert.assertEquals(3, new ImmediateResult<Integer>(3).toFuture().get().intValue());
+	}
+	
+	/**
+	 * Tests the Future view of a message result.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testMessageFuture() throws Exception {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			CallbackActor a = ag.create(CallbackActor.class);
+			Future<String> f = a.callback(50, "z").toFuture();
+			Assert.assertEquals("z", f.get(10, TimeUnit.SECONDS));
+			Assert.assertTrue(f.isDone());
+			Assert.assertFalse(f.isCancelled());
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Model;
+import org.actorsguildframework.annotations.ThreadUsage;
+import org.actorsguildframework.annotations.Usage;
+import org.junit.Test;
+
+/**
+ * Unit tests for CompletionQueue.
+ */
+public class CompletionQueueTest {
+	/**
+	 * Multi-threaded actor with a slow message.
+	 */
+	@Model(ConcurrencyModel.Stateless)
+	public static class SleepActor extends Actor {
+		/**
+		 * Sleeps, then returns the argument.
+		 * @param ms the time to sleep in milliseconds
+		 * @return ms
+		 */
+		@Message
+		@Usage(ThreadUsage.Waiting)
+		public AsyncResult<Integer> sleep(int ms) {
+			try {
+				Thread.sleep(ms);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return result(ms);
+		}
+	}
+	
+	/**
+	 * Tests that results are returned in the order of completion.
+	 */
+	@Test
+	public void testCompletionOrder() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			SleepActor a = ag.create(SleepActor.class);
+			CompletionQueue<Integer> q = new CompletionQueue<Integer>();
+			q.add(a.sleep(600));
+			q.add(a.sleep(300));
+			q.add(a.sleep(0));
+			Assert.assertEquals(3, q.size());
+			
+			List<Integer> order = new ArrayList<Integer>();
+			for (AsyncResult<Integer> r: q)
+				order.add(r.get());
+			Assert.assertEquals(3, order.size());
+			Assert.assertEquals(0, order.get(0).intValue());
+			Assert.assertEquals(300, order.get(1).intValue());
+			Assert.assertEquals(600, order.get(2).intValue());
+			Assert.assertTrue(q.isEmpty());
+			Assert.assertNull(q.take());
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests poll() with and without timeout.
+	 */
+	@Test
+	public void testPoll() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			SleepActor a = ag.create(SleepActor.class);
+			CompletionQueue<Integer> q = new CompletionQueue<Integer>();
+			Assert.assertNull(q.poll());
+			q.add(new ImmediateResult<Integer>(5));
+			Assert.assertEquals(0, q.getPendingCount());
+			Assert.assertEquals(5, q.poll().get().intValue());
+			
+			AsyncResult<Integer> r = a.sleep(400);
+			q.add(r);
+			Assert.assertEquals(1, q.getPendingCount());
+			Assert.assertNull(q.poll());
+			Assert.assertNull(q.poll(20, TimeUnit.MILLISECONDS));
+			Assert.assertSame(r, q.poll(10, TimeUnit.SECONDS));
+			Assert.assertEquals(0, q.size());
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests a large number of results.
+	 */
+	@Test
+	public void testManyResults() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			SleepActor a = ag.create(SleepActor.class);
+			CompletionQueue<Integer> q = new CompletionQueue<Integer>();
+			for (int i = 0; i < 10000; i++)
+				q.add(a.sleep(0));
+			int n = 0;
+			AsyncResult<Integer> r;
+			while ((r = q.take()) != null) {
+				Assert.assertTrue(r.isReady());
+				n++;
+			}
+			Assert.assertEquals(10000, n);
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.concurrent.ThreadFactory;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.Dispatcher;
+import org.actorsguildframework.annotations.Message;
+import org.junit.Test;
+
+/**
+ * Unit tests for dispatchers.
+ */
+public class DispatcherTest {
+	/**
+	 * ThreadFactory that creates threads with a name prefix.
+	 */
+	static class NamedThreadFactory implements ThreadFactory {
+		private final String prefix;
+		
+		/**
+		 * Creates a new factory.
+		 * @param prefix the prefix of the thread names
+		 */
+		NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+		
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + "-worker");
+			t.setDaemon(true);
+			return t;
+		}
+	}
+	
+	/**
+	 * Actor that returns the name of the thread it runs in.
+	 */
+	public static class DefaultActor extends Actor {
+		/**
+		 * Returns the name of the current thread.
+		 * @return the thread name
+		 */
+		@Message
+		public AsyncResult<String> getThreadName() {
+			return result(Thread.currentThread().getName());
+		}
+
+		/**
+		 * Asks the given actor for its thread name.
+		 * @param other the actor to ask
+		 * @return the other actor's thread name
+		 */
+		@Message
+		public AsyncResult<String> askOther(IoActor other) {
+			return result(other.getThreadName().get());
+		}
+	}
+	
+	/**
+	 * Actor that runs in the 'io' dispatcher.
+	 */
+	@Dispatcher("io")
+	public static class IoActor extends Actor {
+		/**
+		 * Returns the name of the current thread.
+		 * @return the thread name
+		 */
+		@Message
+		public AsyncResult<String> getThreadName() {
+			return result(Thread.currentThread().getName());
+		}
+
+		/**
+		 * Asks the given actor for its thread name.
+		 * @param other the actor to ask
+		 * @return the other actor's thread name
+		 */
+		@Message
+		public AsyncResult<String> askOther(DefaultActor other) {
+			return result(other.getThreadName().get());
+		}
+	}
+	
+	/**
+	 * Actor that requires a dispatcher that does not exist.
+	 */
+	@Dispatcher("unknown")
+	public static class UnknownDispatcherActor extends Actor {
+	}
+	
+	/**
+	 * Creates an agent with an 'io' dispatcher.
+	 * @return the new agent
+	 */
+	private static DefaultAgent createAgent() {
+		DefaultAgent.Configuration c = new DefaultAgent.Configuration();
+		c.setThreadFactory(new NamedThreadFactory("default"));
+		c.setMetricsEnabled(true);
+		DefaultAgent.DispatcherConfiguration dc = new DefaultAgent.DispatcherConfiguration();
+		dc.setMaxPhysicalWorker(2);
+		dc.setMaxEffectiveWorker(2);
+		dc.setThreadFactory(new NamedThreadFactory("io"));
+		c.addDispatcher("io", dc);
+		return new DefaultAgent(c);
+	}
+	
+	/**
+	 * Tests that messages between dispatchers are executed in the target's threads.
+	 */
+	@Test
+	public void testCrossDispatcher() {
+		DefaultAgent a = createAgent();
+		try {
+			DefaultActor d1 = a.create(DefaultActor.class);
+			DefaultActor d2 = a.create(DefaultActor.class);
+			IoActor io1 = a.create(IoActor.class);
+			IoActor io2 = a.create(IoActor.class);
+			// the calling thread may execute messages itself, but a worker thread must never 
+			// execute the messages of another dispatcher
+			AsyncResult<?>[] r1 = new AsyncResult<?>[100];
+			AsyncResult<?>[] r2 = new AsyncResult<?>[100];
+			for (int i = 0; i < r1.length; i++) {
+				r1[i] = d1.askOther(io1);
+				r2[i] = io2.askOther(d2);
+			}
+			for (int i = 0; i < r1.length; i++) {
+				Assert.assertFalse("default-worker".equals(r1[i].get()));
+				Assert.assertFalse("io-worker".equals(r2[i].get()));
+			}
+			Assert.assertNotNull(a.getMetrics("io").getActorClassMetrics(IoActor.class));
+			Assert.assertNull(a.getMetrics().getActorClassMetrics(IoActor.class));
+		}
+		finally {
+			a.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests the configuration checks.
+	 */
+	@Test
+	public void testConfiguration() {
+		DefaultAgent a = createAgent();
+		try {
+			a.create(UnknownDispatcherActor.class);
+			Assert.fail();
+		}
+		catch (ConfigurationException e) {
+			// expected
+		}
+		finally {
+			a.shutdown();
+		}
+		
+		try {
+			a.getMetrics("unknown");
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		
+		DefaultAgent.Configuration c = new DefaultAgent.Configuration();
+		c.addDispatcher("x", new DefaultAgent.DispatcherConfiguration());
+		try {
+			c.addDispatcher("x", new DefaultAgent.DispatcherConfiguration());
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
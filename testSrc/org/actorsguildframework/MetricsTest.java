@@ -0,0 +1,105 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.internal.WorkerState;
+import org.actorsguildframework.metrics.ActorClassMetrics;
+import org.actorsguildframework.metrics.AgentMetrics;
+import org.junit.Test;
+
+/**
+ * Unit tests for the agent metrics.
+ */
+public class MetricsTest {
+	/**
+	 * Simple test actor.
+	 */
+	public static class MyActor extends Actor {
+		/**
+		 * Returns the size of the list.
+		 * @param list a mutable list, to be frozen
+		 * @return the size
+		 */
+		@Message
+		public AsyncResult<Integer> size(ArrayList<String> list) {
+			return result(list.size());
+		}
+	}
+	
+	/**
+	 * Tests that metrics are disabled by default.
+	 */
+	@Test
+	public void testDisabled() {
+		DefaultAgent a = new DefaultAgent();
+		Assert.assertNull(a.getMetrics());
+	}
+	
+	/**
+	 * Tests the metrics.
+	 * @throws Exception
+	 */
+	@Test
+	public void testMetrics() throws Exception {
+		DefaultAgent.Configuration c = new DefaultAgent.Configuration();
+		c.setMetricsEnabled(true);
+		c.setJmxName("MetricsTest");
+		DefaultAgent a = new DefaultAgent(c);
+		AgentMetrics m = a.getMetrics();
+		Assert.assertNotNull(m);
+		long frozen = m.getFreezeCount();
+		
+		MyActor ma = a.create(MyActor.class);
+		ArrayList<String> l = new ArrayList<String>();
+		l.add("a");
+		for (int i = 0; i < 10; i++)
+			Assert.assertEquals(1, ma.size(l).get().intValue());
+		
+		ActorClassMetrics acm = m.getActorClassMetrics(MyActor.class);
+		Assert.assertNotNull(acm);
+		Assert.assertSame(MyActor.class, acm.getActorClass());
+		Assert.assertEquals(1, m.getActorClassMetrics().size());
+		Assert.assertEquals(10, acm.getMessageCount());
+		Assert.assertTrue(acm.getMailboxHighWaterMark() >= 1);
+		Assert.assertEquals(10, acm.getExecutionTimeHistogram().getCount());
+		Assert.assertEquals(10, acm.getQueueWaitHistogram().getCount());
+		Assert.assertTrue(m.getFreezeCount() >= frozen + 10);
+		Assert.assertTrue(m.getThawCount() > 0);
+		Assert.assertTrue(m.getFrozenBytes() > 0);
+		Assert.assertTrue(m.getTryExecuteAttempts() >= m.getTryExecuteHits());
+		Assert.assertEquals(WorkerState.values().length, m.getWorkerThreadCounts().size());
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName agentName = new ObjectName("org.actorsguildframework:type=Agent,name=\"MetricsTest\"");
+		ObjectName className = new ObjectName("org.actorsguildframework:type=ActorClass,agent=\"MetricsTest\",name=\""+MyActor.class.getName()+"\"");
+		Assert.assertTrue(server.isRegistered(agentName));
+		Assert.assertEquals(Long.valueOf(10), server.getAttribute(className, "MessageCount"));
+		Assert.assertEquals(Long.valueOf(m.getThreadsCreated()), server.getAttribute(agentName, "ThreadsCreated"));
+		
+		a.shutdown();
+		Assert.assertFalse(server.isRegistered(agentName));
+		Assert.assertFalse(server.isRegistered(className));
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.OneWay;
+import org.junit.Test;
+
+/**
+ * Unit tests for one-way messages.
+ */
+public class OneWayTest {
+	/**
+	 * Test actor with one-way messages.
+	 */
+	public static class MyActor extends Actor {
+		/**
+		 * The sum of all values given to {@link #add(int)}.
+		 */
+		public volatile int sum;
+		
+		/**
+		 * Adds the value to {@link #sum}.
+		 * @param value the value to add
+		 * @return void
+		 */
+		@Message
+		@OneWay
+		public AsyncResult<Void> add(int value) {
+			sum += value;
+			return noResult();
+		}
+		
+		/**
+		 * Returns the sum.
+		 * @return the sum
+		 */
+		@Message
+		public AsyncResult<Integer> getSum() {
+			return result(sum);
+		}
+		
+		/**
+		 * Always throws.
+		 * @return never
+		 */
+		@Message
+		@OneWay
+		public AsyncResult<Void> fail() {
+			throw new IllegalStateException("failed");
+		}
+	}
+	
+	/**
+	 * Actor with an illegal one-way message.
+	 */
+	public static class BrokenActor extends Actor {
+		/**
+		 * Returns a value, not allowed for one-way messages.
+		 * @return always 1
+		 */
+		@Message
+		@OneWay
+		public AsyncResult<Integer> notVoid() {
+			return result(1);
+		}
+	}
+
+	/**
+	 * Tests one-way messages.
+	 */
+	@Test
+	public void testOneWay() {
+		DefaultAgent a = new DefaultAgent();
+		MyActor ma = a.create(MyActor.class);
+		AsyncResult<Void> r1 = ma.add(1);
+		AsyncResult<Void> r2 = ma.add(2);
+		Assert.assertTrue(r1.isReady());
+		Assert.assertSame(r1, r2);
+		Assert.assertNull(r1.get());
+		Assert.assertEquals(3, ma.getSum().get().intValue());
+	}
+
+	/**
+	 * Tests that exceptions of one-way messages go to the MessageExceptionHandler.
+	 * @throws InterruptedException 
+	 */
+	@Test
+	public void testExceptionHandler() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final Throwable[] exception = new Throwable[1];
+		final String[] messageName = new String[1];
+		DefaultAgent.Configuration c = new DefaultAgent.Configuration();
+		c.setMessageExceptionHandler(new MessageExceptionHandler() {
+			public void uncaughtException(Actor actor, String name, Throwable t) {
+				messageName[0] = name;
+				exception[0] = t;
+				latch.countDown();
+			}
+		});
+		DefaultAgent a = new DefaultAgent(c);
+		MyActor ma = a.create(MyActor.class);
+		AsyncResult<Void> r = ma.fail();
+		Assert.assertNull(r.getException());
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("fail", messageName[0]);
+		Assert.assertTrue(exception[0] instanceof IllegalStateException);
+	}
+	
+	/**
+	 * Tests an actor with a one-way message that does not return Void.
+	 */
+	@Test(expected=ConfigurationException.class)
+	public void testBrokenOneWay() {
+		DefaultAgent a = new DefaultAgent();
+		a.create(BrokenActor.class);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Model;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ConcurrencyModel#Pinned}.
+ */
+public class PinnedActorTest {
+	/**
+	 * Pinned actor that remembers the thread of its messages.
+	 */
+	@Model(ConcurrencyModel.Pinned)
+	public static class PinnedActor extends Actor {
+		private Thread thread;
+		private int count;
+		private boolean sameThread = true;
+		
+		/**
+		 * Counts the message and checks the thread.
+		 * @param expectedCount the number of previous messages
+		 * @return true if the message has been executed in order
+		 */
+		@Message
+		public AsyncResult<Boolean> add(int expectedCount) {
+			if (thread == null)
+				thread = Thread.currentThread();
+			else if (thread != Thread.currentThread())
+				sameThread = false;
+			return result(expectedCount == count++);
+		}
+
+		/**
+		 * Returns the name of the thread that executed the messages.
+		 * @return the thread name
+		 */
+		@Message
+		public AsyncResult<String> getThreadName() {
+			if (!sameThread)
+				throw new IllegalStateException("Messages have been executed in different threads.");
+			return result(thread.getName());
+		}
+	}
+	
+	/**
+	 * Finds a thread by name.
+	 * @param name the name of the thread
+	 * @return the thread, or null if there is no such thread
+	 */
+	private static Thread findThread(String name) {
+		for (Thread t: Thread.getAllStackTraces().keySet())
+			if (t.getName().equals(name))
+				return t;
+		return null;
+	}
+	
+	/**
+	 * Tests that all messages are executed in order in the same dedicated thread.
+	 */
+	@Test
+	public void testPinned() throws InterruptedException {
+		DefaultAgent ag = new DefaultAgent();
+		Thread t;
+		try {
+			PinnedActor a = ag.create(PinnedActor.class);
+			AsyncResult<?>[] r = new AsyncResult<?>[1000];
+			for (int i = 0; i < r.length; i++)
+				r[i] = a.add(i);
+			for (int i = 0; i < r.length; i++)
+				Assert.assertEquals(Boolean.TRUE, r[i].get());
+			
+			t = findThread(a.getThreadName().get());
+			Assert.assertNotNull(t);
+			Assert.assertNotSame(Thread.currentThread(), t);
+			Assert.assertTrue(t.isAlive());
+		}
+		finally {
+			ag.shutdown();
+		}
+		
+		t.join(5000);
+		Assert.assertFalse(t.isAlive());
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Priority;
+import org.actorsguildframework.annotations.Shared;
+import org.actorsguildframework.annotations.ThreadUsage;
+import org.actorsguildframework.annotations.Usage;
+import org.junit.Test;
+
+/**
+ * Unit tests for message priorities.
+ */
+public class PriorityTest {
+	/**
+	 * Single-threaded test actor that records the order of its messages.
+	 */
+	public static class MyActor extends Actor {
+		/**
+		 * The names of all executed messages, in execution order.
+		 */
+		public volatile String log = "";
+		
+		/**
+		 * Counted down when {@link #block()} has started.
+		 */
+		public final CountDownLatch started = new CountDownLatch(1);
+		
+		/**
+		 * Blocks {@link #block()} until counted down.
+		 */
+		public final CountDownLatch release = new CountDownLatch(1);
+		
+		/**
+		 * Blocks the actor until {@link #release} is counted down.
+		 * @return void
+		 */
+		@Message
+		@Usage(ThreadUsage.Waiting)
+		public AsyncResult<Void> block() {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new ActorRuntimeException("Interrupted while waiting for the release", e);
+			}
+			return noResult();
+		}
+		
+		/**
+		 * Low-priority message.
+		 * @return void
+		 */
+		@Message
+		@Priority(Priority.LOW)
+		public AsyncResult<Void> low() {
+			log += "L";
+			return noResult();
+		}
+
+		/**
+		 * Normal message.
+		 * @return void
+		 */
+		@Message
+		public AsyncResult<Void> normal() {
+			log += "N";
+			return noResult();
+		}
+		
+		/**
+		 * High-priority message.
+		 * @return void
+		 */
+		@Message
+		@Priority(Priority.HIGH)
+		public AsyncResult<Void> high() {
+			log += "H";
+			return noResult();
+		}
+	}
+	
+	/**
+	 * Actor that appends a name to a shared log.
+	 */
+	public static class LogActor extends Actor {
+		/**
+		 * Normal message.
+		 * @param log the log to append to
+		 * @param name the name to append
+		 * @param done counted down after appending
+		 * @return void
+		 */
+		@Message
+		public AsyncResult<Void> normal(@Shared StringBuffer log, String name, @Shared CountDownLatch done) {
+			log.append(name);
+			done.countDown();
+			return noResult();
+		}
+		
+		/**
+		 * High-priority message.
+		 * @param log the log to append to
+		 * @param name the name to append
+		 * @param done counted down after appending
+		 * @return void
+		 */
+		@Message
+		@Priority(Priority.HIGH)
+		public AsyncResult<Void> high(@Shared StringBuffer log, String name, @Shared CountDownLatch done) {
+			log.append(name);
+			done.countDown();
+			return noResult();
+		}
+	}
+	
+	/**
+	 * Runs the ordering test on the given agent.
+	 * @param a the agent
+	 */
+	private void checkOrder(DefaultAgent a) throws InterruptedException {
+		MyActor ma = a.create(MyActor.class);
+		AsyncResult<Void> blocker = ma.block();
+		Assert.assertTrue(ma.started.await(10, TimeUnit.SECONDS));
+		AsyncResult<Void> r1 = ma.low();
+		AsyncResult<Void> r2 = ma.normal();
+		AsyncResult<Void> r3 = ma.high();
+		AsyncResult<Void> r4 = ma.normal();
+		AsyncResult<Void> r5 = ma.high();
+		ma.release.countDown();
+		a.awaitAll(blocker, r1, r2, r3, r4, r5);
+		Assert.assertNull(blocker.getException());
+		Assert.assertEquals("HHNNL", ma.log);
+	}
+	
+	/**
+	 * Tests that high-priority messages overtake other messages.
+	 * @throws InterruptedException 
+	 */
+	@Test
+	public void testMessageOrder() throws InterruptedException {
+		checkOrder(new DefaultAgent());
+	}
+
+	/**
+	 * Tests the order with priority scheduling enabled.
+	 * @throws InterruptedException 
+	 */
+	@Test
+	public void testMessageOrderWithPriorityScheduling() throws InterruptedException {
+		DefaultAgent.Configuration c = new DefaultAgent.Configuration();
+		c.setPriorityScheduling(true);
+		Assert.assertTrue(c.isPriorityScheduling());
+		checkOrder(new DefaultAgent(c));
+	}
+
+	/**
+	 * Tests that priority scheduling gives the only worker thread to an actor with a 
+	 * high-priority message before an actor that has been waiting longer.
+	 * @throws InterruptedException 
+	 */
+	@Test
+	public void testActorOrderWithPriorityScheduling() throws InterruptedException {
+		DefaultAgent.Configuration c = new DefaultAgent.Configuration();
+		c.setPriorityScheduling(true);
+		c.setMaxPhysicalWorker(1);
+		c.setMaxEffectiveWorker(1);
+		c.setAdaptivePoolSizing(false);
+		DefaultAgent a = new DefaultAgent(c);
+		try {
+			MyActor blocker = a.create(MyActor.class);
+			LogActor normalActor = a.create(LogActor.class);
+			LogActor urgentActor = a.create(LogActor.class);
+			StringBuffer log = new StringBuffer();
+			CountDownLatch done = new CountDownLatch(2);
+			
+			blocker.block();
+			Assert.assertTrue(blocker.started.await(10, TimeUnit.SECONDS));
+			normalActor.normal(log, "N", done);
+			urgentActor.high(log, "H", done);
+			blocker.release.countDown();
+			Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals("HN", log.toString());
+		}
+		finally {
+			a.shutdown();
+		}
+	}
+}
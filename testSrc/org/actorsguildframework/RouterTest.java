@@ -0,0 +1,229 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.RouteKey;
+import org.junit.Test;
+
+/**
+ * Unit tests for routers.
+ */
+public class RouterTest {
+	private final static AtomicInteger idGenerator = new AtomicInteger();
+	
+	/**
+	 * Actor that returns its unique id.
+	 */
+	public static class MemberActor extends Actor {
+		private final int id = idGenerator.incrementAndGet();
+		
+		/**
+		 * Returns the id of the actor.
+		 * @param key the routing key
+		 * @return the id
+		 */
+		@Message
+		public AsyncResult<Integer> getId(@RouteKey String key) {
+			return result(id);
+		}
+		
+		/**
+		 * Returns the id of the actor.
+		 * @return the id
+		 */
+		@Message
+		public AsyncResult<Integer> getId() {
+			return result(id);
+		}
+		
+		/**
+		 * Sleeps for the given time.
+		 * @param ms the time in milliseconds
+		 * @return nothing
+		 */
+		@Message
+		public AsyncResult<Void> sleep(int ms) {
+			try {
+				Thread.sleep(ms);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return noResult();
+		}
+	}
+	
+	/**
+	 * Actor with two RouteKeys.
+	 */
+	public static class TwoRouteKeysActor extends Actor {
+		/**
+		 * Does nothing.
+		 * @param a a key
+		 * @param b another key
+		 * @return nothing
+		 */
+		@Message
+		public AsyncResult<Void> m(@RouteKey String a, @RouteKey String b) {
+			return noResult();
+		}
+	}
+	
+	/**
+	 * Returns the member id for each of the given number of keys.
+	 * @param router the router
+	 * @param n the number of keys
+	 * @return maps key to member id
+	 */
+	private static Map<String, Integer> getIds(MemberActor router, int n) {
+		Map<String, AsyncResult<Integer>> results = new HashMap<String, AsyncResult<Integer>>();
+		for (int i = 0; i < n; i++)
+			results.put("key" + i, router.getId("key" + i));
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (Map.Entry<String, AsyncResult<Integer>> e: results.entrySet())
+			ids.put(e.getKey(), e.getValue().get());
+		return ids;
+	}
+	
+	/**
+	 * Tests that the same key always reaches the same member, and that resizing 
+	 * moves only the keys of the added or removed member.
+	 */
+	@Test
+	public void testConsistentHash() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			MemberActor router = ag.createRouter(MemberActor.class, 4, RoutingStrategy.ConsistentHash);
+			Map<String, Integer> ids = getIds(router, 1000);
+			Assert.assertEquals(ids, getIds(router, 1000));
+			Assert.assertEquals(4, new HashSet<Integer>(ids.values()).size());
+			
+			ag.resizeRouter(router, 5);
+			List<Actor> members = ag.getRouterMembers(router);
+			Assert.assertEquals(5, members.size());
+			int newId = ((MemberActor)members.get(4)).getId().get();
+			Map<String, Integer> ids5 = getIds(router, 1000);
+			int moved = 0;
+			for (String key: ids.keySet())
+				if (!ids.get(key).equals(ids5.get(key))) {
+					Assert.assertEquals(newId, ids5.get(key).intValue());
+					moved++;
+				}
+			Assert.assertTrue(moved > 50);
+			Assert.assertTrue(moved < 400);
+			
+			ag.resizeRouter(router, 4);
+			Assert.assertEquals(ids, getIds(router, 1000));
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests round-robin distribution.
+	 */
+	@Test
+	public void testRoundRobin() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			MemberActor router = ag.createRouter(MemberActor.class, 4, RoutingStrategy.RoundRobin);
+			Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+			for (int i = 0; i < 8; i++) {
+				int id = router.getId("same key").get();
+				counts.put(id, counts.containsKey(id) ? counts.get(id) + 1 : 1);
+			}
+			Assert.assertEquals(4, counts.size());
+			for (int c: counts.values())
+				Assert.assertEquals(2, c);
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that messages are not sent to a busy member.
+	 */
+	@Test
+	public void testLeastLoaded() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			MemberActor router = ag.createRouter(MemberActor.class, 2, RoutingStrategy.LeastLoaded);
+			List<Actor> members = ag.getRouterMembers(router);
+			MemberActor busy = (MemberActor) members.get(0);
+			int idleId = ((MemberActor) members.get(1)).getId().get();
+			
+			AsyncResult<?>[] sleeps = new AsyncResult<?>[20];
+			for (int i = 0; i < sleeps.length; i++)
+				sleeps[i] = busy.sleep(50);
+			Set<Integer> ids = new HashSet<Integer>();
+			for (int i = 0; i < 10; i++)
+				ids.add(router.getId().get());
+			Assert.assertEquals(1, ids.size());
+			Assert.assertEquals(idleId, ids.iterator().next().intValue());
+			ag.awaitAll(sleeps);
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests invalid arguments.
+	 */
+	@Test
+	public void testInvalidArguments() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			try {
+				ag.createRouter(MemberActor.class, 0, RoutingStrategy.RoundRobin);
+				Assert.fail();
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+			try {
+				ag.resizeRouter(ag.create(MemberActor.class), 2);
+				Assert.fail();
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a message can not have two RouteKeys.
+	 */
+	@Test(expected=ConfigurationException.class)
+	public void testTwoRouteKeys() {
+		new DefaultAgent().create(TwoRouteKeysActor.class);
+	}
+}
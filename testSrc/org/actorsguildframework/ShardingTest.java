@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.Batch;
+import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Model;
+import org.actorsguildframework.annotations.ShardKey;
+import org.actorsguildframework.immutable.ImmutableList;
+import org.junit.Test;
+
+/**
+ * Unit tests for the lanes of multi-threaded actors.
+ */
+public class ShardingTest {
+	/**
+	 * Stateless actor with sharded messages.
+	 */
+	@Model(ConcurrencyModel.Stateless)
+	public static class ShardedActor extends Actor {
+		/**
+		 * Doubles the argument.
+		 * @param key the key to double
+		 * @return the doubled key
+		 */
+		@Message
+		public AsyncResult<Integer> twice(@ShardKey int key) {
+			return result(key * 2);
+		}
+		
+		/**
+		 * Returns the argument plus one.
+		 * @param i the number
+		 * @return i + 1
+		 */
+		@Message
+		@Batch("incBatch")
+		public AsyncResult<Integer> inc(int i) {
+			return result(i + 1);
+		}
+
+		/**
+		 * Batch handler for {@link #inc(int)}.
+		 * @param is the numbers
+		 * @return a list of results
+		 */
+		private AsyncResult<List<Integer>> incBatch(ImmutableList<Integer> is) {
+			List<Integer> r = new ArrayList<Integer>();
+			for (int i: is)
+				r.add(i + 1);
+			return result(r);
+		}
+	}
+	
+	/**
+	 * Actor that sends many messages to a ShardedActor.
+	 */
+	public static class SenderActor extends Actor {
+		/**
+		 * Sends messages and checks their results.
+		 * @param target the actor to send the messages to
+		 * @param n the number of messages
+		 * @return true if all results were correct
+		 */
+		@Message
+		public AsyncResult<Boolean> send(ShardedActor target, int n) {
+			@SuppressWarnings("unchecked")
+			AsyncResult<Integer>[] r1 = new AsyncResult[n];
+			@SuppressWarnings("unchecked")
+			AsyncResult<Integer>[] r2 = new AsyncResult[n];
+			for (int i = 0; i < n; i++) {
+				r1[i] = target.twice(i);
+				r2[i] = target.inc(i);
+			}
+			for (int i = 0; i < n; i++)
+				if ((r1[i].get() != i * 2) || (r2[i].get() != i + 1))
+					return result(false);
+			return result(true);
+		}
+	}
+	
+	/**
+	 * SingleThreaded actor with a ShardKey.
+	 */
+	public static class SingleThreadedShardActor extends Actor {
+		/**
+		 * Does nothing.
+		 * @param key a key
+		 * @return nothing
+		 */
+		@Message
+		public AsyncResult<Void> m(@ShardKey String key) {
+			return noResult();
+		}
+	}
+	
+	/**
+	 * Actor with two ShardKeys.
+	 */
+	@Model(ConcurrencyModel.MultiThreaded)
+	public static class TwoShardKeysActor extends Actor {
+		/**
+		 * Does nothing.
+		 * @param a a key
+		 * @param b another key
+		 * @return nothing
+		 */
+		@Message
+		public AsyncResult<Void> m(@ShardKey String a, @ShardKey String b) {
+			return noResult();
+		}
+	}
+	
+	/**
+	 * Sends messages from several threads to the same actor.
+	 */
+	@Test
+	public void testManySenders() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			ShardedActor t = ag.create(ShardedActor.class);
+			AsyncResult<?>[] r = new AsyncResult<?>[8];
+			for (int i = 0; i < r.length; i++)
+				r[i] = ag.create(SenderActor.class).send(t, 5000);
+			ag.awaitAll(r);
+			for (int i = 0; i < r.length; i++)
+				Assert.assertEquals(Boolean.TRUE, r[i].get());
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a ShardKey requires a multi-threaded actor.
+	 */
+	@Test(expected=ConfigurationException.class)
+	public void testSingleThreaded() {
+		new DefaultAgent().create(SingleThreadedShardActor.class);
+	}
+
+	/**
+	 * Tests that a message can not have two ShardKeys.
+	 */
+	@Test(expected=ConfigurationException.class)
+	public void testTwoShardKeys() {
+		new DefaultAgent().create(TwoShardKeysActor.class);
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Model;
+import org.junit.Test;
+
+/**
+ * Unit tests for shutting down agents.
+ */
+public class ShutdownTest {
+	/**
+	 * Actor with slow messages.
+	 */
+	public static class SlowActor extends Actor {
+		/**
+		 * Sleeps, then returns the argument.
+		 * @param ms the time to sleep in milliseconds
+		 * @param value the value to return
+		 * @return the value
+		 */
+		@Message
+		public AsyncResult<Integer> sleep(int ms, int value) {
+			pause(ms);
+			return result(value);
+		}
+		
+		/**
+		 * Sleeps, then forwards the value to the other actor.
+		 * @param ms the time to sleep in milliseconds
+		 * @param other the actor to send the value to
+		 * @param value the value
+		 * @return the result of the other actor
+		 */
+		@Message
+		public AsyncResult<Integer> forward(int ms, SlowActor other, int value) {
+			pause(ms);
+			return other.sleep(0, value);
+		}
+		
+		/**
+		 * Sleeps for the given time.
+		 * @param ms the time in milliseconds
+		 */
+		private void pause(int ms) {
+			try {
+				Thread.sleep(ms);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Pinned actor with slow messages.
+	 */
+	@Model(ConcurrencyModel.Pinned)
+	public static class PinnedSlowActor extends Actor {
+		/**
+		 * Sleeps, then returns the argument.
+		 * @param ms the time to sleep in milliseconds
+		 * @param value the value to return
+		 * @return the value
+		 */
+		@Message
+		public AsyncResult<Integer> sleep(int ms, int value) {
+			try {
+				Thread.sleep(ms);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return result(value);
+		}
+	}
+	
+	/**
+	 * Tests that a graceful shutdown processes all queued messages, including those
+	 * sent by actors during the shutdown.
+	 */
+	@Test
+	public void testGracefulShutdown() throws InterruptedException {
+		DefaultAgent ag = new DefaultAgent();
+		SlowActor a = ag.create(SlowActor.class);
+		SlowActor b = ag.create(SlowActor.class);
+		AsyncResult<Integer> r1 = a.sleep(20, 1);
+		AsyncResult<Integer> r2 = a.forward(100, b, 2);
+		AsyncResult<Integer> r3 = a.sleep(20, 3);
+		
+		Assert.assertTrue(ag.shutdownGracefully(10, TimeUnit.SECONDS));
+		Assert.assertEquals(1, r1.get().intValue());
+		Assert.assertEquals(2, r2.get().intValue());
+		Assert.assertEquals(3, r3.get().intValue());
+		Assert.assertTrue(ag.awaitTermination(10, TimeUnit.SECONDS));
+	}
+	
+	/**
+	 * Tests that no external messages are accepted during the shutdown.
+	 */
+	@Test
+	public void testRejectDuringShutdown() throws InterruptedException {
+		final DefaultAgent ag = new DefaultAgent();
+		SlowActor a = ag.create(SlowActor.class);
+		a.sleep(1000, 0);
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				ag.shutdownGracefully(10, TimeUnit.SECONDS);
+			}
+		};
+		t.start();
+		Thread.sleep(200);
+		try {
+			a.sleep(0, 1);
+			Assert.fail();
+		}
+		catch (AgentShutdownException e) {
+			// expected
+		}
+		t.join();
+		try {
+			a.sleep(0, 1);
+			Assert.fail();
+		}
+		catch (AgentShutdownException e) {
+			// expected
+		}
+	}
+	
+	/**
+	 * Tests that the remaining messages fail when the timeout expires.
+	 */
+	@Test
+	public void testTimeout() throws InterruptedException {
+		DefaultAgent ag = new DefaultAgent();
+		SlowActor a = ag.create(SlowActor.class);
+		a.sleep(2000, 1);
+		AsyncResult<Integer> r = a.sleep(0, 2);
+		
+		long start = System.nanoTime();
+		Assert.assertFalse(ag.shutdownGracefully(100, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+		try {
+			r.get();
+			Assert.fail();
+		}
+		catch (WrappedException e) {
+			Assert.assertTrue(e.getCause() instanceof AgentShutdownException);
+		}
+		Assert.assertTrue(ag.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Tests that threads waiting for a result are woken up by the shutdown.
+	 */
+	@Test
+	public void testWakeWaiters() throws InterruptedException {
+		final DefaultAgent ag = new DefaultAgent();
+		SlowActor a = ag.create(SlowActor.class);
+		a.sleep(2000, 1);
+		final AsyncResult<Integer> r = a.sleep(0, 2);
+		final Throwable[] error = new Throwable[1];
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					r.get();
+				}
+				catch (Throwable e) {
+					error[0] = e;
+				}
+			}
+		};
+		t.start();
+		Thread.sleep(100);
+		Assert.assertFalse(ag.awaitTermination(10, TimeUnit.MILLISECONDS));
+		ag.shutdown();
+		t.join(5000);
+		Assert.assertFalse(t.isAlive());
+		Assert.assertTrue(error[0] instanceof WrappedException);
+		Assert.assertTrue(error[0].getCause() instanceof AgentShutdownException);
+		Assert.assertTrue(ag.awaitTermination(10, TimeUnit.SECONDS));
+	}
+	
+	/**
+	 * Tests that the notifiers of messages that were queued for a busy actor are 
+	 * invoked after the shutdown.
+	 */
+	@Test
+	public void testNotifyBusyActorMessages() throws InterruptedException {
+		DefaultAgent ag = new DefaultAgent();
+		SlowActor a = ag.create(SlowActor.class);
+		a.sleep(2000, 1);
+		AsyncResult<Integer> r = a.sleep(0, 2);
+		final CountDownLatch notified = new CountDownLatch(1);
+		r.addNotifier(new AsyncResult.Notifier<Integer>() {
+			public void resultReady(AsyncResult<Integer> result) {
+				notified.countDown();
+			}
+		});
+		Thread.sleep(100);
+		ag.shutdown();
+		Assert.assertTrue(notified.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(r.getException() instanceof AgentShutdownException);
+		Assert.assertTrue(ag.awaitTermination(10, TimeUnit.SECONDS));
+	}
+	
+	/**
+	 * Tests that the messages queued for a pinned actor fail after the shutdown, 
+	 * including those sent while the agent is shutting down.
+	 */
+	@Test
+	public void testPinnedActorShutdown() throws InterruptedException {
+		final DefaultAgent ag = new DefaultAgent();
+		PinnedSlowActor a = ag.create(PinnedSlowActor.class);
+		a.sleep(500, 1);
+		AsyncResult<Integer> r = a.sleep(0, 2);
+		
+		final List<AsyncResult<Integer>> results = new ArrayList<AsyncResult<Integer>>();
+		final CountDownLatch sending = new CountDownLatch(4);
+		Thread[] senders = new Thread[4];
+		for (int i = 0; i < senders.length; i++) {
+			senders[i] = new Thread() {
+				@Override
+				public void run() {
+					PinnedSlowActor p = null;
+					int j = 0;
+					try {
+						for (; j < 500; j++) {
+							if (j % 20 == 0)
+								p = ag.create(PinnedSlowActor.class);
+							AsyncResult<Integer> pr = p.sleep(0, j);
+							synchronized (results) {
+								results.add(pr);
+							}
+							if (j == 100)
+								sending.countDown();
+						}
+					}
+					catch (AgentShutdownException e) {
+						// expected
+					}
+					finally {
+						if (j <= 100)
+							sending.countDown();
+					}
+				}
+			};
+			senders[i].start();
+		}
+		sending.await();
+		ag.shutdown();
+		for (Thread t: senders)
+			t.join();
+		
+		Assert.assertTrue(r.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(r.getException() instanceof AgentShutdownException);
+		synchronized (results) {
+			for (AsyncResult<Integer> pr: results)
+				Assert.assertTrue(pr.await(5, TimeUnit.SECONDS));
+		}
+		Assert.assertTrue(ag.awaitTermination(10, TimeUnit.SECONDS));
+	}
+}
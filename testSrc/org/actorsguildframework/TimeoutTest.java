@@ -0,0 +1,208 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.ConcurrencyModel;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Model;
+import org.junit.Test;
+
+/**
+ * Unit tests for timeouts and cancellation of messages.
+ */
+public class TimeoutTest {
+	/**
+	 * Actor with a slow message.
+	 */
+	public static class SlowActor extends Actor {
+		private int executed;
+		
+		/**
+		 * Sleeps, then returns the number of executed messages.
+		 * @param ms the time to sleep in milliseconds
+		 * @return the number of messages executed before, including this one
+		 */
+		@Message
+		public AsyncResult<Integer> sleep(int ms) {
+			try {
+				Thread.sleep(ms);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return result(++executed);
+		}
+	}
+	
+	/**
+	 * Multi-threaded actor with a slow message.
+	 */
+	@Model(ConcurrencyModel.Stateless)
+	public static class StatelessSlowActor extends Actor {
+		/**
+		 * Sleeps, then returns the argument.
+		 * @param ms the time to sleep in milliseconds
+		 * @return ms
+		 */
+		@Message
+		public AsyncResult<Integer> sleep(int ms) {
+			try {
+				Thread.sleep(ms);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return result(ms);
+		}
+	}
+	
+	/**
+	 * Tests get() and await() with timeouts.
+	 */
+	@Test
+	public void testGetWithTimeout() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			SlowActor a = ag.create(SlowActor.class);
+			AsyncResult<Integer> r = a.sleep(500);
+			long start = System.nanoTime();
+			try {
+				r.get(50, TimeUnit.MILLISECONDS);
+				Assert.fail();
+			}
+			catch (ResultTimeoutException e) {
+				// expected
+			}
+			Assert.assertFalse(r.await(10, TimeUnit.MILLISECONDS));
+			Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+			Assert.assertTrue(r.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(1, r.get(0, TimeUnit.MILLISECONDS).intValue());
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests awaitAll() and awaitAny() with timeouts.
+	 */
+	@Test
+	public void testAwaitWithTimeout() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			SlowActor a = ag.create(SlowActor.class);
+			SlowActor b = ag.create(SlowActor.class);
+			AsyncResult<Integer> r1 = a.sleep(300);
+			AsyncResult<Integer> r2 = b.sleep(600);
+			Assert.assertNull(ag.awaitAny(50, TimeUnit.MILLISECONDS, r1, r2));
+			Assert.assertFalse(ag.awaitAll(50, TimeUnit.MILLISECONDS, r1, r2));
+			Assert.assertSame(r1, ag.awaitAny(10, TimeUnit.SECONDS, r1, r2));
+			Assert.assertTrue(ag.awaitAll(10, TimeUnit.SECONDS, r1, r2));
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that awaitAny() does not ignore interrupts.
+	 */
+	@Test
+	public void testAwaitAnyInterrupted() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			SlowActor a = ag.create(SlowActor.class);
+			SlowActor b = ag.create(SlowActor.class);
+			AsyncResult<Integer> r1 = a.sleep(500);
+			AsyncResult<Integer> r2 = b.sleep(500);
+			Thread.currentThread().interrupt();
+			try {
+				ag.awaitAny(r1, r2);
+				Assert.fail();
+			}
+			catch (ActorException e) {
+				Assert.assertTrue(e.getCause() instanceof InterruptedException);
+			}
+			ag.awaitAll(r1, r2);
+		}
+		finally {
+			Thread.interrupted();
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests cancelling queued messages.
+	 */
+	@Test
+	public void testCancel() {
+		DefaultAgent ag = new DefaultAgent();
+		SlowActor a = ag.create(SlowActor.class);
+		AsyncResult<Integer> r1 = a.sleep(300);
+		AsyncResult<Integer> r2 = a.sleep(0);
+		AsyncResult<Integer> r3 = a.sleep(0);
+		
+		Assert.assertTrue(r2.cancel());
+		Assert.assertFalse(r2.cancel());
+		Assert.assertTrue(r2.isReady());
+		try {
+			r2.get();
+			Assert.fail();
+		}
+		catch (WrappedException e) {
+			Assert.assertTrue(e.getCause() instanceof CancellationException);
+		}
+		Assert.assertEquals(1, r1.get().intValue());
+		Assert.assertEquals(2, r3.get().intValue());
+		Assert.assertFalse(r1.cancel());
+		
+		// cancelled messages must not keep the agent from draining
+		Assert.assertTrue(ag.shutdownGracefully(10, TimeUnit.SECONDS));
+	}
+	
+	/**
+	 * Tests cancelling queued messages of multi-threaded actors.
+	 */
+	@Test
+	public void testCancelMultiThreaded() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			StatelessSlowActor a = ag.create(StatelessSlowActor.class);
+			AsyncResult<?>[] r = new AsyncResult<?>[100];
+			for (int i = 0; i < r.length; i++)
+				r[i] = a.sleep(5);
+			int cancelled = 0;
+			for (int i = r.length - 1; i >= 0; i--)
+				if (r[i].cancel())
+					cancelled++;
+			Assert.assertTrue(cancelled > 0);
+			ag.awaitAll(r);
+			int failed = 0;
+			for (AsyncResult<?> x: r)
+				if (x.getException() instanceof CancellationException)
+					failed++;
+			Assert.assertEquals(cancelled, failed);
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+}
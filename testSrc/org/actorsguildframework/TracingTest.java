@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.Message;
+import org.junit.Test;
+
+/**
+ * Unit tests for message tracing.
+ */
+public class TracingTest {
+	/**
+	 * Actor that does nothing.
+	 */
+	public static class ChildActor extends Actor {
+		/**
+		 * Does nothing.
+		 * @param i ignored
+		 * @return void
+		 */
+		@Message
+		public AsyncResult<Void> work(int i) {
+			return noResult();
+		}
+	}
+	
+	/**
+	 * Actor that sends messages to a {@link ChildActor}.
+	 */
+	public static class ParentActor extends Actor {
+		/**
+		 * Sends n messages to the child.
+		 * @param child the child actor
+		 * @param n the number of messages
+		 * @return void
+		 */
+		@Message
+		public AsyncResult<Void> fanOut(ChildActor child, int n) {
+			AsyncResult<?>[] r = new AsyncResult<?>[n];
+			for (int i = 0; i < n; i++)
+				r[i] = child.work(i);
+			for (AsyncResult<?> ar: r)
+				ar.await();
+			return noResult();
+		}
+	}
+	
+	/**
+	 * Counts the occurrences of a string.
+	 * @param s the string to search
+	 * @param sub the string to count
+	 * @return the number of occurrences
+	 */
+	private static int count(String s, String sub) {
+		int c = 0;
+		for (int i = s.indexOf(sub); i >= 0; i = s.indexOf(sub, i + 1))
+			c++;
+		return c;
+	}
+	
+	/**
+	 * Shuts the agent down and writes the trace. Since messages are recorded after their 
+	 * result has been set, the trace is complete only after all workers have terminated.
+	 * @param a the agent
+	 * @return the trace
+	 * @throws IOException never
+	 * @throws InterruptedException if interrupted
+	 */
+	private static String writeTraceAfterTermination(DefaultAgent a) throws IOException, InterruptedException {
+		a.shutdown();
+		Assert.assertTrue(a.awaitTermination(10, TimeUnit.SECONDS));
+		StringWriter w = new StringWriter();
+		a.writeTrace(w);
+		return w.toString();
+	}
+	
+	/**
+	 * Tests the trace of a message that sends other messages.
+	 * @throws IOException never
+	 * @throws InterruptedException if interrupted
+	 */
+	@Test
+	public void testTrace() throws IOException, InterruptedException {
+		DefaultAgent.Configuration c = new DefaultAgent.Configuration();
+		c.setTracingEnabled(true);
+		DefaultAgent a = new DefaultAgent(c);
+		try {
+			ChildActor child = a.create(ChildActor.class);
+			ParentActor parent = a.create(ParentActor.class);
+			parent.fanOut(child, 10).await();
+			
+			String trace = writeTraceAfterTermination(a);
+			Assert.assertTrue(trace.startsWith("{\"traceEvents\":["));
+			Assert.assertTrue(trace.trim().endsWith("]}"));
+			Assert.assertEquals(1, count(trace, "\"name\":\"fanOut\""));
+			Assert.assertEquals(10, count(trace, "\"name\":\"work\""));
+			Assert.assertEquals(10, count(trace, "\"ph\":\"s\""));
+			Assert.assertEquals(10, count(trace, "\"ph\":\"f\""));
+			Assert.assertTrue(trace.contains("\"cat\":\""+ChildActor.class.getName()+"\""));
+			Assert.assertTrue(trace.contains("\"ph\":\"M\""));
+		}
+		finally {
+			a.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that the ring buffer keeps only the newest records.
+	 * @throws IOException never
+	 */
+	@Test
+	public void testBufferOverflow() throws IOException {
+		DefaultAgent.Configuration c = new DefaultAgent.Configuration();
+		c.setTracingEnabled(true);
+		c.setTraceBufferSize(16);
+		DefaultAgent a = new DefaultAgent(c);
+		try {
+			ChildActor child = a.create(ChildActor.class);
+			for (int i = 0; i < 100; i++)
+				child.work(i).await();
+			
+			StringWriter w = new StringWriter();
+			a.writeTrace(w);
+			String trace = w.toString();
+			int n = count(trace, "\"name\":\"work\"");
+			Assert.assertTrue(n > 0);
+			Assert.assertTrue(n <= 16 * c.getMaxPhysicalWorker());
+			Assert.assertEquals(0, count(trace, "\"ph\":\"s\""));
+		}
+		finally {
+			a.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that writing a trace fails without tracing.
+	 * @throws IOException never
+	 */
+	@Test(expected=IllegalStateException.class)
+	public void testDisabled() throws IOException {
+		DefaultAgent a = new DefaultAgent();
+		try {
+			a.writeTrace(new StringWriter());
+		}
+		finally {
+			a.shutdown();
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.internal.ActorState;
+import org.junit.Test;
+
+/**
+ * Unit tests for worker groups and CPU affinity.
+ */
+public class WorkerGroupTest {
+	/**
+	 * AffinityProvider that records all calls.
+	 */
+	static class RecordingAffinityProvider implements AffinityProvider {
+		/**
+		 * The CPU lists of all calls.
+		 */
+		final List<String> calls = new ArrayList<String>();
+		
+		/**
+		 * The names of the threads of all calls.
+		 */
+		final List<String> threadNames = new ArrayList<String>();
+		
+		public synchronized void bindCurrentThread(int[] cpus) {
+			calls.add(Arrays.toString(cpus));
+			threadNames.add(Thread.currentThread().getName());
+		}
+	}
+	
+	/**
+	 * Actor that can create other actors.
+	 */
+	public static class MyActor extends Actor {
+		/**
+		 * Creates a new MyActor.
+		 * @return the new actor
+		 */
+		@Message
+		public AsyncResult<MyActor> createChild() {
+			return result(getAgent().create(MyActor.class));
+		}
+		
+		/**
+		 * Returns the argument.
+		 * @param i a number
+		 * @return the number
+		 */
+		@Message
+		public AsyncResult<Integer> echo(int i) {
+			return result(i);
+		}
+	}
+
+	/**
+	 * Tests that groups execute messages and pin their threads.
+	 */
+	@Test
+	public void testGroups() throws InterruptedException {
+		RecordingAffinityProvider p = new RecordingAffinityProvider();
+		DefaultAgent.Configuration c = new DefaultAgent.Configuration();
+		c.setWorkerGroups(new int[][] {{0, 1}, {2, 3}});
+		c.setAffinityProvider(p);
+		DefaultAgent a = new DefaultAgent(c);
+		try {
+			MyActor a1 = a.create(MyActor.class);
+			MyActor a2 = a.create(MyActor.class);
+			Assert.assertNotSame(ActorState.getState(a1).getHomeGroup(), ActorState.getState(a2).getHomeGroup());
+			
+			AsyncResult<?>[] r = new AsyncResult<?>[100];
+			for (int i = 0; i < r.length; i++)
+				r[i] = ((i % 2) == 0 ? a1 : a2).echo(i);
+			a.awaitAll(r);
+			for (int i = 0; i < r.length; i++)
+				Assert.assertEquals(i, r[i].get());
+			
+			MyActor child = a1.createChild().get();
+			Assert.assertSame(ActorState.getState(a1).getHomeGroup(), ActorState.getState(child).getHomeGroup());
+			Assert.assertEquals(7, child.echo(7).get().intValue());
+			
+			// worker threads bind themselves after they have been started
+			for (int i = 0; i < 500; i++) {
+				synchronized (p) {
+					if (p.calls.size() > 0)
+						break;
+				}
+				Thread.sleep(10);
+			}
+		}
+		finally {
+			a.shutdown();
+		}
+		
+		synchronized (p) {
+			Assert.assertTrue(p.calls.size() > 0);
+			for (String s: p.calls)
+				Assert.assertTrue(s.equals("[0, 1]") || s.equals("[2, 3]"));
+		}
+	}
+
+	/**
+	 * Tests that dispatchers use the agent's groups.
+	 */
+	@Test
+	public void testDispatcherGroups() throws InterruptedException {
+		RecordingAffinityProvider p = new RecordingAffinityProvider();
+		DefaultAgent.Configuration c = new DefaultAgent.Configuration();
+		c.setWorkerGroups(new int[][] {{0, 1}, {2, 3}});
+		c.setAffinityProvider(p);
+		DefaultAgent.DispatcherConfiguration dc = new DefaultAgent.DispatcherConfiguration();
+		dc.setThreadFactory(new DispatcherTest.NamedThreadFactory("io"));
+		c.addDispatcher("io", dc);
+		DefaultAgent a = new DefaultAgent(c);
+		try {
+			DispatcherTest.IoActor io = a.create(DispatcherTest.IoActor.class);
+			int[] cpus = ActorState.getState(io).getHomeGroup().getCpus();
+			Assert.assertTrue(Arrays.equals(new int[] {0, 1}, cpus) || Arrays.equals(new int[] {2, 3}, cpus));
+			
+			io.getThreadName().await();
+			
+			// worker threads bind themselves after they have been started
+			for (int i = 0; i < 500; i++) {
+				synchronized (p) {
+					if (p.threadNames.contains("io-worker"))
+						break;
+				}
+				Thread.sleep(10);
+			}
+		}
+		finally {
+			a.shutdown();
+		}
+		
+		synchronized (p) {
+			Assert.assertTrue(p.threadNames.contains("io-worker"));
+		}
+	}
+	
+	/**
+	 * Tests the configuration check.
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testEmptyGroup() {
+		new DefaultAgent.Configuration().setWorkerGroups(new int[][] {{0}, {}});
+	}
+	
+	/**
+	 * Tests the helpers of LinuxAffinityProvider.
+	 */
+	@Test
+	public void testLinuxAffinityProvider() {
+		Assert.assertEquals("0,1,4", LinuxAffinityProvider.toCpuList(new int[] {0, 1, 4}));
+		if (new File("/proc/thread-self").exists()) {
+			String tid = LinuxAffinityProvider.getCurrentThreadId();
+			Assert.assertTrue(Long.parseLong(tid) > 0);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.immutable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.annotations.Message;
+import org.junit.Test;
+
+public class ByteSliceTest {
+	
+	public static class EchoActor extends Actor {
+		@Message
+		public AsyncResult<ByteSlice> echo(ByteSlice data) {
+			return result(data);
+		}
+	}
+	
+	@Test
+	public void testCopyOf() {
+		byte[] a = new byte[] {1, 2, 3, 4, 5};
+		ByteSlice s = ByteSlice.copyOf(a);
+		a[0] = 9;
+		Assert.assertEquals(5, s.size());
+		Assert.assertEquals(1, s.get(0));
+		Assert.assertEquals(5, s.get(4));
+		Assert.assertFalse(s.isDirect());
+		
+		ByteSlice p = ByteSlice.copyOf(a, 1, 3);
+		Assert.assertEquals(3, p.size());
+		Assert.assertEquals(2, p.get(0));
+		
+		ByteBuffer d = ByteBuffer.allocateDirect(4);
+		d.putInt(0x01020304);
+		d.flip();
+		ByteSlice ds = ByteSlice.copyOf(d);
+		Assert.assertTrue(ds.isDirect());
+		Assert.assertEquals(0, d.position());
+		Assert.assertEquals(4, ds.get(3));
+		Assert.assertTrue(ByteSlice.EMPTY.isEmpty());
+	}
+	
+	@Test
+	public void testSlice() {
+		ByteSlice s = ByteSlice.copyOf(new byte[] {1, 2, 3, 4, 5, 6});
+		ByteSlice p = s.slice(2, 5);
+		Assert.assertEquals(3, p.size());
+		Assert.assertEquals(3, p.get(0));
+		Assert.assertEquals(ByteSlice.copyOf(new byte[] {4, 5}), p.slice(1, 3));
+		Assert.assertSame(s, s.slice(0, 6));
+		Assert.assertTrue(s.slice(3, 3).isEmpty());
+		try {
+			s.slice(4, 7);
+			Assert.fail();
+		}
+		catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		try {
+			p.get(3);
+			Assert.fail();
+		}
+		catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testReadOnly() {
+		ByteSlice s = ByteSlice.copyOf(new byte[] {1, 2, 3});
+		ByteBuffer b = s.asByteBuffer();
+		b.get();
+		Assert.assertEquals(3, s.asByteBuffer().remaining());
+		try {
+			b.put(0, (byte) 5);
+			Assert.fail();
+		}
+		catch (ReadOnlyBufferException e) {
+			// expected
+		}
+		byte[] copy = s.toByteArray();
+		copy[0] = 7;
+		Assert.assertEquals(1, s.get(0));
+	}
+	
+	@Test
+	public void testBuilder() {
+		ByteSliceBuilder b = new ByteSliceBuilder(2, true);
+		b.append((byte) 1).append(new byte[] {2, 3}).appendInt(0x04050607);
+		b.append(ByteSlice.copyOf(new byte[] {8}));
+		Assert.assertEquals(8, b.size());
+		ByteSlice s = b.freeze();
+		Assert.assertSame(s, b.freeze());
+		Assert.assertTrue(s.isDirect());
+		Assert.assertEquals(ByteSlice.copyOf(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}), s);
+		Assert.assertEquals(ByteSlice.copyOf(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}).hashCode(), s.hashCode());
+		try {
+			b.append((byte) 9);
+			Assert.fail();
+		}
+		catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testImmutable() throws Exception {
+		Assert.assertTrue(ImmutableHelper.isImmutableType(ByteSlice.class));
+		ByteSlice s = new ByteSliceBuilder().appendLong(42).freeze();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(s);
+		oos.close();
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		Assert.assertEquals(s, ois.readObject());
+		
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			EchoActor a = ag.create(EchoActor.class);
+			Assert.assertSame(s, a.echo(s).get()); // passed by reference
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+}
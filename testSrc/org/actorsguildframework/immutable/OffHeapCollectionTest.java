@@ -0,0 +1,227 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.immutable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.annotations.Message;
+import org.junit.Test;
+
+public class OffHeapCollectionTest {
+	
+	public static class LookupActor extends Actor {
+		@Message
+		public AsyncResult<OffHeapStringMap> echo(OffHeapStringMap map) {
+			return result(map);
+		}
+
+		@Message
+		public AsyncResult<String> lookup(OffHeapStringMap map, String key) {
+			return result(map.get(key));
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> T copy(T obj) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(obj);
+		oos.close();
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		return (T) ois.readObject();
+	}
+	
+	@Test
+	public void testPrimitiveLists() throws Exception {
+		int[] a = new int[] {1, 3, 5, 7, 9};
+		OffHeapIntList il = new OffHeapIntList(a);
+		a[0] = 100;
+		Assert.assertEquals(5, il.size());
+		Assert.assertEquals(20, il.getMemorySize());
+		Assert.assertEquals(1, il.get(0));
+		Assert.assertEquals(9, il.get(4));
+		Assert.assertEquals(2, il.indexOf(5));
+		Assert.assertTrue(il.contains(7));
+		Assert.assertFalse(il.contains(100));
+		Assert.assertEquals(3, il.binarySearch(7));
+		Assert.assertEquals(-3, il.binarySearch(4));
+		Assert.assertTrue(Arrays.equals(new int[] {1, 3, 5, 7, 9}, il.toArray()));
+		Assert.assertEquals(il, copy(il));
+		try {
+			il.get(5);
+			Assert.fail();
+		}
+		catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		
+		OffHeapLongList ll = new OffHeapLongList(Long.MIN_VALUE, 0, Long.MAX_VALUE);
+		Assert.assertEquals(3, ll.size());
+		Assert.assertEquals(Long.MAX_VALUE, ll.get(2));
+		Assert.assertEquals(1, ll.binarySearch(0));
+		Assert.assertEquals(ll, copy(ll));
+		Assert.assertTrue(new OffHeapLongList().isEmpty());
+	}
+
+	@Test
+	public void testStringList() throws Exception {
+		OffHeapStringList l = new OffHeapStringList("a", "", "\u00e4\u20ac", "last");
+		Assert.assertEquals(4, l.size());
+		Assert.assertEquals("a", l.get(0));
+		Assert.assertEquals("", l.get(1));
+		Assert.assertEquals("\u00e4\u20ac", l.get(2));
+		Assert.assertEquals(3, l.indexOf("last"));
+		Assert.assertEquals(-1, l.indexOf("las"));
+		Assert.assertEquals(new StringList("a", "", "\u00e4\u20ac", "last"), l.toStringList());
+		StringBuilder sb = new StringBuilder();
+		for (String s: l)
+			sb.append(s);
+		Assert.assertEquals("a\u00e4\u20aclast", sb.toString());
+		Assert.assertEquals(l, copy(l));
+		Assert.assertEquals(l.hashCode(), copy(l).hashCode());
+		try {
+			new OffHeapStringList("a", null);
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testStringMap() throws Exception {
+		Map<String, String> m = new HashMap<String, String>();
+		for (int i = 0; i < 1000; i++)
+			m.put("key" + i, "value" + i);
+		OffHeapStringMap om = new OffHeapStringMap(m);
+		Assert.assertEquals(1000, om.size());
+		for (int i = 0; i < 1000; i++)
+			Assert.assertEquals("value" + i, om.get("key" + i));
+		Assert.assertNull(om.get("key1000"));
+		Assert.assertNull(om.get(null));
+		Assert.assertFalse(om.containsKey("value1"));
+		Assert.assertEquals(m, om.toMap());
+		Assert.assertEquals(om.get(om.getKey(17)), om.getValue(17));
+		
+		HashMap<String, String> reversed = new HashMap<String, String>(m);
+		OffHeapStringMap om2 = new OffHeapStringMap(reversed);
+		Assert.assertEquals(om, om2);
+		Assert.assertEquals(om.hashCode(), om2.hashCode());
+		Assert.assertEquals(m.hashCode(), om.hashCode());
+		Assert.assertEquals(om, copy(om));
+		Assert.assertTrue(new OffHeapStringMap(new HashMap<String, String>()).isEmpty());
+	}
+
+	@Test
+	public void testRelease() {
+		OffHeapIntList l = new OffHeapIntList(1, 2, 3);
+		Assert.assertEquals(1, l.getReferenceCount());
+		l.retain();
+		Assert.assertEquals(2, l.getReferenceCount());
+		Assert.assertFalse(l.release());
+		Assert.assertFalse(l.isFreed());
+		Assert.assertEquals(2, l.get(1));
+		Assert.assertTrue(l.release());
+		Assert.assertTrue(l.isFreed());
+		Assert.assertEquals(0, l.getReferenceCount());
+		try {
+			l.release();
+			Assert.fail();
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			l.retain();
+			Assert.fail();
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testReleaseDuringAccess() {
+		OffHeapLongList l = new OffHeapLongList(4, 5, 6);
+		ByteBuffer m = l.beginAccess();
+		Assert.assertTrue(l.release());
+		Assert.assertTrue(l.isFreed());
+		try {
+			l.get(0);
+			Assert.fail();
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertEquals(5, m.getLong(8)); // not freed before the access ends
+		l.endAccess();
+	}
+	
+	@Test
+	public void testAccessAfterFree() throws Exception {
+		OffHeapStringMap m = new OffHeapStringMap(Collections.singletonMap("a", "b"));
+		OffHeapStringMap copy = copy(m);
+		Assert.assertTrue(m.release());
+		try {
+			m.get("a");
+			Assert.fail();
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			m.getMemorySize();
+			Assert.fail();
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertEquals("b", copy.get("a")); // a deserialized copy has its own memory
+		Assert.assertEquals(1, copy.getReferenceCount());
+		Assert.assertTrue(copy.release());
+	}
+	
+	@Test
+	public void testImmutable() {
+		Assert.assertTrue(ImmutableHelper.isImmutableType(OffHeapStringMap.class));
+		Map<String, String> m = new HashMap<String, String>();
+		m.put("x", "y");
+		OffHeapStringMap om = new OffHeapStringMap(m);
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			LookupActor a = ag.create(LookupActor.class);
+			Assert.assertSame(om, a.echo(om).get()); // passed by reference
+			Assert.assertEquals("y", a.lookup(om, "x").get());
+		}
+		finally {
+			ag.shutdown();
+			om.release();
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.annotations.Priority;
+import org.actorsguildframework.annotations.ThreadUsage;
+import org.junit.Test;
+
+/**
+ * Unit tests for Mailbox.
+ */
+public class MailboxTest {
+	/**
+	 * Caller with a configurable priority.
+	 */
+	static class PriorityCaller extends MessageCaller<Object> {
+		final int priority;
+		PriorityCaller(int priority) {
+			this.priority = priority;
+		}
+		@Override
+		public AsyncResult<Object> invoke(Actor instance, Object[] arguments) {
+			return null;
+		}
+		@Override
+		public String getMessageName() {
+			return "test";
+		}
+		@Override
+		public int getPriority() {
+			return priority;
+		}
+	}
+	
+	private static MessageInvocation<Object> msg(int priority) {
+		return new MessageInvocation<Object>(null, new PriorityCaller(priority), null, null, 
+				ThreadUsage.CpuBound, false);
+	}
+	
+	/**
+	 * Tests that messages of the same priority are kept in order.
+	 */
+	@Test
+	public void testFifo() {
+		Mailbox mb = new Mailbox();
+		Assert.assertTrue(mb.isEmpty());
+		Assert.assertNull(mb.pop());
+		MessageInvocation<?> m1 = msg(Priority.NORMAL);
+		MessageInvocation<?> m2 = msg(Priority.NORMAL);
+		MessageInvocation<?> m3 = msg(Priority.NORMAL);
+		mb.add(m1);
+		mb.add(m2);
+		mb.add(m3);
+		Assert.assertEquals(3, mb.size());
+		Assert.assertTrue(mb.isInQueue(m2));
+		Assert.assertSame(m1, mb.pop());
+		Assert.assertSame(m2, mb.pop());
+		Assert.assertSame(m3, mb.pop());
+		Assert.assertNull(mb.pop());
+		Assert.assertFalse(mb.isInQueue(m2));
+	}
+
+	/**
+	 * Tests that higher priorities are returned first.
+	 */
+	@Test
+	public void testPriorities() {
+		Mailbox mb = new Mailbox();
+		MessageInvocation<?> low = msg(Priority.LOW);
+		MessageInvocation<?> normal = msg(Priority.NORMAL);
+		MessageInvocation<?> high1 = msg(Priority.HIGH);
+		MessageInvocation<?> high2 = msg(Priority.HIGH);
+		mb.add(low);
+		mb.add(normal);
+		mb.add(high1);
+		mb.add(high2);
+		Assert.assertEquals(Priority.HIGH, mb.getHighestPriority());
+		Assert.assertSame(high1, mb.pop());
+		Assert.assertTrue(mb.remove(high2));
+		Assert.assertFalse(mb.remove(high2));
+		Assert.assertEquals(Priority.NORMAL, mb.getHighestPriority());
+		Assert.assertSame(normal, mb.pop());
+		Assert.assertEquals(Priority.LOW, mb.getHighestPriority());
+		Assert.assertSame(low, mb.pop());
+		Assert.assertTrue(mb.isEmpty());
+		Assert.assertEquals(Priority.NORMAL, mb.getHighestPriority());
+	}
+
+	/**
+	 * Tests that the oldest message can not be overtaken infinitely.
+	 */
+	@Test
+	public void testStarvation() {
+		Mailbox mb = new Mailbox();
+		MessageInvocation<?> low = msg(Priority.LOW);
+		mb.add(low);
+		for (int i = 0; i < Mailbox.STARVATION_LIMIT * 2; i++)
+			mb.add(msg(Priority.HIGH));
+		for (int i = 0; i < Mailbox.STARVATION_LIMIT; i++)
+			Assert.assertEquals(Priority.HIGH, mb.pop().getPriority());
+		Assert.assertSame(low, mb.pop());
+		Assert.assertEquals(Mailbox.STARVATION_LIMIT, mb.size());
+		mb.clear();
+		Assert.assertTrue(mb.isEmpty());
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for ThreadPoolSizer.
+ */
+public class ThreadPoolSizerTest {
+	/**
+	 * The interval used in the tests.
+	 */
+	private final static long I = 1000;
+	
+	/**
+	 * Tests that the target climbs while throughput improves and turns around when it drops.
+	 */
+	@Test
+	public void testClimbing() {
+		ThreadPoolSizer s = new ThreadPoolSizer(2, 10, I, 0);
+		Assert.assertEquals(2, s.getTarget());
+		Assert.assertFalse(s.isSampleDue(I - 1));
+		Assert.assertTrue(s.isSampleDue(I));
+		
+		long completed = 0;
+		long now = 0;
+		// throughput grows with the number of threads up to 5
+		for (int i = 0; i < 5; i++) {
+			completed += 100 * Math.min(s.getTarget(), 5);
+			now += I;
+			s.sample(now, completed, true);
+		}
+		Assert.assertTrue(s.getTarget() >= 5);
+		
+		// more than 5 threads make it worse
+		for (int i = 0; i < 20; i++) {
+			int t = s.getTarget();
+			completed += (t <= 5) ? 100 * t : 500 - 50 * (t - 5);
+			now += I;
+			s.sample(now, completed, true);
+			Assert.assertTrue(s.getTarget() >= 3);
+			Assert.assertTrue(s.getTarget() <= 7);
+		}
+	}
+
+	/**
+	 * Tests that the target stays unchanged when the throughput does not change.
+	 */
+	@Test
+	public void testHysteresis() {
+		ThreadPoolSizer s = new ThreadPoolSizer(2, 10, I, 0);
+		Assert.assertTrue(s.sample(I, 1000, true));
+		Assert.assertEquals(3, s.getTarget());
+		for (int i = 2; i < 20; i++) {
+			Assert.assertFalse(s.sample(i * I, i * 1000 + (i % 2) * 20, true));
+			Assert.assertEquals(3, s.getTarget());
+		}
+	}
+
+	/**
+	 * Tests the limits and shrinking without backlog.
+	 */
+	@Test
+	public void testLimits() {
+		ThreadPoolSizer s = new ThreadPoolSizer(2, 4, I, 0);
+		long completed = 0;
+		for (int i = 1; i < 10; i++) {
+			completed += i * 1000;
+			s.sample(i * I, completed, true);
+			Assert.assertTrue(s.getTarget() <= 4);
+		}
+		for (int i = 10; i < 20; i++)
+			s.sample(i * I, completed, false);
+		Assert.assertEquals(2, s.getTarget());
+		
+		s = new ThreadPoolSizer(8, 4, I, 0);
+		Assert.assertEquals(4, s.getTarget());
+	}
+}
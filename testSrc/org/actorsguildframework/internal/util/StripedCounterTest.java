@@ -0,0 +1,70 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.internal.util;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.metrics.HistogramSnapshot;
+import org.junit.Test;
+
+/**
+ * Unit tests for StripedCounter and Log2Histogram.
+ */
+public class StripedCounterTest {
+	/**
+	 * Tests concurrent counting.
+	 * @throws InterruptedException 
+	 */
+	@Test
+	public void testConcurrentCount() throws InterruptedException {
+		final StripedCounter c = new StripedCounter();
+		final Log2Histogram h = new Log2Histogram();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						c.increment();
+						h.record(j % 4);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t: threads)
+			t.join();
+		Assert.assertEquals(80000, c.get());
+		
+		HistogramSnapshot s = h.snapshot();
+		Assert.assertEquals(80000, s.getCount());
+		Assert.assertEquals(20000, s.getBucketCount(0)); // 0
+		Assert.assertEquals(20000, s.getBucketCount(1)); // 1
+		Assert.assertEquals(40000, s.getBucketCount(2)); // 2, 3
+		Assert.assertEquals(120000, s.getSum());
+	}
+	
+	/**
+	 * Tests add().
+	 */
+	@Test
+	public void testAdd() {
+		StripedCounter c = new StripedCounter();
+		Assert.assertEquals(0, c.get());
+		c.add(5);
+		c.add(-2);
+		Assert.assertEquals(3, c.get());
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.io.File;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.Props;
+import org.actorsguildframework.immutable.ByteSlice;
+import org.junit.Test;
+
+/**
+ * Unit tests for AppendFileActor.
+ */
+public class AppendFileActorTest {
+	/**
+	 * Creates the data for the i-th append.
+	 * @param i the index
+	 * @return the data
+	 */
+	private static ByteSlice data(int i) {
+		byte[] r = new byte[1 + (i % 50)];
+		for (int j = 0; j < r.length; j++)
+			r[j] = (byte) (i + j);
+		return ByteSlice.copyOf(r);
+	}
+	
+	/**
+	 * Appends data, reads it back and reopens the file.
+	 * @throws Exception on error
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testAppendAndRead() throws Exception {
+		File f = File.createTempFile("appendtest", ".dat");
+		f.deleteOnExit();
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			Props props = new Props("fileName", f.getPath()).add("segmentSize", 256);
+			AppendFileActor a = ag.create(AppendFileActor.class, props);
+			
+			int n = 500;
+			AsyncResult<Long>[] offsets = new AsyncResult[n];
+			for (int i = 0; i < n; i++)
+				offsets[i] = a.append(data(i));
+			ag.awaitAllUntilError(offsets);
+			
+			long expectedOffset = 0;
+			for (int i = 0; i < n; i++) {
+				Assert.assertEquals(expectedOffset, offsets[i].get().longValue());
+				expectedOffset += data(i).size();
+			}
+			Assert.assertEquals(expectedOffset, a.getSize().get().longValue());
+			
+			// includes regions that span segments
+			for (int i = 0; i < n; i++) {
+				ByteSlice r = a.read(offsets[i].get(), data(i).size()).get();
+				Assert.assertEquals(data(i), r);
+			}
+			ByteSlice whole = a.read(0, (int) expectedOffset).get();
+			Assert.assertEquals(data(0).get(0), whole.get(0));
+			a.close().get();
+			
+			// reopen
+			AppendFileActor b = ag.create(AppendFileActor.class, props);
+			Assert.assertEquals(expectedOffset, b.getSize().get().longValue());
+			Assert.assertEquals(expectedOffset, b.append(data(7)).get().longValue());
+			Assert.assertEquals(data(n-1), b.read(offsets[n-1].get(), data(n-1).size()).get());
+			b.close().get();
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests reading outside of the file.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testReadOutside() throws Exception {
+		File f = File.createTempFile("appendtest", ".dat");
+		f.deleteOnExit();
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			AppendFileActor a = ag.create(AppendFileActor.class, new Props("fileName", f.getPath()));
+			a.append(ByteSlice.copyOf(new byte[10])).get();
+			AsyncResult<ByteSlice> r = a.read(5, 10);
+			r.await();
+			Assert.assertTrue(r.getException() instanceof IllegalArgumentException);
+			a.close().get();
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.ActorRuntimeException;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.ConfigurationException;
+import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.annotations.Durable;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.OneWay;
+import org.actorsguildframework.annotations.ThreadUsage;
+import org.actorsguildframework.annotations.Usage;
+import org.actorsguildframework.immutable.StringList;
+import org.actorsguildframework.internal.ActorState;
+import org.actorsguildframework.internal.MessageCaller;
+import org.actorsguildframework.internal.MessageJournal;
+import org.junit.Test;
+
+/**
+ * Unit tests for DurableMailbox.
+ */
+public class DurableMailboxTest {
+	
+	public static class OrderActor extends Actor {
+		static volatile CountDownLatch gate;
+		private final List<String> orders = new ArrayList<String>();
+		
+		@Message
+		@Usage(ThreadUsage.Waiting)
+		public AsyncResult<Void> waitForGate() throws InterruptedException {
+			gate.await();
+			return noResult();
+		}
+		
+		@Message
+		@Durable
+		@OneWay
+		public AsyncResult<Void> order(String item, int quantity, ArrayList<String> notes) {
+			orders.add(item+":"+quantity+":"+notes.size());
+			return noResult();
+		}
+		
+		@Message
+		@Durable
+		public AsyncResult<Void> reserve(String item) {
+			orders.add("reserved:"+item);
+			return noResult();
+		}
+		
+		@Message
+		public AsyncResult<StringList> getOrders() {
+			return result(new StringList(orders));
+		}
+	}
+	
+	public static class BadActor extends Actor {
+		@Message
+		@Durable
+		public AsyncResult<Void> send(OrderActor target) {
+			return noResult();
+		}
+	}
+	
+	/**
+	 * Creates a new, empty directory.
+	 * @return the directory
+	 * @throws Exception on error
+	 */
+	private static File createDirectory() throws Exception {
+		File d = File.createTempFile("durabletest", "");
+		d.delete();
+		d.mkdir();
+		d.deleteOnExit();
+		return d;
+	}
+	
+	/**
+	 * Counts the segment files in the directory.
+	 * @param d the directory
+	 * @return the number of segment files
+	 */
+	private static int countSegmentFiles(File d) {
+		int n = 0;
+		for (File f: d.listFiles())
+			if (f.getName().endsWith(SegmentLog.SEGMENT_SUFFIX))
+				n++;
+		return n;
+	}
+	
+	/**
+	 * Logs invocations that are never acknowledged (as if the JVM died) and replays them.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testReplay() throws Exception {
+		File dir = createDirectory();
+		ArrayList<String> notes = new ArrayList<String>();
+		notes.add("gift");
+		
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			OrderActor.gate = new CountDownLatch(1);
+			DurableMailbox mailbox = new DurableMailbox(dir);
+			OrderActor a = ag.create(OrderActor.class);
+			Assert.assertEquals(0, mailbox.attach(a));
+			a.waitForGate();
+			for (int i = 0; i < 3; i++)
+				a.order("item"+i, i, notes);
+			Assert.assertEquals(3, mailbox.getPendingCount());
+			mailbox.close(); // the actor has not processed the orders yet
+			OrderActor.gate.countDown();
+			Assert.assertEquals(3, a.getOrders().get().size());
+		}
+		finally {
+			ag.shutdown();
+		}
+		Assert.assertEquals(1, countSegmentFiles(dir));
+		
+		ag = new DefaultAgent();
+		try {
+			DurableMailbox mailbox = new DurableMailbox(dir);
+			Assert.assertEquals(3, mailbox.getPendingCount());
+			OrderActor a = ag.create(OrderActor.class);
+			Assert.assertEquals(3, mailbox.attach(a));
+			Assert.assertEquals(new StringList("item0:0:1", "item1:1:1", "item2:2:1"), a.getOrders().get());
+			Assert.assertEquals(0, mailbox.getPendingCount());
+			try {
+				mailbox.attach(a);
+				Assert.fail();
+			}
+			catch (IllegalStateException e) {
+				// expected
+			}
+			mailbox.close();
+		}
+		finally {
+			ag.shutdown();
+		}
+		Assert.assertEquals(0, countSegmentFiles(dir));
+		dir.delete();
+	}
+
+	/**
+	 * Sends enough invocations to fill many segments, with group commit.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testSegments() throws Exception {
+		File dir = createDirectory();
+		ArrayList<String> notes = new ArrayList<String>();
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			DurableMailbox mailbox = new DurableMailbox(dir, DurableMailbox.MIN_SEGMENT_SIZE, true);
+			OrderActor a = ag.create(OrderActor.class);
+			mailbox.attach(a);
+			int n = 2000;
+			for (int i = 0; i < n; i++)
+				a.order("some item with a long name "+i, i, notes);
+			Assert.assertEquals(n, a.getOrders().get().size());
+			Assert.assertEquals(0, mailbox.getPendingCount());
+			Assert.assertEquals(1, mailbox.getSegmentCount());
+			Assert.assertEquals(1, countSegmentFiles(dir));
+			mailbox.close();
+		}
+		finally {
+			ag.shutdown();
+		}
+		Assert.assertEquals(0, countSegmentFiles(dir));
+		dir.delete();
+	}
+	
+	/**
+	 * Cancels a queued invocation, which must be acknowledged and never be replayed.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testCancel() throws Exception {
+		File dir = createDirectory();
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			OrderActor.gate = new CountDownLatch(1);
+			DurableMailbox mailbox = new DurableMailbox(dir, DurableMailbox.MIN_SEGMENT_SIZE, false);
+			OrderActor a = ag.create(OrderActor.class);
+			mailbox.attach(a);
+			a.waitForGate();
+			AsyncResult<Void> cancelled = a.reserve("cancelled");
+			a.reserve("kept");
+			Assert.assertEquals(2, mailbox.getPendingCount());
+			Assert.assertTrue(cancelled.cancel());
+			Assert.assertEquals(1, mailbox.getPendingCount());
+			mailbox.close(); // "kept" has not been processed yet
+			OrderActor.gate.countDown();
+			Assert.assertEquals(new StringList("reserved:kept"), a.getOrders().get());
+		}
+		finally {
+			ag.shutdown();
+		}
+		
+		ag = new DefaultAgent();
+		try {
+			DurableMailbox mailbox = new DurableMailbox(dir, DurableMailbox.MIN_SEGMENT_SIZE, false);
+			Assert.assertEquals(1, mailbox.getPendingCount());
+			OrderActor a = ag.create(OrderActor.class);
+			Assert.assertEquals(1, mailbox.attach(a));
+			Assert.assertEquals(new StringList("reserved:kept"), a.getOrders().get());
+			mailbox.close();
+		}
+		finally {
+			ag.shutdown();
+		}
+		Assert.assertEquals(0, countSegmentFiles(dir));
+		dir.delete();
+	}
+	
+	/**
+	 * Checks that a message whose append failed does not keep a graceful shutdown waiting.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testFailedAppend() throws Exception {
+		DefaultAgent ag = new DefaultAgent();
+		OrderActor a = ag.create(OrderActor.class);
+		ActorState.getState(a).setJournal(new MessageJournal() {
+			public long append(MessageCaller<?> caller, Object[] arguments) {
+				throw new ActorRuntimeException("disk full");
+			}
+			public void acknowledge(long sequence) {
+			}
+			public void discard(long sequence) {
+			}
+		});
+		try {
+			a.reserve("item");
+			Assert.fail();
+		}
+		catch (ActorRuntimeException e) {
+			// expected
+		}
+		Assert.assertTrue(ag.shutdownGracefully(10, TimeUnit.SECONDS));
+	}
+	
+	/**
+	 * Checks that durable messages can not have actor arguments.
+	 */
+	@Test(expected=ConfigurationException.class)
+	public void testActorArgument() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			ag.create(BadActor.class);
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.ConfigurationException;
+import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.annotations.Event;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Prop;
+import org.actorsguildframework.annotations.ThreadUsage;
+import org.actorsguildframework.annotations.Usage;
+import org.actorsguildframework.immutable.StringList;
+import org.junit.Test;
+
+/**
+ * Unit tests for EventJournal.
+ */
+public class EventJournalTest {
+	
+	public static abstract class CounterActor extends Actor {
+		static volatile CountDownLatch gate;
+		
+		@Prop
+		public abstract int getTotal();
+		public abstract void setTotal(int total);
+		
+		@Prop
+		public abstract ArrayList<String> getHistory();
+		public abstract void setHistory(ArrayList<String> history);
+		
+		@Message
+		@Event
+		public AsyncResult<Void> add(int value) {
+			setTotal(getTotal() + value);
+			if (getHistory() == null)
+				setHistory(new ArrayList<String>());
+			getHistory().add("+"+value);
+			return noResult();
+		}
+		
+		@Message
+		@Usage(ThreadUsage.Waiting)
+		public AsyncResult<Void> waitForGate() throws InterruptedException {
+			gate.await();
+			return noResult();
+		}
+		
+		@Message
+		public AsyncResult<Integer> total() {
+			return result(getTotal());
+		}
+		
+		@Message
+		public AsyncResult<StringList> history() {
+			return result(new StringList(getHistory()));
+		}
+	}
+	
+	public static class BadActor extends Actor {
+		@Message
+		@Event
+		public AsyncResult<Void> send(CounterActor target) {
+			return noResult();
+		}
+	}
+	
+	/**
+	 * Creates a new, empty directory.
+	 * @return the directory
+	 * @throws Exception on error
+	 */
+	private static File createDirectory() throws Exception {
+		File d = File.createTempFile("eventtest", "");
+		d.delete();
+		d.mkdir();
+		d.deleteOnExit();
+		return d;
+	}
+	
+	/**
+	 * Logs events with snapshots, and recovers from the latest snapshot and the 
+	 * following events.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testRecovery() throws Exception {
+		File dir = createDirectory();
+		
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			EventJournal journal = new EventJournal(dir, EventJournal.MIN_SEGMENT_SIZE, false, 10);
+			CounterActor a = ag.create(CounterActor.class);
+			Assert.assertEquals(0, journal.attach(a));
+			for (int i = 1; i <= 25; i++)
+				a.add(i);
+			Assert.assertEquals(325, a.total().get().intValue());
+			journal.close(); // waits for the snapshot writer
+			Assert.assertEquals(20, journal.getLastSnapshotSequence());
+		}
+		finally {
+			ag.shutdown();
+		}
+		
+		int snapshots = 0;
+		for (File f: dir.listFiles())
+			if (f.getName().endsWith(".snap"))
+				snapshots++;
+		Assert.assertEquals(1, snapshots);
+		
+		ag = new DefaultAgent();
+		try {
+			EventJournal journal = new EventJournal(dir, EventJournal.MIN_SEGMENT_SIZE, false, 10);
+			Assert.assertEquals(20, journal.getLastSnapshotSequence());
+			CounterActor a = ag.create(CounterActor.class);
+			Assert.assertEquals(5, journal.attach(a));
+			Assert.assertEquals(325, a.total().get().intValue());
+			Assert.assertEquals(25, a.history().get().size());
+			Assert.assertEquals("+25", a.history().get().get(24));
+			
+			journal.requestSnapshot();
+			a.add(1000);
+			Assert.assertEquals(1325, a.total().get().intValue());
+			journal.close();
+			Assert.assertEquals(26, journal.getLastSnapshotSequence());
+		}
+		finally {
+			ag.shutdown();
+		}
+		
+		ag = new DefaultAgent();
+		try {
+			EventJournal journal = new EventJournal(dir, EventJournal.MIN_SEGMENT_SIZE, false, EventJournal.DEFAULT_SNAPSHOT_INTERVAL);
+			CounterActor a = ag.create(CounterActor.class);
+			Assert.assertEquals(0, journal.attach(a));
+			Assert.assertEquals(1325, a.total().get().intValue());
+			Assert.assertEquals(26, a.history().get().size());
+			journal.close();
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Cancels queued events. They must neither block snapshots nor be replayed.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testCancel() throws Exception {
+		File dir = createDirectory();
+		
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			EventJournal journal = new EventJournal(dir, EventJournal.MIN_SEGMENT_SIZE, false, 3);
+			CounterActor a = ag.create(CounterActor.class);
+			journal.attach(a);
+			a.add(1);
+			CounterActor.gate = new CountDownLatch(1);
+			a.waitForGate();
+			AsyncResult<Void> cancelled = a.add(100);
+			a.add(2);
+			a.add(3);
+			Assert.assertTrue(cancelled.cancel());
+			CounterActor.gate.countDown();
+			Assert.assertEquals(6, a.total().get().intValue());
+			
+			a.add(4);
+			CounterActor.gate = new CountDownLatch(1);
+			a.waitForGate();
+			cancelled = a.add(1000);
+			a.add(5);
+			Assert.assertTrue(cancelled.cancel());
+			CounterActor.gate.countDown();
+			Assert.assertEquals(15, a.total().get().intValue());
+			journal.close();
+			Assert.assertEquals(4, journal.getLastSnapshotSequence());
+		}
+		finally {
+			ag.shutdown();
+		}
+		
+		ag = new DefaultAgent();
+		try {
+			EventJournal journal = new EventJournal(dir, EventJournal.MIN_SEGMENT_SIZE, false, 3);
+			CounterActor a = ag.create(CounterActor.class);
+			Assert.assertEquals(2, journal.attach(a));
+			Assert.assertEquals(15, a.total().get().intValue());
+			journal.close();
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that event messages with arguments that can not be logged are rejected.
+	 * @throws Exception on error
+	 */
+	@Test(expected=ConfigurationException.class)
+	public void testActorArgument() throws Exception {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			ag.create(BadActor.class);
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+}
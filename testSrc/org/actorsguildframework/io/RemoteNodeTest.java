@@ -0,0 +1,252 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.io;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.ActorRuntimeException;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.WrappedException;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.OneWay;
+import org.actorsguildframework.immutable.StringList;
+import org.junit.Test;
+
+/**
+ * Unit tests for RemoteNode.
+ */
+public class RemoteNodeTest {
+	
+	public static class Point implements Serializable {
+		private static final long serialVersionUID = 1L;
+		public int x, y;
+		
+		public Point(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+	
+	public static class CalculatorActor extends Actor {
+		private final List<String> log = new ArrayList<String>();
+		
+		@Message
+		public AsyncResult<Integer> add(int a, int b) {
+			return result(a + b);
+		}
+		
+		@Message
+		public AsyncResult<String> join(ArrayList<String> parts, String separator) {
+			StringBuilder sb = new StringBuilder();
+			for (String s: parts) {
+				if (sb.length() > 0)
+					sb.append(separator);
+				sb.append(s);
+			}
+			return result(sb.toString());
+		}
+		
+		@Message
+		public AsyncResult<Integer> count(ArrayList<Object> items) {
+			return result(items.size());
+		}
+		
+		@Message
+		@OneWay
+		public AsyncResult<Void> record(String entry) {
+			log.add(entry);
+			return noResult();
+		}
+		
+		@Message
+		public AsyncResult<StringList> getLog() {
+			return result(new StringList(log));
+		}
+		
+		@Message
+		public AsyncResult<Void> fail(String reason) {
+			throw new IllegalStateException(reason);
+		}
+	}
+	
+	public static class OtherActor extends Actor {
+		@Message
+		public AsyncResult<Void> nothing() {
+			return noResult();
+		}
+	}
+
+	/**
+	 * Sends messages between two agents, each with its own node.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testMessages() throws Exception {
+		DefaultAgent serverAgent = new DefaultAgent();
+		DefaultAgent clientAgent = new DefaultAgent();
+		RemoteNode server = new RemoteNode(serverAgent);
+		RemoteNode client = new RemoteNode(clientAgent);
+		try {
+			server.register("calc", serverAgent.create(CalculatorActor.class));
+			CalculatorActor calc = client.lookup(CalculatorActor.class, server.getAddress(), "calc");
+			Assert.assertEquals(5, calc.add(2, 3).get().intValue());
+			
+			ArrayList<String> parts = new ArrayList<String>();
+			parts.add("a");
+			parts.add("\u00e4");
+			parts.add(null);
+			Assert.assertEquals("a-\u00e4-null", calc.join(parts, "-").get());
+			
+			// pipelined
+			List<AsyncResult<Integer>> results = new ArrayList<AsyncResult<Integer>>();
+			for (int i = 0; i < 1000; i++) {
+				calc.record("entry"+i);
+				results.add(calc.add(i, i));
+			}
+			for (int i = 0; i < 1000; i++)
+				Assert.assertEquals(2*i, results.get(i).get().intValue());
+			StringList log = calc.getLog().get();
+			Assert.assertEquals(1000, log.size());
+			Assert.assertEquals("entry999", log.get(999));
+			
+			try {
+				calc.fail("broken").get();
+				Assert.fail();
+			}
+			catch (WrappedException e) {
+				Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+				Assert.assertEquals("broken", e.getCause().getMessage());
+			}
+			
+			CalculatorActor calc2 = client.lookup(CalculatorActor.class, server.getAddress(), "calc");
+			Assert.assertEquals(1000, calc2.getLog().get().size());
+			Assert.assertEquals(1, client.getConnectionCount());
+			Assert.assertEquals(1, server.getConnectionCount());
+		}
+		finally {
+			client.close();
+			server.close();
+			clientAgent.shutdown();
+			serverAgent.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests lookups of unknown actors, and messages after the connection has been closed.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testErrors() throws Exception {
+		DefaultAgent agent = new DefaultAgent();
+		RemoteNode server = new RemoteNode(agent);
+		RemoteNode client = new RemoteNode(agent);
+		try {
+			server.register("calc", agent.create(CalculatorActor.class));
+			try {
+				server.register("calc", agent.create(CalculatorActor.class));
+				Assert.fail();
+			}
+			catch (IllegalArgumentException e) {
+				// expected
+			}
+			try {
+				client.lookup(CalculatorActor.class, server.getAddress(), "unknown");
+				Assert.fail();
+			}
+			catch (ActorRuntimeException e) {
+				// expected
+			}
+			try {
+				client.lookup(OtherActor.class, server.getAddress(), "calc");
+				Assert.fail();
+			}
+			catch (ActorRuntimeException e) {
+				// expected
+			}
+			
+			CalculatorActor calc = client.lookup(CalculatorActor.class, server.getAddress(), "calc");
+			Assert.assertEquals(3, calc.add(1, 2).get().intValue());
+			Assert.assertTrue(server.unregister("calc"));
+			Assert.assertFalse(server.unregister("calc"));
+			try {
+				calc.add(1, 2).get();
+				Assert.fail();
+			}
+			catch (WrappedException e) {
+				Assert.assertTrue(e.getCause() instanceof ActorRuntimeException);
+			}
+			
+			server.close();
+			while (client.getConnectionCount() > 0)
+				Thread.sleep(10);
+			try {
+				calc.add(1, 2);
+				Assert.fail();
+			}
+			catch (ActorRuntimeException e) {
+				// expected
+			}
+		}
+		finally {
+			client.close();
+			server.close();
+			agent.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that classes which have not been allowed are not deserialized.
+	 * @throws Exception on error
+	 */
+	@Test
+	public void testAllowList() throws Exception {
+		DefaultAgent agent = new DefaultAgent();
+		RemoteNode server = new RemoteNode(agent);
+		RemoteNode client = new RemoteNode(agent);
+		try {
+			server.register("calc", agent.create(CalculatorActor.class));
+			CalculatorActor calc = client.lookup(CalculatorActor.class, server.getAddress(), "calc");
+			
+			ArrayList<Object> items = new ArrayList<Object>();
+			items.add("a");
+			items.add(Integer.valueOf(1));
+			Assert.assertEquals(2, calc.count(items).get().intValue());
+			
+			items.add(new Point(1, 2));
+			try {
+				calc.count(items).get();
+				Assert.fail();
+			}
+			catch (WrappedException e) {
+				Assert.assertTrue(e.getCause() instanceof ActorRuntimeException);
+			}
+			
+			server.allowClass(Point.class);
+			Assert.assertEquals(3, calc.count(items).get().intValue());
+		}
+		finally {
+			client.close();
+			server.close();
+			agent.shutdown();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.metrics;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for HistogramSnapshot.
+ */
+public class HistogramSnapshotTest {
+	/**
+	 * Tests the bucket calculation.
+	 */
+	@Test
+	public void testBuckets() {
+		Assert.assertEquals(0, HistogramSnapshot.getBucket(-5));
+		Assert.assertEquals(0, HistogramSnapshot.getBucket(0));
+		Assert.assertEquals(1, HistogramSnapshot.getBucket(1));
+		Assert.assertEquals(2, HistogramSnapshot.getBucket(2));
+		Assert.assertEquals(2, HistogramSnapshot.getBucket(3));
+		Assert.assertEquals(3, HistogramSnapshot.getBucket(4));
+		Assert.assertEquals(63, HistogramSnapshot.getBucket(Long.MAX_VALUE));
+		Assert.assertEquals(3, HistogramSnapshot.getBucketUpperBound(2));
+		Assert.assertEquals(0, HistogramSnapshot.getBucketUpperBound(0));
+	}
+	
+	/**
+	 * Tests percentiles and mean.
+	 */
+	@Test
+	public void testPercentiles() {
+		long[] counts = new long[HistogramSnapshot.BUCKETS];
+		counts[HistogramSnapshot.getBucket(10)] = 90;
+		counts[HistogramSnapshot.getBucket(1000)] = 10;
+		HistogramSnapshot s = new HistogramSnapshot(counts, 90*10 + 10*1000);
+		Assert.assertEquals(100, s.getCount());
+		Assert.assertEquals(109.0, s.getMean(), 0.001);
+		Assert.assertEquals(15, s.getPercentile(50));
+		Assert.assertEquals(15, s.getPercentile(90));
+		Assert.assertEquals(1023, s.getPercentile(99));
+		
+		HistogramSnapshot empty = new HistogramSnapshot(new long[HistogramSnapshot.BUCKETS], 0);
+		Assert.assertEquals(0, empty.getPercentile(99));
+		Assert.assertEquals(0.0, empty.getMean(), 0.0);
+	}
+}
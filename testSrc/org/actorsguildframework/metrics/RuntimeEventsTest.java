@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.Agent;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.immutable.SerializableFreezer;
+import org.junit.Test;
+
+/**
+ * Unit tests for RuntimeEvents.
+ */
+public class RuntimeEventsTest {
+	/**
+	 * Simple test actor.
+	 */
+	public static class MyActor extends Actor {
+		/**
+		 * Returns the argument.
+		 * @param i a number
+		 * @return the number
+		 */
+		@Message
+		public AsyncResult<Integer> echo(int i) {
+			return result(i);
+		}
+	}
+	
+	/**
+	 * Listener that records the events it received.
+	 */
+	static class RecordingListener extends RuntimeEventAdapter {
+		/**
+		 * The names of all executed messages.
+		 */
+		final List<String> messages = new ArrayList<String>();
+		
+		/**
+		 * The number of spawned threads.
+		 */
+		int threadsSpawned;
+		
+		/**
+		 * The sizes of all frozen objects.
+		 */
+		final List<Integer> frozenSizes = new ArrayList<Integer>();
+		
+		@Override
+		public synchronized void messageExecuted(Agent agent, Class<?> actorClass, String messageName, long queueNanos, long runNanos) {
+			Assert.assertEquals(MyActor.class, actorClass);
+			Assert.assertTrue(runNanos >= 0);
+			messages.add(messageName);
+		}
+		
+		@Override
+		public synchronized void workerThreadsSpawned(Agent agent, int count, int workerThreads) {
+			Assert.assertTrue(count > 0);
+			Assert.assertTrue(workerThreads >= count);
+			threadsSpawned += count;
+		}
+		
+		@Override
+		public synchronized void frozen(Class<?> objectClass, int bytes, long nanos) {
+			if (objectClass == StringBuilder.class)
+				frozenSizes.add(bytes);
+		}
+	}
+	
+	/**
+	 * Tests receiving events.
+	 */
+	@Test
+	public void testEvents() {
+		RecordingListener l = new RecordingListener();
+		RuntimeEvents.addListener(l);
+		DefaultAgent a = new DefaultAgent();
+		try {
+			MyActor ma = a.create(MyActor.class);
+			Assert.assertEquals(5, ma.echo(5).get().intValue());
+			SerializableFreezer.freeze(new StringBuilder("test"));
+		}
+		finally {
+			RuntimeEvents.removeListener(l);
+			a.shutdown();
+		}
+		
+		synchronized (l) {
+			Assert.assertTrue(l.messages.contains("echo"));
+			Assert.assertEquals(1, l.frozenSizes.size());
+			Assert.assertTrue(l.frozenSizes.get(0) > 0);
+		}
+	}
+
+	/**
+	 * Tests that removed listeners do not receive events anymore.
+	 */
+	@Test
+	public void testRemoveListener() {
+		RecordingListener l = new RecordingListener();
+		RuntimeEvents.addListener(l);
+		RuntimeEvents.removeListener(l);
+		DefaultAgent a = new DefaultAgent();
+		try {
+			MyActor ma = a.create(MyActor.class);
+			ma.echo(1).await();
+		}
+		finally {
+			a.shutdown();
+		}
+		synchronized (l) {
+			Assert.assertEquals(0, l.messages.size());
+			Assert.assertEquals(0, l.threadsSpawned);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ *    Copyright 2009 Tim Jansen
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.actorsguildframework.streams;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.actorsguildframework.Actor;
+import org.actorsguildframework.AsyncResult;
+import org.actorsguildframework.DefaultAgent;
+import org.actorsguildframework.annotations.Message;
+import org.actorsguildframework.annotations.Shared;
+import org.actorsguildframework.immutable.ImmutableList;
+import org.junit.Test;
+
+/**
+ * Unit tests for StreamPublisher and StreamSubscriber.
+ */
+public class StreamTest {
+	/**
+	 * Subscriber that requests a fixed number of items at a time and sums them up.
+	 */
+	public static class SumActor extends Actor implements StreamSubscriber<Integer> {
+		private StreamSubscription subscription;
+		private int requestSize = 4;
+		private int received;
+		private int outstanding;
+		private long sum;
+		private int next;
+		private boolean ordered = true;
+		private boolean exceeded;
+		private boolean completed;
+		private Throwable error;
+
+		@Message
+		public AsyncResult<Void> onSubscribe(@Shared StreamSubscription subscription) {
+			this.subscription = subscription;
+			outstanding = requestSize;
+			subscription.request(requestSize);
+			return noResult();
+		}
+
+		@Message
+		public AsyncResult<Void> onNext(ImmutableList<Integer> items) {
+			if (items.size() > outstanding)
+				exceeded = true;
+			outstanding -= items.size();
+			for (Integer i: items) {
+				if (i.intValue() != next)
+					ordered = false;
+				next++;
+				sum += i;
+				received++;
+			}
+			if (outstanding == 0) {
+				outstanding = requestSize;
+				subscription.request(requestSize);
+			}
+			return noResult();
+		}
+
+		@Message
+		public AsyncResult<Void> onError(Throwable error) {
+			this.error = error;
+			return noResult();
+		}
+
+		@Message
+		public AsyncResult<Void> onComplete() {
+			completed = true;
+			return noResult();
+		}
+		
+		/**
+		 * Cancels the subscription.
+		 * @return nothing
+		 */
+		@Message
+		public AsyncResult<Void> cancel() {
+			subscription.cancel();
+			return noResult();
+		}
+		
+		/**
+		 * Returns a summary of the received stream.
+		 * @return "received/sum/ordered/exceeded/completed/error"
+		 */
+		@Message
+		public AsyncResult<String> getSummary() {
+			return result(received+"/"+sum+"/"+ordered+"/"+exceeded+"/"+completed+"/"+
+					(error == null ? null : error.getMessage()));
+		}
+	}
+	
+	/**
+	 * Offers the given items, waiting for capacity when needed.
+	 * @param p the publisher
+	 * @param from the first item
+	 * @param to the item after the last
+	 */
+	private static void produce(StreamPublisher<Integer> p, int from, int to) {
+		for (int i = from; i < to; i++)
+			while (!p.offer(i))
+				Assert.assertTrue(p.awaitCapacity().await(10, TimeUnit.SECONDS));
+	}
+	
+	/**
+	 * Tests a stream with two subscribers.
+	 */
+	@Test
+	public void testStream() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			SumActor a = ag.create(SumActor.class);
+			SumActor b = ag.create(SumActor.class);
+			StreamPublisher<Integer> p = new StreamPublisher<Integer>(16);
+			p.subscribe(a);
+			p.subscribe(b);
+			Assert.assertEquals(2, p.getSubscriberCount());
+			produce(p, 0, 10000);
+			p.close();
+			
+			long start = System.nanoTime();
+			while ((p.getSubscriberCount() > 0) && (System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)))
+				Thread.yield();
+			Assert.assertEquals("10000/49995000/true/false/true/null", a.getSummary().get());
+			Assert.assertEquals("10000/49995000/true/false/true/null", b.getSummary().get());
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests that the publisher stops accepting items if the subscriber does not request them.
+	 */
+	@Test
+	public void testBackpressure() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			SumActor a = ag.create(SumActor.class);
+			StreamPublisher<Integer> p = new StreamPublisher<Integer>(8);
+			p.subscribe(a);
+			a.cancel().await();
+			Assert.assertEquals(0, p.getSubscriberCount());
+			Assert.assertTrue(p.offer(1)); // no subscribers: dropped
+			
+			StreamPublisher<Integer> p2 = new StreamPublisher<Integer>(8);
+			StreamSubscription s = p2.subscribe(new StreamSubscriber<Integer>() {
+				public AsyncResult<Void> onSubscribe(StreamSubscription subscription) {
+					return null;
+				}
+				public AsyncResult<Void> onNext(ImmutableList<Integer> items) {
+					Assert.fail();
+					return null;
+				}
+				public AsyncResult<Void> onError(Throwable error) {
+					return null;
+				}
+				public AsyncResult<Void> onComplete() {
+					return null;
+				}
+			});
+			for (int i = 0; i < 8; i++)
+				Assert.assertTrue(p2.offer(i));
+			Assert.assertFalse(p2.offer(8));
+			AsyncResult<Void> capacity = p2.awaitCapacity();
+			Assert.assertFalse(capacity.isReady());
+			s.cancel();
+			Assert.assertTrue(capacity.isReady());
+			Assert.assertTrue(p2.offer(8));
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+	
+	/**
+	 * Tests closing the publisher with an error.
+	 */
+	@Test
+	public void testError() {
+		DefaultAgent ag = new DefaultAgent();
+		try {
+			SumActor a = ag.create(SumActor.class);
+			StreamPublisher<Integer> p = new StreamPublisher<Integer>(8);
+			p.subscribe(a);
+			p.closeExceptionally(new IllegalStateException("failed"));
+			Assert.assertEquals("0/0/true/false/false/failed", a.getSummary().get());
+			try {
+				p.offer(1);
+				Assert.fail();
+			}
+			catch (IllegalStateException e) {
+				// expected
+			}
+		}
+		finally {
+			ag.shutdown();
+		}
+	}
+}